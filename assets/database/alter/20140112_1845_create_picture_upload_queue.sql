@@ -0,0 +1,18 @@
+create table if not exists picture_upload_queue (
+	_id integer primary key autoincrement,
+	file_name text not null,
+	content_hash text,
+	file_size long not null default 0,
+	session_uri text,
+	uploaded_bytes long not null default 0,
+	blob_key text,
+	file_url text,
+	thumbnail_url text,
+	status text not null default 'PENDING',
+	attempts integer not null default 0,
+	updated_on long not null default 0
+);
+
+create unique index if not exists picture_upload_queue_file_idx ON picture_upload_queue (file_name);
+
+create index if not exists picture_upload_queue_hash_idx ON picture_upload_queue (content_hash);
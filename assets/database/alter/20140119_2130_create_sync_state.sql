@@ -0,0 +1,10 @@
+create table if not exists sync_state (
+	table_name text not null,
+	local_id long not null,
+	clock text,
+	base text,
+	needs_push integer not null default 0,
+	primary key (table_name, local_id)
+);
+
+create index if not exists sync_state_push_idx ON sync_state (table_name, needs_push);
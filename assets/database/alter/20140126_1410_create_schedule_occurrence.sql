@@ -0,0 +1,15 @@
+create table if not exists schedule_index (
+	transaction_id long not null primary key,
+	recurrence text,
+	datetime long not null,
+	indexed_from long not null,
+	indexed_until long not null
+);
+
+create table if not exists schedule_occurrence (
+	transaction_id long not null,
+	datetime long not null,
+	primary key (transaction_id, datetime)
+);
+
+create index if not exists schedule_occurrence_datetime_idx ON schedule_occurrence (datetime);
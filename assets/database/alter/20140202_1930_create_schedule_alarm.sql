@@ -0,0 +1,6 @@
+create table if not exists schedule_alarm (
+	transaction_id long not null primary key,
+	fire_time long not null
+);
+
+create index if not exists schedule_alarm_fire_time_idx ON schedule_alarm (fire_time);
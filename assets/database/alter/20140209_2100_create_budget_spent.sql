@@ -0,0 +1,6 @@
+create table if not exists budget_spent (
+	budget_id long not null primary key,
+	spent long not null
+);
+
+create index if not exists budget_dates_idx ON budget (start_date, end_date);
@@ -0,0 +1,19 @@
+alter table category add column parent_id long not null default 0;
+
+update category set parent_id = ifnull((select s._id from category s where s._id > 0 and s.left < category.left and s.right > category.right order by s.left desc limit 1), 0) where _id > 0;
+
+create index if not exists category_parent_idx ON category (parent_id);
+
+create table if not exists category_closure (
+	ancestor_id long not null,
+	descendant_id long not null,
+	depth integer not null,
+	primary key (ancestor_id, descendant_id)
+);
+
+create index if not exists category_closure_descendant_idx ON category_closure (descendant_id, depth);
+
+insert into category_closure (ancestor_id, descendant_id, depth)
+select a._id, d._id, (select count(*) from category m where m._id > 0 and m.left > a.left and m.left <= d.left and m.right >= d.right)
+from category a, category d
+where a._id > 0 and d._id > 0 and d.left between a.left and a.right;
@@ -0,0 +1,25 @@
+create table if not exists search_text (
+	_id integer primary key autoincrement,
+	type integer not null,
+	entity_id long not null,
+	text text not null,
+	normalized text not null
+);
+
+create index if not exists search_text_entity_idx ON search_text (type, entity_id);
+
+create index if not exists search_text_normalized_idx ON search_text (type, normalized);
+
+create table if not exists search_trigram (
+	type integer not null,
+	trigram text not null,
+	text_id long not null,
+	primary key (type, trigram, text_id)
+);
+
+create index if not exists search_trigram_text_idx ON search_trigram (text_id);
+
+create table if not exists search_state (
+	type integer not null primary key,
+	built_on long not null
+);
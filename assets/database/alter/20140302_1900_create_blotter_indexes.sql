@@ -0,0 +1,7 @@
+create index if not exists transaction_blotter_idx ON transactions (parent_id, is_template, datetime);
+create index if not exists transaction_from_act_dt_idx ON transactions (from_account_id, datetime);
+create index if not exists transaction_category_dt_idx ON transactions (category_id, datetime);
+create index if not exists transaction_payee_dt_idx ON transactions (payee_id, datetime);
+create index if not exists transaction_project_dt_idx ON transactions (project_id, datetime);
+drop index if exists transaction_pid_idx;
+drop index if exists transaction_from_act_idx;
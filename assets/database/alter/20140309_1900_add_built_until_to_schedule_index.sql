@@ -0,0 +1 @@
+alter table schedule_index add column built_until long not null default 0;
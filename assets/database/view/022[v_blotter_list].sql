@@ -0,0 +1,31 @@
+CREATE VIEW v_blotter_list AS 
+SELECT
+	t._id as _id,
+	t.parent_id as parent_id,
+	t.from_account_id as from_account_id,
+	a1.currency_id as from_account_currency_id,
+	t.to_account_id as to_account_id,
+	t.category_id as category_id,
+	cat.left as category_left,
+	cat.right as category_right,
+	t.project_id as project_id,
+	t.location_id as location_id,
+	t.payee_id as payee_id,
+	t.note as note,
+	t.from_amount as from_amount,
+	t.to_amount as to_amount,
+	t.datetime as datetime,
+	t.original_currency_id as original_currency_id,
+	t.original_from_amount as original_from_amount,
+	t.is_template as is_template,
+	t.status as status,
+	frb.balance as from_account_balance,
+	trb.balance as to_account_balance,
+	t.to_account_id as is_transfer
+FROM 
+	transactions as t	
+	INNER JOIN account as a1 ON a1._id=t.from_account_id
+	INNER JOIN category as cat ON cat._id=t.category_id
+	LEFT OUTER JOIN running_balance as frb ON frb.transaction_id = t._id AND frb.account_id=t.from_account_id
+	LEFT OUTER JOIN running_balance as trb ON trb.transaction_id = t._id AND trb.account_id=t.to_account_id
+WHERE t.is_template = 0 AND t.parent_id=0;
@@ -8,10 +8,9 @@ SELECT
 	node.last_location_id as last_location_id,
 	node.last_project_id as last_project_id,
 	node.sort_order as sort_order,
-	count(parent._id)-1 as level
+	node.parent_id as parent_id,
+	(SELECT count(*) FROM category_closure cc WHERE cc.descendant_id = node._id) as level
 FROM
-	category as node,
-	category as parent
-WHERE node.left BETWEEN parent.left AND parent.right
-GROUP BY node._id ORDER BY node.left;
+	category as node
+ORDER BY node.left;
 	
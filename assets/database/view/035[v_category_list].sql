@@ -10,9 +10,6 @@ SELECT
 	P.left as left,
 	P.right as right,
 	P.type as type
-FROM category AS B, category AS P
-WHERE P.left BETWEEN B.left AND B.right
-AND B._id = (SELECT MAX(S._id)
-FROM category AS S
-WHERE S.left < P.left
-AND S.right > P.right);
+FROM category AS P
+INNER JOIN category AS B ON B._id = P.parent_id
+WHERE P._id > 0;
@@ -21,5 +21,6 @@ select
        t.payee_id as payee_id,
        t.status as status
 from v_category_list c
-inner join v_blotter_for_account_with_splits t on t.category_left between c.left and c.right
+inner join category_closure cc on cc.ancestor_id = c._id
+inner join v_blotter_for_account_with_splits t on t.category_id = cc.descendant_id
 where c._id > 0 and from_account_is_include_into_totals=1;
@@ -88,7 +88,7 @@ public abstract class AbstractTotalsDetailsActivity extends AbstractActivity {
             Total[] totals = getTotals();
             Total totalInHomeCurrency = getTotalInHomeCurrency();
             Currency homeCurrency = totalInHomeCurrency.currency;
-            ExchangeRateProvider rates = db.getLatestRates();
+            ExchangeRateProvider rates = getRates();
             List<TotalInfo> result = new ArrayList<TotalInfo>();
             for (Total total : totals) {
                 ExchangeRate rate = rates.getRate(total.currency, homeCurrency);
@@ -150,6 +150,10 @@ public abstract class AbstractTotalsDetailsActivity extends AbstractActivity {
 
     protected abstract Total[] getTotals();
 
+    protected ExchangeRateProvider getRates() {
+        return db.getLatestRates();
+    }
+
     protected void prepareInBackground() { }
 
     private static class TotalInfo {
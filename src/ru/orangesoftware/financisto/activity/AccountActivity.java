@@ -220,6 +220,7 @@ public class AccountActivity extends AbstractActivity {
 					t.fromAmount = amount;
 					db.insertOrUpdate(t, null);
 				}
+				AccountWidget.updateWidgets(AccountActivity.this);
 				Intent intent = new Intent();
 				intent.putExtra(ACCOUNT_ID_EXTRA, accountId);
 				setResult(RESULT_OK, intent);
@@ -122,10 +122,6 @@ public class AccountListActivity extends AbstractListActivity {
     private AccountTotalsCalculationTask totalCalculationTask;
 
 	private void calculateTotals() {
-		if (totalCalculationTask != null) {
-			totalCalculationTask.stop();
-			totalCalculationTask.cancel(true);
-		}		
 		TextView totalText = (TextView)findViewById(R.id.total);
         totalText.setOnClickListener(new View.OnClickListener() {
             @Override
@@ -137,6 +133,14 @@ public class AccountListActivity extends AbstractListActivity {
 		totalCalculationTask.execute();
 	}
 
+    @Override
+    protected void onDestroy() {
+        if (totalCalculationTask != null) {
+            totalCalculationTask.stop();
+        }
+        super.onDestroy();
+    }
+
     private void showTotals() {
         Intent intent = new Intent(this, AccountListTotalsDetailsActivity.class);
         startActivityForResult(intent, -1);
@@ -145,7 +149,12 @@ public class AccountListActivity extends AbstractListActivity {
 	public class AccountTotalsCalculationTask extends TotalCalculationTask {
 
         public AccountTotalsCalculationTask(Context context, TextView totalText) {
-            super(context, totalText);
+            super(context, AccountListActivity.this.db, totalText);
+        }
+
+        @Override
+        protected String getCacheKey() {
+            return "accounts";
         }
 
         @Override
@@ -207,6 +216,7 @@ public class AccountListActivity extends AbstractListActivity {
 				a.isActive = !a.isActive;
 				em.saveAccount(a);
 				recreateCursor();
+				AccountWidget.updateWidgets(this);
 				return true;
 			} 			
 		}
@@ -240,6 +250,7 @@ public class AccountListActivity extends AbstractListActivity {
 				public void onClick(DialogInterface arg0, int arg1) {
 					db.deleteAccount(id);
 					recreateCursor();
+					AccountWidget.updateWidgets(AccountListActivity.this);
 				}
 			})
 			.setNegativeButton(R.string.no, null)
@@ -9,7 +9,9 @@
 package ru.orangesoftware.financisto.activity;
 
 import ru.orangesoftware.financisto.R;
+import ru.orangesoftware.financisto.db.AccountSummary;
 import ru.orangesoftware.financisto.model.Total;
+import ru.orangesoftware.financisto.rates.ExchangeRateProvider;
 
 /**
  * Created by IntelliJ IDEA.
@@ -22,12 +24,24 @@ public class AccountListTotalsDetailsActivity extends AbstractTotalsDetailsActiv
         super(R.string.account_total_in_currency);
     }
 
+    private AccountSummary summary;
+
+    @Override
+    protected void prepareInBackground() {
+        summary = db.getAccountSummary();
+    }
+
     protected Total getTotalInHomeCurrency() {
-        return db.getAccountsTotalInHomeCurrency();
+        return summary.getTotalInHomeCurrency();
     }
 
     protected Total[] getTotals() {
-        return db.getAccountsTotal();
+        return summary.getTotals();
+    }
+
+    @Override
+    protected ExchangeRateProvider getRates() {
+        return summary.getRates();
     }
 
 }
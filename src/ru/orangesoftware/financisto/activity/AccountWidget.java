@@ -15,20 +15,18 @@ import android.appwidget.AppWidgetManager;
 import android.appwidget.AppWidgetProvider;
 import android.appwidget.AppWidgetProviderInfo;
 import android.content.*;
-import android.database.Cursor;
 import android.graphics.Color;
 import android.net.Uri;
 import android.util.Log;
 import android.widget.RemoteViews;
 import ru.orangesoftware.financisto.R;
 import ru.orangesoftware.financisto.db.DatabaseAdapter;
-import ru.orangesoftware.financisto.db.MyEntityManager;
-import ru.orangesoftware.financisto.model.Account;
 import ru.orangesoftware.financisto.model.AccountType;
 import ru.orangesoftware.financisto.model.CardIssuer;
+import ru.orangesoftware.financisto.utils.CancellationSignal;
+import ru.orangesoftware.financisto.utils.ComputationExecutor;
 import ru.orangesoftware.financisto.utils.MyPreferences;
 import ru.orangesoftware.financisto.utils.Utils;
-import ru.orangesoftware.orb.EntityManager;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -38,6 +36,8 @@ import static android.appwidget.AppWidgetManager.INVALID_APPWIDGET_ID;
 
 public class AccountWidget extends AppWidgetProvider {
 
+    private static final String SNAPSHOT_KEY = "AccountWidget/snapshot";
+
     private static final Uri CONTENT_URI = Uri.parse("content://ru.orangesoftware.financisto/accountwidget");
 
     private static final String WIDGET_UPDATE_ACTION = "ru.orangesoftware.financisto.UPDATE_WIDGET";
@@ -46,7 +46,25 @@ public class AccountWidget extends AppWidgetProvider {
 
     public static final String WIDGET_ID = "widgetId";
 
+    /**
+     * Writes a new snapshot in background after balances have changed, then updates all the widgets from it
+     */
     public static void updateWidgets(Context context) {
+        final Context appContext = context.getApplicationContext();
+        ComputationExecutor.getInstance().submit(SNAPSHOT_KEY, null, 0, new ComputationExecutor.Computation<AccountWidgetSnapshot>() {
+            @Override
+            public AccountWidgetSnapshot compute(CancellationSignal signal) {
+                return writeSnapshot(appContext);
+            }
+        }, new ComputationExecutor.Callback<AccountWidgetSnapshot>() {
+            @Override
+            public void onResult(AccountWidgetSnapshot snapshot) {
+                updateAllWidgets(appContext, snapshot);
+            }
+        });
+    }
+
+    private static void updateAllWidgets(Context context, AccountWidgetSnapshot snapshot) {
         Class[] allWidgetProviders = new Class[]{AccountWidget.class, AccountWidget3x1.class, AccountWidget4x1.class};
         List<Integer> allWidgetIds = new ArrayList<Integer>();
         AppWidgetManager manager = AppWidgetManager.getInstance(context);
@@ -61,7 +79,7 @@ public class AccountWidget extends AppWidgetProvider {
         for (int i=0; i<ids.length; i++) {
             ids[i] = allWidgetIds.get(i);
         }
-        updateWidgets(context, manager, ids, false);
+        updateWidgets(context, manager, ids, snapshot, false);
     }
 
     @Override
@@ -72,7 +90,7 @@ public class AccountWidget extends AppWidgetProvider {
             int widgetId = intent.getIntExtra(WIDGET_ID, INVALID_APPWIDGET_ID);
             if (widgetId != INVALID_APPWIDGET_ID) {
                 AppWidgetManager manager = AppWidgetManager.getInstance(context);
-                updateWidgets(context, manager, new int[]{widgetId}, true);
+                updateWidgets(context, manager, new int[]{widgetId}, readSnapshot(context), true);
             }
         } else {
             super.onReceive(context, intent);
@@ -81,10 +99,11 @@ public class AccountWidget extends AppWidgetProvider {
 
     @Override
     public void onUpdate(Context context, AppWidgetManager manager, int[] appWidgetIds) {
-        updateWidgets(context, manager, appWidgetIds, false);
+        updateWidgets(context, manager, appWidgetIds, readSnapshot(context), false);
     }
 
-    private static void updateWidgets(Context context, AppWidgetManager manager, int[] appWidgetIds, boolean nextAccount) {
+    private static void updateWidgets(Context context, AppWidgetManager manager, int[] appWidgetIds,
+                                      AccountWidgetSnapshot snapshot, boolean nextAccount) {
         Log.d("FinancistoWidget", "updateWidgets " + Arrays.toString(appWidgetIds) + " -> " + nextAccount);
         for (int id : appWidgetIds) {
             AppWidgetProviderInfo appWidgetInfo = manager.getAppWidgetInfo(id);
@@ -94,9 +113,14 @@ public class AccountWidget extends AppWidgetProvider {
                     long accountId = loadAccountForWidget(context, id);
                     Class providerClass = getProviderClass(appWidgetInfo);
                     Log.d("FinancistoWidget", "using provider " + providerClass);
-                    RemoteViews remoteViews = nextAccount || accountId == -1
-                            ? buildUpdateForNextAccount(context, id, layoutId, providerClass, accountId)
-                            : buildUpdateForCurrentAccount(context, id, layoutId, providerClass, accountId);
+                    RemoteViews remoteViews;
+                    if (snapshot == null) {
+                        remoteViews = errorUpdate(context);
+                    } else if (nextAccount || accountId == -1) {
+                        remoteViews = buildUpdateForNextAccount(context, id, layoutId, providerClass, snapshot, accountId);
+                    } else {
+                        remoteViews = buildUpdateForCurrentAccount(context, id, layoutId, providerClass, snapshot, accountId);
+                    }
                     manager.updateAppWidget(id, remoteViews);
                 } else {
                     manager.updateAppWidget(id, noDataUpdate(context, layoutId));
@@ -125,7 +149,30 @@ public class AccountWidget extends AppWidgetProvider {
         prefs.commit();
     }
 
-    private static RemoteViews updateWidgetFromAccount(Context context, int widgetId, int layoutId, Class providerClass, Account a) {
+    /**
+     * Widget broadcasts are answered from the last snapshot, the database is opened only if there is none yet
+     */
+    private static AccountWidgetSnapshot readSnapshot(Context context) {
+        AccountWidgetSnapshot snapshot = AccountWidgetSnapshot.read(context);
+        return snapshot != null ? snapshot : writeSnapshot(context);
+    }
+
+    private static AccountWidgetSnapshot writeSnapshot(Context context) {
+        DatabaseAdapter db = new DatabaseAdapter(context);
+        db.open();
+        try {
+            AccountWidgetSnapshot snapshot = AccountWidgetSnapshot.fromAccounts(db.getAccountSummary().getActiveAccounts());
+            snapshot.write(context);
+            return snapshot;
+        } catch (Exception ex) {
+            Log.e("FinancistoWidget", "Unable to write widget snapshot", ex);
+            return null;
+        } finally {
+            db.close();
+        }
+    }
+
+    private static RemoteViews updateWidgetFromAccount(Context context, int widgetId, int layoutId, Class providerClass, AccountWidgetSnapshot.Line a) {
         RemoteViews updateViews = new RemoteViews(context.getPackageName(), layoutId);
         updateViews.setTextViewText(R.id.line1, a.title);
         AccountType type = AccountType.valueOf(a.type);
@@ -135,8 +182,8 @@ public class AccountWidget extends AppWidgetProvider {
         } else {
             updateViews.setImageViewResource(R.id.account_icon, type.iconId);
         }
-        long amount = a.totalAmount;
-        updateViews.setTextViewText(R.id.note, Utils.amountToString(a.currency, amount));
+        long amount = a.amount;
+        updateViews.setTextViewText(R.id.note, a.amountText);
         Utils u = new Utils(context);
         int amountColor = u.getAmountColor(amount);
         updateViews.setTextColor(R.id.note, amountColor);
@@ -171,70 +218,26 @@ public class AccountWidget extends AppWidgetProvider {
         updateViews.setOnClickPendingIntent(R.id.add_transfer, pendingIntent);
     }
 
-    private static RemoteViews buildUpdateForCurrentAccount(Context context, int widgetId, int layoutId, Class providerClass, long accountId) {
-        DatabaseAdapter db = new DatabaseAdapter(context);
-        db.open();
-        try {
-            MyEntityManager em = db.em();
-            Account a = em.getAccount(accountId);
-            if (a != null) {
-                Log.d("FinancistoWidget", "buildUpdateForCurrentAccount building update for "+widgetId+" -> "+accountId);
-                return updateWidgetFromAccount(context, widgetId, layoutId, providerClass, a);
-            } else {
-                Log.d("FinancistoWidget", "buildUpdateForCurrentAccount not found "+widgetId+" -> "+accountId);
-                return buildUpdateForNextAccount(context, widgetId, layoutId, providerClass, -1);
-            }
-        } catch (Exception ex) {
-            return errorUpdate(context);
-        } finally {
-            db.close();
+    private static RemoteViews buildUpdateForCurrentAccount(Context context, int widgetId, int layoutId, Class providerClass,
+                                                            AccountWidgetSnapshot snapshot, long accountId) {
+        AccountWidgetSnapshot.Line a = snapshot.getLine(accountId);
+        if (a != null) {
+            Log.d("FinancistoWidget", "buildUpdateForCurrentAccount building update for "+widgetId+" -> "+accountId);
+            return updateWidgetFromAccount(context, widgetId, layoutId, providerClass, a);
+        } else {
+            Log.d("FinancistoWidget", "buildUpdateForCurrentAccount not found "+widgetId+" -> "+accountId);
+            return buildUpdateForNextAccount(context, widgetId, layoutId, providerClass, snapshot, -1);
         }
     }
 
-    private static RemoteViews buildUpdateForNextAccount(Context context, int widgetId, int layoutId, Class providerClass, long accountId) {
-        DatabaseAdapter db = new DatabaseAdapter(context);
-        db.open();
-        try {
-            MyEntityManager em = db.em();
-            Cursor c = em.getAllActiveAccounts();
-            try {
-                int count = c.getCount();
-                if (count > 0) {
-                    Log.d("FinancistoWidget", "buildUpdateForNextAccount "+widgetId+" -> "+accountId);
-                    if (count == 1 || accountId == -1) {
-                        if (c.moveToNext()) {
-                            Account a = EntityManager.loadFromCursor(c, Account.class);
-                            return updateWidgetFromAccount(context, widgetId, layoutId, providerClass, a);
-                        }
-                    } else {
-                        boolean found = false;
-                        while (c.moveToNext()) {
-                            Account a = EntityManager.loadFromCursor(c, Account.class);
-                            if (a.id == accountId) {
-                                found = true;
-                                Log.d("FinancistoWidget", "buildUpdateForNextAccount found -> "+accountId);
-                            } else {
-                                if (found) {
-                                    Log.d("FinancistoWidget", "buildUpdateForNextAccount building update for -> "+a.id);
-                                    return updateWidgetFromAccount(context, widgetId, layoutId, providerClass, a);
-                                }
-                            }
-                        }
-                        c.moveToFirst();
-                        Account a = EntityManager.loadFromCursor(c, Account.class);
-                        Log.d("FinancistoWidget", "buildUpdateForNextAccount not found, taking the first one -> "+a.id);
-                        return updateWidgetFromAccount(context, widgetId, layoutId, providerClass, a);
-                    }
-                }
-                return noDataUpdate(context, layoutId);
-            } finally {
-                c.close();
-            }
-        } catch (Exception ex) {
-            return errorUpdate(context);
-        } finally {
-            db.close();
+    private static RemoteViews buildUpdateForNextAccount(Context context, int widgetId, int layoutId, Class providerClass,
+                                                         AccountWidgetSnapshot snapshot, long accountId) {
+        AccountWidgetSnapshot.Line a = snapshot.getNextLine(accountId);
+        if (a != null) {
+            Log.d("FinancistoWidget", "buildUpdateForNextAccount "+widgetId+" -> "+accountId+" building update for -> "+a.id);
+            return updateWidgetFromAccount(context, widgetId, layoutId, providerClass, a);
         }
+        return noDataUpdate(context, layoutId);
     }
 
     private static RemoteViews errorUpdate(Context context) {
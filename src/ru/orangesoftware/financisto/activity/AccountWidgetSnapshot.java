@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.activity;
+
+import android.content.Context;
+import android.util.Log;
+import ru.orangesoftware.financisto.db.AccountSummary;
+import ru.orangesoftware.financisto.model.Account;
+import ru.orangesoftware.financisto.utils.Utils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Active accounts as the widgets show them, with the balances already formatted.
+ * It is written to a small file after every balance change, so widget updates
+ * are rendered from the file without opening the database.
+ * Account type and card issuer are kept by name, because resource ids change between builds.
+ * The file is deleted whenever the accounts change, see {@link AccountSummary#getSnapshotFile(Context)}.
+ */
+public class AccountWidgetSnapshot {
+
+    private static final String TAG = "AccountWidgetSnapshot";
+
+    private static final int VERSION = 1;
+
+    public static class Line {
+
+        public final long id;
+        public final String title;
+        public final String type;
+        public final String cardIssuer;
+        public final long amount;
+        public final String amountText;
+
+        Line(long id, String title, String type, String cardIssuer, long amount, String amountText) {
+            this.id = id;
+            this.title = title;
+            this.type = type;
+            this.cardIssuer = cardIssuer;
+            this.amount = amount;
+            this.amountText = amountText;
+        }
+
+    }
+
+    public final List<Line> lines;
+
+    private AccountWidgetSnapshot(List<Line> lines) {
+        this.lines = Collections.unmodifiableList(lines);
+    }
+
+    public static AccountWidgetSnapshot fromAccounts(List<Account> accounts) {
+        List<Line> lines = new ArrayList<Line>(accounts.size());
+        for (Account a : accounts) {
+            lines.add(new Line(a.id, a.title, a.type, a.cardIssuer, a.totalAmount, Utils.amountToString(a.currency, a.totalAmount)));
+        }
+        return new AccountWidgetSnapshot(lines);
+    }
+
+    public Line getLine(long accountId) {
+        for (Line line : lines) {
+            if (line.id == accountId) {
+                return line;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the line after the account, the first one if the account is the last or not found, null if there are no lines
+     */
+    public Line getNextLine(long accountId) {
+        if (lines.isEmpty()) {
+            return null;
+        }
+        for (int i = 0; i < lines.size() - 1; i++) {
+            if (lines.get(i).id == accountId) {
+                return lines.get(i + 1);
+            }
+        }
+        return lines.get(0);
+    }
+
+    /**
+     * @return the last written snapshot or null if there is none or it cannot be read
+     */
+    public static AccountWidgetSnapshot read(Context context) {
+        File file = AccountSummary.getSnapshotFile(context);
+        if (!file.exists()) {
+            return null;
+        }
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != VERSION) {
+                    return null;
+                }
+                int count = in.readInt();
+                List<Line> lines = new ArrayList<Line>(count);
+                for (int i = 0; i < count; i++) {
+                    lines.add(new Line(in.readLong(), readNullableUTF(in), in.readUTF(), readNullableUTF(in), in.readLong(), in.readUTF()));
+                }
+                return new AccountWidgetSnapshot(lines);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read " + file, e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes into a temporary file first and renames it, so a reader never sees a partial snapshot
+     */
+    public void write(Context context) {
+        File file = AccountSummary.getSnapshotFile(context);
+        File tmp = new File(file.getPath() + ".tmp");
+        try {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(VERSION);
+                out.writeInt(lines.size());
+                for (Line line : lines) {
+                    out.writeLong(line.id);
+                    writeNullableUTF(out, line.title);
+                    out.writeUTF(line.type);
+                    writeNullableUTF(out, line.cardIssuer);
+                    out.writeLong(line.amount);
+                    out.writeUTF(line.amountText);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmp.renameTo(file)) {
+                Log.w(TAG, "Unable to rename " + tmp + " to " + file);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write " + file, e);
+        }
+    }
+
+    private static String readNullableUTF(DataInputStream in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    private static void writeNullableUTF(DataOutputStream out, String s) throws IOException {
+        out.writeBoolean(s != null);
+        if (s != null) {
+            out.writeUTF(s);
+        }
+    }
+
+}
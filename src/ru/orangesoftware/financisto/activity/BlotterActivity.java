@@ -28,6 +28,7 @@ import ru.orangesoftware.financisto.adapter.TransactionsListAdapter;
 import ru.orangesoftware.financisto.blotter.AccountTotalCalculationTask;
 import ru.orangesoftware.financisto.blotter.BlotterTotalCalculationTask;
 import ru.orangesoftware.financisto.blotter.TotalCalculationTask;
+import ru.orangesoftware.financisto.db.PagedBlotterCursor;
 import ru.orangesoftware.financisto.filter.WhereFilter;
 import ru.orangesoftware.financisto.dialog.TransactionInfoDialog;
 import ru.orangesoftware.financisto.model.Account;
@@ -84,10 +85,7 @@ public class BlotterActivity extends AbstractListActivity {
 	}
         
 	protected void calculateTotals() {	
-		if (calculationTask != null) {
-			calculationTask.stop();
-			calculationTask.cancel(true);
-		}
+        // the previous task is cancelled or joined by the executor
         calculationTask = createTotalCalculationTask();
 		calculationTask.execute();
 	}
@@ -107,6 +105,14 @@ public class BlotterActivity extends AbstractListActivity {
         calculateTotals();
     }
 
+    @Override
+    protected void onDestroy() {
+        if (calculationTask != null) {
+            calculationTask.stop();
+        }
+        super.onDestroy();
+    }
+
     @Override
 	protected void onCreate(Bundle savedInstanceState) {
 		super.onCreate(savedInstanceState);
@@ -344,13 +350,15 @@ public class BlotterActivity extends AbstractListActivity {
 
 	@Override
 	protected Cursor createCursor() {
-		Cursor c;
+		PagedBlotterCursor c;
 		long accountId = blotterFilter.getAccountId();
 		if (accountId != -1) {
-			c = db.getBlotterForAccount(blotterFilter);
+			c = db.getPagedBlotterForAccount(blotterFilter);
 		} else {
-			c = db.getBlotter(blotterFilter);
+			c = db.getPagedBlotter(blotterFilter);
 		}
+		// show the first page without waiting for the rows to be counted
+		c.countInBackground();
 		return c;
 	}
 
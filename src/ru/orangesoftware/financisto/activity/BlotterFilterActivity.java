@@ -18,6 +18,7 @@ import java.util.List;
 import android.widget.*;
 import ru.orangesoftware.financisto.R;
 import ru.orangesoftware.financisto.blotter.BlotterFilter;
+import ru.orangesoftware.financisto.filter.NoteCriteria;
 import ru.orangesoftware.financisto.filter.SingleCategoryCriteria;
 import ru.orangesoftware.financisto.filter.WhereFilter;
 import ru.orangesoftware.financisto.filter.Criteria;
@@ -28,6 +29,8 @@ import ru.orangesoftware.financisto.datetime.DateUtils;
 import ru.orangesoftware.financisto.utils.EnumUtils;
 import ru.orangesoftware.financisto.utils.TransactionUtils;
 import ru.orangesoftware.financisto.datetime.Period;
+import android.app.AlertDialog;
+import android.content.DialogInterface;
 import android.content.Intent;
 import android.database.Cursor;
 import android.os.Bundle;
@@ -50,6 +53,7 @@ public class BlotterFilterActivity extends AbstractActivity {
 	private TextView project;
     private TextView payee;
 	private TextView location;
+	private TextView note;
 	private TextView sortOrder;
 	private TextView status;
 	
@@ -78,6 +82,7 @@ public class BlotterFilterActivity extends AbstractActivity {
         payee = x.addFilterNodeMinus(layout, R.id.payee, R.id.payee_clear, R.string.payee, R.string.no_filter);
 		project = x.addFilterNodeMinus(layout, R.id.project, R.id.project_clear, R.string.project, R.string.no_filter);
 		location = x.addFilterNodeMinus(layout, R.id.location, R.id.location_clear, R.string.location, R.string.no_filter);
+		note = x.addFilterNodeMinus(layout, R.id.note, R.id.note_clear, R.string.note, R.string.no_filter);
 		status = x.addFilterNodeMinus(layout, R.id.status, R.id.status_clear, R.string.transaction_status, R.string.no_filter);
 		sortOrder = x.addFilterNodeMinus(layout, R.id.sort_order, R.id.sort_order_clear, R.string.sort_order, sortBlotterEntries[0]);
 
@@ -129,6 +134,7 @@ public class BlotterFilterActivity extends AbstractActivity {
 			updateProjectFromFilter();
             updatePayeeFromFilter();
 			updateLocationFromFilter();
+			updateNoteFromFilter();
 			updateSortOrderFromFilter();
 			updateStatusFromFilter();
             disableAccountResetButtonIfNeeded();
@@ -187,6 +193,17 @@ public class BlotterFilterActivity extends AbstractActivity {
 		}
 	}
 
+	private void updateNoteFromFilter() {
+		Criteria c = filter.get(BlotterFilter.NOTE);
+		if (c != null) {
+			note.setText(c.getStringValue());
+			showMinusButton(note);
+		} else {
+			note.setText(R.string.no_filter);
+			hideMinusButton(note);
+		}
+	}
+
 	private void updateProjectFromFilter() {
         updateEntityFromFilter(BlotterFilter.PROJECT_ID, Project.class, project);
 	}
@@ -368,6 +385,12 @@ public class BlotterFilterActivity extends AbstractActivity {
 		case R.id.location_clear:
 			clear(BlotterFilter.LOCATION_ID, location);
 			break;
+		case R.id.note:
+			selectNote();
+			break;
+		case R.id.note_clear:
+			clear(BlotterFilter.NOTE, note);
+			break;
 		case R.id.sort_order: {
 			ArrayAdapter<String> adapter = new ArrayAdapter<String>(this, android.R.layout.simple_spinner_dropdown_item, sortBlotterEntries);
 			int selectedId = BlotterFilter.SORT_OLDER_TO_NEWER.equals(filter.getSortOrder()) ? 1 : 0;
@@ -390,6 +413,32 @@ public class BlotterFilterActivity extends AbstractActivity {
 		}
 	}
 
+    private void selectNote() {
+        final EditText noteText = new EditText(this);
+        noteText.setSingleLine();
+        Criteria c = filter.get(BlotterFilter.NOTE);
+        if (c != null) {
+            noteText.setText(c.getStringValue());
+        }
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.note)
+                .setView(noteText)
+                .setPositiveButton(R.string.ok, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(DialogInterface dialog, int which) {
+                        String text = noteText.getText().toString().trim();
+                        if (text.length() > 0) {
+                            filter.put(new NoteCriteria(text));
+                            updateNoteFromFilter();
+                        } else {
+                            clear(BlotterFilter.NOTE, note);
+                        }
+                    }
+                })
+                .setNegativeButton(R.string.cancel, null)
+                .show();
+    }
+
     private void clearCategory() {
         clear(BlotterFilter.CATEGORY_LEFT, category);
         clear(BlotterFilter.CATEGORY_ID, category);
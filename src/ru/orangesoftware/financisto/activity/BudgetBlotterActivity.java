@@ -17,6 +17,7 @@ import android.view.View;
 import android.widget.ListAdapter;
 import ru.orangesoftware.financisto.adapter.TransactionsListAdapter;
 import ru.orangesoftware.financisto.blotter.TotalCalculationTask;
+import ru.orangesoftware.financisto.db.BudgetPredicate;
 import ru.orangesoftware.financisto.model.*;
 import ru.orangesoftware.financisto.utils.CurrencyCache;
 
@@ -52,13 +53,18 @@ public class BudgetBlotterActivity extends BlotterActivity {
 	
 	private Cursor getBlotterForBudget(long budgetId) {
 		Budget b = em.load(Budget.class, budgetId);
-		String where = Budget.createWhere(b, categories, projects);
-		return db.getBlotterWithSplits(where);
+		BudgetPredicate p = BudgetPredicate.compile(b, categories, projects);
+		return db.getBlotterWithSplits(p.where, p.args);
 	}
 
     @Override
     protected TotalCalculationTask createTotalCalculationTask() {
-        return new TotalCalculationTask(this, totalText) {
+        return new TotalCalculationTask(this, db, totalText) {
+            @Override
+            protected String getCacheKey() {
+                return "budget:"+blotterFilter.getBudgetId();
+            }
+
             @Override
             public Total getTotalInHomeCurrency() {
                 long t0 = System.currentTimeMillis();
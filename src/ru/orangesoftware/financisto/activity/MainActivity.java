@@ -178,6 +178,7 @@ public class MainActivity extends TabActivity implements TabHost.OnTabChangeList
             } finally {
                 x.endTransaction();
             }
+            db.invalidateCategorySnapshot();
             t2 = System.currentTimeMillis();
             if (MyPreferences.shouldUpdateHomeCurrency(this)) {
                 db.setDefaultHomeCurrency();
@@ -482,7 +483,12 @@ public class MainActivity extends TabActivity implements TabHost.OnTabChangeList
     }
 
     private void doBackupPicture() {
-    	FlowzrSyncEngine.pushAllBlobs();
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                FlowzrSyncEngine.pushAllBlobs();
+            }
+        }).start();
     }
     
     public void doImportFromGoogleDrive(final com.google.api.services.drive.model.File[] backupFiles) {
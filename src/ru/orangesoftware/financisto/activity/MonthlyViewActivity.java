@@ -3,7 +3,6 @@ package ru.orangesoftware.financisto.activity;
 import android.app.ListActivity;
 import android.content.Intent;
 import android.graphics.Color;
-import android.os.AsyncTask;
 import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -17,12 +16,17 @@ import ru.orangesoftware.financisto.adapter.CreditCardStatementAdapter;
 import ru.orangesoftware.financisto.db.DatabaseAdapter;
 import ru.orangesoftware.financisto.db.MyEntityManager;
 import ru.orangesoftware.financisto.model.*;
+import ru.orangesoftware.financisto.utils.AbstractPlanner;
+import ru.orangesoftware.financisto.utils.CancellationSignal;
+import ru.orangesoftware.financisto.utils.ComputationExecutor;
 import ru.orangesoftware.financisto.utils.MonthlyViewPlanner;
 import ru.orangesoftware.financisto.utils.PinProtection;
+import ru.orangesoftware.financisto.utils.PlannedTransactionIterator;
 import ru.orangesoftware.financisto.utils.TransactionList;
 import ru.orangesoftware.financisto.utils.Utils;
 
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
@@ -56,7 +60,7 @@ public class MonthlyViewActivity extends ListActivity {
 
 	private Utils u;
 
-    private MonthlyPreviewTask currentTask;
+    private final String previewKey = ComputationExecutor.key(this, "preview");
 
     @Override
     public void onCreate(Bundle savedInstanceState) {
@@ -81,10 +85,7 @@ public class MonthlyViewActivity extends ListActivity {
     }
 
     private void cancelCurrentTask() {
-        if (currentTask != null) {
-            currentTask.cancel(true);
-            currentTask = null;
-        }
+        ComputationExecutor.getInstance().cancel(previewKey);
     }
 
     @Override
@@ -325,7 +326,7 @@ public class MonthlyViewActivity extends ListActivity {
 		return calCurr.getActualMaximum(GregorianCalendar.DAY_OF_MONTH);
 	}
 
-    private class MonthlyPreviewTask extends AsyncTask<Void, Void, TransactionList> {
+    private class MonthlyPreviewTask implements ComputationExecutor.Computation<TransactionList>, ComputationExecutor.Callback<TransactionList> {
 
         private final Date open;
         private final Date close;
@@ -337,25 +338,34 @@ public class MonthlyViewActivity extends ListActivity {
             this.now = now;
         }
 
-        @Override
-        protected void onPreExecute() {
+        private void onPreExecute() {
             ((TextView)findViewById(android.R.id.empty)).setText(R.string.calculating);
         }
 
         @Override
-        protected TransactionList doInBackground(Void... voids) {
+        public TransactionList compute(CancellationSignal signal) {
             MonthlyViewPlanner planner = new MonthlyViewPlanner(dbAdapter, account, isStatementPreview, open, close, now);
-            TransactionList transactions;
             if (isStatementPreview) {
-                transactions = planner.getCreditCardStatement();
-            } else {
-                transactions = planner.getPlannedTransactionsWithTotals();
+                return planner.getCreditCardStatement(signal);
             }
-            return transactions;
+            List<TransactionInfo> transactions = new ArrayList<TransactionInfo>();
+            AbstractPlanner.TotalCalculator totals = planner.createTotalCalculator();
+            PlannedTransactionIterator i = planner.getPlannedTransactionsIterator();
+            try {
+                while (i.hasNext()) {
+                    signal.throwIfCanceled();
+                    TransactionInfo t = i.next();
+                    transactions.add(t);
+                    totals.add(t);
+                }
+            } finally {
+                i.close();
+            }
+            return new TransactionList(transactions, totals.getTotals());
         }
 
         @Override
-        protected void onPostExecute(TransactionList monthlyPreviewReport) {
+        public void onResult(TransactionList monthlyPreviewReport) {
             List<TransactionInfo> transactions = monthlyPreviewReport.transactions;
             long total = monthlyPreviewReport.totals[0].balance;
             if (transactions == null || transactions.isEmpty()) {
@@ -392,9 +402,12 @@ public class MonthlyViewActivity extends ListActivity {
 	 * @param close End of period.
 	 */
 	private void fillData(Calendar open, Calendar close) {
-        cancelCurrentTask();
-        currentTask = new MonthlyPreviewTask(open.getTime(), close.getTime(), new Date());
-        currentTask.execute();
+        Date now = new Date();
+        MonthlyPreviewTask task = new MonthlyPreviewTask(open.getTime(), close.getTime(), now);
+        task.onPreExecute();
+        // planned transactions depend on the current time as well, so the result is reused within a minute
+        String cacheKey = open.getTimeInMillis()+"-"+close.getTimeInMillis()+":"+isStatementPreview+":"+now.getTime()/60000;
+        ComputationExecutor.getInstance().submit(previewKey, cacheKey, dbAdapter.getDataVersion(), task, task);
     }
 
     private void displayNoTransactions() {
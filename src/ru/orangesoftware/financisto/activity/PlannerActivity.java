@@ -27,12 +27,17 @@ import ru.orangesoftware.financisto.filter.Criteria;
 import ru.orangesoftware.financisto.filter.WhereFilter;
 import ru.orangesoftware.financisto.filter.DateTimeCriteria;
 import ru.orangesoftware.financisto.model.Total;
+import ru.orangesoftware.financisto.model.TransactionInfo;
+import ru.orangesoftware.financisto.utils.AbstractPlanner;
 import ru.orangesoftware.financisto.utils.FuturePlanner;
+import ru.orangesoftware.financisto.utils.PlannedTransactionIterator;
 import ru.orangesoftware.financisto.utils.TransactionList;
 import ru.orangesoftware.financisto.utils.Utils;
 
+import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Date;
+import java.util.List;
 
 /**
  * Created by IntelliJ IDEA.
@@ -163,7 +168,19 @@ public class PlannerActivity extends AbstractListActivity {
         @Override
         protected TransactionList doInBackground(Void... voids) {
             FuturePlanner planner = new FuturePlanner(db, filter, new Date());
-            return planner.getPlannedTransactionsWithTotals();
+            List<TransactionInfo> transactions = new ArrayList<TransactionInfo>();
+            AbstractPlanner.TotalCalculator totals = planner.createTotalCalculator();
+            PlannedTransactionIterator i = planner.getPlannedTransactionsIterator();
+            try {
+                while (i.hasNext() && !isCancelled()) {
+                    TransactionInfo t = i.next();
+                    transactions.add(t);
+                    totals.add(t);
+                }
+            } finally {
+                i.close();
+            }
+            return new TransactionList(transactions, totals.getTotals());
         }
 
         @Override
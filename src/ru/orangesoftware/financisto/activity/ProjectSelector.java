@@ -17,6 +17,7 @@ import android.widget.TextView;
 import ru.orangesoftware.financisto.R;
 import ru.orangesoftware.financisto.db.DatabaseHelper;
 import ru.orangesoftware.financisto.db.MyEntityManager;
+import ru.orangesoftware.financisto.db.Suggestions;
 import ru.orangesoftware.financisto.model.MyEntity;
 import ru.orangesoftware.financisto.model.Project;
 import ru.orangesoftware.financisto.utils.MyPreferences;
@@ -54,6 +55,7 @@ public class ProjectSelector {
 
     public void fetchProjects() {
         projects = em.getActiveProjectsList(true);
+        em.getSuggestions().sort(Suggestions.Type.PROJECT, projects);
         projectAdapter = TransactionUtils.createProjectAdapter(activity, projects);
     }
 
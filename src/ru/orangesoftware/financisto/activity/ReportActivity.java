@@ -40,6 +40,8 @@ import ru.orangesoftware.financisto.report.IncomeExpense;
 import ru.orangesoftware.financisto.report.PeriodReport;
 import ru.orangesoftware.financisto.report.Report;
 import ru.orangesoftware.financisto.report.ReportData;
+import ru.orangesoftware.financisto.utils.CancellationSignal;
+import ru.orangesoftware.financisto.utils.ComputationExecutor;
 import ru.orangesoftware.financisto.utils.PinProtection;
 import ru.orangesoftware.financisto.utils.Utils;
 
@@ -57,7 +59,7 @@ public class ReportActivity extends ListActivity implements RefreshSupportedActi
 	private ImageButton bFilter;
     private ImageButton bToggle;
     private Report currentReport;
-    private ReportAsyncTask reportTask;
+    private final String reportKey = ComputationExecutor.key(this, "report");
 	
 	private WhereFilter filter = WhereFilter.empty();
     private boolean saveFilter = false;
@@ -191,15 +193,14 @@ public class ReportActivity extends ListActivity implements RefreshSupportedActi
 	}
 
 	private void selectReport() {
-        cancelCurrentReportTask();
-        reportTask = new ReportAsyncTask(currentReport, incomeExpenseState);
-        reportTask.execute();
+        ReportTask task = new ReportTask(currentReport, incomeExpenseState, WhereFilter.copyOf(filter));
+        task.onPreExecute();
+        String cacheKey = currentReport.getClass().getName()+":"+incomeExpenseState+":"+filter.getSelectionKey();
+        ComputationExecutor.getInstance().submit(reportKey, cacheKey, db.getDataVersion(), task, task);
 	}
 
     private void cancelCurrentReportTask() {
-        if (reportTask != null) {
-            reportTask.cancel(true);
-        }
+        ComputationExecutor.getInstance().cancel(reportKey);
     }
 
     private void applyFilter() {
@@ -287,30 +288,31 @@ public class ReportActivity extends ListActivity implements RefreshSupportedActi
         }
     }
 
-    private class ReportAsyncTask extends AsyncTask<Void, Void, ReportData> {
+    private class ReportTask implements ComputationExecutor.Computation<ReportData>, ComputationExecutor.Callback<ReportData> {
 
         private final Report report;
         private final IncomeExpense incomeExpense;
+        private final WhereFilter filter;
 
-        private ReportAsyncTask(Report report, IncomeExpense incomeExpense) {
+        private ReportTask(Report report, IncomeExpense incomeExpense, WhereFilter filter) {
             this.report = report;
             this.incomeExpense = incomeExpense;
+            this.filter = filter;
         }
 
-        @Override
-        protected void onPreExecute() {
+        private void onPreExecute() {
             setProgressBarIndeterminateVisibility(true);
             ((TextView)findViewById(android.R.id.empty)).setText(R.string.calculating);
         }
 
         @Override
-        protected ReportData doInBackground(Void...voids) {
+        public ReportData compute(CancellationSignal signal) {
             report.setIncomeExpense(incomeExpense);
-            return report.getReport(db, WhereFilter.copyOf(filter));
+            return report.getReport(db, filter, signal);
         }
 
         @Override
-        protected void onPostExecute(ReportData data) {
+        public void onResult(ReportData data) {
             setProgressBarIndeterminateVisibility(false);
             displayTotal(data.total);
             ((TextView) findViewById(android.R.id.empty)).setText(R.string.empty_report);
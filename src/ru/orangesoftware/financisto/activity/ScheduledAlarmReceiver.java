@@ -15,7 +15,6 @@ import ru.orangesoftware.financisto.service.FinancistoService;
 import android.content.Context;
 import android.content.Intent;
 import android.util.Log;
-import ru.orangesoftware.financisto.service.RecurrenceScheduler;
 
 public class ScheduledAlarmReceiver extends PackageReplaceReceiver {
 
@@ -37,13 +36,12 @@ public class ScheduledAlarmReceiver extends PackageReplaceReceiver {
             requestScheduleAutoSync(context);
             requestAutoSync(context);            
         }else {
-            requestScheduleOne(context, intent);
+            requestScheduleOne(context);
 		}
 	}
 
-    private void requestScheduleOne(Context context, Intent intent) {
+    private void requestScheduleOne(Context context) {
         Intent serviceIntent = new Intent(FinancistoService.ACTION_SCHEDULE_ONE);
-        serviceIntent.putExtra(RecurrenceScheduler.SCHEDULED_TRANSACTION_ID, intent.getLongExtra(RecurrenceScheduler.SCHEDULED_TRANSACTION_ID, -1));
         WakefulIntentService.sendWakefulWork(context, serviceIntent);
     }
 
@@ -9,7 +9,9 @@ package ru.orangesoftware.financisto.backup;
 
 import android.content.Context;
 import android.database.sqlite.SQLiteDatabase;
+import ru.orangesoftware.financisto.activity.AccountWidget;
 import ru.orangesoftware.financisto.db.DatabaseAdapter;
+import ru.orangesoftware.financisto.db.DatabaseHelper;
 import ru.orangesoftware.financisto.db.MyEntityManager;
 import ru.orangesoftware.financisto.service.RecurrenceScheduler;
 import ru.orangesoftware.financisto.utils.CurrencyCache;
@@ -49,6 +51,7 @@ public abstract class FullDatabaseImport {
         CurrencyCache.initialize(em);
         new IntegrityFix(dbAdapter).fix();
         scheduleAll();
+        AccountWidget.updateWidgets(context);
     }
 
     protected abstract void restoreDatabase() throws IOException;
@@ -70,6 +73,15 @@ public abstract class FullDatabaseImport {
     protected List<String> tablesToClean() {
         List<String> list = new ArrayList<String>(Arrays.asList(Backup.BACKUP_TABLES));
         list.add("running_balance");
+        list.add(DatabaseHelper.SYNC_STATE_TABLE);
+        list.add(DatabaseHelper.SCHEDULE_INDEX_TABLE);
+        list.add(DatabaseHelper.SCHEDULE_OCCURRENCE_TABLE);
+        list.add(DatabaseHelper.SCHEDULE_ALARM_TABLE);
+        list.add(DatabaseHelper.BUDGET_SPENT_TABLE);
+        list.add(DatabaseHelper.CATEGORY_CLOSURE_TABLE);
+        list.add(DatabaseHelper.SEARCH_TEXT_TABLE);
+        list.add(DatabaseHelper.SEARCH_TRIGRAM_TABLE);
+        list.add(DatabaseHelper.SEARCH_STATE_TABLE);
         return list;
     }
 
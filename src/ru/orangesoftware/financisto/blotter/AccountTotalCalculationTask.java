@@ -19,18 +19,21 @@ import static ru.orangesoftware.financisto.db.DatabaseAdapter.enhanceFilterForAc
 
 public class AccountTotalCalculationTask extends TotalCalculationTask {
 
-	private final DatabaseAdapter db;
 	private final WhereFilter filter;
 
 	public AccountTotalCalculationTask(Context context, DatabaseAdapter db, WhereFilter filter, TextView totalText) {
-        super(context, totalText);
-		this.db = db;
+        super(context, db, totalText);
 		this.filter = enhanceFilterForAccountBlotter(filter);
 	}
 
+    @Override
+    protected String getCacheKey() {
+        return "account:"+filter.getSelectionKey();
+    }
+
     @Override
     public Total getTotalInHomeCurrency() {
-        TransactionsTotalCalculator calculator = new TransactionsTotalCalculator(db, filter);
+        TransactionsTotalCalculator calculator = new TransactionsTotalCalculator(db, filter, signal);
         return calculator.getAccountTotal();
     }
 
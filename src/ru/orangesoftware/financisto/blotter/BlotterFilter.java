@@ -26,6 +26,7 @@ public interface BlotterFilter {
 	String IS_TEMPLATE = BlotterColumns.is_template.name();
     String PARENT_ID = BlotterColumns.parent_id.name();
 	String STATUS = BlotterColumns.status.name();
+	String NOTE = BlotterColumns.note.name();
 	
 	String SORT_NEWER_TO_OLDER = BlotterColumns.datetime+" desc";
 	String SORT_OLDER_TO_NEWER = BlotterColumns.datetime+" asc";
@@ -16,18 +16,21 @@ import ru.orangesoftware.financisto.model.Total;
 
 public class BlotterTotalCalculationTask extends TotalCalculationTask {
 
-	private final DatabaseAdapter db;
 	private final WhereFilter filter;
 
 	public BlotterTotalCalculationTask(Context context, DatabaseAdapter db, WhereFilter filter, TextView totalText) {
-        super(context, totalText);
-		this.db = db;
+        super(context, db, totalText);
 		this.filter = filter;
 	}
 
+    @Override
+    protected String getCacheKey() {
+        return "blotter:"+filter.getSelectionKey();
+    }
+
     @Override
     public Total getTotalInHomeCurrency() {
-        TransactionsTotalCalculator calculator = new TransactionsTotalCalculator(db, filter);
+        TransactionsTotalCalculator calculator = new TransactionsTotalCalculator(db, filter, signal);
         return calculator.getBlotterBalanceInHomeCurrency();
     }
 
@@ -8,54 +8,76 @@
 package ru.orangesoftware.financisto.blotter;
 
 import android.content.Context;
-import android.os.AsyncTask;
 import android.util.Log;
 import android.widget.TextView;
 import android.widget.Toast;
 import ru.orangesoftware.financisto.R;
+import ru.orangesoftware.financisto.db.DatabaseAdapter;
 import ru.orangesoftware.financisto.model.Currency;
 import ru.orangesoftware.financisto.model.Total;
+import ru.orangesoftware.financisto.utils.CancellationSignal;
+import ru.orangesoftware.financisto.utils.ComputationExecutor;
 import ru.orangesoftware.financisto.utils.Utils;
 
-public abstract class TotalCalculationTask extends AsyncTask<Object, Total, Total> {
-	
-	private volatile boolean isRunning = true;
+/**
+ * Total of a screen calculated on the shared {@link ComputationExecutor}.
+ * All the tasks of one screen share the same key, so a new task cancels or joins the previous one.
+ */
+public abstract class TotalCalculationTask implements ComputationExecutor.Computation<Total>, ComputationExecutor.Callback<Total> {
 	
 	private final Context context;
 	private final TextView totalText;
+	private final String key;
 
-	public TotalCalculationTask(Context context, TextView totalText) {
+	protected final DatabaseAdapter db;
+	protected volatile CancellationSignal signal = CancellationSignal.NONE;
+
+	public TotalCalculationTask(Context context, DatabaseAdapter db, TextView totalText) {
 		this.context = context;
+		this.db = db;
 		this.totalText = totalText;
+		this.key = ComputationExecutor.key(context, "totals");
+	}
+
+	public void execute() {
+		ComputationExecutor.getInstance().submit(key, getCacheKey(), db.getDataVersion(), this, this);
 	}
 
     @Override
-	protected Total doInBackground(Object... params) {
+	public Total compute(CancellationSignal signal) {
+		this.signal = signal;
 		try {
 			return getTotalInHomeCurrency();
+		} catch (CancellationSignal.CanceledException ex) {
+			throw ex;
 		} catch (Exception ex) {
 			Log.e("TotalBalance", "Unexpected error", ex);
 			return Total.ZERO;
 		}
 	}
 
+    /**
+     * @return what the total is calculated for, null if it should always be recalculated
+     */
+    protected String getCacheKey() {
+        return null;
+    }
+
     public abstract Total getTotalInHomeCurrency();
 
     public abstract Total[] getTotals();
 
 	@Override
-	protected void onPostExecute(Total result) {
-		if (isRunning) {
-            if (result.currency == Currency.EMPTY) {
-                Toast.makeText(context, R.string.currency_make_default_warning, Toast.LENGTH_LONG).show();
-            }
-            Utils u = new Utils(context);
-    	    u.setTotal(totalText, result);
-		}
+	public void onResult(Total result) {
+        if (result.currency == Currency.EMPTY) {
+            Toast.makeText(context, R.string.currency_make_default_warning, Toast.LENGTH_LONG).show();
+        }
+        Utils u = new Utils(context);
+        u.setTotal(totalText, result);
 	}
 	
 	public void stop() {
-		isRunning = false;
+		ComputationExecutor.getInstance().cancel(key);
 	}
 	
 }
@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import android.content.Context;
+import ru.orangesoftware.financisto.model.Account;
+import ru.orangesoftware.financisto.model.Currency;
+import ru.orangesoftware.financisto.model.Total;
+import ru.orangesoftware.financisto.model.TotalError;
+import ru.orangesoftware.financisto.rates.ExchangeRate;
+import ru.orangesoftware.financisto.rates.ExchangeRateProvider;
+import ru.orangesoftware.financisto.utils.MyPreferences.AccountSortOrder;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Accounts with their balances, totals in every currency and the total in the home currency,
+ * built from one load of the accounts and one load of the latest rates.
+ * The {@link Holder} keeps both loads and drops only the one a write has made stale,
+ * so a new transaction reloads the accounts while the rates and the home currency are reused.
+ * Accounts returned from here are shared and must not be modified.
+ */
+public class AccountSummary {
+
+    private static final String SNAPSHOT_FILE_NAME = "account_widget.snapshot";
+
+    private final AccountSortOrder sortOrder;
+    private final List<Account> accounts;
+    private final List<Account> activeAccounts;
+    private final Map<Long, Account> accountsById = new HashMap<Long, Account>();
+    // by currency id, in the order of the first account in every currency
+    private final Map<Long, Total> totals = new LinkedHashMap<Long, Total>();
+    private final Rates rates;
+    private final Total totalInHomeCurrency;
+
+    private AccountSummary(AccountSortOrder sortOrder, List<Account> accounts, Rates rates) {
+        this.sortOrder = sortOrder;
+        this.accounts = Collections.unmodifiableList(accounts);
+        this.rates = rates;
+        List<Account> active = new ArrayList<Account>();
+        for (Account a : accounts) {
+            accountsById.put(a.id, a);
+            if (a.isActive) {
+                active.add(a);
+            }
+            if (a.shouldIncludeIntoTotals()) {
+                Total total = totals.get(a.currency.id);
+                if (total == null) {
+                    total = new Total(a.currency);
+                    totals.put(a.currency.id, total);
+                }
+                total.balance += a.totalAmount;
+            }
+        }
+        this.activeAccounts = Collections.unmodifiableList(active);
+        this.totalInHomeCurrency = convert(rates.homeCurrency);
+    }
+
+    public Account getAccount(long id) {
+        return accountsById.get(id);
+    }
+
+    /**
+     * @return all accounts in the account list order, the active ones first
+     */
+    public List<Account> getAccounts() {
+        return accounts;
+    }
+
+    public List<Account> getActiveAccounts() {
+        return activeAccounts;
+    }
+
+    /**
+     * Calculates total in every currency for all accounts
+     */
+    public Total[] getTotals() {
+        Total[] result = new Total[totals.size()];
+        int i = 0;
+        for (Total t : totals.values()) {
+            result[i] = new Total(t.currency);
+            result[i++].balance = t.balance;
+        }
+        return result;
+    }
+
+    public Total getTotalInHomeCurrency() {
+        return copy(totalInHomeCurrency);
+    }
+
+    /**
+     * Calculates total in the given currency for all accounts
+     */
+    public Total getTotal(Currency currency) {
+        return currency.id == totalInHomeCurrency.currency.id ? copy(totalInHomeCurrency) : convert(currency);
+    }
+
+    /**
+     * @return latest rates the totals were converted with
+     */
+    public ExchangeRateProvider getRates() {
+        return rates;
+    }
+
+    private Total convert(Currency toCurrency) {
+        BigDecimal total = BigDecimal.ZERO;
+        for (Total t : totals.values()) {
+            if (t.currency.id == toCurrency.id) {
+                total = total.add(BigDecimal.valueOf(t.balance));
+            } else {
+                ExchangeRate rate = rates.getRate(t.currency, toCurrency);
+                if (rate == ExchangeRate.NA) {
+                    return new Total(toCurrency, TotalError.lastRateError(t.currency));
+                }
+                total = total.add(BigDecimal.valueOf(rate.rate * t.balance));
+            }
+        }
+        Total result = new Total(toCurrency);
+        result.balance = total.longValue();
+        return result;
+    }
+
+    /**
+     * @return file the home screen widgets keep the active accounts in, it is deleted whenever the accounts change
+     */
+    public static File getSnapshotFile(Context context) {
+        return new File(context.getFilesDir(), SNAPSHOT_FILE_NAME);
+    }
+
+    private static Total copy(Total t) {
+        if (t.isError()) {
+            return new Total(t.currency, t.error);
+        }
+        Total result = new Total(t.currency);
+        result.balance = t.balance;
+        return result;
+    }
+
+    /**
+     * Home currency and the latest rates, shared by the summaries built until the next rate or currency change
+     */
+    private static class Rates implements ExchangeRateProvider {
+
+        final Currency homeCurrency;
+        private final ExchangeRateProvider rates;
+
+        Rates(Currency homeCurrency, ExchangeRateProvider rates) {
+            this.homeCurrency = homeCurrency;
+            this.rates = rates;
+        }
+
+        // LatestExchangeRates remembers missing rates, so the calls are serialized
+        @Override
+        public synchronized ExchangeRate getRate(Currency fromCurrency, Currency toCurrency) {
+            return rates.getRate(fromCurrency, toCurrency);
+        }
+
+        @Override
+        public synchronized ExchangeRate getRate(Currency fromCurrency, Currency toCurrency, long atTime) {
+            return rates.getRate(fromCurrency, toCurrency, atTime);
+        }
+
+        @Override
+        public synchronized List<ExchangeRate> getRates(List<Currency> currencies) {
+            return rates.getRates(currencies);
+        }
+
+    }
+
+    /**
+     * Keeps the accounts and the rates loaded separately. Balance and account writes drop the accounts,
+     * rate writes drop the rates, currency writes drop both because accounts carry their currencies.
+     * A load racing with a write is not published, the next call loads again.
+     * Dropping the accounts also deletes the widget snapshot, so the widgets read them again.
+     */
+    static class Holder {
+
+        private final File snapshotFile;
+        private long accountsVersion;
+        private long ratesVersion;
+        private List<Account> accounts;
+        private AccountSortOrder accountsSortOrder;
+        private Rates rates;
+        private volatile AccountSummary summary;
+
+        Holder(File snapshotFile) {
+            this.snapshotFile = snapshotFile;
+        }
+
+        AccountSummary get(DatabaseAdapter db, AccountSortOrder sortOrder) {
+            AccountSummary s = summary;
+            if (s != null && s.sortOrder == sortOrder) {
+                return s;
+            }
+            List<Account> accounts;
+            Rates rates;
+            long av, rv;
+            synchronized (this) {
+                accounts = accountsSortOrder == sortOrder ? this.accounts : null;
+                rates = this.rates;
+                av = accountsVersion;
+                rv = ratesVersion;
+            }
+            // not under a lock, a writer can hold the database while updating
+            if (accounts == null) {
+                accounts = db.em().getAllAccountsList(sortOrder);
+            }
+            if (rates == null) {
+                rates = new Rates(db.em().getHomeCurrency(), db.getLatestRates());
+            }
+            s = new AccountSummary(sortOrder, accounts, rates);
+            synchronized (this) {
+                if (accountsVersion == av) {
+                    this.accounts = accounts;
+                    this.accountsSortOrder = sortOrder;
+                }
+                if (ratesVersion == rv) {
+                    this.rates = rates;
+                }
+                if (accountsVersion == av && ratesVersion == rv) {
+                    summary = s;
+                }
+            }
+            return s;
+        }
+
+        synchronized void invalidateAccounts() {
+            accountsVersion++;
+            accounts = null;
+            summary = null;
+            snapshotFile.delete();
+        }
+
+        synchronized void invalidateRates() {
+            ratesVersion++;
+            rates = null;
+            summary = null;
+        }
+
+        synchronized void invalidate() {
+            invalidateAccounts();
+            invalidateRates();
+        }
+
+    }
+
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import ru.orangesoftware.financisto.db.DatabaseHelper.BlotterColumns;
+import ru.orangesoftware.financisto.db.DatabaseHelper.BlotterListColumns;
+import ru.orangesoftware.financisto.filter.WhereFilter;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static ru.orangesoftware.financisto.db.DatabaseHelper.*;
+
+/**
+ * Titles of accounts, categories, projects, locations and payees kept in memory,
+ * so the blotter list can read the slim v_blotter_list and still bind all the {@link BlotterColumns}.
+ */
+public class BlotterDimensions {
+
+    private static final Set<String> FILTER_COLUMNS = new HashSet<String>();
+
+    static {
+        for (BlotterListColumns c : BlotterListColumns.values()) {
+            FILTER_COLUMNS.add(c.name());
+        }
+    }
+
+    /**
+     * @return true if the filter can be applied to v_blotter_list
+     */
+    public static boolean canFilter(WhereFilter filter) {
+        return filter.isOnlyOn(FILTER_COLUMNS);
+    }
+
+    private final Map<Long, String> accountTitles = new HashMap<Long, String>();
+    private final Map<Long, String> accountCurrencies = new HashMap<Long, String>();
+    private final Map<Long, String> projects;
+    private final Map<Long, String> locations;
+    private final Map<Long, String> payees;
+    private final CategorySnapshot categories;
+
+    private BlotterDimensions(DatabaseAdapter db) {
+        SQLiteDatabase sqlDb = db.db();
+        Cursor c = sqlDb.query(ACCOUNT_TABLE, new String[]{AccountColumns.ID, AccountColumns.TITLE, AccountColumns.CURRENCY_ID},
+                null, null, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                accountTitles.put(c.getLong(0), c.getString(1));
+                accountCurrencies.put(c.getLong(0), c.getString(2));
+            }
+        } finally {
+            c.close();
+        }
+        this.projects = loadTitles(sqlDb, PROJECT_TABLE, "title");
+        this.locations = loadTitles(sqlDb, LOCATIONS_TABLE, "name");
+        this.payees = loadTitles(sqlDb, PAYEE_TABLE, "title");
+        this.categories = db.getCategorySnapshot();
+    }
+
+    public static BlotterDimensions load(DatabaseAdapter db) {
+        return new BlotterDimensions(db);
+    }
+
+    private static Map<Long, String> loadTitles(SQLiteDatabase db, String table, String titleColumn) {
+        Map<Long, String> titles = new HashMap<Long, String>();
+        Cursor c = db.query(table, new String[]{"_id", titleColumn}, null, null, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                titles.put(c.getLong(0), c.getString(1));
+            }
+        } finally {
+            c.close();
+        }
+        return titles;
+    }
+
+    /**
+     * @param row values of {@link BlotterListColumns}
+     * @return values of {@link BlotterColumns} as v_blotter would have returned them
+     */
+    public String[] expand(String[] row) {
+        String[] full = new String[BlotterColumns.values().length];
+        full[BlotterColumns._id.ordinal()] = row[BlotterListColumns._id.ordinal()];
+        full[BlotterColumns.parent_id.ordinal()] = row[BlotterListColumns.parent_id.ordinal()];
+        String fromAccountId = row[BlotterListColumns.from_account_id.ordinal()];
+        full[BlotterColumns.from_account_id.ordinal()] = fromAccountId;
+        full[BlotterColumns.from_account_title.ordinal()] = accountTitles.get(toId(fromAccountId));
+        full[BlotterColumns.from_account_currency_id.ordinal()] = row[BlotterListColumns.from_account_currency_id.ordinal()];
+        String toAccountId = row[BlotterListColumns.to_account_id.ordinal()];
+        Long toAccount = toId(toAccountId);
+        if (accountTitles.containsKey(toAccount)) {
+            full[BlotterColumns.to_account_id.ordinal()] = toAccountId;
+            full[BlotterColumns.to_account_title.ordinal()] = accountTitles.get(toAccount);
+            full[BlotterColumns.to_account_currency_id.ordinal()] = accountCurrencies.get(toAccount);
+        }
+        String categoryId = row[BlotterListColumns.category_id.ordinal()];
+        int category = categories.indexOf(toId(categoryId));
+        full[BlotterColumns.category_id.ordinal()] = categoryId;
+        full[BlotterColumns.category_left.ordinal()] = row[BlotterListColumns.category_left.ordinal()];
+        full[BlotterColumns.category_right.ordinal()] = row[BlotterListColumns.category_right.ordinal()];
+        if (category >= 0) {
+            full[BlotterColumns.category_title.ordinal()] = categories.getTitle(category);
+            full[BlotterColumns.category_type.ordinal()] = String.valueOf(categories.getType(category));
+        }
+        lookup(full, BlotterColumns.project_id, BlotterColumns.project, row[BlotterListColumns.project_id.ordinal()], projects);
+        lookup(full, BlotterColumns.location_id, BlotterColumns.location, row[BlotterListColumns.location_id.ordinal()], locations);
+        lookup(full, BlotterColumns.payee_id, BlotterColumns.payee, row[BlotterListColumns.payee_id.ordinal()], payees);
+        full[BlotterColumns.note.ordinal()] = row[BlotterListColumns.note.ordinal()];
+        full[BlotterColumns.from_amount.ordinal()] = row[BlotterListColumns.from_amount.ordinal()];
+        full[BlotterColumns.to_amount.ordinal()] = row[BlotterListColumns.to_amount.ordinal()];
+        full[BlotterColumns.datetime.ordinal()] = row[BlotterListColumns.datetime.ordinal()];
+        full[BlotterColumns.original_currency_id.ordinal()] = row[BlotterListColumns.original_currency_id.ordinal()];
+        full[BlotterColumns.original_from_amount.ordinal()] = row[BlotterListColumns.original_from_amount.ordinal()];
+        full[BlotterColumns.is_template.ordinal()] = row[BlotterListColumns.is_template.ordinal()];
+        full[BlotterColumns.status.ordinal()] = row[BlotterListColumns.status.ordinal()];
+        full[BlotterColumns.from_account_balance.ordinal()] = row[BlotterListColumns.from_account_balance.ordinal()];
+        full[BlotterColumns.to_account_balance.ordinal()] = row[BlotterListColumns.to_account_balance.ordinal()];
+        full[BlotterColumns.is_transfer.ordinal()] = row[BlotterListColumns.is_transfer.ordinal()];
+        return full;
+    }
+
+    // same as a left outer join, the id is null when there is no such row
+    private static void lookup(String[] full, BlotterColumns idColumn, BlotterColumns titleColumn, String id, Map<Long, String> titles) {
+        Long key = toId(id);
+        if (titles.containsKey(key)) {
+            full[idColumn.ordinal()] = id;
+            full[titleColumn.ordinal()] = titles.get(key);
+        }
+    }
+
+    private static Long toId(String id) {
+        return id != null ? Long.valueOf(id) : null;
+    }
+
+}
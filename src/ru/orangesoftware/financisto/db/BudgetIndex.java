@@ -0,0 +1,272 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import ru.orangesoftware.financisto.blotter.BlotterFilter;
+import ru.orangesoftware.financisto.model.Budget;
+import ru.orangesoftware.financisto.model.Category;
+import ru.orangesoftware.financisto.model.MyEntity;
+import ru.orangesoftware.financisto.model.Project;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+import static ru.orangesoftware.financisto.db.DatabaseHelper.V_BLOTTER_FOR_ACCOUNT_WITH_SPLITS;
+
+/**
+ * Calculates the balances of many budgets in one scan of the blotter.
+ * Every budget is turned into an in-memory matcher, the same conditions as {@link BudgetPredicate},
+ * and the matchers are indexed by their date windows: the transactions come ordered by date
+ * and only the budgets whose window covers the current date are checked.
+ */
+public class BudgetIndex {
+
+    private static final String[] COLUMNS = {
+            BlotterFilter.DATETIME, BlotterFilter.FROM_ACCOUNT_CURRENCY_ID, BlotterFilter.FROM_ACCOUNT_ID,
+            BlotterFilter.CATEGORY_ID, BlotterFilter.CATEGORY_LEFT, BlotterFilter.PROJECT_ID, "from_amount"
+    };
+
+    private static final Comparator<Matcher> BY_START_DATE = new Comparator<Matcher>() {
+        @Override
+        public int compare(Matcher m1, Matcher m2) {
+            return m1.startDate < m2.startDate ? -1 : (m1.startDate > m2.startDate ? 1 : 0);
+        }
+    };
+
+    private final Matcher[] matchers;
+
+    public BudgetIndex(List<Budget> budgets, Map<Long, Category> categories, Map<Long, Project> projects) {
+        this.matchers = new Matcher[budgets.size()];
+        for (int i = 0; i < matchers.length; i++) {
+            matchers[i] = new Matcher(i, budgets.get(i), categories, projects);
+        }
+        Arrays.sort(matchers, BY_START_DATE);
+    }
+
+    /**
+     * @return spent amount of every budget in the order the budgets were given
+     */
+    public long[] fetchBalances(SQLiteDatabase db) {
+        long[] spent = new long[matchers.length];
+        if (matchers.length == 0) {
+            return spent;
+        }
+        Cursor c = db.query(V_BLOTTER_FOR_ACCOUNT_WITH_SPLITS, COLUMNS, createWhere(), null, null, null,
+                BlotterFilter.SORT_OLDER_TO_NEWER);
+        try {
+            List<Matcher> active = new ArrayList<Matcher>();
+            int next = 0;
+            while (c.moveToNext()) {
+                long dateTime = c.getLong(0);
+                while (next < matchers.length && matchers[next].startDate <= dateTime) {
+                    active.add(matchers[next++]);
+                }
+                if (active.isEmpty()) {
+                    continue;
+                }
+                long currencyId = c.getLong(1);
+                long accountId = c.getLong(2);
+                long categoryId = c.getLong(3);
+                long categoryLeft = c.isNull(4) ? -1 : c.getLong(4);
+                long projectId = c.isNull(5) ? -1 : c.getLong(5);
+                long amount = c.getLong(6);
+                for (int i = active.size() - 1; i >= 0; i--) {
+                    Matcher m = active.get(i);
+                    if (m.endDate < dateTime) {
+                        // ordered by date, so the window is over for good
+                        Collections.swap(active, i, active.size() - 1);
+                        active.remove(active.size() - 1);
+                    } else if (m.matches(currencyId, accountId, categoryId, categoryLeft, projectId, amount)) {
+                        spent[m.position] += amount;
+                    }
+                }
+            }
+        } finally {
+            c.close();
+        }
+        return spent;
+    }
+
+    /**
+     * Adds the rows of one transaction, as returned by {@link #queryTransaction}, to the balances of the budgets
+     * the rows fall into
+     * @param sign -1 to take the rows out of the balances
+     */
+    public void add(Cursor c, long[] spent, int sign) {
+        while (c.moveToNext()) {
+            long dateTime = c.getLong(0);
+            long currencyId = c.getLong(1);
+            long accountId = c.getLong(2);
+            long categoryId = c.getLong(3);
+            long categoryLeft = c.isNull(4) ? -1 : c.getLong(4);
+            long projectId = c.isNull(5) ? -1 : c.getLong(5);
+            long amount = c.getLong(6);
+            for (Matcher m : matchers) {
+                if (m.startDate <= dateTime && dateTime <= m.endDate
+                        && m.matches(currencyId, accountId, categoryId, categoryLeft, projectId, amount)) {
+                    spent[m.position] += sign * amount;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the blotter rows of the transaction and its splits
+     */
+    public static Cursor queryTransaction(SQLiteDatabase db, long transactionId) {
+        String id = String.valueOf(transactionId);
+        return db.query(V_BLOTTER_FOR_ACCOUNT_WITH_SPLITS, COLUMNS, "_id=? OR " + BlotterFilter.PARENT_ID + "=?",
+                new String[]{id, id}, null, null, null);
+    }
+
+    private String createWhere() {
+        long from = Long.MAX_VALUE, to = Long.MIN_VALUE;
+        for (Matcher m : matchers) {
+            from = Math.min(from, m.startDate);
+            to = Math.max(to, m.endDate);
+        }
+        StringBuilder sb = new StringBuilder(" 1=1 ");
+        if (from > 0) {
+            sb.append(" AND ").append(BlotterFilter.DATETIME).append(">=").append(from);
+        }
+        if (to < Long.MAX_VALUE) {
+            sb.append(" AND ").append(BlotterFilter.DATETIME).append("<=").append(to);
+        }
+        return sb.toString();
+    }
+
+    private static class Matcher {
+
+        final int position;
+        final long startDate;
+        final long endDate;
+
+        private final long currencyId;
+        private final long accountId;
+        private final boolean expanded;
+        private final boolean includeCredit;
+        // either sorted ids or sorted [left, right] ranges when subcategories are included
+        private final long[] categoryIds;
+        private final long[] categoryRanges;
+        private final long[] projectIds;
+
+        Matcher(int position, Budget b, Map<Long, Category> categories, Map<Long, Project> projects) {
+            this.position = position;
+            this.startDate = b.startDate > 0 ? b.startDate : Long.MIN_VALUE;
+            this.endDate = b.endDate > 0 ? b.endDate : Long.MAX_VALUE;
+            this.currencyId = b.currency != null ? b.currency.id : -1;
+            this.accountId = b.currency == null && b.account != null ? b.account.id : -1;
+            this.expanded = b.expanded;
+            this.includeCredit = b.includeCredit;
+            List<Category> selected = selected(b.categories, categories);
+            if (b.includeSubcategories) {
+                this.categoryIds = null;
+                this.categoryRanges = selected.isEmpty() ? null : ranges(selected);
+            } else {
+                this.categoryIds = selected.isEmpty() ? null : ids(selected);
+                this.categoryRanges = null;
+            }
+            List<Project> selectedProjects = selected(b.projects, projects);
+            this.projectIds = selectedProjects.isEmpty() ? null : ids(selectedProjects);
+        }
+
+        boolean matches(long currencyId, long accountId, long categoryId, long categoryLeft, long projectId, long amount) {
+            if (this.currencyId != -1 && this.currencyId != currencyId) {
+                return false;
+            }
+            if (this.accountId != -1 && this.accountId != accountId) {
+                return false;
+            }
+            if (!includeCredit && amount >= 0) {
+                return false;
+            }
+            boolean hasCategories = categoryIds != null || categoryRanges != null;
+            boolean hasProjects = projectIds != null;
+            if (hasCategories && hasProjects) {
+                boolean c = matchesCategory(categoryId, categoryLeft);
+                boolean p = matchesProject(projectId);
+                return expanded ? c || p : c && p;
+            } else if (hasCategories) {
+                return matchesCategory(categoryId, categoryLeft);
+            } else if (hasProjects) {
+                return matchesProject(projectId);
+            }
+            return true;
+        }
+
+        private boolean matchesCategory(long categoryId, long categoryLeft) {
+            if (categoryIds != null) {
+                return Arrays.binarySearch(categoryIds, categoryId) >= 0;
+            }
+            if (categoryLeft < 0) {
+                return false;
+            }
+            for (int i = 0; i < categoryRanges.length; i += 2) {
+                if (categoryLeft < categoryRanges[i]) {
+                    return false;
+                }
+                if (categoryLeft <= categoryRanges[i + 1]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private boolean matchesProject(long projectId) {
+            return Arrays.binarySearch(projectIds, projectId) >= 0;
+        }
+
+        private static <T extends MyEntity> List<T> selected(String s, Map<Long, T> entities) {
+            List<T> list = new ArrayList<T>();
+            long[] ids = MyEntity.splitIds(s);
+            if (ids != null) {
+                for (long id : ids) {
+                    T e = entities.get(id);
+                    if (e != null) {
+                        list.add(e);
+                    }
+                }
+            }
+            return list;
+        }
+
+        private static long[] ids(List<? extends MyEntity> entities) {
+            long[] ids = new long[entities.size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = entities.get(i).id;
+            }
+            Arrays.sort(ids);
+            return ids;
+        }
+
+        private static long[] ranges(List<Category> categories) {
+            List<Category> sorted = new ArrayList<Category>(categories);
+            Collections.sort(sorted, new Comparator<Category>() {
+                @Override
+                public int compare(Category c1, Category c2) {
+                    return c1.left < c2.left ? -1 : (c1.left > c2.left ? 1 : 0);
+                }
+            });
+            long[] ranges = new long[2 * sorted.size()];
+            for (int i = 0; i < sorted.size(); i++) {
+                ranges[2 * i] = sorted.get(i).left;
+                ranges[2 * i + 1] = sorted.get(i).right;
+            }
+            return ranges;
+        }
+
+    }
+
+}
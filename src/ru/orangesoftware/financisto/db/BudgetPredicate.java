@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import ru.orangesoftware.financisto.blotter.BlotterFilter;
+import ru.orangesoftware.financisto.model.Budget;
+import ru.orangesoftware.financisto.model.Category;
+import ru.orangesoftware.financisto.model.MyEntity;
+import ru.orangesoftware.financisto.model.Project;
+import ru.orangesoftware.financisto.utils.ParseCache;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Budget condition on the blotter with all the ids and dates bound as arguments.
+ * The SQL text depends only on the shape of the budget (how many categories and projects,
+ * which options are set), so all the periods of a recurring budget and most budgets in the list
+ * share the same statement and SQLite reuses its compiled plan.
+ */
+public class BudgetPredicate {
+
+    static final ParseCache<String> WHERE = new ParseCache<String>(64) {
+        @Override
+        protected String parse(String shape) {
+            return createWhere(shape);
+        }
+    };
+
+    public final String where;
+    public final String[] args;
+
+    private BudgetPredicate(String where, String[] args) {
+        this.where = where;
+        this.args = args;
+    }
+
+    public static BudgetPredicate compile(Budget b, Map<Long, Category> categories, Map<Long, Project> projects) {
+        List<String> args = new ArrayList<String>();
+        char owner = 'n';
+        if (b.currency != null) {
+            owner = 'c';
+            args.add(String.valueOf(b.currency.id));
+        } else if (b.account != null) {
+            owner = 'a';
+            args.add(String.valueOf(b.account.id));
+        }
+        int categoriesCount = 0;
+        long[] categoryIds = MyEntity.splitIds(b.categories);
+        if (categoryIds != null) {
+            for (long id : categoryIds) {
+                Category c = categories.get(id);
+                if (c != null) {
+                    args.add(String.valueOf(c.id));
+                    categoriesCount++;
+                }
+            }
+        }
+        int projectsCount = 0;
+        long[] projectIds = MyEntity.splitIds(b.projects);
+        if (projectIds != null) {
+            for (long id : projectIds) {
+                Project p = projects.get(id);
+                if (p != null) {
+                    args.add(String.valueOf(p.id));
+                    projectsCount++;
+                }
+            }
+        }
+        if (b.startDate > 0) {
+            args.add(String.valueOf(b.startDate));
+        }
+        if (b.endDate > 0) {
+            args.add(String.valueOf(b.endDate));
+        }
+        String shape = owner + "," + categoriesCount + "," + flag(b.includeSubcategories) + "," + projectsCount
+                + "," + flag(b.expanded) + "," + flag(b.startDate > 0) + "," + flag(b.endDate > 0) + "," + flag(b.includeCredit);
+        return new BudgetPredicate(WHERE.get(shape), args.toArray(new String[args.size()]));
+    }
+
+    private static char flag(boolean b) {
+        return b ? '1' : '0';
+    }
+
+    private static String createWhere(String shape) {
+        String[] a = shape.split(",");
+        char owner = a[0].charAt(0);
+        int categoriesCount = Integer.parseInt(a[1]);
+        boolean includeSubcategories = "1".equals(a[2]);
+        int projectsCount = Integer.parseInt(a[3]);
+        boolean expanded = "1".equals(a[4]);
+        boolean hasStartDate = "1".equals(a[5]);
+        boolean hasEndDate = "1".equals(a[6]);
+        boolean includeCredit = "1".equals(a[7]);
+        StringBuilder sb = new StringBuilder();
+        // currency
+        if (owner == 'c') {
+            sb.append(BlotterFilter.FROM_ACCOUNT_CURRENCY_ID).append("=?");
+        } else if (owner == 'a') {
+            sb.append(BlotterFilter.FROM_ACCOUNT_ID).append("=?");
+        } else {
+            sb.append(" 1=1 ");
+        }
+        // categories & projects
+        String categoriesWhere = repeat(includeSubcategories
+                ? BlotterFilter.CATEGORY_ID + CategoryClosure.IN_SUBTREE
+                : BlotterFilter.CATEGORY_ID + "=?", categoriesCount);
+        String projectsWhere = repeat(BlotterFilter.PROJECT_ID + "=?", projectsCount);
+        if (categoriesCount > 0 && projectsCount > 0) {
+            sb.append(" AND ((").append(categoriesWhere).append(") ");
+            sb.append(expanded ? "OR" : "AND");
+            sb.append(" (").append(projectsWhere).append("))");
+        } else if (categoriesCount > 0) {
+            sb.append(" AND (").append(categoriesWhere).append(")");
+        } else if (projectsCount > 0) {
+            sb.append(" AND (").append(projectsWhere).append(")");
+        }
+        // start date
+        if (hasStartDate) {
+            sb.append(" AND ").append(BlotterFilter.DATETIME).append(">=?");
+        }
+        // end date
+        if (hasEndDate) {
+            sb.append(" AND ").append(BlotterFilter.DATETIME).append("<=?");
+        }
+        if (!includeCredit) {
+            sb.append(" AND from_amount<0");
+        }
+        return sb.toString();
+    }
+
+    private static String repeat(String condition, int count) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                sb.append(" OR ");
+            }
+            sb.append(condition);
+        }
+        return sb.toString();
+    }
+
+}
@@ -0,0 +1,270 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+import android.util.Log;
+import ru.orangesoftware.financisto.db.DatabaseHelper.BudgetSpentColumns;
+import ru.orangesoftware.financisto.model.Budget;
+import ru.orangesoftware.financisto.model.Category;
+import ru.orangesoftware.financisto.model.MyEntity;
+import ru.orangesoftware.financisto.model.Project;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static ru.orangesoftware.financisto.db.DatabaseHelper.BUDGET_SPENT_TABLE;
+import static ru.orangesoftware.financisto.db.DatabaseHelper.BUDGET_TABLE;
+import static ru.orangesoftware.financisto.db.DatabaseHelper.PROJECT_TABLE;
+
+/**
+ * Materialized spent amount of the budgets.
+ * A budget gets its row the first time it is read, after that every transaction written through
+ * {@link DatabaseAdapter} moves the amounts of the budgets it falls into. Bulk changes simply
+ * drop the rows and {@link #verify()} fixes whatever has been changed behind the back of the adapter.
+ */
+public class BudgetSpent {
+
+    private static final String TAG = "BudgetSpent";
+
+    private static final String BUDGETS_FOR_PERIOD = "SELECT b._id FROM " + BUDGET_TABLE + " b"
+            + " INNER JOIN " + BUDGET_SPENT_TABLE + " s ON s." + BudgetSpentColumns.budget_id + "=b._id"
+            + " WHERE (b.start_date<=? OR b.start_date=0) AND (b.end_date>=? OR b.end_date=0)";
+
+    private static final String UPDATE_SPENT = "UPDATE " + BUDGET_SPENT_TABLE + " SET "
+            + BudgetSpentColumns.spent + "=" + BudgetSpentColumns.spent + "+? WHERE " + BudgetSpentColumns.budget_id + "=?";
+
+    private final DatabaseAdapter db;
+
+    public BudgetSpent(DatabaseAdapter db) {
+        this.db = db;
+    }
+
+    /**
+     * @return spent amount of every budget in the same order, the missing ones are calculated and stored
+     */
+    public long[] getSpent(List<Budget> budgets, Map<Long, Category> categories, Map<Long, Project> projects) {
+        Map<Long, Long> stored = readAll();
+        long[] spent = new long[budgets.size()];
+        List<Budget> missing = new ArrayList<Budget>();
+        List<Integer> positions = new ArrayList<Integer>();
+        for (int i = 0; i < spent.length; i++) {
+            Budget b = budgets.get(i);
+            Long amount = stored.get(b.id);
+            if (amount != null) {
+                spent[i] = amount;
+            } else {
+                missing.add(b);
+                positions.add(i);
+            }
+        }
+        if (!missing.isEmpty()) {
+            long[] calculated = new BudgetIndex(missing, categories, projects).fetchBalances(db.db());
+            SQLiteDatabase sqlDb = db.db();
+            sqlDb.beginTransaction();
+            try {
+                for (int i = 0; i < calculated.length; i++) {
+                    spent[positions.get(i)] = calculated[i];
+                    long budgetId = missing.get(i).id;
+                    if (budgetId > 0) {
+                        store(budgetId, calculated[i]);
+                    }
+                }
+                sqlDb.setTransactionSuccessful();
+            } finally {
+                sqlDb.endTransaction();
+            }
+            Log.i(TAG, "Materialized spent amount of " + missing.size() + " budgets");
+        }
+        return spent;
+    }
+
+    /**
+     * Moves the amounts of the budgets the transaction and its splits fall into
+     * @param sign 1 after the transaction is written, -1 before it is changed or deleted
+     */
+    void add(long transactionId, int sign) {
+        if (isEmpty()) {
+            return;
+        }
+        SQLiteDatabase sqlDb = db.db();
+        Cursor c = BudgetIndex.queryTransaction(sqlDb, transactionId);
+        try {
+            long from = Long.MAX_VALUE, to = Long.MIN_VALUE;
+            while (c.moveToNext()) {
+                from = Math.min(from, c.getLong(0));
+                to = Math.max(to, c.getLong(0));
+            }
+            if (from > to) {
+                return;
+            }
+            List<Budget> budgets = loadBudgets(from, to);
+            if (budgets.isEmpty()) {
+                return;
+            }
+            long[] delta = new long[budgets.size()];
+            c.moveToPosition(-1);
+            new BudgetIndex(budgets, categories(budgets), projects(budgets)).add(c, delta, sign);
+            for (int i = 0; i < delta.length; i++) {
+                if (delta[i] != 0) {
+                    sqlDb.execSQL(UPDATE_SPENT, new Object[]{delta[i], budgets.get(i).id});
+                }
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Recalculates every materialized amount from scratch and fixes the ones that drifted
+     * @return number of fixed budgets
+     */
+    public int verify() {
+        Map<Long, Long> stored = readAll();
+        if (stored.isEmpty()) {
+            return 0;
+        }
+        int fixed = 0;
+        List<Budget> budgets = new ArrayList<Budget>();
+        MyEntityManager em = db.em();
+        for (long budgetId : stored.keySet()) {
+            Budget b = em.get(Budget.class, budgetId);
+            if (b != null) {
+                budgets.add(b);
+            } else {
+                remove(budgetId);
+            }
+        }
+        long[] spent = new BudgetIndex(budgets, categories(budgets), projects(budgets)).fetchBalances(db.db());
+        for (int i = 0; i < spent.length; i++) {
+            Budget b = budgets.get(i);
+            long expected = stored.get(b.id);
+            if (expected != spent[i]) {
+                Log.w(TAG, "Budget " + b.id + " has drifted: " + expected + " instead of " + spent[i]);
+                store(b.id, spent[i]);
+                fixed++;
+            }
+        }
+        return fixed;
+    }
+
+    public void clear() {
+        db.db().delete(BUDGET_SPENT_TABLE, null, null);
+    }
+
+    private boolean isEmpty() {
+        Cursor c = db.db().rawQuery("SELECT 1 FROM " + BUDGET_SPENT_TABLE + " LIMIT 1", null);
+        try {
+            return !c.moveToFirst();
+        } finally {
+            c.close();
+        }
+    }
+
+    private Map<Long, Long> readAll() {
+        Map<Long, Long> stored = new HashMap<Long, Long>();
+        Cursor c = db.db().query(BUDGET_SPENT_TABLE, BudgetSpentColumns.NORMAL_PROJECTION, null, null, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                stored.put(c.getLong(BudgetSpentColumns.budget_id.ordinal()), c.getLong(BudgetSpentColumns.spent.ordinal()));
+            }
+        } finally {
+            c.close();
+        }
+        return stored;
+    }
+
+    private List<Budget> loadBudgets(long from, long to) {
+        List<Budget> budgets = new ArrayList<Budget>();
+        MyEntityManager em = db.em();
+        Cursor c = db.db().rawQuery(BUDGETS_FOR_PERIOD, new String[]{String.valueOf(to), String.valueOf(from)});
+        try {
+            while (c.moveToNext()) {
+                Budget b = em.get(Budget.class, c.getLong(0));
+                if (b != null) {
+                    budgets.add(b);
+                }
+            }
+        } finally {
+            c.close();
+        }
+        return budgets;
+    }
+
+    private void store(long budgetId, long spent) {
+        ContentValues values = new ContentValues();
+        values.put(BudgetSpentColumns.budget_id.name(), budgetId);
+        values.put(BudgetSpentColumns.spent.name(), spent);
+        db.db().insertWithOnConflict(BUDGET_SPENT_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    private void remove(long budgetId) {
+        db.db().delete(BUDGET_SPENT_TABLE, BudgetSpentColumns.budget_id + "=?", new String[]{String.valueOf(budgetId)});
+    }
+
+    /**
+     * Only the categories selected by the budgets, taken from the shared {@link CategorySnapshot}
+     * instead of loading all of them for every written transaction
+     */
+    private Map<Long, Category> categories(List<Budget> budgets) {
+        CategorySnapshot snapshot = db.getCategorySnapshot();
+        Map<Long, Category> categories = new HashMap<Long, Category>();
+        for (long id : selectedIds(budgets, true)) {
+            int i = id >= Category.NO_CATEGORY_ID ? snapshot.indexOf(id) : -1;
+            if (i >= 0) {
+                categories.put(id, snapshot.createCategory(i));
+            }
+        }
+        return categories;
+    }
+
+    /**
+     * Only the projects selected by the budgets which still exist, the matcher needs nothing but their ids
+     */
+    private Map<Long, Project> projects(List<Budget> budgets) {
+        Map<Long, Project> projects = new HashMap<Long, Project>();
+        Set<Long> ids = selectedIds(budgets, false);
+        if (ids.isEmpty()) {
+            return projects;
+        }
+        Cursor c = db.db().query(PROJECT_TABLE, new String[]{"_id"}, "_id IN (" + TextUtils.join(",", ids) + ")",
+                null, null, null, null);
+        try {
+            while (c.moveToNext()) {
+                Project p = new Project();
+                p.id = c.getLong(0);
+                projects.put(p.id, p);
+            }
+        } finally {
+            c.close();
+        }
+        return projects;
+    }
+
+    private static Set<Long> selectedIds(List<Budget> budgets, boolean categories) {
+        Set<Long> selected = new HashSet<Long>();
+        for (Budget b : budgets) {
+            long[] ids = MyEntity.splitIds(categories ? b.categories : b.projects);
+            if (ids != null) {
+                for (long id : ids) {
+                    selected.add(id);
+                }
+            }
+        }
+        return selected;
+    }
+
+}
@@ -43,8 +43,10 @@ public class BudgetsTotalCalculator {
         try {
             Map<Long, Category> categories = MyEntity.asMap(db.getCategoriesList(true));
             Map<Long, Project> projects = MyEntity.asMap(em.getAllProjectsList(true));
-            for (final Budget b : budgets) {
-                final long spent = db.fetchBudgetBalance(categories, projects, b);
+            long[] balances = db.budgetSpent().getSpent(budgets, categories, projects);
+            for (int i = 0; i < balances.length; i++) {
+                final Budget b = budgets.get(i);
+                final long spent = balances[i];
                 final String categoriesText = getChecked(categories, b.categories);
                 final String projectsText = getChecked(projects, b.projects);
                 b.spent = spent;
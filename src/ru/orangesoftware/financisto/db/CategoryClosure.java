@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import ru.orangesoftware.financisto.db.DatabaseHelper.CategoryClosureColumns;
+import ru.orangesoftware.financisto.db.DatabaseHelper.CategoryColumns;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static ru.orangesoftware.financisto.db.DatabaseHelper.CATEGORY_CLOSURE_TABLE;
+import static ru.orangesoftware.financisto.db.DatabaseHelper.CATEGORY_TABLE;
+
+/**
+ * Category hierarchy as (ancestor, descendant, depth) rows plus parent_id of every category,
+ * so subtrees and parents are found with indexed equality joins instead of range scans on the nested set.
+ * The nested set is still the source of the order of categories, the closure is maintained next to it.
+ * Only real categories (id > 0) are in the closure, every category is its own ancestor at depth 0.
+ */
+public class CategoryClosure {
+
+    private static final String INSERT_ANCESTORS = "INSERT INTO " + CATEGORY_CLOSURE_TABLE
+            + " (" + CategoryClosureColumns.ancestor_id + "," + CategoryClosureColumns.descendant_id + "," + CategoryClosureColumns.depth + ")"
+            + " SELECT " + CategoryClosureColumns.ancestor_id + ",?," + CategoryClosureColumns.depth + "+1 FROM " + CATEGORY_CLOSURE_TABLE
+            + " WHERE " + CategoryClosureColumns.descendant_id + "=?";
+
+    private static final String SUBTREE = "SELECT " + CategoryClosureColumns.descendant_id + " FROM " + CATEGORY_CLOSURE_TABLE
+            + " WHERE " + CategoryClosureColumns.ancestor_id + "=?";
+
+    private static final String DETACH_SUBTREE = "DELETE FROM " + CATEGORY_CLOSURE_TABLE
+            + " WHERE " + CategoryClosureColumns.descendant_id + " IN (" + SUBTREE + ")"
+            + " AND " + CategoryClosureColumns.ancestor_id + " NOT IN (" + SUBTREE + ")";
+
+    private static final String ATTACH_SUBTREE = "INSERT INTO " + CATEGORY_CLOSURE_TABLE
+            + " (" + CategoryClosureColumns.ancestor_id + "," + CategoryClosureColumns.descendant_id + "," + CategoryClosureColumns.depth + ")"
+            + " SELECT a." + CategoryClosureColumns.ancestor_id + ", d." + CategoryClosureColumns.descendant_id + ", a." + CategoryClosureColumns.depth + "+d." + CategoryClosureColumns.depth + "+1"
+            + " FROM " + CATEGORY_CLOSURE_TABLE + " a, " + CATEGORY_CLOSURE_TABLE + " d"
+            + " WHERE a." + CategoryClosureColumns.descendant_id + "=? AND d." + CategoryClosureColumns.ancestor_id + "=?";
+
+    private static final String DELETE_SUBTREE = "DELETE FROM " + CATEGORY_CLOSURE_TABLE
+            + " WHERE " + CategoryClosureColumns.descendant_id + " IN (" + SUBTREE + ")";
+
+    /**
+     * Condition on a column with category id to select the category with all its subcategories
+     */
+    public static final String IN_SUBTREE = " IN (" + SUBTREE + ")";
+
+    private final SQLiteDatabase db;
+
+    public CategoryClosure(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Adds a new leaf category under the parent, 0 for a top level category
+     */
+    public void insert(long id, long parentId) {
+        setParent(id, parentId);
+        ContentValues values = new ContentValues();
+        values.put(CategoryClosureColumns.ancestor_id.name(), id);
+        values.put(CategoryClosureColumns.descendant_id.name(), id);
+        values.put(CategoryClosureColumns.depth.name(), 0);
+        db.insert(CATEGORY_CLOSURE_TABLE, null, values);
+        if (parentId > 0) {
+            db.execSQL(INSERT_ANCESTORS, new Object[]{id, parentId});
+        }
+    }
+
+    /**
+     * Moves the category with its subtree under the new parent
+     */
+    public void move(long id, long newParentId) {
+        db.execSQL(DETACH_SUBTREE, new Object[]{id, id});
+        if (newParentId > 0) {
+            db.execSQL(ATTACH_SUBTREE, new Object[]{newParentId, id});
+        }
+        setParent(id, newParentId);
+    }
+
+    /**
+     * Removes the category with its subtree, must be called before the categories are deleted
+     */
+    public void delete(long id) {
+        db.execSQL(DELETE_SUBTREE, new Object[]{id});
+    }
+
+    /**
+     * Recreates the closure and the parents from the nested set in one pass over the categories ordered by left
+     */
+    public void rebuild() {
+        db.beginTransaction();
+        try {
+            db.delete(CATEGORY_CLOSURE_TABLE, null, null);
+            SQLiteStatement insert = db.compileStatement("INSERT INTO " + CATEGORY_CLOSURE_TABLE
+                    + " (" + CategoryClosureColumns.ancestor_id + "," + CategoryClosureColumns.descendant_id + "," + CategoryClosureColumns.depth + ") VALUES (?,?,?)");
+            SQLiteStatement update = db.compileStatement("UPDATE " + CATEGORY_TABLE
+                    + " SET " + CategoryColumns.parent_id + "=? WHERE " + CategoryColumns._id + "=?");
+            Cursor c = db.query(CATEGORY_TABLE, new String[]{CategoryColumns._id.name(), CategoryColumns.left.name(), CategoryColumns.right.name()},
+                    CategoryColumns._id + ">0", null, null, null, CategoryColumns.left.name());
+            try {
+                // ancestors of the current category as {id, right}
+                List<long[]> path = new ArrayList<long[]>();
+                while (c.moveToNext()) {
+                    long id = c.getLong(0);
+                    long left = c.getLong(1);
+                    long right = c.getLong(2);
+                    while (!path.isEmpty() && path.get(path.size() - 1)[1] < left) {
+                        path.remove(path.size() - 1);
+                    }
+                    update.bindLong(1, path.isEmpty() ? 0 : path.get(path.size() - 1)[0]);
+                    update.bindLong(2, id);
+                    update.execute();
+                    int size = path.size();
+                    for (int i = 0; i <= size; i++) {
+                        insert.bindLong(1, i < size ? path.get(i)[0] : id);
+                        insert.bindLong(2, id);
+                        insert.bindLong(3, size - i);
+                        insert.executeInsert();
+                    }
+                    if (right - left > 1) {
+                        path.add(new long[]{id, right});
+                    }
+                }
+            } finally {
+                c.close();
+                insert.close();
+                update.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void setParent(long id, long parentId) {
+        ContentValues values = new ContentValues();
+        values.put(CategoryColumns.parent_id.name(), parentId);
+        db.update(CATEGORY_TABLE, values, CategoryColumns._id + "=?", new String[]{String.valueOf(id)});
+    }
+
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import ru.orangesoftware.financisto.db.DatabaseHelper.CategoryViewColumns;
+import ru.orangesoftware.financisto.model.Category;
+import ru.orangesoftware.financisto.model.CategoryTree;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static ru.orangesoftware.financisto.db.DatabaseHelper.V_CATEGORY;
+
+/**
+ * Immutable copy of the category hierarchy in parallel arrays ordered by left,
+ * with full paths and depths calculated once. It is shared by everybody until a category write
+ * bumps the version, see {@link DatabaseAdapter#getCategorySnapshot()}.
+ * Only the hierarchy is kept, last location and last project of a category should be read from the database.
+ */
+public class CategorySnapshot {
+
+    /**
+     * Same as {@link ru.orangesoftware.financisto.export.CategoryInfo#SEPARATOR}
+     */
+    public static final char PATH_SEPARATOR = ':';
+
+    private final long version;
+    private final long[] ids;
+    private final String[] titles;
+    private final int[] lefts;
+    private final int[] rights;
+    private final int[] types;
+    private final int[] parents;
+    private final int[] depths;
+    private final String[] paths;
+    private final Map<Long, Integer> index;
+
+    private CategorySnapshot(long version, int size) {
+        this.version = version;
+        this.ids = new long[size];
+        this.titles = new String[size];
+        this.lefts = new int[size];
+        this.rights = new int[size];
+        this.types = new int[size];
+        this.parents = new int[size];
+        this.depths = new int[size];
+        this.paths = new String[size];
+        this.index = new HashMap<Long, Integer>(size * 2);
+    }
+
+    public static CategorySnapshot create(SQLiteDatabase db, long version) {
+        Cursor c = db.query(V_CATEGORY, CategoryViewColumns.NORMAL_PROJECTION, null, null, null, null, null);
+        try {
+            return fromCursor(c, version);
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * @param c v_category cursor ordered by left, so every parent comes before its children
+     */
+    public static CategorySnapshot fromCursor(Cursor c, long version) {
+        CategorySnapshot s = new CategorySnapshot(version, c.getCount());
+        int i = 0;
+        while (c.moveToNext()) {
+            long id = c.getLong(CategoryViewColumns._id.ordinal());
+            String title = c.getString(CategoryViewColumns.title.ordinal());
+            Integer parent = s.index.get(c.getLong(CategoryViewColumns.parent_id.ordinal()));
+            int p = id > 0 && parent != null && s.ids[parent] > 0 ? parent : -1;
+            s.ids[i] = id;
+            s.titles[i] = title;
+            s.lefts[i] = c.getInt(CategoryViewColumns.left.ordinal());
+            s.rights[i] = c.getInt(CategoryViewColumns.right.ordinal());
+            s.types[i] = c.getInt(CategoryViewColumns.type.ordinal());
+            s.parents[i] = p;
+            s.depths[i] = p < 0 ? 0 : s.depths[p] + 1;
+            s.paths[i] = p < 0 ? title : s.paths[p] + PATH_SEPARATOR + title;
+            s.index.put(id, i);
+            i++;
+        }
+        return s;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @return position of the category or -1 if there is no such category
+     */
+    public int indexOf(long id) {
+        Integer i = index.get(id);
+        return i != null ? i : -1;
+    }
+
+    public long getId(int i) {
+        return ids[i];
+    }
+
+    public String getTitle(int i) {
+        return titles[i];
+    }
+
+    public int getLeft(int i) {
+        return lefts[i];
+    }
+
+    public int getRight(int i) {
+        return rights[i];
+    }
+
+    public int getType(int i) {
+        return types[i];
+    }
+
+    /**
+     * @return position of the parent or -1 for a top level category
+     */
+    public int getParentIndex(int i) {
+        return parents[i];
+    }
+
+    /**
+     * @return 0 for a top level category
+     */
+    public int getDepth(int i) {
+        return depths[i];
+    }
+
+    /**
+     * @return titles of the category and all its parents joined with {@link #PATH_SEPARATOR}
+     */
+    public String getPath(int i) {
+        return paths[i];
+    }
+
+    public String getPath(long id) {
+        int i = indexOf(id);
+        return i >= 0 ? paths[i] : null;
+    }
+
+    /**
+     * @return path of the parent or an empty string for a top level or unknown category
+     */
+    public String getParentPath(long id) {
+        int i = indexOf(id);
+        int p = i >= 0 ? parents[i] : -1;
+        return p >= 0 ? paths[p] : "";
+    }
+
+    /**
+     * @return true if the category is the ancestor itself or any of its subcategories
+     */
+    public boolean isUnder(long id, long ancestorId) {
+        int i = indexOf(id);
+        int a = indexOf(ancestorId);
+        if (i < 0 || a < 0 || ids[i] <= 0 || ids[a] <= 0) {
+            return i >= 0 && i == a;
+        }
+        return lefts[i] >= lefts[a] && rights[i] <= rights[a];
+    }
+
+    /**
+     * @return new mutable category, parent and children are not set
+     */
+    public Category createCategory(int i) {
+        Category c = new Category(ids[i]);
+        c.title = titles[i];
+        c.left = lefts[i];
+        c.right = rights[i];
+        c.type = types[i];
+        c.level = ids[i] > 0 ? depths[i] + 1 : 0;
+        return c;
+    }
+
+    /**
+     * @return new mutable tree, the same as {@link CategoryTree#createFromCursor} over v_category
+     */
+    public CategoryTree<Category> toTree(boolean includeNoCategory) {
+        return toTree(minId(includeNoCategory));
+    }
+
+    /**
+     * @return new mutable categories including split and no category, every one linked to its parent
+     */
+    public Map<Long, Category> toMap() {
+        return toTree(Long.MIN_VALUE).asMap();
+    }
+
+    public List<Category> toList(boolean includeNoCategory) {
+        long minId = minId(includeNoCategory);
+        List<Category> list = new ArrayList<Category>(ids.length);
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] >= minId) {
+                list.add(createCategory(i));
+            }
+        }
+        return list;
+    }
+
+    private CategoryTree<Category> toTree(long minId) {
+        Category[] nodes = new Category[ids.length];
+        ArrayList<Category> roots = new ArrayList<Category>();
+        for (int i = 0; i < ids.length; i++) {
+            if (ids[i] >= minId) {
+                Category c = createCategory(i);
+                nodes[i] = c;
+                int p = parents[i];
+                if (p >= 0 && nodes[p] != null) {
+                    nodes[p].addChild(c);
+                } else {
+                    roots.add(c);
+                }
+            }
+        }
+        return new CategoryTree<Category>(roots);
+    }
+
+    private static long minId(boolean includeNoCategory) {
+        return includeNoCategory ? Category.NO_CATEGORY_ID : Category.NO_CATEGORY_ID + 1;
+    }
+
+    /**
+     * Keeps the current snapshot and the version of the categories for one database
+     */
+    static class Holder {
+
+        private final AtomicLong version = new AtomicLong();
+        private volatile CategorySnapshot snapshot;
+
+        void invalidate() {
+            version.incrementAndGet();
+        }
+
+        CategorySnapshot get(SQLiteDatabase db) {
+            long v = version.get();
+            CategorySnapshot s = snapshot;
+            if (s == null || s.version != v) {
+                // not under a lock, a writer can hold the database while invalidating
+                s = create(db, v);
+                if (version.get() == v) {
+                    snapshot = s;
+                }
+            }
+            return s;
+        }
+
+    }
+
+}
@@ -13,9 +13,11 @@ package ru.orangesoftware.financisto.db;
 
 import android.content.ContentValues;
 import android.content.Context;
+import android.content.pm.ApplicationInfo;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteException;
+import android.text.TextUtils;
 import android.util.Log;
 import ru.orangesoftware.financisto.R;
 import ru.orangesoftware.financisto.blotter.BlotterFilter;
@@ -26,9 +28,9 @@ import ru.orangesoftware.financisto.model.CategoryTree.NodeCreator;
 import ru.orangesoftware.financisto.model.Currency;
 import ru.orangesoftware.financisto.datetime.DateUtils;
 import ru.orangesoftware.financisto.rates.*;
+import ru.orangesoftware.financisto.utils.MyPreferences;
 import ru.orangesoftware.financisto.utils.Utils;
 
-import java.math.BigDecimal;
 import java.util.*;
 
 import ru.orangesoftware.financisto.db.DatabaseHelper.CategoryColumns;
@@ -46,6 +48,7 @@ public class DatabaseAdapter {
 	private final Context context;
     private final DatabaseHelper dbHelper;
 	private final MyEntityManager em;
+    private final boolean debuggable;
 
     private boolean updateAccountBalance = true;
 
@@ -57,6 +60,7 @@ public class DatabaseAdapter {
 		this.context = context;
         this.dbHelper = dbHelper;
         this.em = new MyEntityManager(context, dbHelper);
+        this.debuggable = (context.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
 	}
 	
 	public void open() {
@@ -65,14 +69,110 @@ public class DatabaseAdapter {
 	public void close() {
 	}
 	
+    /**
+     * @return true in debug builds, where query plans are logged
+     */
+    public boolean isDebuggable() {
+        return debuggable;
+    }
+
 	public SQLiteDatabase db() {
 		return dbHelper.getWritableDatabase();
 	}
 
+    /**
+     * Changes whenever anything is written to the database, so results calculated for one version
+     * can be reused while the version stays the same. It relies on all the writes going through
+     * the one connection of {@link DatabaseHelper}.
+     */
+    public long getDataVersion() {
+        SQLiteDatabase db = db();
+        Cursor c = db.rawQuery("SELECT total_changes()", null);
+        try {
+            long changes = c.moveToFirst() ? c.getLong(0) : 0;
+            return ((long) System.identityHashCode(db) << 32) | changes;
+        } finally {
+            c.close();
+        }
+    }
+
 	public MyEntityManager em() {
 		return em;
 	}
 
+    public ScheduleOccurrenceIndex scheduleOccurrenceIndex() {
+        return new ScheduleOccurrenceIndex(db());
+    }
+
+    public ScheduleAlarmQueue scheduleAlarmQueue() {
+        return new ScheduleAlarmQueue(db());
+    }
+
+    public BudgetSpent budgetSpent() {
+        return new BudgetSpent(this);
+    }
+
+    public CategoryClosure categoryClosure() {
+        return new CategoryClosure(db());
+    }
+
+    public SearchIndex searchIndex() {
+        return em.searchIndex();
+    }
+
+    /**
+     * Builds the note index the filter's note criteria is looked up in, see {@link ru.orangesoftware.financisto.filter.NoteCriteria}
+     */
+    public void ensureSearchIndex(WhereFilter filter) {
+        if (filter.get(BlotterFilter.NOTE) != null) {
+            searchIndex().ensureBuilt(SearchIndex.Type.NOTE);
+        }
+    }
+
+    /**
+     * @return categories as of the last category write, shared by all the adapters of the database
+     */
+    public CategorySnapshot getCategorySnapshot() {
+        return dbHelper.categorySnapshot.get(db());
+    }
+
+    /**
+     * Must be called after categories have been changed not through this adapter
+     */
+    public void invalidateCategorySnapshot() {
+        dbHelper.categorySnapshot.invalidate();
+        dbHelper.suggestions.invalidate();
+        searchIndex().invalidate(SearchIndex.Type.CATEGORY);
+    }
+
+    /**
+     * @return payees, categories and projects ranked by use, shared by all the adapters of the database
+     */
+    public Suggestions getSuggestions() {
+        return em.getSuggestions();
+    }
+
+    /**
+     * Must be called after transactions, payees, categories or projects have been changed not through this adapter
+     */
+    public void invalidateSuggestions() {
+        dbHelper.suggestions.invalidate();
+    }
+
+    /**
+     * @return accounts and their totals as of the last account, rate or currency write, shared by all the adapters of the database
+     */
+    public AccountSummary getAccountSummary() {
+        return dbHelper.accountSummary.get(this, MyPreferences.getAccountSortOrder(context));
+    }
+
+    /**
+     * Must be called after accounts, transactions, rates or currencies have been changed not through this adapter
+     */
+    public void invalidateAccountSummary() {
+        dbHelper.accountSummary.invalidate();
+    }
+
 	// ===================================================================
 	// ACCOUNT
 	// ===================================================================
@@ -103,10 +203,13 @@ public class DatabaseAdapter {
 					+" in (SELECT _id from "+TRANSACTION_TABLE+" where "+TransactionColumns.from_account_id +"=?)", sid);
 			db.delete(TRANSACTION_TABLE, TransactionColumns.from_account_id +"=?", sid);
 			int count = db.delete(ACCOUNT_TABLE, "_id=?", sid); 
+			budgetSpent().clear();
+			dbHelper.suggestions.invalidate();
 			db.setTransactionSuccessful();
 			return count;
 		} finally {
 			db.endTransaction();
+			dbHelper.accountSummary.invalidateAccounts();
 		}
 		
 	}
@@ -142,6 +245,24 @@ public class DatabaseAdapter {
         return accountFilter;
     }
 
+    /**
+     * Same rows as {@link #getBlotter(WhereFilter)} read page by page, see {@link PagedBlotterCursor}
+     */
+    public PagedBlotterCursor getPagedBlotter(WhereFilter filter) {
+        String view = BlotterDimensions.canFilter(filter) ? V_BLOTTER_LIST : V_BLOTTER;
+        ensureSearchIndex(filter);
+        return new PagedBlotterCursor(this, view, filter, getBlotterSortOrder(filter));
+    }
+
+    /**
+     * Same rows as {@link #getBlotterForAccount(WhereFilter)} read page by page, see {@link PagedBlotterCursor}
+     */
+    public PagedBlotterCursor getPagedBlotterForAccount(WhereFilter filter) {
+        WhereFilter accountFilter = enhanceFilterForAccountBlotter(filter);
+        ensureSearchIndex(accountFilter);
+        return new PagedBlotterCursor(this, V_BLOTTER_FOR_ACCOUNT_WITH_SPLITS, accountFilter, getBlotterSortOrder(accountFilter));
+    }
+
     public Cursor getBlotterForAccountWithSplits(WhereFilter filter) {
         return getBlotter(V_BLOTTER_FOR_ACCOUNT_WITH_SPLITS, filter);
     }
@@ -149,6 +270,7 @@ public class DatabaseAdapter {
 	private Cursor getBlotter(String view, WhereFilter filter) {
         long t0 = System.currentTimeMillis();
         try {
+            ensureSearchIndex(filter);
             String sortOrder = getBlotterSortOrder(filter);
             return db().query(view, BlotterColumns.NORMAL_PROJECTION,
                 filter.getSelection(), filter.getSelectionArgs(), null, null,
@@ -182,6 +304,7 @@ public class DatabaseAdapter {
 	public Cursor getAllTemplates(WhereFilter filter) {
 		long t0 = System.currentTimeMillis();
 		try {
+			ensureSearchIndex(filter);
 			return db().query(V_ALL_TRANSACTIONS, BlotterColumns.NORMAL_PROJECTION,
 				filter.getSelection(), filter.getSelectionArgs(), null, null, 
 				BlotterFilter.SORT_NEWER_TO_OLDER);
@@ -192,7 +315,11 @@ public class DatabaseAdapter {
 	}
 
     public Cursor getBlotterWithSplits(String where) {
-        return db().query(V_BLOTTER_FOR_ACCOUNT_WITH_SPLITS, BlotterColumns.NORMAL_PROJECTION, where, null, null, null,
+        return getBlotterWithSplits(where, null);
+    }
+
+    public Cursor getBlotterWithSplits(String where, String[] whereArgs) {
+        return db().query(V_BLOTTER_FOR_ACCOUNT_WITH_SPLITS, BlotterColumns.NORMAL_PROJECTION, where, whereArgs, null, null,
                 BlotterColumns.datetime+" DESC");
     }
 
@@ -226,10 +353,23 @@ public class DatabaseAdapter {
 			db.execSQL(ACCOUNT_LAST_ACCOUNT_UPDATE, new Object[]{t.toAccountId, t.fromAccountId});
 		}
         db.execSQL(ACCOUNT_LAST_CATEGORY_UPDATE, new Object[]{t.categoryId, t.fromAccountId});
+        dbHelper.accountSummary.invalidateAccounts();
 		db.execSQL(PAYEE_LAST_CATEGORY_UPDATE, new Object[]{t.categoryId, t.payeeId});
 		db.execSQL(CATEGORY_LAST_LOCATION_UPDATE, new Object[]{t.locationId, t.categoryId});
 		db.execSQL(CATEGORY_LAST_PROJECT_UPDATE, new Object[]{t.projectId, t.categoryId});
 	}
+
+    /**
+     * Counts the transaction in {@link Suggestions}, the same rows as {@link Suggestions#load} counts:
+     * no templates and no splits
+     */
+    private void updateSuggestions(Transaction t, int times) {
+        if (t.isNotTemplateLike() && !t.isSplitChild()) {
+            dbHelper.suggestions.use(Suggestions.Type.PAYEE, t.payeeId, t.dateTime, times);
+            dbHelper.suggestions.use(Suggestions.Type.CATEGORY, t.categoryId, t.dateTime, times);
+            dbHelper.suggestions.use(Suggestions.Type.PROJECT, t.projectId, t.dateTime, times);
+        }
+    }
 	
 	public long duplicateTransaction(long id) {
 		return duplicateTransaction(id, 0, 1);
@@ -255,6 +395,9 @@ public class DatabaseAdapter {
             }
 			transaction.lastRecurrence = now;
 			updateTransaction(transaction);
+			if (transaction.isScheduled()) {
+				scheduleOccurrenceIndex().advance(id, now);
+			}
 			transaction.id = -1;
 			transaction.isTemplate = isTemplate;
 			transaction.dateTime = now;
@@ -289,6 +432,7 @@ public class DatabaseAdapter {
             transaction.id = transactionId;
             transaction.splits = splits;
             insertSplits(transaction);
+            budgetSpent().add(transactionId, 1);
 			db.setTransactionSuccessful();
 			return transactionId;
 		} finally {
@@ -318,6 +462,7 @@ public class DatabaseAdapter {
         if (transaction.id == -1) {
             transactionId = insertTransaction(transaction);
         } else {
+            budgetSpent().add(transaction.id, -1);
             updateTransaction(transaction);
             transactionId = transaction.id;
             db().delete(TRANSACTION_ATTRIBUTE_TABLE, TransactionAttributeColumns.TRANSACTION_ID+"=?",
@@ -329,6 +474,10 @@ public class DatabaseAdapter {
         }
         transaction.id = transactionId;
         insertSplits(transaction);
+        if (transaction.isScheduled() && transaction.parentId == 0) {
+            scheduleOccurrenceIndex().refresh(transactionId, transaction.recurrence, transaction.dateTime, transaction.lastRecurrence);
+        }
+        budgetSpent().add(transactionId, 1);
         updateAccountLastTransactionDate(transaction.fromAccountId);
         updateAccountLastTransactionDate(transaction.toAccountId);
         return transactionId;
@@ -342,6 +491,8 @@ public class DatabaseAdapter {
         } finally {
             updateAccountBalance = true;
         }
+        // imports and purges, not counted one by one
+        dbHelper.suggestions.invalidate();
     }
 
     private void insertAttributes(long transactionId, List<TransactionAttribute> attributes) {
@@ -426,9 +577,13 @@ public class DatabaseAdapter {
                     updateToAccountBalance(t, id);
                     updateLocationCount(t.locationId, 1);
                     updateLastUsed(t);
+                    updateSuggestions(t, 1);
                 }
             }
         }
+        if (Utils.isNotEmpty(t.note)) {
+            searchIndex().index(SearchIndex.Type.NOTE, id, t.note);
+        }
         return id;
     }
 
@@ -444,8 +599,10 @@ public class DatabaseAdapter {
 
     private void updateTransaction(Transaction t) {
         Transaction oldT = null;
+        String oldNote = null;
 		if (t.isNotTemplateLike()) {
 			oldT = getTransaction(t.id);
+			oldNote = oldT.note;
 			updateAccountBalance(oldT.fromAccountId, oldT.fromAmount, t.fromAccountId, t.fromAmount);
 			updateAccountBalance(oldT.toAccountId, oldT.toAmount, t.toAccountId, t.toAmount);
             updateRunningBalance(oldT, t);
@@ -453,6 +610,8 @@ public class DatabaseAdapter {
 				updateLocationCount(oldT.locationId, -1);
 				updateLocationCount(t.locationId, 1);
 			}
+		} else {
+			oldNote = getTransactionNote(t.id);
 		}
 		t.updatedOn=System.currentTimeMillis();
 		db().update(TRANSACTION_TABLE, t.toValues(), TransactionColumns._id +"=?",
@@ -460,15 +619,86 @@ public class DatabaseAdapter {
         if (oldT != null) {
             updateAccountLastTransactionDate(oldT.fromAccountId);
             updateAccountLastTransactionDate(oldT.toAccountId);
+            updateSuggestions(oldT, -1);
+            updateSuggestions(t, 1);
+        }
+        if (!TextUtils.equals(oldNote, t.note)) {
+            searchIndex().index(SearchIndex.Type.NOTE, t.id, t.note);
         }
 	}
 
+    private String getTransactionNote(long id) {
+        Cursor c = db().query(TRANSACTION_TABLE, new String[]{TransactionColumns.note.name()},
+                TransactionColumns._id + "=?", new String[]{String.valueOf(id)}, null, null, null);
+        try {
+            return c.moveToFirst() ? c.getString(0) : null;
+        } finally {
+            c.close();
+        }
+    }
+
     public void updateTransactionStatus(long id, TransactionStatus status) {
         Transaction t = getTransaction(id);
         t.status = status;
         updateTransaction(t);
     }
 
+    /**
+     * Writes columns of a transaction changed outside of the editor, i.e. merged by sync,
+     * and moves the balances, budgets and the schedule index along with the new values
+     */
+    public void updateTransactionColumns(long id, ContentValues values) {
+        SQLiteDatabase db = db();
+        db.beginTransaction();
+        try {
+            Transaction oldT = getTransaction(id);
+            budgetSpent().add(id, -1);
+            revertTransactionBalance(oldT);
+            db.update(TRANSACTION_TABLE, values, TransactionColumns._id+"=?", new String[]{String.valueOf(id)});
+            Transaction t = getTransaction(id);
+            applyTransactionBalance(t);
+            budgetSpent().add(id, 1);
+            updateSuggestions(oldT, -1);
+            updateSuggestions(t, 1);
+            if (!TextUtils.equals(oldT.note, t.note)) {
+                searchIndex().index(SearchIndex.Type.NOTE, id, t.note);
+            }
+            if (t.isScheduled() && t.parentId == 0) {
+                scheduleOccurrenceIndex().refresh(id, t.recurrence, t.dateTime, t.lastRecurrence);
+            } else if (oldT.isScheduled()) {
+                scheduleOccurrenceIndex().remove(id);
+            }
+            updateAccountLastTransactionDate(oldT.fromAccountId);
+            updateAccountLastTransactionDate(oldT.toAccountId);
+            updateAccountLastTransactionDate(t.fromAccountId);
+            updateAccountLastTransactionDate(t.toAccountId);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    private void revertTransactionBalance(Transaction t) {
+        if (t.isNotTemplateLike()) {
+            // the amount of a split goes to the parent's account, only a transfer split moves a balance
+            if (!t.isSplitChild()) {
+                revertFromAccountBalance(t);
+                updateLocationCount(t.locationId, -1);
+            }
+            revertToAccountBalance(t);
+        }
+    }
+
+    private void applyTransactionBalance(Transaction t) {
+        if (t.isNotTemplateLike()) {
+            if (!t.isSplitChild()) {
+                updateFromAccountBalance(t, t.id);
+                updateLocationCount(t.locationId, 1);
+            }
+            updateToAccountBalance(t, t.id);
+        }
+    }
+
     public void deleteTransaction(long id) {
         SQLiteDatabase db = db();
 		db.beginTransaction();
@@ -482,19 +712,26 @@ public class DatabaseAdapter {
 	
 	public void deleteTransactionNoDbTransaction(long id) {
         Transaction t = getTransaction(id);
+        budgetSpent().add(id, -1);
         if (t.isNotTemplateLike()) {
             revertFromAccountBalance(t);
             revertToAccountBalance(t);
             updateAccountLastTransactionDate(t.fromAccountId);
             updateAccountLastTransactionDate(t.toAccountId);
             updateLocationCount(t.locationId, -1);
+            updateSuggestions(t, -1);
         }
         String[] sid = new String[]{String.valueOf(id)};
         SQLiteDatabase db = db();
         db.delete(TRANSACTION_ATTRIBUTE_TABLE, TransactionAttributeColumns.TRANSACTION_ID+"=?", sid);
         db.delete(TRANSACTION_TABLE, TransactionColumns._id+"=?", sid);
+        searchIndex().remove(SearchIndex.Type.NOTE, id);
         writeDeleteLog(TRANSACTION_TABLE, t.remoteKey);        
         deleteSplitsForParentTransaction(id);
+        if (t.isScheduled()) {
+            scheduleOccurrenceIndex().remove(id);
+            scheduleAlarmQueue().remove(id);
+        }
 	}
 
     private void deleteSplitsForParentTransaction(long parentId) {
@@ -506,6 +743,7 @@ public class DatabaseAdapter {
             }
             db.delete(TRANSACTION_ATTRIBUTE_TABLE, TransactionAttributeColumns.TRANSACTION_ID + "=?",
                     new String[]{String.valueOf(split.id)});
+            searchIndex().remove(SearchIndex.Type.NOTE, split.id);
             writeDeleteLog(TRANSACTION_TABLE, split.remoteKey);              
         }
         
@@ -541,6 +779,7 @@ public class DatabaseAdapter {
             return;
         }
         db().execSQL(ACCOUNT_TOTAL_AMOUNT_UPDATE, new Object[]{deltaAmount, accountId});
+        dbHelper.accountSummary.invalidateAccounts();
     }
 
     private static final String INSERT_RUNNING_BALANCE =
@@ -599,6 +838,8 @@ public class DatabaseAdapter {
 			} else {
 				updateCategory(category);
 				id = category.id;
+				// the category may have been moved to another parent
+				budgetSpent().clear();
 			}
 			addAttributes(id, attributes);
             category.id = id;
@@ -623,7 +864,7 @@ public class DatabaseAdapter {
 	}
 
 	private long insertCategory(Category category) {
-        CategoryTree<Category> tree = getCategoriesTree(false);
+        CategoryTree<Category> tree = loadCategoriesTree();
         long parentId = category.getParentId();
         if (parentId == Category.NO_CATEGORY_ID) {
             if (!tree.isEmpty()) {
@@ -657,7 +898,7 @@ public class DatabaseAdapter {
     }
 
     private void moveCategory(Category category) {
-        CategoryTree<Category> tree = getCategoriesTree(false);
+        CategoryTree<Category> tree = loadCategoriesTree();
         Map<Long, Category> map = tree.asMap();
         Category oldCategory = map.get(category.id);
         if (oldCategory != null) {
@@ -677,23 +918,13 @@ public class DatabaseAdapter {
             }
             tree.reIndex();
             updateCategoryTreeInTransaction(tree);
+            categoryClosure().move(category.id, newParent != null ? newParent.id : Category.NO_CATEGORY_ID);
             updateCategory(category.id, category.title, newCategoryType);
             updateChildCategoriesType(newCategoryType, oldCategory.left, oldCategory.right);
         }
     }
 
 
-    private static final String GET_PARENT_SQL = "(SELECT "
-		+ "parent."+CategoryColumns._id+" AS "+CategoryColumns._id
-		+ " FROM "
-		+ CATEGORY_TABLE+" AS node"+","
-		+ CATEGORY_TABLE+" AS parent "
-		+" WHERE "
-		+" node."+CategoryColumns.left+" BETWEEN parent."+CategoryColumns.left+" AND parent."+CategoryColumns.right
-		+" AND node."+CategoryColumns._id+"=?"
-		+" AND parent."+CategoryColumns._id+"!=?"
-		+" ORDER BY parent."+CategoryColumns.left+" DESC)";
-	
 	public Category getCategory(long id) {
         SQLiteDatabase db = db();
 		Cursor c = db.query(V_CATEGORY, CategoryViewColumns.NORMAL_PROJECTION,
@@ -707,15 +938,8 @@ public class DatabaseAdapter {
 				cat.left = c.getInt(CategoryViewColumns.left.ordinal());
 				cat.right = c.getInt(CategoryViewColumns.right.ordinal());
                 cat.type = c.getInt(CategoryViewColumns.type.ordinal());
-				String s = String.valueOf(id);
-				Cursor c2 = db.query(GET_PARENT_SQL, new String[]{CategoryColumns._id.name()}, null, new String[]{s,s},
-						null, null, null, "1");
-				try {
-					if (c2.moveToFirst()) {
-						cat.parent = new Category(c2.getLong(0));
-					}
-				} finally {
-					c2.close();
+				if (id > 0) {
+					cat.parent = new Category(c.getLong(CategoryViewColumns.parent_id.ordinal()));
 				}
 				return cat;
 			} else {
@@ -742,21 +966,14 @@ public class DatabaseAdapter {
 	}
 
 	public CategoryTree<Category> getCategoriesTree(boolean includeNoCategory) {
-		Cursor c = getCategories(includeNoCategory);
-		try {
-            return CategoryTree.createFromCursor(c, new NodeCreator<Category>(){
-                @Override
-                public Category createNode(Cursor c) {
-                    return Category.formCursor(c);
-                }
-            });
-		} finally {
-			c.close();
-		}
+		return getCategorySnapshot().toTree(includeNoCategory);
 	}
 
-    public CategoryTree<Category> getAllCategoriesTree() {
-        Cursor c = getAllCategories();
+    /**
+     * Reads the tree from the database bypassing the snapshot, for the writes which must see the latest data
+     */
+    private CategoryTree<Category> loadCategoriesTree() {
+        Cursor c = getCategories(false);
         try {
             return CategoryTree.createFromCursor(c, new NodeCreator<Category>(){
                 @Override
@@ -770,12 +987,11 @@ public class DatabaseAdapter {
     }
 
 	public Map<Long, Category> getAllCategoriesMap() {
-		return getAllCategoriesTree().asMap();
+		return getCategorySnapshot().toMap();
 	}
 
 	public List<Category> getCategoriesList(boolean includeNoCategory) {
-		Cursor c = getCategories(includeNoCategory);
-        return categoriesAsList(c);
+		return getCategorySnapshot().toList(includeNoCategory);
 	}
 
     public Cursor getAllCategories() {
@@ -848,7 +1064,7 @@ public class DatabaseAdapter {
 		//UPDATE `nset` SET `l` = `l` + 2 WHERE `l` > v_leftkey;
 		//INSERT INTO `nset` (`name`, `l`, `r`) VALUES (NodeName, v_leftkey + 1, v_leftkey + 2);
         int type = getActualCategoryType(parentId, category);
-		return insertCategory(CategoryColumns.left.name(), parentId, category.title, type);
+		return insertCategory(CategoryColumns.left.name(), parentId, parentId, category.title, type);
 	}
 
     public long insertMateCategory(long categoryId, Category category) {
@@ -860,7 +1076,7 @@ public class DatabaseAdapter {
         Category mate = getCategory(categoryId);
         long parentId = mate.getParentId();
         int type = getActualCategoryType(parentId, category);
-		return insertCategory(CategoryColumns.right.name(), categoryId, category.title, type);
+		return insertCategory(CategoryColumns.right.name(), categoryId, parentId, category.title, type);
 	}
 
     private int getActualCategoryType(long parentId, Category category) {
@@ -872,7 +1088,7 @@ public class DatabaseAdapter {
         return type;
     }
 
-	private long insertCategory(String field, long categoryId, String title, int type) {
+	private long insertCategory(String field, long categoryId, long parentId, String title, int type) {
 		int num = 0;
         SQLiteDatabase db = db();
 		Cursor c = db.query(CATEGORY_TABLE, new String[]{field},
@@ -895,7 +1111,9 @@ public class DatabaseAdapter {
         values.put(CategoryColumns.right.name(), right);
         values.put(CategoryColumns.type.name(), type);
         long id = db.insert(CATEGORY_TABLE, null, values);
+        invalidateCategorySnapshot();
         updateChildCategoriesType(type, left, right);
+        categoryClosure().insert(id, parentId);
     	return id;
 	}
 
@@ -903,13 +1121,12 @@ public class DatabaseAdapter {
 
     private void updateChildCategoriesType(int type, int left, int right) {
         db().execSQL(CATEGORY_UPDATE_CHILDREN_TYPES, new Object[]{type, left, right});
+        invalidateCategorySnapshot();
     }
 
 	private static final String DELETE_CATEGORY_UPDATE1 = "UPDATE "+TRANSACTION_TABLE
 		+" SET "+TransactionColumns.category_id +"=0 WHERE "
-		+TransactionColumns.category_id +" IN ("
-		+"SELECT "+CategoryColumns._id+" FROM "+CATEGORY_TABLE+" WHERE "
-		+CategoryColumns.left+" BETWEEN ? AND ?)";
+		+TransactionColumns.category_id+CategoryClosure.IN_SUBTREE;
 	private static final String DELETE_CATEGORY_UPDATE2 = "UPDATE "+CATEGORY_TABLE
 		+" SET "+CategoryColumns.left+"=(CASE WHEN "+CategoryColumns.left+">%s THEN "
 		+CategoryColumns.left+"-%s ELSE "+CategoryColumns.left+" END),"
@@ -950,10 +1167,13 @@ public class DatabaseAdapter {
 			Category category=em.load(Category.class,categoryId);
 			writeDeleteLog(CATEGORY_TABLE, category.remoteKey);			
 			int width = right - left + 1;
-			String[] args = new String[]{String.valueOf(left), String.valueOf(right)};
+			String[] args = new String[]{String.valueOf(categoryId)};
 			db.execSQL(DELETE_CATEGORY_UPDATE1, args);
-			db.delete(CATEGORY_TABLE, CategoryColumns.left+" BETWEEN ? AND ?", args);
+			db.delete(CATEGORY_TABLE, CategoryColumns._id+CategoryClosure.IN_SUBTREE, args);
+			categoryClosure().delete(categoryId);
 			db.execSQL(String.format(DELETE_CATEGORY_UPDATE2, left, width, width, right));
+			budgetSpent().clear();
+			invalidateCategorySnapshot();
 			db.setTransactionSuccessful();
 		} finally {
 			db.endTransaction();
@@ -967,12 +1187,14 @@ public class DatabaseAdapter {
         values.remove("updated_on");     
         values.put(CategoryColumns.updated_on.name(), System.currentTimeMillis());        
 		db().update(CATEGORY_TABLE, values, CategoryColumns._id+"=?", new String[]{String.valueOf(id)});
+		invalidateCategorySnapshot();
 	}
 	
     public void insertCategoryTreeInTransaction(CategoryTree<Category> tree) {
         db().delete("category", "_id > 0", null);
         insertCategoryInTransaction(tree);
         updateCategoryTreeInTransaction(tree);
+        categoryClosure().rebuild();
     }
 
     private void insertCategoryInTransaction(CategoryTree<Category> tree) {
@@ -989,6 +1211,7 @@ public class DatabaseAdapter {
 		db.beginTransaction();
 		try {
 			updateCategoryTreeInTransaction(tree);
+			categoryClosure().rebuild();
 			db.setTransactionSuccessful();
 		} finally {
 			db.endTransaction();
@@ -998,6 +1221,8 @@ public class DatabaseAdapter {
 	private static final String WHERE_CATEGORY_ID = CategoryColumns._id+"=?";
 	
 	private void updateCategoryTreeInTransaction(CategoryTree<Category> tree) {
+        budgetSpent().clear();
+        invalidateCategorySnapshot();
         int left = 1;
         int right = 2;
 		ContentValues values = new ContentValues();
@@ -1294,6 +1519,11 @@ public class DatabaseAdapter {
 	private static final String UPDATE_LAST_RECURRENCE = 
 		"UPDATE "+TRANSACTION_TABLE+" SET "+TransactionColumns.last_recurrence +"=? WHERE "+TransactionColumns._id +"=?";
 
+	/**
+	 * Restores missed schedules in bulk: the rows are inserted without touching the balances,
+	 * then every affected account gets a single balance update and its running balance
+	 * is rebuilt once from the earliest restored date.
+	 */
 	public long[] storeMissedSchedules(List<RestoredTransaction> restored, long now) {
         SQLiteDatabase db = db();
 		db.beginTransaction();
@@ -1301,24 +1531,49 @@ public class DatabaseAdapter {
             int count = restored.size();
             long[] restoredIds = new long[count];
 			HashMap<Long, Transaction> transactions = new HashMap<Long, Transaction>();
-			for (int i=0; i<count; i++) {
-                RestoredTransaction rt = restored.get(i);
-				long transactionId = rt.transactionId;
-				Transaction t = transactions.get(transactionId);
-				if (t == null) {
-					t = getTransaction(transactionId);
-					transactions.put(transactionId, t);
+			HashMap<Long, Integer> restoredCount = new HashMap<Long, Integer>();
+			AccountDeltas deltas = new AccountDeltas();
+			updateAccountBalance = false;
+			try {
+				for (int i=0; i<count; i++) {
+					RestoredTransaction rt = restored.get(i);
+					long transactionId = rt.transactionId;
+					Transaction t = transactions.get(transactionId);
+					if (t == null) {
+						t = getTransaction(transactionId);
+						transactions.put(transactionId, t);
+						restoredCount.put(transactionId, 0);
+					}
+					t.id = -1;
+					t.dateTime = rt.dateTime.getTime();
+					t.status = TransactionStatus.RS;
+					t.isTemplate = 0;
+					t.lastRecurrence = System.currentTimeMillis();
+					t.id = insertTransaction(t);
+					insertSplits(t);
+					restoredIds[i] = t.id;
+					deltas.add(t);
+					restoredCount.put(transactionId, restoredCount.get(transactionId)+1);
+					t.id = transactionId;
 				}
-				t.id = -1;
-				t.dateTime = rt.dateTime.getTime();
-				t.status = TransactionStatus.RS;
-				t.isTemplate = 0;
-				restoredIds[i] = insertOrUpdate(t);
-				t.id = transactionId;
+			} finally {
+				updateAccountBalance = true;
 			}
+			for (Map.Entry<Long, Long> e : deltas.amounts.entrySet()) {
+				long accountId = e.getKey();
+				updateAccountBalance(accountId, e.getValue());
+				rebuildRunningBalanceForAccount(accountId, deltas.earliest.get(accountId));
+				updateAccountLastTransactionDate(accountId);
+			}
+			ScheduleOccurrenceIndex index = scheduleOccurrenceIndex();
 			for (Transaction t : transactions.values()) {
+				updateLocationCount(t.locationId, restoredCount.get(t.id));
+				updateLastUsed(t);
+				updateSuggestions(t, restoredCount.get(t.id));
 				db.execSQL(UPDATE_LAST_RECURRENCE, new Object[]{now, t.id});		
+				index.advance(t.id, now);
 			}
+			budgetSpent().clear();
 			db.setTransactionSuccessful();
             return restoredIds;
 		} finally {
@@ -1326,6 +1581,40 @@ public class DatabaseAdapter {
 		}
 	}
 
+    /**
+     * Balance changes per account the same way as {@link #insertTransaction(Transaction)} applies them
+     */
+    private static class AccountDeltas {
+
+        final Map<Long, Long> amounts = new HashMap<Long, Long>();
+        final Map<Long, Long> earliest = new HashMap<Long, Long>();
+
+        void add(Transaction t) {
+            add(t.fromAccountId, t.fromAmount, t.dateTime);
+            add(t.toAccountId, t.toAmount, t.dateTime);
+            if (t.splits != null) {
+                for (Transaction split : t.splits) {
+                    if (split.isTransfer()) {
+                        add(split.toAccountId, split.toAmount, t.dateTime);
+                    }
+                }
+            }
+        }
+
+        private void add(long accountId, long amount, long dateTime) {
+            if (accountId <= 0) {
+                return;
+            }
+            Long total = amounts.get(accountId);
+            amounts.put(accountId, total != null ? total+amount : amount);
+            Long first = earliest.get(accountId);
+            if (first == null || dateTime < first) {
+                earliest.put(accountId, dateTime);
+            }
+        }
+
+    }
+
 	/**
 	 * @param accountId
 	 * @param period
@@ -1401,54 +1690,70 @@ public class DatabaseAdapter {
         SQLiteDatabase db = db();
         db.beginTransaction();
         try {
-            String accountId = String.valueOf(account.getId());
+            rebuildRunningBalanceForAccount(account.getId(), 0);
+            updateAccountLastTransactionDate(account.id);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Re-populates running_balance for specific account starting from the given date,
+     * the balances before this date are kept
+     */
+    private void rebuildRunningBalanceForAccount(long id, long fromDateTime) {
+        SQLiteDatabase db = db();
+        String accountId = String.valueOf(id);
+        WhereFilter filter = new WhereFilter("");
+        filter.put(Criteria.eq(BlotterFilter.FROM_ACCOUNT_ID, accountId));
+        long balance = 0;
+        if (fromDateTime > 0) {
+            db.execSQL("delete from running_balance where account_id=? and datetime>=?", new Object[]{accountId, fromDateTime});
+            filter.put(Criteria.gte(BlotterFilter.DATETIME, String.valueOf(fromDateTime)));
+            balance = DatabaseUtils.rawFetchLongValue(this, "select balance from running_balance where account_id = ? and datetime < ? order by datetime desc, transaction_id desc limit 1",
+                    new String[]{accountId, String.valueOf(fromDateTime)});
+        } else {
             db.execSQL("delete from running_balance where account_id=?", new Object[]{accountId});
-            WhereFilter filter = new WhereFilter("");
-            filter.put(Criteria.eq(BlotterFilter.FROM_ACCOUNT_ID, accountId));
-            filter.asc("datetime");
-            filter.asc("_id");
-            Cursor c = getBlotterForAccountWithSplits(filter);
-            Object[] values = new Object[4];
-            values[0] = accountId;
-            try {
-                long balance = 0;
-                while (c.moveToNext()) {
-                    long parentId = c.getLong(BlotterColumns.parent_id.ordinal());
-                    int isTransfer = c.getInt(BlotterColumns.is_transfer.ordinal());
-                    if (parentId > 0) {
-                        if (isTransfer >= 0) {
-                            // we only interested in the second part of the transfer-split
-                            // which is marked with is_transfer=-1 (see v_blotter_for_account_with_splits)
-                            continue;
-                        }
-                    }
-                    long fromAccountId = c.getLong(BlotterColumns.from_account_id.ordinal());
-                    long toAccountId = c.getLong(BlotterColumns.to_account_id.ordinal());
-                    if (toAccountId > 0 && toAccountId == fromAccountId) {
-                        // weird bug when a transfer is done from an account to the same account
+        }
+        filter.asc("datetime");
+        filter.asc("_id");
+        Cursor c = getBlotterForAccountWithSplits(filter);
+        Object[] values = new Object[4];
+        values[0] = accountId;
+        try {
+            while (c.moveToNext()) {
+                long parentId = c.getLong(BlotterColumns.parent_id.ordinal());
+                int isTransfer = c.getInt(BlotterColumns.is_transfer.ordinal());
+                if (parentId > 0) {
+                    if (isTransfer >= 0) {
+                        // we only interested in the second part of the transfer-split
+                        // which is marked with is_transfer=-1 (see v_blotter_for_account_with_splits)
                         continue;
                     }
-                    balance += c.getLong(DatabaseHelper.BlotterColumns.from_amount.ordinal());
-                    values[1] = c.getString(DatabaseHelper.BlotterColumns._id.ordinal());
-                    values[2] = c.getString(DatabaseHelper.BlotterColumns.datetime.ordinal());
-                    values[3] = balance;
-                    db.execSQL("insert into running_balance(account_id,transaction_id,datetime,balance) values (?,?,?,?)", values);
                 }
-            } finally {
-                c.close();
+                long fromAccountId = c.getLong(BlotterColumns.from_account_id.ordinal());
+                long toAccountId = c.getLong(BlotterColumns.to_account_id.ordinal());
+                if (toAccountId > 0 && toAccountId == fromAccountId) {
+                    // weird bug when a transfer is done from an account to the same account
+                    continue;
+                }
+                balance += c.getLong(DatabaseHelper.BlotterColumns.from_amount.ordinal());
+                values[1] = c.getString(DatabaseHelper.BlotterColumns._id.ordinal());
+                values[2] = c.getString(DatabaseHelper.BlotterColumns.datetime.ordinal());
+                values[3] = balance;
+                db.execSQL("insert into running_balance(account_id,transaction_id,datetime,balance) values (?,?,?,?)", values);
             }
-            updateAccountLastTransactionDate(account.id);
-            db.setTransactionSuccessful();
         } finally {
-            db.endTransaction();
+            c.close();
         }
     }
 
     private static final String[] SUM_FROM_AMOUNT = new String[]{"sum(from_amount)"};
 
     public long fetchBudgetBalance(Map<Long, Category> categories, Map<Long, Project> projects, Budget b) {
-        String where = Budget.createWhere(b, categories, projects);
-        Cursor c = db().query(V_BLOTTER_FOR_ACCOUNT_WITH_SPLITS, SUM_FROM_AMOUNT, where, null, null, null, null);
+        BudgetPredicate p = BudgetPredicate.compile(b, categories, projects);
+        Cursor c = db().query(V_BLOTTER_FOR_ACCOUNT_WITH_SPLITS, SUM_FROM_AMOUNT, p.where, p.args, null, null, null);
         try {
             if (c.moveToNext()) {
                 return c.getLong(0);
@@ -1459,6 +1764,14 @@ public class DatabaseAdapter {
         return 0;
     }
 
+    /**
+     * Same as {@link #fetchBudgetBalance} for every budget, but in one query
+     * @return spent amount of every budget in the same order
+     */
+    public long[] fetchBudgetBalances(Map<Long, Category> categories, Map<Long, Project> projects, List<Budget> budgets) {
+        return new BudgetIndex(budgets, categories, projects).fetchBalances(db());
+    }
+
     public void recalculateAccountsBalances() {
         SQLiteDatabase db = db();
         db.beginTransaction();
@@ -1483,6 +1796,7 @@ public class DatabaseAdapter {
         ContentValues values = new ContentValues();
         values.put(AccountColumns.TOTAL_AMOUNT, amount);
         db().update(ACCOUNT_TABLE, values, AccountColumns.ID+"=?", new String[]{String.valueOf(accountId)});
+        dbHelper.accountSummary.invalidateAccounts();
         Log.i("DatabaseImport", "Recalculating amount for "+accountId);
     }
 
@@ -1512,6 +1826,7 @@ public class DatabaseAdapter {
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
+            dbHelper.accountSummary.invalidateRates();
         }
     }
 
@@ -1545,6 +1860,7 @@ public class DatabaseAdapter {
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
+            dbHelper.accountSummary.invalidateRates();
         }
     }
 
@@ -1629,6 +1945,7 @@ public class DatabaseAdapter {
             db.setTransactionSuccessful();
         } finally {
             db.endTransaction();
+            dbHelper.accountSummary.invalidateRates();
         }
     }
 
@@ -1641,55 +1958,21 @@ public class DatabaseAdapter {
     }
 
     public Total getAccountsTotalInHomeCurrency() {
-        Currency homeCurrency = em.getHomeCurrency();
-        return getAccountsTotal(homeCurrency);
+        return getAccountSummary().getTotalInHomeCurrency();
     }
 
     /**
      * Calculates total in every currency for all accounts
      */
     public Total[] getAccountsTotal() {
-        List<Account> accounts = em.getAllAccountsList();
-        Map<Currency, Total> totalsMap = new HashMap<Currency, Total>();
-        for (Account account : accounts) {
-            if (account.shouldIncludeIntoTotals()) {
-                Currency currency = account.currency;
-                Total total = totalsMap.get(currency);
-                if (total == null) {
-                    total = new Total(currency);
-                    totalsMap.put(currency, total);
-                }
-                total.balance += account.totalAmount;
-            }
-        }
-        Collection<Total> values = totalsMap.values();
-        return values.toArray(new Total[values.size()]);
+        return getAccountSummary().getTotals();
     }
 
     /**
      * Calculates total in home currency for all accounts
      */
     public Total getAccountsTotal(Currency homeCurrency) {
-        ExchangeRateProvider rates = getLatestRates();
-        List<Account> accounts = em.getAllAccountsList();
-        BigDecimal total = BigDecimal.ZERO;
-        for (Account account : accounts) {
-            if (account.shouldIncludeIntoTotals()) {
-                if (account.currency.id == homeCurrency.id) {
-                    total = total.add(BigDecimal.valueOf(account.totalAmount));
-                } else {
-                    ExchangeRate rate = rates.getRate(account.currency, homeCurrency);
-                    if (rate == ExchangeRate.NA) {
-                        return new Total(homeCurrency, TotalError.lastRateError(account.currency));
-                    } else {
-                        total = total.add(BigDecimal.valueOf(rate.rate*account.totalAmount));
-                    }
-                }
-            }
-        }
-        Total result = new Total(homeCurrency);
-        result.balance = total.longValue();
-        return result;
+        return getAccountSummary().getTotal(homeCurrency);
     }
 
     public boolean singleCurrencyOnly() {
@@ -1774,6 +2057,7 @@ public class DatabaseAdapter {
                 new String[]{String.valueOf(account.id), String.valueOf(dayEnd)});
         db.delete("running_balance", "account_id=? and datetime<=?",
                 new String[]{String.valueOf(account.id), String.valueOf(dayEnd)});
+        budgetSpent().clear();
     }
 
     public long getAccountBalanceForTransaction(Account a, Transaction t) {
@@ -1802,6 +2086,7 @@ public class DatabaseAdapter {
         }
         long lastTransactionDate = findLatestTransactionDate(accountId);
         db().execSQL(ACCOUNT_LAST_TRANSACTION_DATE_UPDATE, new Object[]{lastTransactionDate, accountId});
+        dbHelper.accountSummary.invalidateAccounts();
     }
 
     public void updateAccountsLastTransactionDate() {
@@ -1816,7 +2101,7 @@ public class DatabaseAdapter {
         if (c == null) {
             db().execSQL("INSERT INTO category (_id, title, left, right) VALUES (0, '<NO_CATEGORY>', 1, 2)");
         }
-        CategoryTree<Category> tree = getCategoriesTree(false);
+        CategoryTree<Category> tree = loadCategoriesTree();
         tree.reIndex();
         updateCategoryTree(tree);
     }
@@ -18,6 +18,10 @@ public class DatabaseHelper extends DatabaseSchemaEvolution {
 
     private static DatabaseHelper instance;
 
+    final CategorySnapshot.Holder categorySnapshot = new CategorySnapshot.Holder();
+    final Suggestions.Holder suggestions = new Suggestions.Holder();
+    final AccountSummary.Holder accountSummary;
+
     public static synchronized DatabaseHelper getHelper(Context context) {
         if (instance == null)
             instance = new DatabaseHelper(context);
@@ -27,6 +31,7 @@ public class DatabaseHelper extends DatabaseSchemaEvolution {
 	public DatabaseHelper(Context context) {
 		super(context, Database.DATABASE_NAME, null, Database.DATABASE_VERSION);
 		setAutoDropViews(true);
+		accountSummary = new AccountSummary.Holder(AccountSummary.getSnapshotFile(context));
 	}
 	
 	@Override
@@ -53,11 +58,22 @@ public class DatabaseHelper extends DatabaseSchemaEvolution {
     public static final String CCARD_CLOSING_DATE_TABLE = "ccard_closing_date";
     public static final String EXCHANGE_RATES_TABLE = "currency_exchange_rate";
     public static final String DELETE_LOG_TABLE = "delete_log";    
+    public static final String PICTURE_UPLOAD_QUEUE_TABLE = "picture_upload_queue";
+    public static final String SYNC_STATE_TABLE = "sync_state";
+    public static final String SCHEDULE_INDEX_TABLE = "schedule_index";
+    public static final String SCHEDULE_OCCURRENCE_TABLE = "schedule_occurrence";
+    public static final String SCHEDULE_ALARM_TABLE = "schedule_alarm";
+    public static final String BUDGET_SPENT_TABLE = "budget_spent";
+    public static final String CATEGORY_CLOSURE_TABLE = "category_closure";
+    public static final String SEARCH_TEXT_TABLE = "search_text";
+    public static final String SEARCH_TRIGRAM_TABLE = "search_trigram";
+    public static final String SEARCH_STATE_TABLE = "search_state";
 
 	public static final String V_ALL_TRANSACTIONS = "v_all_transactions";
 	public static final String V_BLOTTER = "v_blotter";
 	public static final String V_BLOTTER_FOR_ACCOUNT = "v_blotter_for_account";
     public static final String V_BLOTTER_FOR_ACCOUNT_WITH_SPLITS = "v_blotter_for_account_with_splits";
+    public static final String V_BLOTTER_LIST = "v_blotter_list";
 	public static final String V_ACCOUNT = "v_account";
 	public static final String V_CATEGORY = "v_category";
 	public static final String V_ATTRIBUTES = "v_attributes";
@@ -151,6 +167,36 @@ public class DatabaseHelper extends DatabaseSchemaEvolution {
 		public static final String BALANCE_GROUP_BY = "FROM_ACCOUNT_CURRENCY_ID";
 	}
 
+    /**
+     * Columns of v_blotter_list, the blotter without titles which are resolved from {@link BlotterDimensions}
+     */
+    public static enum BlotterListColumns {
+        _id,
+        parent_id,
+        from_account_id,
+        from_account_currency_id,
+        to_account_id,
+        category_id,
+        category_left,
+        category_right,
+        project_id,
+        location_id,
+        payee_id,
+        note,
+        from_amount,
+        to_amount,
+        datetime,
+        original_currency_id,
+        original_from_amount,
+        is_template,
+        status,
+        from_account_balance,
+        to_account_balance,
+        is_transfer;
+
+        public static final String[] NORMAL_PROJECTION = asStringArray(BlotterListColumns.values());
+    }
+
     public static class AccountColumns {
 		
 		public static final String ID = "_id";
@@ -183,7 +229,14 @@ public class DatabaseHelper extends DatabaseSchemaEvolution {
 		last_project_id,
 		updated_on,
 		remote_key,			
-		sort_order
+		sort_order,
+		parent_id
+	}
+
+	public static enum CategoryClosureColumns {
+		ancestor_id,
+		descendant_id,
+		depth
 	}
 
 	public static enum CategoryViewColumns {
@@ -195,7 +248,8 @@ public class DatabaseHelper extends DatabaseSchemaEvolution {
         type,
         last_location_id,
         last_project_id,
-        sort_order;
+        sort_order,
+        parent_id;
 
 		public static String[] NORMAL_PROJECTION = asStringArray(CategoryViewColumns.values());
 	}
@@ -357,6 +411,90 @@ public class DatabaseHelper extends DatabaseSchemaEvolution {
 		
 	}
 	
+	public static enum PictureUploadColumns {
+		_id,
+		file_name,
+		content_hash,
+		file_size,
+		session_uri,
+		uploaded_bytes,
+		blob_key,
+		file_url,
+		thumbnail_url,
+		status,
+		attempts,
+		updated_on;
+
+		public static final String[] NORMAL_PROJECTION = asStringArray(PictureUploadColumns.values());
+	}
+
+	public static enum SyncStateColumns {
+		table_name,
+		local_id,
+		clock,
+		base,
+		needs_push;
+
+		public static final String[] NORMAL_PROJECTION = asStringArray(SyncStateColumns.values());
+	}
+
+	public static enum ScheduleIndexColumns {
+		transaction_id,
+		recurrence,
+		datetime,
+		indexed_from,
+		indexed_until,
+		built_until;
+
+		public static final String[] NORMAL_PROJECTION = asStringArray(ScheduleIndexColumns.values());
+	}
+
+	public static enum ScheduleOccurrenceColumns {
+		transaction_id,
+		datetime;
+
+		public static final String[] NORMAL_PROJECTION = asStringArray(ScheduleOccurrenceColumns.values());
+	}
+
+	public static enum ScheduleAlarmColumns {
+		transaction_id,
+		fire_time;
+
+		public static final String[] NORMAL_PROJECTION = asStringArray(ScheduleAlarmColumns.values());
+	}
+
+	public static enum BudgetSpentColumns {
+		budget_id,
+		spent;
+
+		public static final String[] NORMAL_PROJECTION = asStringArray(BudgetSpentColumns.values());
+	}
+
+	public static enum SearchTextColumns {
+		_id,
+		type,
+		entity_id,
+		text,
+		normalized;
+
+		public static final String[] NORMAL_PROJECTION = asStringArray(SearchTextColumns.values());
+	}
+
+	public static enum SearchTrigramColumns {
+		type,
+		trigram,
+		text_id;
+
+		public static final String[] NORMAL_PROJECTION = asStringArray(SearchTrigramColumns.values());
+	}
+
+	public static enum SearchStateColumns {
+		type,
+		built_on;
+
+		public static final String[] NORMAL_PROJECTION = asStringArray(SearchStateColumns.values());
+	}
+
 	public static class deleteLogColumns {		
 		public static final String TABLE_NAME = "table_name";
 		public static final String REMOTE_KEY = "remote_key";
@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+import ru.orangesoftware.financisto.db.DatabaseHelper.BlotterListColumns;
+import ru.orangesoftware.financisto.db.DatabaseHelper.TransactionColumns;
+import ru.orangesoftware.financisto.filter.Criteria;
+import ru.orangesoftware.financisto.filter.NoteCriteria;
+import ru.orangesoftware.financisto.filter.WhereFilter;
+import ru.orangesoftware.financisto.utils.Utils;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static ru.orangesoftware.financisto.db.DatabaseHelper.*;
+
+/**
+ * Compiles a {@link WhereFilter} on {@link BlotterListColumns} into a selection on the transactions table.
+ * Account currency and category range criteria become sub-selects on account and category,
+ * so both v_blotter_list and transactions can be searched by from_account_id and category_id,
+ * a note criteria is a sub-select of the {@link SearchIndex}.
+ * When every criteria is on transactions, the rows can be counted from transactions alone
+ * with one of the composite indexes created in 20140302_1900_create_blotter_indexes.
+ */
+public class FilterCompiler {
+
+    private static final String TAG = "FilterCompiler";
+
+    /**
+     * Managed composite indexes on transactions, the first one with an equality on its column is used
+     */
+    public static enum Index {
+        FROM_ACCOUNT("transaction_from_act_dt_idx", TransactionColumns.from_account_id.name()),
+        PAYEE("transaction_payee_dt_idx", TransactionColumns.payee_id.name()),
+        PROJECT("transaction_project_dt_idx", TransactionColumns.project_id.name()),
+        CATEGORY("transaction_category_dt_idx", TransactionColumns.category_id.name()),
+        BLOTTER("transaction_blotter_idx", null);
+
+        public final String name;
+        final String column;
+
+        Index(String name, String column) {
+            this.name = name;
+            this.column = column;
+        }
+    }
+
+    // v_blotter_list columns which are the same columns of transactions
+    private static final Map<String, String> TRANSACTION_COLUMNS = new HashMap<String, String>();
+
+    static {
+        BlotterListColumns[] columns = {BlotterListColumns._id, BlotterListColumns.parent_id, BlotterListColumns.from_account_id,
+                BlotterListColumns.to_account_id, BlotterListColumns.category_id, BlotterListColumns.project_id,
+                BlotterListColumns.location_id, BlotterListColumns.payee_id, BlotterListColumns.note,
+                BlotterListColumns.from_amount, BlotterListColumns.to_amount, BlotterListColumns.datetime,
+                BlotterListColumns.original_currency_id, BlotterListColumns.original_from_amount,
+                BlotterListColumns.is_template, BlotterListColumns.status};
+        for (BlotterListColumns c : columns) {
+            TRANSACTION_COLUMNS.put(c.name(), c.name());
+        }
+        TRANSACTION_COLUMNS.put(BlotterListColumns.is_transfer.name(), TransactionColumns.to_account_id.name());
+    }
+
+    private static final String BLOTTER_ROWS = TransactionColumns.is_template + "=0 AND " + TransactionColumns.parent_id + "=0";
+
+    public static class Compiled {
+
+        public final String selection;
+        public final String[] selectionArgs;
+        /**
+         * Index to count the rows from transactions with, null if some criteria is not on transactions
+         */
+        public final Index index;
+
+        private Compiled(String selection, String[] selectionArgs, Index index) {
+            this.selection = selection;
+            this.selectionArgs = selectionArgs;
+            this.index = index;
+        }
+
+        /**
+         * Same count as from v_blotter_list, which inner joins account and category
+         * that every transaction has, see {@link ru.orangesoftware.financisto.utils.IntegrityFix}
+         */
+        public String getCountQuery() {
+            return "SELECT count(*) FROM " + TRANSACTION_TABLE + " INDEXED BY " + index.name + " WHERE " + BLOTTER_ROWS
+                    + (Utils.isEmpty(selection) ? "" : " AND " + selection);
+        }
+
+    }
+
+    /**
+     * @param filter criteria on {@link BlotterListColumns} only, see {@link BlotterDimensions#canFilter(WhereFilter)}
+     */
+    public static Compiled compile(WhereFilter filter) {
+        StringBuilder sb = new StringBuilder();
+        String[] args = new String[0];
+        boolean onTransactions = true;
+        Index index = Index.BLOTTER;
+        for (Criteria c : filter.getCriterias()) {
+            if (sb.length() > 0) {
+                sb.append(" AND ");
+            }
+            String column = TRANSACTION_COLUMNS.get(c.columnName);
+            boolean equality = c.operation == WhereFilter.Operation.EQ;
+            if (c instanceof NoteCriteria) {
+                // a sub-select on transactions ids
+                sb.append(c.getSelection());
+            } else if (c.operation == WhereFilter.Operation.NOPE || (column == null && !isSubSelect(c.columnName))) {
+                sb.append(c.getSelection());
+                onTransactions = false;
+            } else if (column != null) {
+                sb.append(column).append(" ").append(c.operation.op);
+            } else if (BlotterListColumns.from_account_currency_id.name().equals(c.columnName)) {
+                column = TransactionColumns.from_account_id.name();
+                equality = true;
+                sb.append(column).append(" IN (SELECT ").append(AccountColumns.ID).append(" FROM ").append(ACCOUNT_TABLE)
+                        .append(" WHERE ").append(AccountColumns.CURRENCY_ID).append(" ").append(c.operation.op).append(")");
+            } else {
+                column = TransactionColumns.category_id.name();
+                equality = true;
+                String categoryColumn = BlotterListColumns.category_left.name().equals(c.columnName)
+                        ? CategoryColumns.left.name() : CategoryColumns.right.name();
+                sb.append(column).append(" IN (SELECT ").append(CategoryColumns._id).append(" FROM ").append(CATEGORY_TABLE)
+                        .append(" WHERE ").append(categoryColumn).append(" ").append(c.operation.op).append(")");
+            }
+            if (equality && column != null) {
+                index = better(index, column);
+            }
+            args = Utils.joinArrays(args, c.getSelectionArgs());
+        }
+        return new Compiled(sb.toString(), args, onTransactions ? index : null);
+    }
+
+    private static boolean isSubSelect(String column) {
+        return BlotterListColumns.from_account_currency_id.name().equals(column)
+                || BlotterListColumns.category_left.name().equals(column)
+                || BlotterListColumns.category_right.name().equals(column);
+    }
+
+    private static Index better(Index index, String column) {
+        for (Index i : Index.values()) {
+            if (column.equals(i.column)) {
+                return i.ordinal() < index.ordinal() ? i : index;
+            }
+        }
+        return index;
+    }
+
+    /**
+     * Logs EXPLAIN QUERY PLAN of the query, to be called in debuggable builds only
+     */
+    public static void explain(SQLiteDatabase db, String sql, String[] args) {
+        StringBuilder sb = new StringBuilder(sql);
+        Cursor c = db.rawQuery("EXPLAIN QUERY PLAN " + sql, args);
+        try {
+            int detail = c.getColumnIndex("detail");
+            while (c.moveToNext()) {
+                sb.append("\n  ").append(c.getString(detail));
+            }
+        } finally {
+            c.close();
+        }
+        Log.d(TAG, sb.toString());
+    }
+
+}
@@ -14,7 +14,6 @@ import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.database.sqlite.SQLiteOpenHelper;
 import ru.orangesoftware.financisto.blotter.BlotterFilter;
 import ru.orangesoftware.financisto.filter.WhereFilter;
 import ru.orangesoftware.financisto.filter.Criteria;
@@ -36,16 +35,46 @@ import ru.orangesoftware.orb.Query;
 import java.util.*;
 
 import static ru.orangesoftware.financisto.db.DatabaseHelper.*;
-import static ru.orangesoftware.financisto.utils.StringUtil.capitalize;
 
 public class MyEntityManager extends EntityManager {
 	
 	private final Context context;
+    private final Suggestions.Holder suggestions;
+    private final AccountSummary.Holder accountSummary;
 	
-	public MyEntityManager(Context context, SQLiteOpenHelper dbHelper) {
+	public MyEntityManager(Context context, DatabaseHelper dbHelper) {
 		super(dbHelper);
 		this.context = context;
+        this.suggestions = dbHelper.suggestions;
+        this.accountSummary = dbHelper.accountSummary;
 	}
+
+    public SearchIndex searchIndex() {
+        return new SearchIndex(db());
+    }
+
+    public Suggestions getSuggestions() {
+        return suggestions.get(db());
+    }
+
+    @Override
+    public long saveOrUpdate(Object entity) {
+        long id = super.saveOrUpdate(entity);
+        if (entity instanceof Payee) {
+            searchIndex().index(SearchIndex.Type.PAYEE, id, ((Payee) entity).title);
+            suggestions.put(Suggestions.Type.PAYEE, id, ((Payee) entity).title);
+        } else if (entity instanceof Project) {
+            searchIndex().index(SearchIndex.Type.PROJECT, id, ((Project) entity).title);
+            suggestions.put(Suggestions.Type.PROJECT, id, ((Project) entity).title);
+        } else if (entity instanceof MyLocation) {
+            searchIndex().index(SearchIndex.Type.LOCATION, id, ((MyLocation) entity).name);
+        } else if (entity instanceof Account) {
+            accountSummary.invalidateAccounts();
+        } else if (entity instanceof Currency) {
+            accountSummary.invalidate();
+        }
+        return id;
+    }
 	
 	private <T extends MyEntity> ArrayList<T> getAllEntitiesList(Class<T> clazz, boolean include0) {
 		Query<T> q = createQuery(clazz);
@@ -238,7 +267,10 @@ public class MyEntityManager extends EntityManager {
 	}
 
 	private Cursor getAllAccounts(boolean isActiveOnly, long...includeAccounts) {
-		AccountSortOrder sortOrder = MyPreferences.getAccountSortOrder(context);
+		return getAllAccounts(MyPreferences.getAccountSortOrder(context), isActiveOnly, includeAccounts);
+	}
+
+	private Cursor getAllAccounts(AccountSortOrder sortOrder, boolean isActiveOnly, long...includeAccounts) {
 		Query<Account> q = createQuery(Account.class);
 		if (isActiveOnly) {
 			int count = includeAccounts.length;
@@ -267,8 +299,12 @@ public class MyEntityManager extends EntityManager {
 	}
 
 	public List<Account> getAllAccountsList() {
+		return getAllAccountsList(MyPreferences.getAccountSortOrder(context));
+	}
+
+	public List<Account> getAllAccountsList(AccountSortOrder sortOrder) {
 		List<Account> list = new ArrayList<Account>();
-		Cursor c = getAllAccounts();
+		Cursor c = getAllAccounts(sortOrder, false);
 		try {
 			while (c.moveToNext()) {
 				Account a = EntityManager.loadFromCursor(c, Account.class);
@@ -307,6 +343,7 @@ public class MyEntityManager extends EntityManager {
 			return id;
 		} finally {
 			db.endTransaction();
+			accountSummary.invalidate();
 		}
 	}
 
@@ -314,6 +351,7 @@ public class MyEntityManager extends EntityManager {
 		String sid = String.valueOf(id);
 		Currency c=load(Currency.class, id);
 		writeDeleteLog(CURRENCY_TABLE, c.remoteKey);
+		accountSummary.invalidate();
 		return db().delete(CURRENCY_TABLE, "_id=? AND NOT EXISTS (SELECT 1 FROM "+ACCOUNT_TABLE+" WHERE "+AccountColumns.CURRENCY_ID+"=?)",
 				new String[]{sid, sid});
 	}
@@ -445,6 +483,10 @@ public class MyEntityManager extends EntityManager {
         SQLiteDatabase db = db();
         Budget b=load(Budget.class, id);
         writeDeleteLog(BUDGET_TABLE, b.remoteKey); 
+        // ids of deleted budgets can be reused by sqlite
+        db.delete(BUDGET_SPENT_TABLE, BudgetSpentColumns.budget_id+"=? OR "+BudgetSpentColumns.budget_id
+                +" IN (SELECT _id FROM "+BUDGET_TABLE+" WHERE parent_budget_id=?)",
+                new String[]{String.valueOf(id), String.valueOf(id)});
         db.delete(BUDGET_TABLE, "_id=?", new String[]{String.valueOf(id)});
 		String sql="select remote_key from " + BUDGET_TABLE +  " where parent_budget_id=" + id + "";
 		Cursor cursorCursor=db.rawQuery(sql, null);
@@ -462,6 +504,7 @@ public class MyEntityManager extends EntityManager {
         SQLiteDatabase db = db();
         Budget b=load(Budget.class, id);
         writeDeleteLog(BUDGET_TABLE, b.remoteKey); 
+        db.delete(BUDGET_SPENT_TABLE, BudgetSpentColumns.budget_id+"=?", new String[]{String.valueOf(id)});
 		db.delete(BUDGET_TABLE, "_id=?", new String[]{String.valueOf(id)});
 	}
 
@@ -494,6 +537,7 @@ public class MyEntityManager extends EntityManager {
 			ContentValues values = new ContentValues();
 			values.put("project_id", 0);
 			db.update("transactions", values, "project_id=?", new String[]{String.valueOf(id)});
+			db.delete(BUDGET_SPENT_TABLE, null, null);
 			db.setTransactionSuccessful();
 		} finally {
 			db.endTransaction();
@@ -549,13 +593,40 @@ public class MyEntityManager extends EntityManager {
         return entitiesAsIdMap(getAllPayeeList());
     }
 
+    private static final int MAX_PAYEE_SUGGESTIONS = 50;
+
+    /**
+     * Payees with a word starting with the constraint come first, the most used first,
+     * then the rest of the payees containing the constraint
+     */
     public Cursor getAllPayeesLike(CharSequence constraint) {
+        long[] ids = merge(getSuggestions().suggest(Suggestions.Type.PAYEE, constraint, MAX_PAYEE_SUGGESTIONS),
+                searchIndex().search(SearchIndex.Type.PAYEE, constraint, MAX_PAYEE_SUGGESTIONS), MAX_PAYEE_SUGGESTIONS);
         Query<Payee> q = createQuery(Payee.class);
-        q.where(Expressions.or(
-                Expressions.like("title", "%" + constraint + "%"),
-                Expressions.like("title", "%" + capitalize(constraint.toString()) + "%")
-        ));
-        return q.asc("title").execute();
+        q.where(Expressions.in("id", ids));
+        if (ids.length > 0) {
+            q.asIn("id", ids);
+        }
+        return q.execute();
+    }
+
+    private static long[] merge(long[] first, long[] second, int limit) {
+        Set<Long> seen = new LinkedHashSet<Long>();
+        for (long id : first) {
+            seen.add(id);
+        }
+        for (int i = 0; i < second.length && seen.size() < limit; i++) {
+            seen.add(second[i]);
+        }
+        long[] ids = new long[Math.min(limit, seen.size())];
+        int i = 0;
+        for (Long id : seen) {
+            if (i == ids.length) {
+                break;
+            }
+            ids[i++] = id;
+        }
+        return ids;
     }
 
     public List<Transaction> getSplitsForTransaction(long transactionId) {
@@ -0,0 +1,463 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+import android.database.DataSetObservable;
+import android.database.DataSetObserver;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.util.Log;
+import ru.orangesoftware.financisto.blotter.BlotterFilter;
+import ru.orangesoftware.financisto.db.DatabaseHelper.BlotterColumns;
+import ru.orangesoftware.financisto.db.DatabaseHelper.BlotterListColumns;
+import ru.orangesoftware.financisto.filter.WhereFilter;
+import ru.orangesoftware.financisto.utils.CancellationSignal;
+import ru.orangesoftware.financisto.utils.ComputationExecutor;
+import ru.orangesoftware.financisto.utils.Utils;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Blotter cursor which reads the view page by page instead of filling cursor windows with all the rows.
+ * Pages are read with keyset pagination on (datetime, _id) in the order of the filter,
+ * so reading the next page is a range scan from the last row of the previous one.
+ * Only a jump to a page after an unknown one falls back to OFFSET.
+ * The last used pages are kept, the next page in the direction of scrolling is read in the background.
+ * A page wanted while it is being read in the background waits for that read instead of querying it again.
+ * The rows are counted on the first {@link #getCount()}, a list can let them be counted in the background
+ * and show the first page meanwhile, see {@link #countInBackground()}.
+ * When reading v_blotter_list the titles are not joined in sql but taken from {@link BlotterDimensions},
+ * the filter is compiled by {@link FilterCompiler} and the rows are counted from transactions.
+ * Debuggable builds log the query plans of the count and of the first page.
+ */
+public class PagedBlotterCursor extends AbstractCursor {
+
+    private static final String TAG = "PagedBlotterCursor";
+
+    static final int PAGE_SIZE = 100;
+    static final int MAX_PAGES = 10;
+
+    private static final String[] COLUMNS = BlotterColumns.NORMAL_PROJECTION;
+    private static final int DATETIME = BlotterColumns.datetime.ordinal();
+    private static final int ID = BlotterColumns._id.ordinal();
+
+    private static final ComputationExecutor.Callback<Object> IGNORE = new ComputationExecutor.Callback<Object>() {
+        @Override
+        public void onResult(Object result) {
+        }
+    };
+
+    private final DatabaseAdapter db;
+    private final String view;
+    private final String selection;
+    private final String[] selectionArgs;
+    private final String sortOrder;
+    private final String[] projection;
+    private final FilterCompiler.Compiled compiled;
+    private final boolean keyset;
+    private final boolean descending;
+    private final String prefetchKey = ComputationExecutor.key(this, "prefetch");
+    private final String countKey = ComputationExecutor.key(this, "count");
+    // AbstractCursor keeps its observers to itself, these are told when the count arrives
+    private final DataSetObservable countObservers = new DataSetObservable();
+
+    private final Object lock = new Object();
+    //@ProtectedBy("lock")
+    private final LinkedHashMap<Integer, String[][]> pages = new LinkedHashMap<Integer, String[][]>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Integer, String[][]> eldest) {
+            return size() > MAX_PAGES;
+        }
+    };
+    // (datetime, _id) of the last row of every page read so far, these are never evicted
+    //@ProtectedBy("lock")
+    private final Map<Integer, String[]> lastKeys = new HashMap<Integer, String[]>();
+    // pages being read right now
+    //@ProtectedBy("lock")
+    private final Map<Integer, PageLoad> loading = new HashMap<Integer, PageLoad>();
+    // pages read before the last requery are not kept
+    //@ProtectedBy("lock")
+    private int generation;
+
+    private volatile BlotterDimensions dimensions;
+    // -1 until the rows are counted
+    private volatile int count = -1;
+    private boolean countInBackground;
+    private boolean counting;
+    private String[][] page;
+    private int pageIndex = -1;
+    private String[] row;
+
+    PagedBlotterCursor(DatabaseAdapter db, String view, WhereFilter filter, String sortOrder) {
+        this.db = db;
+        this.view = view;
+        String where;
+        if (DatabaseHelper.V_BLOTTER_LIST.equals(view)) {
+            this.compiled = FilterCompiler.compile(filter);
+            this.projection = BlotterListColumns.NORMAL_PROJECTION;
+            this.dimensions = BlotterDimensions.load(db);
+            where = compiled.selection;
+            this.selectionArgs = compiled.selectionArgs;
+        } else {
+            this.compiled = null;
+            this.projection = COLUMNS;
+            where = filter.getSelection();
+            this.selectionArgs = filter.getSelectionArgs();
+        }
+        this.selection = Utils.isEmpty(where) ? null : "(" + where + ")";
+        this.sortOrder = sortOrder;
+        this.descending = isSortedBy(sortOrder, BlotterFilter.SORT_NEWER_TO_OLDER, BlotterFilter.SORT_NEWER_TO_OLDER_BY_ID);
+        this.keyset = descending || isSortedBy(sortOrder, BlotterFilter.SORT_OLDER_TO_NEWER, BlotterFilter.SORT_OLDER_TO_NEWER_BY_ID);
+    }
+
+    /**
+     * Counts the rows in the background instead of on the first {@link #getCount()}.
+     * Until the count arrives the cursor reports the rows of the first page only,
+     * then its observers are notified as if the data had changed.
+     */
+    public void countInBackground() {
+        countInBackground = true;
+    }
+
+    private static boolean isSortedBy(String sortOrder, String datetime, String id) {
+        return sortOrder.equals(datetime + "," + id);
+    }
+
+    private int queryCount() {
+        String sql = compiled != null && compiled.index != null ? compiled.getCountQuery()
+                : SQLiteQueryBuilder.buildQueryString(false, view, new String[]{"count(*)"}, selection, null, null, null, null);
+        if (db.isDebuggable()) {
+            FilterCompiler.explain(db.db(), sql, selectionArgs);
+        }
+        Cursor c = db.db().rawQuery(sql, selectionArgs);
+        try {
+            return c.moveToFirst() ? c.getInt(0) : 0;
+        } finally {
+            c.close();
+        }
+    }
+
+    @Override
+    public int getCount() {
+        if (count < 0) {
+            if (countInBackground) {
+                return countFirstPage();
+            }
+            count = queryCount();
+        }
+        return count;
+    }
+
+    private int countFirstPage() {
+        String[][] first = getPage(0);
+        if (first.length < PAGE_SIZE) {
+            // nothing after the first page, no need to count
+            count = first.length;
+        } else if (!counting) {
+            counting = true;
+            ComputationExecutor.getInstance().submit(countKey, null, 0, new ComputationExecutor.Computation<Integer>() {
+                @Override
+                public Integer compute(CancellationSignal signal) {
+                    return queryCount();
+                }
+            }, new ComputationExecutor.Callback<Integer>() {
+                @Override
+                public void onResult(Integer result) {
+                    count = result;
+                    countObservers.notifyChanged();
+                }
+            });
+        }
+        return first.length;
+    }
+
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {
+        super.registerDataSetObserver(observer);
+        countObservers.registerObserver(observer);
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+        super.unregisterDataSetObserver(observer);
+        countObservers.unregisterObserver(observer);
+    }
+
+    @Override
+    public String[] getColumnNames() {
+        return COLUMNS;
+    }
+
+    @Override
+    public boolean onMove(int oldPosition, int newPosition) {
+        int index = newPosition / PAGE_SIZE;
+        if (index != pageIndex) {
+            page = getPage(index);
+            pageIndex = index;
+            prefetch(newPosition >= oldPosition ? index + 1 : index - 1);
+        }
+        int i = newPosition % PAGE_SIZE;
+        row = i < page.length ? page[i] : null;
+        return true;
+    }
+
+    private String[][] getPage(int index) {
+        PageLoad load;
+        boolean reading = false;
+        synchronized (lock) {
+            String[][] p = pages.get(index);
+            if (p != null) {
+                return p;
+            }
+            load = loading.get(index);
+            if (load == null) {
+                load = startLoad(index);
+                reading = true;
+            }
+        }
+        if (!reading) {
+            String[][] p = load.await();
+            if (p != null) {
+                return p;
+            }
+            // the background read has been cancelled
+            synchronized (lock) {
+                load = new PageLoad(generation);
+            }
+        }
+        return loadPage(index, load, CancellationSignal.NONE);
+    }
+
+    private void prefetch(final int index) {
+        if (index < 0 || (count >= 0 && index * PAGE_SIZE >= count)) {
+            return;
+        }
+        synchronized (lock) {
+            if (pages.containsKey(index) || loading.containsKey(index)) {
+                return;
+            }
+        }
+        ComputationExecutor.getInstance().submit(prefetchKey, null, 0, new ComputationExecutor.Computation<Object>() {
+            @Override
+            public Object compute(CancellationSignal signal) {
+                // registered only once running, a job cancelled before it starts leaves nobody waiting
+                PageLoad load;
+                synchronized (lock) {
+                    if (pages.containsKey(index) || loading.containsKey(index)) {
+                        return null;
+                    }
+                    load = startLoad(index);
+                }
+                return loadPage(index, load, signal);
+            }
+        }, IGNORE);
+    }
+
+    //@ProtectedBy("lock")
+    private PageLoad startLoad(int index) {
+        PageLoad load = new PageLoad(generation);
+        loading.put(index, load);
+        return load;
+    }
+
+    private String[][] loadPage(int index, PageLoad load, CancellationSignal signal) {
+        String[][] kept = null;
+        try {
+            String[][] p = readPage(index, signal);
+            synchronized (lock) {
+                if (load.generation == generation) {
+                    pages.put(index, p);
+                    if (p.length > 0) {
+                        String[] last = p[p.length - 1];
+                        lastKeys.put(index, new String[]{last[DATETIME], last[ID]});
+                    }
+                    kept = p;
+                }
+            }
+            return p;
+        } finally {
+            synchronized (lock) {
+                if (loading.get(index) == load) {
+                    loading.remove(index);
+                }
+            }
+            load.done(kept);
+        }
+    }
+
+    private String[][] readPage(int index, CancellationSignal signal) {
+        long t0 = System.currentTimeMillis();
+        String[] after;
+        synchronized (lock) {
+            after = index > 0 ? lastKeys.get(index - 1) : null;
+        }
+        Cursor c;
+        if (index == 0 || (keyset && after != null)) {
+            c = queryAfter(after, index == 0 && db.isDebuggable());
+        } else {
+            c = db.db().query(view, projection, selection, selectionArgs, null, null, sortOrder,
+                    index * PAGE_SIZE + "," + PAGE_SIZE);
+        }
+        BlotterDimensions d = dimensions;
+        String[][] p;
+        try {
+            p = new String[c.getCount()][];
+            int columns = projection.length;
+            for (int i = 0; c.moveToNext(); i++) {
+                signal.throwIfCanceled();
+                String[] values = new String[columns];
+                for (int j = 0; j < columns; j++) {
+                    values[j] = c.getString(j);
+                }
+                p[i] = d != null ? d.expand(values) : values;
+            }
+        } finally {
+            c.close();
+        }
+        signal.throwIfCanceled();
+        Log.d(TAG, "Page " + index + " of " + view + " loaded in " + (System.currentTimeMillis() - t0) + "ms");
+        return p;
+    }
+
+    private Cursor queryAfter(String[] after, boolean explain) {
+        String where = selection;
+        String[] args = selectionArgs;
+        if (after != null) {
+            String op = descending ? "<" : ">";
+            String key = BlotterColumns.datetime + op + "=? AND (" + BlotterColumns.datetime + op + "? OR "
+                    + BlotterColumns._id + op + "?)";
+            where = where != null ? where + " AND " + key : key;
+            args = Utils.joinArrays(args, new String[]{after[0], after[0], after[1]});
+        }
+        if (explain) {
+            FilterCompiler.explain(db.db(), SQLiteQueryBuilder.buildQueryString(false, view, projection, where,
+                    null, null, sortOrder, String.valueOf(PAGE_SIZE)), args);
+        }
+        return db.db().query(view, projection, where, args, null, null, sortOrder, String.valueOf(PAGE_SIZE));
+    }
+
+    @Override
+    public boolean requery() {
+        ComputationExecutor.getInstance().cancel(prefetchKey);
+        ComputationExecutor.getInstance().cancel(countKey);
+        synchronized (lock) {
+            generation++;
+            pages.clear();
+            lastKeys.clear();
+            loading.clear();
+        }
+        page = null;
+        pageIndex = -1;
+        row = null;
+        if (dimensions != null) {
+            dimensions = BlotterDimensions.load(db);
+        }
+        count = -1;
+        counting = false;
+        return super.requery();
+    }
+
+    @Override
+    public void close() {
+        ComputationExecutor.getInstance().cancel(prefetchKey);
+        ComputationExecutor.getInstance().cancel(countKey);
+        super.close();
+        synchronized (lock) {
+            pages.clear();
+            lastKeys.clear();
+        }
+    }
+
+    @Override
+    public String getString(int column) {
+        return row != null ? row[column] : null;
+    }
+
+    @Override
+    public short getShort(int column) {
+        return (short) getLong(column);
+    }
+
+    @Override
+    public int getInt(int column) {
+        return (int) getLong(column);
+    }
+
+    @Override
+    public long getLong(int column) {
+        String value = getString(column);
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Long.parseLong(value);
+        } catch (NumberFormatException e) {
+            return (long) parseDouble(value);
+        }
+    }
+
+    @Override
+    public float getFloat(int column) {
+        return (float) getDouble(column);
+    }
+
+    @Override
+    public double getDouble(int column) {
+        String value = getString(column);
+        return value != null ? parseDouble(value) : 0;
+    }
+
+    private static double parseDouble(String value) {
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public boolean isNull(int column) {
+        return getString(column) == null;
+    }
+
+    private static class PageLoad {
+
+        final int generation;
+        private final CountDownLatch latch = new CountDownLatch(1);
+        private volatile String[][] page;
+
+        PageLoad(int generation) {
+            this.generation = generation;
+        }
+
+        void done(String[][] page) {
+            this.page = page;
+            latch.countDown();
+        }
+
+        /**
+         * @return the page or null if it has not been read
+         */
+        String[][] await() {
+            try {
+                latch.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            return page;
+        }
+
+    }
+
+}
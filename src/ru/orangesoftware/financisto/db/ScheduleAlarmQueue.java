@@ -0,0 +1,115 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import ru.orangesoftware.financisto.db.DatabaseHelper.ScheduleAlarmColumns;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static ru.orangesoftware.financisto.db.DatabaseHelper.SCHEDULE_ALARM_TABLE;
+
+/**
+ * Persisted queue of (fire_time, transaction_id) of the scheduled transactions.
+ * The table is indexed by fire_time, so the earliest entry is always the head of the queue
+ * and it survives the process being killed between two alarms.
+ */
+public class ScheduleAlarmQueue {
+
+    private final SQLiteDatabase db;
+
+    public ScheduleAlarmQueue(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Replaces the whole queue
+     * @param fireTimes fire time by transaction id
+     */
+    public void replaceAll(Map<Long, Long> fireTimes) {
+        db.beginTransaction();
+        try {
+            db.delete(SCHEDULE_ALARM_TABLE, null, null);
+            SQLiteStatement insert = db.compileStatement("INSERT INTO " + SCHEDULE_ALARM_TABLE
+                    + "(" + ScheduleAlarmColumns.transaction_id + "," + ScheduleAlarmColumns.fire_time + ") VALUES (?,?)");
+            try {
+                for (Map.Entry<Long, Long> e : fireTimes.entrySet()) {
+                    insert.bindLong(1, e.getKey());
+                    insert.bindLong(2, e.getValue());
+                    insert.executeInsert();
+                }
+            } finally {
+                insert.close();
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void put(long transactionId, long fireTime) {
+        ContentValues values = new ContentValues();
+        values.put(ScheduleAlarmColumns.transaction_id.name(), transactionId);
+        values.put(ScheduleAlarmColumns.fire_time.name(), fireTime);
+        db.insertWithOnConflict(SCHEDULE_ALARM_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    public void remove(long transactionId) {
+        db.delete(SCHEDULE_ALARM_TABLE, ScheduleAlarmColumns.transaction_id + "=?",
+                new String[]{String.valueOf(transactionId)});
+    }
+
+    /**
+     * @return the earliest fire time in the queue or 0 if the queue is empty
+     */
+    public long peek() {
+        Cursor c = db.rawQuery("SELECT MIN(" + ScheduleAlarmColumns.fire_time + ") FROM " + SCHEDULE_ALARM_TABLE, null);
+        try {
+            if (c.moveToFirst() && !c.isNull(0)) {
+                return c.getLong(0);
+            }
+            return 0;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Takes all the entries which are due at <code>now</code> out of the queue
+     * @return ids of the due transactions ordered by fire time
+     */
+    public List<Long> pollDue(long now) {
+        String[] args = new String[]{String.valueOf(now)};
+        List<Long> due = new ArrayList<Long>();
+        db.beginTransaction();
+        try {
+            Cursor c = db.query(SCHEDULE_ALARM_TABLE, new String[]{ScheduleAlarmColumns.transaction_id.name()},
+                    ScheduleAlarmColumns.fire_time + "<=?", args, null, null,
+                    ScheduleAlarmColumns.fire_time + "," + ScheduleAlarmColumns.transaction_id);
+            try {
+                while (c.moveToNext()) {
+                    due.add(c.getLong(0));
+                }
+            } finally {
+                c.close();
+            }
+            db.delete(SCHEDULE_ALARM_TABLE, ScheduleAlarmColumns.fire_time + "<=?", args);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+        return due;
+    }
+
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import ru.orangesoftware.financisto.db.DatabaseHelper.ScheduleIndexColumns;
+import ru.orangesoftware.financisto.db.DatabaseHelper.ScheduleOccurrenceColumns;
+import ru.orangesoftware.financisto.db.DatabaseHelper.TransactionColumns;
+import ru.orangesoftware.financisto.recur.DateRecurrenceIterator;
+import ru.orangesoftware.financisto.recur.RecurrenceRule;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static ru.orangesoftware.financisto.db.DatabaseHelper.SCHEDULE_INDEX_TABLE;
+import static ru.orangesoftware.financisto.db.DatabaseHelper.SCHEDULE_OCCURRENCE_TABLE;
+import static ru.orangesoftware.financisto.db.DatabaseHelper.TRANSACTION_TABLE;
+
+/**
+ * Persisted occurrences of the recurring scheduled transactions.
+ * For every template the index keeps the occurrences in [indexed_from, indexed_until]
+ * together with the recurrence and the date it has been built from, so that a template
+ * changed behind the back of the index (sync, restore) is simply rebuilt on the next query.
+ * A template with more than {@link #MAX_OCCURRENCES} occurrences in the period it has been built for
+ * (built_until) is only indexed partially, the planner iterates its recurrence for longer periods
+ * and the index is not rebuilt until a period beyond built_until is asked for.
+ */
+public class ScheduleOccurrenceIndex {
+
+    private static final String TAG = "ScheduleOccurrenceIndex";
+
+    static final int MAX_OCCURRENCES = 500;
+    static final long HORIZON = 366L * 24 * 60 * 60 * 1000;
+
+    private static final String STALE_TEMPLATES = "SELECT t." + TransactionColumns._id + ", t." + TransactionColumns.recurrence
+            + ", t." + TransactionColumns.datetime + " FROM " + TRANSACTION_TABLE + " t"
+            + " LEFT OUTER JOIN " + SCHEDULE_INDEX_TABLE + " i ON i." + ScheduleIndexColumns.transaction_id + "=t." + TransactionColumns._id
+            + " WHERE t." + TransactionColumns.is_template + "=2 AND t." + TransactionColumns.parent_id + "=0"
+            + " AND t." + TransactionColumns.recurrence + " IS NOT NULL"
+            + " AND (i." + ScheduleIndexColumns.transaction_id + " IS NULL"
+            + " OR i." + ScheduleIndexColumns.recurrence + "<>t." + TransactionColumns.recurrence
+            + " OR i." + ScheduleIndexColumns.datetime + "<>t." + TransactionColumns.datetime
+            + " OR i." + ScheduleIndexColumns.indexed_from + ">?"
+            + " OR i." + ScheduleIndexColumns.built_until + "<?)";
+
+    private final SQLiteDatabase db;
+
+    public ScheduleOccurrenceIndex(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * @return occurrences in [from, to] of every recurring template the index covers for this period,
+     * a template which is missing from the map has to be calculated by the caller
+     */
+    public Map<Long, List<Date>> getOccurrences(long from, long to) {
+        Map<Long, List<Date>> occurrences = new HashMap<Long, List<Date>>();
+        for (long id : getIndexedTemplates(from, to)) {
+            occurrences.put(id, new ArrayList<Date>());
+        }
+        Cursor c = queryOccurrences(from, to);
+        try {
+            while (c.moveToNext()) {
+                List<Date> dates = occurrences.get(c.getLong(ScheduleOccurrenceColumns.transaction_id.ordinal()));
+                if (dates != null) {
+                    dates.add(new Date(c.getLong(ScheduleOccurrenceColumns.datetime.ordinal())));
+                }
+            }
+        } finally {
+            c.close();
+        }
+        return occurrences;
+    }
+
+    /**
+     * Brings the index up to date for the period
+     * @return ids of the recurring templates the index covers for this period
+     */
+    public Set<Long> getIndexedTemplates(long from, long to) {
+        long t0 = System.currentTimeMillis();
+        try {
+            rebuildStale(from, to);
+            Set<Long> ids = new HashSet<Long>();
+            Cursor c = db.query(SCHEDULE_INDEX_TABLE, new String[]{ScheduleIndexColumns.transaction_id.name()},
+                    ScheduleIndexColumns.indexed_from + "<=? AND " + ScheduleIndexColumns.indexed_until + ">=?",
+                    new String[]{String.valueOf(from), String.valueOf(to)}, null, null, null);
+            try {
+                while (c.moveToNext()) {
+                    ids.add(c.getLong(0));
+                }
+            } finally {
+                c.close();
+            }
+            return ids;
+        } finally {
+            Log.i(TAG, "getIndexedTemplates=" + (System.currentTimeMillis() - t0) + "ms");
+        }
+    }
+
+    /**
+     * @return indexed occurrences in [from, to] ordered by date, complete only for
+     * the templates returned by {@link #getIndexedTemplates(long, long)}
+     */
+    public Cursor queryOccurrences(long from, long to) {
+        return db.query(SCHEDULE_OCCURRENCE_TABLE, ScheduleOccurrenceColumns.NORMAL_PROJECTION,
+                ScheduleOccurrenceColumns.datetime + " BETWEEN ? AND ?",
+                new String[]{String.valueOf(from), String.valueOf(to)}, null, null,
+                ScheduleOccurrenceColumns.datetime + "," + ScheduleOccurrenceColumns.transaction_id);
+    }
+
+    /**
+     * @return the first occurrence at or after <code>now</code> of every recurring template the index covers,
+     * null for a template which has no more occurrences
+     */
+    public Map<Long, Date> getNextOccurrences(long now) {
+        Map<Long, Date> next = new HashMap<Long, Date>();
+        for (long id : getIndexedTemplates(now, now)) {
+            next.put(id, null);
+        }
+        Cursor c = db.rawQuery("SELECT " + ScheduleOccurrenceColumns.transaction_id + ", MIN(" + ScheduleOccurrenceColumns.datetime + ")"
+                + " FROM " + SCHEDULE_OCCURRENCE_TABLE + " WHERE " + ScheduleOccurrenceColumns.datetime + ">=?"
+                + " GROUP BY " + ScheduleOccurrenceColumns.transaction_id, new String[]{String.valueOf(now)});
+        try {
+            while (c.moveToNext()) {
+                long id = c.getLong(0);
+                if (next.containsKey(id)) {
+                    next.put(id, new Date(c.getLong(1)));
+                }
+            }
+        } finally {
+            c.close();
+        }
+        return next;
+    }
+
+    /**
+     * Rebuilds the occurrences of a template starting from <code>from</code>
+     */
+    public void refresh(long transactionId, String recurrence, long dateTime, long from) {
+        if (recurrence == null) {
+            remove(transactionId);
+            return;
+        }
+        db.beginTransaction();
+        try {
+            rebuild(transactionId, recurrence, dateTime, from, from + HORIZON);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Drops the occurrences before <code>now</code> once the template has fired,
+     * the rest of the index is still valid and is extended on demand
+     */
+    public void advance(long transactionId, long now) {
+        String id = String.valueOf(transactionId);
+        db.delete(SCHEDULE_OCCURRENCE_TABLE, ScheduleOccurrenceColumns.transaction_id + "=? AND "
+                + ScheduleOccurrenceColumns.datetime + "<?", new String[]{id, String.valueOf(now)});
+        ContentValues values = new ContentValues();
+        values.put(ScheduleIndexColumns.indexed_from.name(), now);
+        db.update(SCHEDULE_INDEX_TABLE, values, ScheduleIndexColumns.transaction_id + "=? AND "
+                + ScheduleIndexColumns.indexed_from + "<? AND " + ScheduleIndexColumns.indexed_until + ">=?",
+                new String[]{id, String.valueOf(now), String.valueOf(now)});
+    }
+
+    public void remove(long transactionId) {
+        String[] id = new String[]{String.valueOf(transactionId)};
+        db.delete(SCHEDULE_OCCURRENCE_TABLE, ScheduleOccurrenceColumns.transaction_id + "=?", id);
+        db.delete(SCHEDULE_INDEX_TABLE, ScheduleIndexColumns.transaction_id + "=?", id);
+    }
+
+    private void rebuildStale(long from, long to) {
+        Cursor c = db.rawQuery(STALE_TEMPLATES, new String[]{String.valueOf(from), String.valueOf(to)});
+        try {
+            if (c.getCount() == 0) {
+                return;
+            }
+            long until = Math.max(to, from + HORIZON);
+            db.beginTransaction();
+            try {
+                while (c.moveToNext()) {
+                    rebuild(c.getLong(0), c.getString(1), c.getLong(2), from, until);
+                }
+                db.setTransactionSuccessful();
+            } finally {
+                db.endTransaction();
+            }
+            Log.i(TAG, "Rebuilt occurrences of " + c.getCount() + " scheduled transactions");
+        } finally {
+            c.close();
+        }
+    }
+
+    private void rebuild(long transactionId, String recurrence, long dateTime, long from, long until) {
+        db.delete(SCHEDULE_OCCURRENCE_TABLE, ScheduleOccurrenceColumns.transaction_id + "=?",
+                new String[]{String.valueOf(transactionId)});
+        long indexedUntil = Long.MAX_VALUE;
+        SQLiteStatement insert = db.compileStatement("INSERT INTO " + SCHEDULE_OCCURRENCE_TABLE
+                + "(" + ScheduleOccurrenceColumns.transaction_id + "," + ScheduleOccurrenceColumns.datetime + ") VALUES (?,?)");
+        try {
+            DateRecurrenceIterator ri = RecurrenceRule.of(recurrence).createIterator(new Date(from));
+            int count = 0;
+            while (ri.hasNext()) {
+                long date = ri.next().getTime();
+                if (date > until) {
+                    indexedUntil = until;
+                    break;
+                }
+                insert.bindLong(1, transactionId);
+                insert.bindLong(2, date);
+                insert.executeInsert();
+                if (++count == MAX_OCCURRENCES) {
+                    indexedUntil = date;
+                    break;
+                }
+            }
+        } catch (Exception ex) {
+            Log.e(TAG, "Unable to index occurrences of " + transactionId + " for " + recurrence, ex);
+        } finally {
+            insert.close();
+        }
+        ContentValues values = new ContentValues();
+        values.put(ScheduleIndexColumns.transaction_id.name(), transactionId);
+        values.put(ScheduleIndexColumns.recurrence.name(), recurrence);
+        values.put(ScheduleIndexColumns.datetime.name(), dateTime);
+        values.put(ScheduleIndexColumns.indexed_from.name(), from);
+        values.put(ScheduleIndexColumns.indexed_until.name(), indexedUntil);
+        // a capped template covers less than it has been built for, but is still up to date for the period
+        values.put(ScheduleIndexColumns.built_until.name(), Math.max(indexedUntil, until));
+        db.insertWithOnConflict(SCHEDULE_INDEX_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+}
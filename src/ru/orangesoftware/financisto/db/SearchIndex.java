@@ -0,0 +1,352 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import ru.orangesoftware.financisto.db.DatabaseHelper.SearchStateColumns;
+import ru.orangesoftware.financisto.db.DatabaseHelper.SearchTextColumns;
+import ru.orangesoftware.financisto.db.DatabaseHelper.SearchTrigramColumns;
+import ru.orangesoftware.financisto.utils.Utils;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+import static ru.orangesoftware.financisto.db.DatabaseHelper.*;
+
+/**
+ * Trigram index over payee, category, project and location titles and transaction notes.
+ * Every indexed text is split into lower case trigrams, a query of three and more chars
+ * looks up the texts having some of its trigrams, a shorter one checks the texts of its type.
+ * Matches are ranked: prefix, start of a word, anywhere. Prefixes are read first from the ordered
+ * normalized texts, the rest is ranked in sql only when the prefixes do not fill the limit.
+ * Texts are checked against their tables, so deleted or changed rows never show up.
+ * Payees, projects, locations and notes are indexed as they are written, categories are built
+ * again on the next search after a change. A type is built on its first search,
+ * the whole index again after a restore or sync, see {@link #rebuild()}.
+ */
+public class SearchIndex {
+
+    private static final String TAG = "SearchIndex";
+
+    public static enum Type {
+        PAYEE(1, PAYEE_TABLE, "title"),
+        CATEGORY(2, CATEGORY_TABLE, "title"),
+        PROJECT(3, PROJECT_TABLE, "title"),
+        LOCATION(4, LOCATIONS_TABLE, "name"),
+        // one text per transaction, entity_id is the transaction id
+        NOTE(5, TRANSACTION_TABLE, "note");
+
+        public final int code;
+        final String table;
+        final String column;
+
+        Type(int code, String table, String column) {
+            this.code = code;
+            this.table = table;
+            this.column = column;
+        }
+    }
+
+    static final int MAX_TRIGRAMS = 4;
+    static final int MAX_INDEXED_LENGTH = 100;
+    // shorter queries have no trigram and check every text of the type
+    static final int MIN_TRIGRAM_QUERY = 3;
+    // a match right after one of these starts a word
+    static final String WORD_SEPARATORS = " -./,(&'\"";
+
+    private final SQLiteDatabase db;
+
+    public SearchIndex(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * @return ids of the entities matching the constraint, the best matches first
+     */
+    public long[] search(Type type, CharSequence constraint, int limit) {
+        String query = normalize(constraint != null ? constraint.toString() : null);
+        if (query.length() == 0) {
+            return new long[0];
+        }
+        ensureBuilt(type);
+        long t0 = System.currentTimeMillis();
+        List<Long> ids = new ArrayList<Long>();
+        readIds(queryPrefixes(type, query, limit), ids);
+        if (ids.size() < limit) {
+            readIds(queryInfixes(type, query, limit - ids.size()), ids);
+        }
+        long[] result = new long[ids.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = ids.get(i);
+        }
+        Log.d(TAG, type + " search for [" + query + "] found " + result.length + " in " + (System.currentTimeMillis() - t0) + "ms");
+        return result;
+    }
+
+    /**
+     * Selection of the rows of the type's table whose text matches the constraint, in no particular order.
+     * The type must have been built, see {@link #ensureBuilt(Type)}.
+     * @param args receives the arguments of the selection
+     */
+    public static String matchesSelection(Type type, CharSequence constraint, List<String> args) {
+        String query = normalize(constraint != null ? constraint.toString() : null);
+        StringBuilder sql = new StringBuilder("_id IN (");
+        appendMatches(sql, type, query, args);
+        return sql.append(")").toString();
+    }
+
+    private static void readIds(Cursor c, List<Long> ids) {
+        try {
+            while (c.moveToNext()) {
+                ids.add(c.getLong(0));
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * select s.entity_id from search_text s inner join payee e on ...
+     * where s.type=? and s.normalized>=? and s.normalized<? order by s.normalized limit ?
+     */
+    private Cursor queryPrefixes(Type type, String query, int limit) {
+        StringBuilder sql = selectTexts(type);
+        List<String> args = new ArrayList<String>();
+        sql.append(" WHERE s.").append(SearchTextColumns.type).append("=? AND ");
+        args.add(String.valueOf(type.code));
+        appendPrefix(sql, query, args);
+        sql.append(" ORDER BY s.").append(SearchTextColumns.normalized).append(" LIMIT ").append(limit);
+        return db.rawQuery(sql.toString(), args.toArray(new String[args.size()]));
+    }
+
+    /**
+     * select s.entity_id from search_text s inner join payee e on ...
+     * where s._id in (select text_id from search_trigram where type=? and trigram=? intersect ...) and s.normalized like '%query%'
+     * and not (s.normalized>=? and s.normalized<?)
+     * order by case when s.normalized like '% query%' or ... then 0 else 1 end, s.normalized
+     * limit ?
+     */
+    private Cursor queryInfixes(Type type, String query, int limit) {
+        StringBuilder sql = new StringBuilder();
+        List<String> args = new ArrayList<String>();
+        appendMatches(sql, type, query, args);
+        sql.append(" AND NOT (");
+        appendPrefix(sql, query, args);
+        String normalized = "s." + SearchTextColumns.normalized;
+        String pattern = escapeLike(query);
+        sql.append(") ORDER BY CASE WHEN ");
+        for (int i = 0; i < WORD_SEPARATORS.length(); i++) {
+            if (i > 0) {
+                sql.append(" OR ");
+            }
+            sql.append(normalized).append(" LIKE ? ESCAPE '\\'");
+            args.add("%" + escapeLike(String.valueOf(WORD_SEPARATORS.charAt(i))) + pattern + "%");
+        }
+        sql.append(" THEN 0 ELSE 1 END, ").append(normalized);
+        sql.append(" LIMIT ").append(limit);
+        return db.rawQuery(sql.toString(), args.toArray(new String[args.size()]));
+    }
+
+    private static StringBuilder selectTexts(Type type) {
+        return new StringBuilder("SELECT s.").append(SearchTextColumns.entity_id)
+                .append(" FROM ").append(SEARCH_TEXT_TABLE).append(" s")
+                .append(" INNER JOIN ").append(type.table).append(" e ON e._id=s.").append(SearchTextColumns.entity_id)
+                .append(" AND e.").append(type.column).append("=s.").append(SearchTextColumns.text);
+    }
+
+    private static void appendPrefix(StringBuilder sql, String query, List<String> args) {
+        String normalized = "s." + SearchTextColumns.normalized;
+        sql.append(normalized).append(">=? AND ").append(normalized).append("<?");
+        args.add(query);
+        args.add(query + Character.MAX_VALUE);
+    }
+
+    // texts containing the query anywhere, through the trigrams when the query has some
+    private static void appendMatches(StringBuilder sql, Type type, String query, List<String> args) {
+        sql.append(selectTexts(type));
+        if (query.length() < MIN_TRIGRAM_QUERY) {
+            sql.append(" WHERE s.").append(SearchTextColumns.type).append("=?");
+            args.add(String.valueOf(type.code));
+        } else {
+            sql.append(" WHERE s.").append(SearchTextColumns._id).append(" IN (");
+            List<String> trigrams = pickTrigrams(query);
+            for (int i = 0; i < trigrams.size(); i++) {
+                if (i > 0) {
+                    sql.append(" INTERSECT ");
+                }
+                sql.append("SELECT ").append(SearchTrigramColumns.text_id).append(" FROM ").append(SEARCH_TRIGRAM_TABLE)
+                        .append(" WHERE ").append(SearchTrigramColumns.type).append("=? AND ")
+                        .append(SearchTrigramColumns.trigram).append("=?");
+                args.add(String.valueOf(type.code));
+                args.add(trigrams.get(i));
+            }
+            sql.append(")");
+        }
+        sql.append(" AND s.").append(SearchTextColumns.normalized).append(" LIKE ? ESCAPE '\\'");
+        args.add("%" + escapeLike(query) + "%");
+    }
+
+    private static String escapeLike(String s) {
+        return s.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_");
+    }
+
+    // the first, the last and a few in between, the text itself is checked afterwards anyway
+    private static List<String> pickTrigrams(String query) {
+        List<String> all = new ArrayList<String>(trigrams(query, query.length()));
+        if (all.size() <= MAX_TRIGRAMS) {
+            return all;
+        }
+        List<String> picked = new ArrayList<String>(MAX_TRIGRAMS);
+        for (int i = 0; i < MAX_TRIGRAMS; i++) {
+            picked.add(all.get(i * (all.size() - 1) / (MAX_TRIGRAMS - 1)));
+        }
+        return picked;
+    }
+
+    /**
+     * Replaces the indexed text of the entity, an empty text removes it
+     */
+    public void index(Type type, long id, String title) {
+        db.beginTransaction();
+        try {
+            remove(type, id);
+            if (id > 0 && Utils.isNotEmpty(title)) {
+                insert(type, id, title);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public void remove(Type type, long id) {
+        String[] args = new String[]{String.valueOf(type.code), String.valueOf(id)};
+        db.delete(SEARCH_TRIGRAM_TABLE, SearchTrigramColumns.text_id + " IN (SELECT " + SearchTextColumns._id + " FROM " + SEARCH_TEXT_TABLE
+                + " WHERE " + SearchTextColumns.type + "=? AND " + SearchTextColumns.entity_id + "=?)", args);
+        db.delete(SEARCH_TEXT_TABLE, SearchTextColumns.type + "=? AND " + SearchTextColumns.entity_id + "=?", args);
+    }
+
+    private void insert(Type type, long id, String text) {
+        String normalized = normalize(text);
+        ContentValues values = new ContentValues();
+        values.put(SearchTextColumns.type.name(), type.code);
+        values.put(SearchTextColumns.entity_id.name(), id);
+        values.put(SearchTextColumns.text.name(), text);
+        values.put(SearchTextColumns.normalized.name(), normalized);
+        long textId = db.insert(SEARCH_TEXT_TABLE, null, values);
+        SQLiteStatement insert = compileInsertTrigram();
+        try {
+            insertTrigrams(insert, type, textId, normalized);
+        } finally {
+            insert.close();
+        }
+    }
+
+    private SQLiteStatement compileInsertTrigram() {
+        return db.compileStatement("INSERT OR IGNORE INTO " + SEARCH_TRIGRAM_TABLE + "(" + SearchTrigramColumns.type + ","
+                + SearchTrigramColumns.trigram + "," + SearchTrigramColumns.text_id + ") VALUES (?,?,?)");
+    }
+
+    private static void insertTrigrams(SQLiteStatement insert, Type type, long textId, String normalized) {
+        for (String trigram : trigrams(normalized, MAX_INDEXED_LENGTH)) {
+            insert.bindLong(1, type.code);
+            insert.bindString(2, trigram);
+            insert.bindLong(3, textId);
+            insert.executeInsert();
+        }
+    }
+
+    /**
+     * The type is built again on the next search
+     */
+    public void invalidate(Type type) {
+        db.delete(SEARCH_STATE_TABLE, SearchStateColumns.type + "=?", new String[]{String.valueOf(type.code)});
+    }
+
+    public void rebuild() {
+        for (Type type : Type.values()) {
+            rebuild(type);
+        }
+    }
+
+    public void ensureBuilt(Type type) {
+        Cursor c = db.query(SEARCH_STATE_TABLE, new String[]{SearchStateColumns.built_on.name()},
+                SearchStateColumns.type + "=?", new String[]{String.valueOf(type.code)}, null, null, null);
+        try {
+            if (c.moveToFirst()) {
+                return;
+            }
+        } finally {
+            c.close();
+        }
+        rebuild(type);
+    }
+
+    private void rebuild(Type type) {
+        long t0 = System.currentTimeMillis();
+        String[] typeArgs = new String[]{String.valueOf(type.code)};
+        db.beginTransaction();
+        try {
+            db.delete(SEARCH_TRIGRAM_TABLE, SearchTrigramColumns.type + "=?", typeArgs);
+            db.delete(SEARCH_TEXT_TABLE, SearchTextColumns.type + "=?", typeArgs);
+            Cursor c = db.rawQuery("SELECT _id, " + type.column + " FROM " + type.table
+                    + " WHERE _id>0 AND " + type.column + " IS NOT NULL AND " + type.column + "<>''", null);
+            SQLiteStatement insertText = db.compileStatement("INSERT INTO " + SEARCH_TEXT_TABLE + "(" + SearchTextColumns.type + ","
+                    + SearchTextColumns.entity_id + "," + SearchTextColumns.text + "," + SearchTextColumns.normalized + ") VALUES (?,?,?,?)");
+            SQLiteStatement insertTrigram = compileInsertTrigram();
+            int count = 0;
+            try {
+                while (c.moveToNext()) {
+                    String text = c.getString(1);
+                    String normalized = normalize(text);
+                    insertText.bindLong(1, type.code);
+                    insertText.bindLong(2, c.getLong(0));
+                    insertText.bindString(3, text);
+                    insertText.bindString(4, normalized);
+                    long textId = insertText.executeInsert();
+                    insertTrigrams(insertTrigram, type, textId, normalized);
+                    count++;
+                }
+            } finally {
+                c.close();
+                insertText.close();
+                insertTrigram.close();
+            }
+            ContentValues values = new ContentValues();
+            values.put(SearchStateColumns.type.name(), type.code);
+            values.put(SearchStateColumns.built_on.name(), System.currentTimeMillis());
+            db.replace(SEARCH_STATE_TABLE, null, values);
+            db.setTransactionSuccessful();
+            Log.i(TAG, "Indexed " + count + " " + type + " texts in " + (System.currentTimeMillis() - t0) + "ms");
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    static String normalize(String text) {
+        return text != null ? text.trim().toLowerCase(Locale.US) : "";
+    }
+
+    static Set<String> trigrams(String normalized, int maxLength) {
+        int length = Math.min(normalized.length(), maxLength);
+        Set<String> trigrams = new LinkedHashSet<String>();
+        for (int i = 0; i + 3 <= length; i++) {
+            trigrams.add(normalized.substring(i, i + 3));
+        }
+        return trigrams;
+    }
+
+}
@@ -0,0 +1,408 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import ru.orangesoftware.financisto.db.DatabaseHelper.TransactionColumns;
+import ru.orangesoftware.financisto.model.MyEntity;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static ru.orangesoftware.financisto.db.DatabaseHelper.*;
+
+/**
+ * Payees, categories and projects kept in memory and ranked by how often and how recently they were used.
+ * It is loaded once per {@link Holder} and then kept up to date by {@link DatabaseAdapter} on every insert,
+ * update and delete of a transaction. Templates and splits are not counted, neither when loading nor when writing.
+ * Prefix queries are answered from a trie over the starts of every word of the titles.
+ */
+public class Suggestions {
+
+    public static enum Type {
+        PAYEE(PAYEE_TABLE, TransactionColumns.payee_id.name()),
+        CATEGORY(CATEGORY_TABLE, TransactionColumns.category_id.name()),
+        PROJECT(PROJECT_TABLE, TransactionColumns.project_id.name());
+
+        final String table;
+        final String column;
+
+        Type(String table, String column) {
+            this.table = table;
+            this.column = column;
+        }
+    }
+
+    private static final long DAY = 24L * 60 * 60 * 1000;
+    private static final long[] AGE = {4 * DAY, 14 * DAY, 31 * DAY, 90 * DAY};
+    private static final int[] WEIGHT = {100, 70, 50, 30, 10};
+
+    // longer keys are checked against the title itself
+    static final int MAX_KEY_LENGTH = 24;
+    // shorter prefixes only match the beginning of the title
+    static final int MIN_WORD_QUERY = 3;
+
+    private final Index[] indexes = new Index[Type.values().length];
+
+    private Suggestions() {
+        for (Type type : Type.values()) {
+            indexes[type.ordinal()] = new Index();
+        }
+    }
+
+    public static Suggestions load(SQLiteDatabase db) {
+        Suggestions s = new Suggestions();
+        for (Type type : Type.values()) {
+            s.indexes[type.ordinal()].load(db, type);
+        }
+        return s;
+    }
+
+    /**
+     * @return ids of the entities with a word starting with the prefix, the most used first.
+     * Prefixes shorter than {@link #MIN_WORD_QUERY} only match the beginning of the title.
+     */
+    public synchronized long[] suggest(Type type, CharSequence prefix, int limit) {
+        String query = SearchIndex.normalize(prefix != null ? prefix.toString() : null);
+        return indexes[type.ordinal()].suggest(query, limit, System.currentTimeMillis());
+    }
+
+    /**
+     * Stable sort of the entities, the most used first. The entity with id=0 stays on top.
+     */
+    public synchronized <T extends MyEntity> void sort(Type type, List<T> entities) {
+        final Index index = indexes[type.ordinal()];
+        final long now = System.currentTimeMillis();
+        Collections.sort(entities, new Comparator<T>() {
+            @Override
+            public int compare(T e1, T e2) {
+                if (e1.id == 0 || e2.id == 0) {
+                    return e1.id == 0 ? (e2.id == 0 ? 0 : -1) : 1;
+                }
+                return compareScores(index.score(e2.id, now), index.score(e1.id, now));
+            }
+        });
+    }
+
+    /**
+     * @param times negative for transactions which no longer use the entity
+     */
+    synchronized void use(Type type, long id, long dateTime, int times) {
+        if (id > 0) {
+            indexes[type.ordinal()].use(id, dateTime, times);
+        }
+    }
+
+    synchronized void put(Type type, long id, String title) {
+        if (id > 0) {
+            indexes[type.ordinal()].put(id, title);
+        }
+    }
+
+    static int frecency(int count, long lastUsed, long now) {
+        long age = now - lastUsed;
+        int i = 0;
+        while (i < AGE.length && age > AGE[i]) {
+            i++;
+        }
+        return count * WEIGHT[i];
+    }
+
+    private static int compareScores(int s1, int s2) {
+        return s1 < s2 ? -1 : (s1 == s2 ? 0 : 1);
+    }
+
+    private static class Entry {
+
+        final long id;
+        String title;
+        int count;
+        long lastUsed;
+        int score;
+        int mark;
+
+        Entry(long id, String title) {
+            this.id = id;
+            this.title = title;
+        }
+
+    }
+
+    private static class Index {
+
+        private final Map<Long, Entry> entries = new HashMap<Long, Entry>();
+        private final Node root = new Node();
+        private int queries;
+
+        void load(SQLiteDatabase db, Type type) {
+            Cursor c = db.query(type.table, new String[]{"_id", "title"}, "_id>0", null, null, null, null);
+            try {
+                while (c.moveToNext()) {
+                    put(c.getLong(0), c.getString(1));
+                }
+            } finally {
+                c.close();
+            }
+            c = db.rawQuery("SELECT " + type.column + ", count(*), max(" + TransactionColumns.datetime + ") FROM " + TRANSACTION_TABLE
+                    + " WHERE " + TransactionColumns.is_template + "=0 AND " + TransactionColumns.parent_id + "=0"
+                    + " AND " + type.column + ">0"
+                    + " GROUP BY " + type.column, null);
+            try {
+                while (c.moveToNext()) {
+                    Entry e = entries.get(c.getLong(0));
+                    if (e != null) {
+                        e.count = c.getInt(1);
+                        e.lastUsed = c.getLong(2);
+                    }
+                }
+            } finally {
+                c.close();
+            }
+        }
+
+        void put(long id, String title) {
+            String normalized = SearchIndex.normalize(title);
+            Entry e = entries.get(id);
+            if (e == null) {
+                e = new Entry(id, normalized);
+                entries.put(id, e);
+            } else if (e.title.equals(normalized)) {
+                return;
+            } else {
+                // the old keys stay in the trie, suggest() checks them against the new title
+                e.title = normalized;
+            }
+            for (int i = 0; i < normalized.length(); i++) {
+                if (isWordStart(normalized, i)) {
+                    root.insert(normalized, i, Math.min(normalized.length(), i + MAX_KEY_LENGTH), e);
+                }
+            }
+        }
+
+        void use(long id, long dateTime, int times) {
+            Entry e = entries.get(id);
+            if (e != null) {
+                e.count = Math.max(0, e.count + times);
+                // the previous last use is not known after a removal, the entity just keeps its recency
+                if (times > 0) {
+                    e.lastUsed = Math.max(e.lastUsed, dateTime);
+                }
+            }
+        }
+
+        int score(long id, long now) {
+            Entry e = entries.get(id);
+            return e != null ? frecency(e.count, e.lastUsed, now) : 0;
+        }
+
+        long[] suggest(String query, int limit, long now) {
+            if (query.length() == 0 || limit <= 0) {
+                return new long[0];
+            }
+            Node node = root.find(query, Math.min(query.length(), MAX_KEY_LENGTH));
+            if (node == null) {
+                return new long[0];
+            }
+            int mark = ++queries;
+            boolean onlyTitleStart = query.length() < MIN_WORD_QUERY;
+            List<Entry> found = new ArrayList<Entry>();
+            List<Node> stack = new ArrayList<Node>();
+            stack.add(node);
+            while (!stack.isEmpty()) {
+                Node n = stack.remove(stack.size() - 1);
+                for (int i = 0; i < n.entryCount; i++) {
+                    Entry e = n.entries[i];
+                    if (e.mark != mark) {
+                        e.mark = mark;
+                        if (onlyTitleStart ? e.title.startsWith(query) : hasWordStartingWith(e.title, query)) {
+                            e.score = frecency(e.count, e.lastUsed, now);
+                            found.add(e);
+                        }
+                    }
+                }
+                for (int i = 0; i < n.childCount; i++) {
+                    stack.add(n.children[i]);
+                }
+            }
+            final String q = query;
+            Collections.sort(found, new Comparator<Entry>() {
+                @Override
+                public int compare(Entry e1, Entry e2) {
+                    int c = compareScores(e2.score, e1.score);
+                    if (c == 0) {
+                        c = Boolean.valueOf(e2.title.startsWith(q)).compareTo(e1.title.startsWith(q));
+                    }
+                    return c != 0 ? c : e1.title.compareTo(e2.title);
+                }
+            });
+            long[] ids = new long[Math.min(limit, found.size())];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = found.get(i).id;
+            }
+            return ids;
+        }
+
+        private static boolean hasWordStartingWith(String title, String query) {
+            int i = title.indexOf(query);
+            while (i >= 0) {
+                if (isWordStart(title, i)) {
+                    return true;
+                }
+                i = title.indexOf(query, i + 1);
+            }
+            return false;
+        }
+
+        private static boolean isWordStart(String s, int i) {
+            return Character.isLetterOrDigit(s.charAt(i)) && (i == 0 || !Character.isLetterOrDigit(s.charAt(i - 1)));
+        }
+
+    }
+
+    /**
+     * Children are kept in arrays sorted by char, entries are stored in the node where their key ends.
+     */
+    private static class Node {
+
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+        private static final Entry[] NO_ENTRIES = new Entry[0];
+
+        char[] keys = NO_KEYS;
+        Node[] children = NO_CHILDREN;
+        int childCount;
+        Entry[] entries = NO_ENTRIES;
+        int entryCount;
+
+        void insert(String s, int from, int to, Entry e) {
+            Node n = this;
+            for (int i = from; i < to; i++) {
+                n = n.child(s.charAt(i));
+            }
+            for (int i = 0; i < n.entryCount; i++) {
+                if (n.entries[i] == e) {
+                    return;
+                }
+            }
+            if (n.entryCount == n.entries.length) {
+                Entry[] entries = new Entry[Math.max(2, n.entryCount * 2)];
+                System.arraycopy(n.entries, 0, entries, 0, n.entryCount);
+                n.entries = entries;
+            }
+            n.entries[n.entryCount++] = e;
+        }
+
+        Node find(String s, int to) {
+            Node n = this;
+            for (int i = 0; i < to && n != null; i++) {
+                int k = n.indexOf(s.charAt(i));
+                n = k >= 0 ? n.children[k] : null;
+            }
+            return n;
+        }
+
+        // binary search over the used part of keys, -(insertion point)-1 when absent
+        private int indexOf(char c) {
+            int low = 0;
+            int high = childCount - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char k = keys[mid];
+                if (k < c) {
+                    low = mid + 1;
+                } else if (k > c) {
+                    high = mid - 1;
+                } else {
+                    return mid;
+                }
+            }
+            return -(low + 1);
+        }
+
+        private Node child(char c) {
+            int k = indexOf(c);
+            if (k >= 0) {
+                return children[k];
+            }
+            k = -k - 1;
+            if (childCount == keys.length) {
+                int size = Math.max(2, childCount * 2);
+                char[] newKeys = new char[size];
+                Node[] newChildren = new Node[size];
+                System.arraycopy(keys, 0, newKeys, 0, childCount);
+                System.arraycopy(children, 0, newChildren, 0, childCount);
+                keys = newKeys;
+                children = newChildren;
+            }
+            System.arraycopy(keys, k, keys, k + 1, childCount - k);
+            System.arraycopy(children, k, children, k + 1, childCount - k);
+            Node n = new Node();
+            keys[k] = c;
+            children[k] = n;
+            childCount++;
+            return n;
+        }
+
+    }
+
+    /**
+     * Loads the suggestions once and applies writes to the loaded instance.
+     * A load racing with a write is not published, the next call loads again.
+     */
+    static class Holder {
+
+        private long version;
+        private volatile Suggestions suggestions;
+
+        Suggestions get(SQLiteDatabase db) {
+            Suggestions s = suggestions;
+            if (s != null) {
+                return s;
+            }
+            long v;
+            synchronized (this) {
+                v = version;
+            }
+            // not under a lock, a writer can hold the database while updating
+            s = load(db);
+            synchronized (this) {
+                if (version == v) {
+                    suggestions = s;
+                }
+            }
+            return s;
+        }
+
+        synchronized void use(Type type, long id, long dateTime, int times) {
+            version++;
+            if (suggestions != null) {
+                suggestions.use(type, id, dateTime, times);
+            }
+        }
+
+        synchronized void put(Type type, long id, String title) {
+            version++;
+            if (suggestions != null) {
+                suggestions.put(type, id, title);
+            }
+        }
+
+        synchronized void invalidate() {
+            version++;
+            suggestions = null;
+        }
+
+    }
+
+}
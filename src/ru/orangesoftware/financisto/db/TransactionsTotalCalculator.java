@@ -18,6 +18,8 @@ import ru.orangesoftware.financisto.model.TotalError;
 import ru.orangesoftware.financisto.model.TransactionInfo;
 import ru.orangesoftware.financisto.rates.ExchangeRate;
 import ru.orangesoftware.financisto.rates.ExchangeRateProvider;
+import ru.orangesoftware.financisto.utils.AbstractPlanner;
+import ru.orangesoftware.financisto.utils.CancellationSignal;
 import ru.orangesoftware.financisto.utils.CurrencyCache;
 
 import java.math.BigDecimal;
@@ -53,10 +55,17 @@ public class TransactionsTotalCalculator {
 
     private final DatabaseAdapter db;
     private final WhereFilter filter;
+    private final CancellationSignal signal;
 
     public TransactionsTotalCalculator(DatabaseAdapter db, WhereFilter filter) {
+        this(db, filter, CancellationSignal.NONE);
+    }
+
+    public TransactionsTotalCalculator(DatabaseAdapter db, WhereFilter filter, CancellationSignal signal) {
         this.db = db;
         this.filter = filter;
+        this.signal = signal;
+        db.ensureSearchIndex(filter);
     }
 
     public Total[] getTransactionsBalance() {
@@ -71,6 +80,7 @@ public class TransactionsTotalCalculator {
             int count = c.getCount();
             List<Total> totals = new ArrayList<Total>(count);
             while (c.moveToNext()) {
+                signal.throwIfCanceled();
                 long currencyId = c.getLong(0);
                 long balance = c.getLong(1);
                 Currency currency = CurrencyCache.getCurrency(db.em(), currencyId);
@@ -117,7 +127,7 @@ public class TransactionsTotalCalculator {
                 null, null, null);
         try {
             try {
-                long balance = calculateTotalFromCursor(db, c, toCurrency);
+                long balance = calculateTotalFromCursor(db, c, toCurrency, signal);
                 Total total = new Total(toCurrency);
                 total.balance = balance;
                 return total;
@@ -129,40 +139,59 @@ public class TransactionsTotalCalculator {
         }
     }
 
-    private static long calculateTotalFromCursor(DatabaseAdapter db, Cursor c, Currency toCurrency) throws UnableToCalculateRateException {
+    private static long calculateTotalFromCursor(DatabaseAdapter db, Cursor c, Currency toCurrency, CancellationSignal signal) throws UnableToCalculateRateException {
         MyEntityManager em = db.em();
         ExchangeRateProvider rates = db.getHistoryRates();
         BigDecimal balance = BigDecimal.ZERO;
         while (c.moveToNext()) {
+            signal.throwIfCanceled();
             balance = balance.add(getAmountFromCursor(em, c, toCurrency, rates, 0));
         }
         return balance.longValue();
     }
 
-    public static Total calculateTotalFromListInHomeCurrency(DatabaseAdapter db, List<TransactionInfo> list) {
-        try {
-            Currency toCurrency = db.em().getHomeCurrency();
-            long[] balance = calculateTotalFromList(db, list, toCurrency);
-            return Total.asIncomeExpense(toCurrency, balance[0], balance[1]);
-        } catch (UnableToCalculateRateException e) {
-            return new Total(e.toCurrency, TotalError.atDateRateError(e.fromCurrency, e.datetime));
+    /**
+     * Adds up income and expenses in the home currency one transaction at a time,
+     * a transaction which can not be converted turns the total into an error
+     */
+    public static class HomeCurrencyTotalCalculator implements AbstractPlanner.TotalCalculator {
+
+        private final MyEntityManager em;
+        private final Currency homeCurrency;
+        private final ExchangeRateProvider rates;
+        private BigDecimal income = BigDecimal.ZERO;
+        private BigDecimal expenses = BigDecimal.ZERO;
+        private Total error;
+
+        public HomeCurrencyTotalCalculator(DatabaseAdapter db) {
+            this.em = db.em();
+            this.homeCurrency = em.getHomeCurrency();
+            this.rates = db.getHistoryRates();
         }
-    }
 
-    public static long[] calculateTotalFromList(DatabaseAdapter db, List<TransactionInfo> list, Currency toCurrency) throws UnableToCalculateRateException {
-        MyEntityManager em = db.em();
-        ExchangeRateProvider rates = db.getHistoryRates();
-        BigDecimal income = BigDecimal.ZERO;
-        BigDecimal expenses = BigDecimal.ZERO;
-        for (TransactionInfo t : list) {
-            BigDecimal amount = getAmountFromTransaction(em, t, toCurrency, rates);
-            if (amount.signum() > 0) {
-                income = income.add(amount);
-            } else {
-                expenses = expenses.add(amount);
+        @Override
+        public void add(TransactionInfo transaction) {
+            if (error != null) {
+                return;
+            }
+            try {
+                BigDecimal amount = getAmountFromTransaction(em, transaction, homeCurrency, rates);
+                if (amount.signum() > 0) {
+                    income = income.add(amount);
+                } else {
+                    expenses = expenses.add(amount);
+                }
+            } catch (UnableToCalculateRateException e) {
+                error = new Total(e.toCurrency, TotalError.atDateRateError(e.fromCurrency, e.datetime));
             }
         }
-        return new long[]{income.longValue(),expenses.longValue()};
+
+        @Override
+        public Total[] getTotals() {
+            Total total = error != null ? error : Total.asIncomeExpense(homeCurrency, income.longValue(), expenses.longValue());
+            return new Total[]{total};
+        }
+
     }
 
     public static BigDecimal getAmountFromCursor(MyEntityManager em, Cursor c, Currency toCurrency, ExchangeRateProvider rates, int index) throws UnableToCalculateRateException {
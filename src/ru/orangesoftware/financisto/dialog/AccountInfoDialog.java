@@ -19,7 +19,6 @@ import ru.orangesoftware.financisto.R;
 import ru.orangesoftware.financisto.activity.AccountActivity;
 import ru.orangesoftware.financisto.activity.AccountListActivity;
 import ru.orangesoftware.financisto.db.DatabaseAdapter;
-import ru.orangesoftware.financisto.db.MyEntityManager;
 import ru.orangesoftware.financisto.model.*;
 import ru.orangesoftware.financisto.utils.Utils;
 import ru.orangesoftware.financisto.view.NodeInflater;
@@ -31,7 +30,6 @@ public class AccountInfoDialog {
     private final AccountListActivity parentActivity;
     private final long accountId;
     private final DatabaseAdapter db;
-    private final MyEntityManager em;
     private final NodeInflater inflater;
     private final LayoutInflater layoutInflater;
     private final Utils u;
@@ -41,14 +39,13 @@ public class AccountInfoDialog {
         this.parentActivity = parentActivity;
         this.accountId = accountId;
         this.db = db;
-        this.em = db.em();
         this.inflater = inflater;
         this.layoutInflater = (LayoutInflater) parentActivity.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
         this.u = new Utils(parentActivity);
     }
 
     public void show() {
-        Account a = em.getAccount(accountId);
+        Account a = db.getAccountSummary().getAccount(accountId);
         if (a == null) {
             Toast t = Toast.makeText(parentActivity, R.string.no_account, Toast.LENGTH_LONG);
             t.show();
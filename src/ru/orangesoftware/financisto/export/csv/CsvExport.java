@@ -12,6 +12,7 @@ package ru.orangesoftware.financisto.export.csv;
 
 import android.content.Context;
 import android.database.Cursor;
+import ru.orangesoftware.financisto.db.CategorySnapshot;
 import ru.orangesoftware.financisto.db.DatabaseAdapter;
 import ru.orangesoftware.financisto.db.MyEntityManager;
 import ru.orangesoftware.financisto.export.Export;
@@ -44,6 +45,7 @@ public class CsvExport extends Export {
 	private final DatabaseAdapter db;
     private final CsvExportOptions options;
 
+    private CategorySnapshot categories;
     private Map<Long, Category> categoriesMap;
     private Map<Long, Account> accountsMap;
     private Map<Long, Payee> payeeMap;
@@ -85,7 +87,8 @@ public class CsvExport extends Export {
 		try {
             MyEntityManager em = db.em();
             accountsMap = em.getAllAccountsMap();
-            categoriesMap = db.getAllCategoriesMap();
+            categories = db.getCategorySnapshot();
+            categoriesMap = categories.toMap();
             payeeMap = em.getAllPayeeByIdMap();
             projectMap = em.getAllProjectsByIdMap(true);
             locationMap = em.getAllLocationsByIdMap(false);
@@ -162,15 +165,7 @@ public class CsvExport extends Export {
 	}
 
 	private String buildPath(Category category) {
-		if (category == null || category.parent == null) {
-			return "";
-		} else {
-            StringBuilder sb = new StringBuilder(category.parent.title);
-			for (Category cat = category.parent.parent; cat != null; cat = cat.parent) {
-                sb.insert(0,":").insert(0, cat.title);
-			}
-			return sb.toString();
-		}
+		return category != null ? categories.getParentPath(category.id) : "";
 	}
 
 	@Override
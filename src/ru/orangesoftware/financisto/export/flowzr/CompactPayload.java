@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2014 Emmanuel Florent.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.export.flowzr;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Columnar batch of rows pushed to Flowzr when the server supports it:
+ * <pre>
+ * {"format":"columnar-delta-v1","columns":["_id","remote_key",...],"rows":[["7",12,"agx..."],...]}
+ * </pre>
+ * Column names are sent once per batch. Every row starts with a hex mask of the columns
+ * it carries (lowest bit of the last digit is the first column), followed by the values
+ * of these columns only, so that unchanged fields of an updated row are not sent at all.
+ */
+public class CompactPayload {
+
+    public static final String FORMAT = "columnar-delta-v1";
+
+    private final List<String> columns = new ArrayList<String>();
+    private final Map<String, Integer> columnIndex = new HashMap<String, Integer>();
+    private final JSONArray rows = new JSONArray();
+
+    /**
+     * @param skip columns which have not changed since the last push, can be null
+     */
+    public void add(JSONObject row, Set<String> skip) throws JSONException {
+        List<Integer> present = new ArrayList<Integer>(row.length());
+        Iterator<?> keys = row.keys();
+        while (keys.hasNext()) {
+            String key = (String) keys.next();
+            if (skip == null || !skip.contains(key)) {
+                present.add(indexOf(key));
+            }
+        }
+        Collections.sort(present);
+        JSONArray values = new JSONArray();
+        values.put(mask(present));
+        for (int i : present) {
+            values.put(row.get(columns.get(i)));
+        }
+        rows.put(values);
+    }
+
+    public int size() {
+        return rows.length();
+    }
+
+    public String toJson() throws JSONException {
+        JSONObject o = new JSONObject();
+        o.put("format", FORMAT);
+        o.put("columns", new JSONArray(columns));
+        o.put("rows", rows);
+        return o.toString();
+    }
+
+    public byte[] toGzip() throws JSONException, IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        GZIPOutputStream out = new GZIPOutputStream(bytes);
+        try {
+            out.write(toJson().getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+        return bytes.toByteArray();
+    }
+
+    private int indexOf(String column) {
+        Integer i = columnIndex.get(column);
+        if (i == null) {
+            i = columns.size();
+            columns.add(column);
+            columnIndex.put(column, i);
+        }
+        return i;
+    }
+
+    static String mask(List<Integer> present) {
+        int max = present.isEmpty() ? 0 : present.get(present.size() - 1);
+        char[] digits = new char[max / 4 + 1];
+        int[] nibbles = new int[digits.length];
+        for (int i : present) {
+            nibbles[digits.length - 1 - i / 4] |= 1 << (i % 4);
+        }
+        for (int i = 0; i < digits.length; i++) {
+            digits[i] = Character.forDigit(nibbles[i], 16);
+        }
+        return new String(digits);
+    }
+
+}
@@ -0,0 +1,73 @@
+/*
+ * Copyright (c) 2014 Emmanuel Florent.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.export.flowzr;
+
+import java.io.IOException;
+
+/**
+ * Resumable upload protocol used by {@link PictureUploader}.
+ * Implementations must be safe to call from several upload threads.
+ */
+public interface DriveUploadEndpoint {
+
+    /**
+     * Starts a new resumable upload session.
+     * @param date transaction date, used to pick the target folder
+     * @return session uri which can be stored and resumed later
+     */
+    String startSession(String fileName, String mimeType, long size, long date) throws IOException;
+
+    /**
+     * Asks the server how many bytes of the session have been persisted.
+     * Returns {@link UploadStatus#EXPIRED} if the session is not known anymore.
+     */
+    UploadStatus queryStatus(String sessionUri, long size) throws IOException;
+
+    /**
+     * Sends bytes [offset, offset+length) of the file.
+     */
+    UploadStatus uploadChunk(String sessionUri, byte[] buffer, int length, long offset, long size) throws IOException;
+
+    public static class UploadStatus {
+
+        public static final UploadStatus EXPIRED = new UploadStatus(-1, null);
+
+        public final long uploadedBytes;
+        public final RemoteFile file;
+
+        public UploadStatus(long uploadedBytes, RemoteFile file) {
+            this.uploadedBytes = uploadedBytes;
+            this.file = file;
+        }
+
+        public boolean isComplete() {
+            return file != null;
+        }
+
+        public boolean isExpired() {
+            return uploadedBytes < 0;
+        }
+
+    }
+
+    public static class RemoteFile {
+
+        public final String id;
+        public final String url;
+        public final String thumbnailUrl;
+
+        public RemoteFile(String id, String url, String thumbnailUrl) {
+            this.id = id;
+            this.url = url;
+            this.thumbnailUrl = thumbnailUrl;
+        }
+
+    }
+
+}
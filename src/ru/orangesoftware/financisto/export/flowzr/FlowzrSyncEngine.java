@@ -10,12 +10,15 @@ package ru.orangesoftware.financisto.export.flowzr;
 
 
 import java.io.*;
+import java.net.URLEncoder;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
 
 import com.google.api.client.json.JsonParser;
@@ -26,6 +29,7 @@ import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.BasicCookieStore;
 import org.apache.http.impl.client.DefaultHttpClient;
@@ -44,6 +48,7 @@ import ru.orangesoftware.financisto.activity.MainActivity;
 import ru.orangesoftware.financisto.db.DatabaseAdapter;
 import ru.orangesoftware.financisto.db.DatabaseHelper;
 import ru.orangesoftware.financisto.db.MyEntityManager;
+import ru.orangesoftware.financisto.export.docs.GoogleDriveClient;
 import ru.orangesoftware.financisto.export.flowzr.FlowzrSyncTask.GetAuthTokenCallback;
 import ru.orangesoftware.financisto.filter.WhereFilter;
 import ru.orangesoftware.financisto.model.Account;
@@ -62,6 +67,7 @@ import ru.orangesoftware.financisto.rates.ExchangeRate;
 import ru.orangesoftware.financisto.utils.CurrencyCache;
 import ru.orangesoftware.financisto.utils.IntegrityFix;
 import ru.orangesoftware.financisto.utils.MyPreferences;
+import ru.orangesoftware.financisto.utils.ThumbnailUtil;
 import android.app.Notification;
 import android.app.NotificationManager;
 import android.app.PendingIntent;
@@ -71,8 +77,6 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
-import android.net.Uri;
-import android.os.Environment;
 import android.os.Handler;
 import android.os.Looper;
 import android.preference.PreferenceManager;
@@ -80,12 +84,14 @@ import android.support.v4.app.NotificationCompat;
 import android.text.Html;
 import android.util.Log;
 
+import com.google.api.services.drive.Drive;
 import com.google.gson.stream.JsonReader;
 import com.google.gson.stream.JsonToken;
 
 public class FlowzrSyncEngine  {
 	private static String TAG="flowzr";
 	private final static String FLOWZR_MSG_NET_ERROR="FLOWZR_MSG_NET_ERROR";
+	private final static String PAYLOAD_FORMAT_HEADER="X-Flowzr-Payload-Format";
     public static HttpContext ctx;
     public static SQLiteDatabase db;
     public static DatabaseAdapter dba;
@@ -110,7 +116,6 @@ public class FlowzrSyncEngine  {
 	public static String rootFolderId=null;	
 	static final int REQUEST_ACCOUNT_PICKER = 8;
 
-	public static final java.io.File PICTURES_DIR = new java.io.File(Environment.getExternalStorageDirectory(), "financisto/pictures");
 	public static boolean isCanceled=false;
 	public static boolean isRunning=false;
 	
@@ -120,6 +125,11 @@ public class FlowzrSyncEngine  {
 	public static final int NOTIFICATION_ID2=667;
 	public static  DefaultHttpClient  http_client;
 	public static long last_sync_ts;
+	public static SyncStateStore syncState;
+	public static String deviceId;
+	public static final String SYNC_CLOCK="sync_clock";
+	public static final String SYNC_ORIGIN="sync_origin";
+	public static boolean compactPayload=false; // server accepts CompactPayload batches
 	public static long startTimestamp;
 	public static String nsString; // used to identify a book on Flowzr
 	
@@ -147,6 +157,9 @@ public class FlowzrSyncEngine  {
 		em=dba.em();
 		http_client=p_http;
 		context=p_context;
+		syncState=new SyncStateStore(dba);
+		syncState.purgeDeleted();
+		deviceId=MyPreferences.getFlowzrDeviceId(context);
 
 		last_sync_ts=MyPreferences.getFlowzrLastSync(context);
 		FLOWZR_BASE_URL="https://" + MyPreferences.getSyncApiUrl(context);
@@ -190,6 +203,7 @@ public class FlowzrSyncEngine  {
         if (!isCanceled) {
         	notifyUser("fix created entities",5);
 	    	fixCreatedEntities();
+	    	compactPayload=checkCompactPayloadFromWeb();
         }
         /**
          * pull delete
@@ -216,9 +230,10 @@ public class FlowzrSyncEngine  {
 			}
         }        
         /**
-         * pull update
+         * pull update, before push so that remote changes are merged with local ones
+         * and the merged rows are pushed back in the same run
          */
-        if (!isCanceled && last_sync_ts==0) {		
+        if (!isCanceled) {		
 	        notifyUser(context.getString(R.string.flowzr_sync_receiving) + " ...",20);
 				try {
 					pullUpdate();
@@ -257,25 +272,6 @@ public class FlowzrSyncEngine  {
 				recordSyncTime=false;
 			}      
         }
-        /**
-         * pull update
-         */
-        if (!isCanceled && last_sync_ts>0) {		
-	        notifyUser(context.getString(R.string.flowzr_sync_receiving) + " ...",20);
-				try {
-					pullUpdate();
-				} catch (IOException e) {
-					sendBackTrace(e);
-					recordSyncTime=false;					
-				} catch (JSONException e) {
-					sendBackTrace(e);
-					recordSyncTime=false;					
-				} catch (Exception e) {
-					sendBackTrace(e);
-					recordSyncTime=false;					
-				}				
-        }
-
         /**
          * send account balances boundaries
          */
@@ -428,24 +424,24 @@ public class FlowzrSyncEngine  {
 		String sql;
 		long total;
 
-		sql="select count(*) from " + tableName  + " where updated_on<=0 or remote_key is null or (updated_on > " + last_sync_ts  ;
+		String where=" where updated_on<=0 or remote_key is null or (updated_on > " + last_sync_ts ;
         if (!tableName.equals(DatabaseHelper.BUDGET_TABLE)) {
-            sql=sql+ " and updated_on<" + startTimestamp + ")" ;
+            where=where+ " and updated_on<" + startTimestamp + ")" ;
         } else {
-            sql=sql+ ")";
+            where=where+ ")";
+        }
+        if (SyncStateStore.isMergeable(tableName)) {
+            //rows merged with remote changes during this sync
+            where=where+ " or " + SyncStateStore.needsPushCondition(tableName);
         }
 
+		sql="select count(*) from " + tableName + where;
 		cursorCursor=db.rawQuery(sql, null);
 		cursorCursor.moveToFirst();
 		total=cursorCursor.getLong(0);
 
 
-        sql="select * from " + tableName +  " where updated_on<=0 or remote_key is null or (updated_on > " + last_sync_ts ;
-        if (!tableName.equals(DatabaseHelper.BUDGET_TABLE)) {
-            sql=sql+ " and updated_on<" + startTimestamp + ")" ;
-        } else {
-            sql=sql+ ")";
-        }
+        sql="select * from " + tableName + where;
 
 		if (tableName.equals(DatabaseHelper.TRANSACTION_TABLE)) {
 			sql+= " order by  parent_id asc,_id asc";	
@@ -456,44 +452,79 @@ public class FlowzrSyncEngine  {
 		} 
 		
 		cursorCursor=db2.rawQuery(sql, null);
-		JSONArray resultSet 	= new JSONArray();
+		// the format is picked once, only one representation of the rows is built
+		boolean compact=compactPayload;
+		JSONArray resultSet 	= compact ? null : new JSONArray();
+		CompactPayload payload	= compact ? new CompactPayload() : null;
 		
 		int i=0;
-		if (cursorCursor.moveToFirst() && isCanceled!=true) {
-            Log.i("flowzr","pushing "  + tableName);
-			do {								 	
-				if (i%10==0) {					
-					//notifyUser(context.getString(R.string.flowzr_sync_sending) + " " + tableName, (int)(Math.round(i*100/total)));
-				}				
-				resultSet.put(cursorToDict(tableName,cursorCursor));
-				i++;
-				if (i%MAX_PUSH_SIZE==0) {
-					String resp=makeRequest(tableName, resultSet.toString());
-					resultSet 	= new JSONArray();
-					if (resp.equals(FLOWZR_MSG_NET_ERROR)) {
-						isCanceled=true;
+		try {
+			if (cursorCursor.moveToFirst() && isCanceled!=true) {
+	            Log.i("flowzr","pushing "  + tableName);
+				do {								 	
+					if (i%10==0) {					
+						//notifyUser(context.getString(R.string.flowzr_sync_sending) + " " + tableName, (int)(Math.round(i*100/total)));
+					}				
+					JSONObject row=cursorToDict(tableName,cursorCursor);
+					if (compact) {
+						payload.add(row, unchangedColumns(tableName,cursorCursor));
+					} else {
+						resultSet.put(row);
 					}
-					if (isCanceled) {
-						return ;
+					i++;
+					if (i%MAX_PUSH_SIZE==0) {
+						String resp=pushBatch(tableName, resultSet, payload);
+						resultSet 	= compact ? null : new JSONArray();
+						payload		= compact ? new CompactPayload() : null;
+						if (resp.equals(FLOWZR_MSG_NET_ERROR)) {
+							isCanceled=true;
+						}
+						if (isCanceled) {
+							return ;
+						}
 					}
+				} while (cursorCursor.moveToNext());						
+			}	
+			cursorCursor.close();
+			if (i%MAX_PUSH_SIZE!=0) {
+				String resp=pushBatch(tableName, resultSet, payload);
+				if (resp.equals(FLOWZR_MSG_NET_ERROR)) {
+					isCanceled=true;
+	                Log.e("flowzr",resp);
+				}
+				if (isCanceled) {
+	                Log.i("flowzr","sync canceled!");
+					return ;
 				}
-			} while (cursorCursor.moveToNext());						
-		}	
-		cursorCursor.close();
-		if (i%MAX_PUSH_SIZE!=0) {
-			String resp=makeRequest(tableName, resultSet.toString());
-			if (resp.equals(FLOWZR_MSG_NET_ERROR)) {
-				isCanceled=true;
-                Log.e("flowzr",resp);
-			}
-			if (isCanceled) {
-                Log.i("flowzr","sync canceled!");
-				return ;
 			}
+		} catch (UnsupportedFormatException e) {
+			// pushing the same rows again is harmless, the server matches them by remote key
+			Log.w(TAG, "compact payload refused, pushing " + tableName + " as plain json");
+			compactPayload=false;
+			cursorCursor.close();
+			pushUpdate(tableName, clazz);
 		}
 	}
 		
+	/**
+	 * Sends the batch as a gzipped CompactPayload when one is given, as the plain JSON array otherwise.
+	 * @throws UnsupportedFormatException if the server refuses the compact payload
+	 */
+	private static String pushBatch(String tableName, JSONArray resultSet, CompactPayload payload) throws ClientProtocolException, IOException, JSONException,Exception {
+		if (payload != null) {
+			ByteArrayEntity entity=new ByteArrayEntity(payload.toGzip());
+			entity.setContentType("application/json");
+			entity.setContentEncoding("gzip");
+			return makeRequest(tableName, entity, CompactPayload.FORMAT);
+		}
+		return makeRequest(tableName, resultSet.toString());
+	}
+
 	public static String makeRequest(String tableName, String json) throws ClientProtocolException, IOException, JSONException,Exception {
+		return makeRequest(tableName, new StringEntity(json,HTTP.UTF_8), null);
+	}
+
+	private static String makeRequest(String tableName, HttpEntity requestEntity, String format) throws ClientProtocolException, IOException, JSONException,Exception {
 		if (isCanceled) {
 			return FLOWZR_MSG_NET_ERROR;
 		}
@@ -503,12 +534,19 @@ public class FlowzrSyncEngine  {
 
 	        HttpPost httpPost = new HttpPost(uri);
 
-	        httpPost.setEntity(new StringEntity(json,HTTP.UTF_8));
+	        httpPost.setEntity(requestEntity);
             httpPost.addHeader("Cookie","dev_appserver_login=test@example.com:False:18580476422013912411");
+            if (format!=null) {
+            	httpPost.addHeader(PAYLOAD_FORMAT_HEADER, format);
+            }
 
 	        HttpResponse response =http_client.execute(httpPost);
 		    HttpEntity entity = response.getEntity();
 	        int code = response.getStatusLine().getStatusCode();
+	        if (format!=null && (code==400 || code==415)) {
+	        	entity.consumeContent();
+	        	throw new UnsupportedFormatException();
+	        }
 		    BufferedReader reader = new BufferedReader(new InputStreamReader(entity.getContent()));
 			strResponse = reader.readLine();
 			if (!tableName.equals("currency_exchange_rate")) {
@@ -522,6 +560,10 @@ public class FlowzrSyncEngine  {
 						args.put("remote_key", key);					
 						db.update(tableName, args, String.format("%s = ?", "_id"),
 						           new String[]{String.valueOf(id)});		
+						if (SyncStateStore.isMergeable(tableName)) {
+							SyncStateStore.SyncState state=syncState.getState(tableName, id);
+							syncState.saveState(tableName, id, state.clock.increment(deviceId), syncState.readRow(tableName, id), false);
+						}
 				 }						
 			}	    
 		    entity.consumeContent();	    
@@ -532,12 +574,43 @@ public class FlowzrSyncEngine  {
 	}
 	
 	
+	/**
+	 * @return columns of an already pushed row which have not changed since, they are left out of a CompactPayload
+	 */
+	private static Set<String> unchangedColumns(String tableName, Cursor c) {
+		int keyIndex=c.getColumnIndex("remote_key");
+		if (!SyncStateStore.isMergeable(tableName) || keyIndex==-1 || c.isNull(keyIndex)) {
+			return null;
+		}
+		Map<String, String> base=syncState.getState(tableName, c.getLong(c.getColumnIndex("_id"))).base;
+		if (base==null) {
+			return null;
+		}
+		Set<String> unchanged=new HashSet<String>();
+		for (Map.Entry<String, String> e : base.entrySet()) {
+			int i=c.getColumnIndex(e.getKey());
+			if (i!=-1) {
+				String value=c.getString(i);
+				if (value==null ? e.getValue()==null : value.equals(e.getValue())) {
+					unchanged.add(e.getKey());
+				}
+			}
+		}
+		return unchanged;
+	}
+
 	private static JSONObject cursorToDict(String tableName,Cursor c) {
    	    int totalColumn = c.getColumnCount();
    	    JSONObject rowObject = new JSONObject();
    	    if (c.getColumnIndex("_id")!=-1) {
    	    	try {
 				rowObject.put("_id" ,  c.getInt(c.getColumnIndex("_id")));
+				if (SyncStateStore.isMergeable(tableName)) {
+					//same clock as the one stored once the server has accepted the row
+					SyncStateStore.SyncState state=syncState.getState(tableName, c.getLong(c.getColumnIndex("_id")));
+					rowObject.put(SYNC_CLOCK, state.clock.increment(deviceId).toString());
+					rowObject.put(SYNC_ORIGIN, deviceId);
+				}
 			} catch (JSONException e) {
 				e.printStackTrace();
 			}   	    	
@@ -1788,27 +1861,74 @@ public class FlowzrSyncEngine  {
 	}
 			
 	public static <T> void saveEntityFromJson(JSONObject o, String tableName, Class<T> clazz, int i) throws JSONException,Exception {
+		if (tableName.equals("currency_exchange_rate"))  {
+			saveOrUpdateCurrencyRateFromJSON(o);
+			return;
+		}
 		String remoteKey = o.getString("key");
+		long id=getLocalKey(tableName,remoteKey);
+		long localUpdatedOn=id>0 ? syncState.readUpdatedOn(tableName, id) : 0;
+		boolean changedLocally=localUpdatedOn>last_sync_ts;
+		if (!SyncStateStore.isMergeable(tableName)) {
+			//local change wins, it is pushed right after the pull
+			if (!changedLocally) {
+				applyEntityFromJson(o, tableName, clazz, id);
+			}
+			return;
+		}
+		Map<String, String> local=changedLocally ? syncState.readRow(tableName, id) : null;
+		applyEntityFromJson(o, tableName, clazz, id);
+		id=getLocalKey(tableName,remoteKey);
+		if (id>0) {
+			mergeLocalChanges(tableName, id, local, localUpdatedOn, o);
+		}
+	}
+
+	private static <T> void applyEntityFromJson(JSONObject o, String tableName, Class<T> clazz, long id) throws JSONException,Exception {
 		if (clazz==Transaction.class) {    							
-			saveOrUpdateTransactionFromJSON(getLocalKey(tableName,remoteKey),o);
+			saveOrUpdateTransactionFromJSON(id,o);
 		} else if (clazz==Account.class) {
-			saveOrUpdateAccountFromJSON(getLocalKey(tableName,remoteKey),o);						
+			saveOrUpdateAccountFromJSON(id,o);						
 		} else if (clazz==Currency.class) {
-			saveOrUpdateCurrencyFromJSON(getLocalKey(tableName,remoteKey),o);					
+			saveOrUpdateCurrencyFromJSON(id,o);					
 		} else if (clazz==Budget.class) {
-			saveOrUpdateBudgetFromJSON(getLocalKey(tableName,remoteKey),o);					
+			saveOrUpdateBudgetFromJSON(id,o);					
 		} else if (clazz==MyLocation.class) {
-			saveOrUpdateLocationFromJSON(getLocalKey(tableName,remoteKey),o);					
-		} else if (tableName.equals("currency_exchange_rate"))  {
-			saveOrUpdateCurrencyRateFromJSON(o);
+			saveOrUpdateLocationFromJSON(id,o);					
 		} else if (clazz==Category.class)  {
-			saveOrUpdateCategoryFromJSON(getLocalKey(tableName,remoteKey),o);						
+			saveOrUpdateCategoryFromJSON(id,o);						
 		}else if (clazz==Attribute.class)  {
-			saveOrUpdateAttributeFromJSON(getLocalKey(tableName,remoteKey),o);						
+			saveOrUpdateAttributeFromJSON(id,o);						
 		}  else  {
-			saveOrUpdateEntityFromJSON(clazz,getLocalKey(tableName,remoteKey),o);										
+			saveOrUpdateEntityFromJSON(clazz,id,o);										
 		} 
+	}
 
+	/**
+	 * Three-way merge of a row changed on this device since the last sync with the version
+	 * just received. Only the rows where the merge keeps a local value are pushed back,
+	 * instead of resyncing the whole book.
+	 */
+	private static void mergeLocalChanges(String tableName, long id, Map<String, String> local, long localUpdatedOn, JSONObject o) {
+		SyncStateStore.SyncState state=syncState.getState(tableName, id);
+		VectorClock remoteClock=VectorClock.parse(o.optString(SYNC_CLOCK, null));
+		Map<String, String> remote=syncState.readRow(tableName, id);
+		if (local==null) {
+			syncState.saveState(tableName, id, state.clock.merge(remoteClock), remote, false);
+			return;
+		}
+		VectorClock localClock=state.clock.increment(deviceId);
+		boolean localWins=RowMerger.localWins(localClock, localUpdatedOn, deviceId,
+				remoteClock, o.optLong("updated_on", 0), o.optString(SYNC_ORIGIN, ""));
+		RowMerger.Result result=RowMerger.merge(state.base, local, remote, localWins);
+		if (!result.conflicts.isEmpty()) {
+			Log.i(TAG, "conflict in " + tableName + " " + id + " on " + result.conflicts + ", local wins: " + localWins);
+		}
+		if (result.differsFromRemote) {
+			syncState.writeRow(tableName, id, remote, result.values);
+		}
+		//the base is what the server has now, the merged row is pushed when it differs
+		syncState.saveState(tableName, id, state.clock.merge(remoteClock), remote, result.differsFromRemote);
 	}
      
     public static void pullDelete(long last_sync_ts)  throws Exception {
@@ -1841,6 +1961,7 @@ public class FlowzrSyncEngine  {
     	long id=getLocalKey(tableName,remoteKey);  			
 		
 		if (id>0) {
+			syncState.deleteState(tableName, id);
 			if (tableName.equals(DatabaseHelper.ACCOUNT_TABLE)) {    
 				dba.deleteAccount(id);				
 			} else if (tableName.equals(DatabaseHelper.TRANSACTION_TABLE)) {
@@ -1868,36 +1989,80 @@ public class FlowzrSyncEngine  {
 		   }
 		   db=new DatabaseAdapter(context).db();
 	   }
-	   String sql="select attached_picture,datetime,remote_key,blob_key " +
-	   		"from transactions " +
-	   		"where attached_picture is not null " +
-	   		"and blob_key is null"; 
-
-	   Cursor cursorCursor=db.rawQuery(sql, null);
-	   int i=0;
-	   if (cursorCursor.moveToFirst()) {			
-			do {
-				i=i+10;
-				notifyUser(cursorCursor.getString(0) + " >> Google Drive. " +  context.getString(R.string.hint_run_background),i);
-				if (i==100) {
-					i=10;
-				}					
-				saveFileToDrive(cursorCursor.getString(0),cursorCursor.getLong(1),cursorCursor.getString(2));				
-			} while (cursorCursor.moveToNext());	
-		}
-		cursorCursor.close();
-		notifyUser(context.getString(R.string.googledrive_upload) + " " +  context.getString(R.string.ok), 100);
+	   String folder = MyPreferences.getGoogleDriveFolder(context);
+	   if (folder == null || folder.equals("")) {
+		   Log.w(TAG, context.getString(R.string.gdocs_folder_not_configured));
+		   return;
+	   }
+	   notifyUser(context.getString(R.string.googledrive_upload) + ". " + context.getString(R.string.hint_run_background), 0);
+	   try {
+		   Drive drive = GoogleDriveClient.create(context, MyPreferences.getFlowzrAccount(context));
+		   PictureUploader uploader = new PictureUploader(new PictureUploadQueue(db),
+				   new GoogleDriveUploadEndpoint(drive, folder), ThumbnailUtil.PICTURES_DIR);
+		   int count = uploader.uploadAll(new PictureUploader.UploadListener() {
+			   @Override
+			   public void onPictureUploaded(String fileName, DriveUploadEndpoint.RemoteFile file) {
+				   linkPictureToFlowzr(fileName, file);
+			   }
+		   });
+		   Log.i(TAG, "Uploaded " + count + " picture(s) to Google Drive");
+	   } catch (Exception e) {
+		   sendBackTrace(e);
+	   }
+	   notifyUser(context.getString(R.string.googledrive_upload) + " " +  context.getString(R.string.ok), 100);
    }
-   
-   
-   public static void saveFileToDrive(String pictureFileName,long l,String remoteKey) {
-	   java.io.File pictureFile = new java.io.File(PICTURES_DIR, pictureFileName);
-	   Uri fileUri=Uri.fromFile(pictureFile);	   
-	   new PictureDriveTask(context, http_client, fileUri, l, remoteKey).execute();	  
+
+   /**
+    * Makes a link between the transactions on Flowzr and the picture on Google Drive
+    */
+   private static void linkPictureToFlowzr(String fileName, DriveUploadEndpoint.RemoteFile file) {
+	   if (http_client == null) {
+		   return;
+	   }
+	   String fileUrl = file.url != null ? file.url : "";
+	   String thumbnailUrl = file.thumbnailUrl != null ? file.thumbnailUrl : "";
+	   Cursor c = db.rawQuery("select from_account_id, remote_key from " + DatabaseHelper.TRANSACTION_TABLE
+			   + " where attached_picture=? and remote_key is not null", new String[]{fileName});
+	   try {
+		   while (c.moveToNext()) {
+			   String accountKey = getRemoteKey(DatabaseHelper.ACCOUNT_TABLE, String.valueOf(c.getLong(0)));
+			   String remoteKey = c.getString(1);
+			   try {
+				   String url = FLOWZR_API_URL + "/clear/blob/?url=" + URLEncoder.encode(fileUrl, "UTF-8")
+						   + "&thumbnail_url=" + URLEncoder.encode(thumbnailUrl, "UTF-8")
+						   + "&account=" + accountKey + "&crebit=" + remoteKey + "&name=" + URLEncoder.encode(fileName, "UTF-8")
+						   + "&blob_key=" + file.id + "&type=" + PictureUploader.MIME_TYPE;
+				   HttpGet httpGet = new HttpGet(url);
+				   http_client.execute(httpGet).getEntity().consumeContent();
+				   Log.i(TAG, "linked to :" + fileUrl);
+			   } catch (Exception e) {
+				   Log.e(TAG, "Unable to link " + fileName + " to transaction " + remoteKey, e);
+			   }
+		   }
+	   } finally {
+		   c.close();
+	   }
    }
 
-   
-   
+    /**
+     * Asks the server which push formats it accepts, any failure means plain json only
+     */
+    public static boolean checkCompactPayloadFromWeb() {
+    	try {
+    		HttpGet httpGet = new HttpGet(FLOWZR_API_URL + nsString + "/capabilities/");
+    		HttpResponse httpResponse = http_client.execute(httpGet);
+    		int code = httpResponse.getStatusLine().getStatusCode();
+    		String body = EntityUtils.toString(httpResponse.getEntity());
+    		return code==200 && body!=null && body.contains(CompactPayload.FORMAT);
+    	} catch (Exception e) {
+    		Log.i(TAG, "unable to read server capabilities: " + e.getMessage());
+    		return false;
+    	}
+    }
+
+    private static class UnsupportedFormatException extends IOException {
+    }
+
     public static boolean checkSubscriptionFromWeb() {
     	final SharedPreferences prefs = PreferenceManager.getDefaultSharedPreferences(context);
     	String registrationId = prefs.getString(FlowzrSyncOptions.PROPERTY_REG_ID, "");
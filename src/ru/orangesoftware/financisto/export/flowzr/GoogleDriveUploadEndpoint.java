@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2014 Emmanuel Florent.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.export.flowzr;
+
+import com.google.api.client.http.ByteArrayContent;
+import com.google.api.client.http.EmptyContent;
+import com.google.api.client.http.GenericUrl;
+import com.google.api.client.http.HttpContent;
+import com.google.api.client.http.HttpRequest;
+import com.google.api.client.http.HttpResponse;
+import com.google.api.client.http.json.JsonHttpContent;
+import com.google.api.services.drive.Drive;
+import com.google.api.services.drive.model.File;
+import com.google.api.services.drive.model.FileList;
+import com.google.api.services.drive.model.ParentReference;
+
+import java.io.IOException;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Drive v2 resumable upload protocol.
+ * Pictures are stored in a YYYY-MM sub-folder of the configured Google Drive folder.
+ */
+public class GoogleDriveUploadEndpoint implements DriveUploadEndpoint {
+
+    private static final String FOLDER_MIME_TYPE = "application/vnd.google-apps.folder";
+    private static final int STATUS_RESUME_INCOMPLETE = 308;
+
+    private final Drive drive;
+    private final String rootFolder;
+    private final Map<String, String> folderIds = new HashMap<String, String>();
+
+    private String rootFolderId;
+
+    public GoogleDriveUploadEndpoint(Drive drive, String rootFolder) {
+        this.drive = drive;
+        this.rootFolder = rootFolder;
+    }
+
+    @Override
+    public String startSession(String fileName, String mimeType, long size, long date) throws IOException {
+        File body = new File();
+        body.setTitle(fileName);
+        body.setMimeType(mimeType);
+        body.setFileSize(size);
+        body.setParents(Collections.singletonList(new ParentReference().setId(getMonthFolderId(date))));
+        GenericUrl url = new GenericUrl(drive.getRootUrl() + "upload/drive/v2/files?uploadType=resumable");
+        HttpRequest request = drive.getRequestFactory().buildPostRequest(url, new JsonHttpContent(drive.getJsonFactory(), body));
+        request.getHeaders().set("X-Upload-Content-Type", mimeType);
+        request.getHeaders().set("X-Upload-Content-Length", size);
+        HttpResponse response = request.execute();
+        try {
+            String location = response.getHeaders().getLocation();
+            if (location == null) {
+                throw new IOException("No upload session returned for " + fileName);
+            }
+            return location;
+        } finally {
+            response.disconnect();
+        }
+    }
+
+    @Override
+    public UploadStatus queryStatus(String sessionUri, long size) throws IOException {
+        return put(sessionUri, new EmptyContent(), "bytes */" + size);
+    }
+
+    @Override
+    public UploadStatus uploadChunk(String sessionUri, byte[] buffer, int length, long offset, long size) throws IOException {
+        String range = "bytes " + offset + "-" + (offset + length - 1) + "/" + size;
+        return put(sessionUri, new ByteArrayContent(null, buffer, 0, length), range);
+    }
+
+    private UploadStatus put(String sessionUri, HttpContent content, String contentRange) throws IOException {
+        HttpRequest request = drive.getRequestFactory().buildPutRequest(new GenericUrl(sessionUri), content);
+        request.getHeaders().setContentRange(contentRange);
+        request.setParser(drive.getObjectParser());
+        request.setThrowExceptionOnExecuteError(false);
+        HttpResponse response = request.execute();
+        try {
+            int code = response.getStatusCode();
+            if (code == 200 || code == 201) {
+                File file = response.parseAs(File.class);
+                return new UploadStatus(file.getFileSize() != null ? file.getFileSize() : 0,
+                        new RemoteFile(file.getId(), file.getAlternateLink(), file.getIconLink()));
+            }
+            if (code == STATUS_RESUME_INCOMPLETE) {
+                return new UploadStatus(parseRange(response.getHeaders().getRange()), null);
+            }
+            if (code == 404 || code == 410) {
+                return UploadStatus.EXPIRED;
+            }
+            throw new IOException("Drive upload failed with status " + code);
+        } finally {
+            response.disconnect();
+        }
+    }
+
+    static long parseRange(String range) {
+        // Range: bytes=0-524287
+        if (range == null) {
+            return 0;
+        }
+        int i = range.lastIndexOf('-');
+        if (i == -1) {
+            return 0;
+        }
+        return Long.parseLong(range.substring(i + 1).trim()) + 1;
+    }
+
+    private synchronized String getMonthFolderId(long date) throws IOException {
+        Calendar c = Calendar.getInstance();
+        c.setTime(new Date(date));
+        int month = c.get(Calendar.MONTH) + 1;
+        String title = c.get(Calendar.YEAR) + "-" + (month < 10 ? "0" + month : String.valueOf(month));
+        String folderId = folderIds.get(title);
+        if (folderId == null) {
+            folderId = getOrCreateFolder(title, getRootFolderId());
+            folderIds.put(title, folderId);
+        }
+        return folderId;
+    }
+
+    private String getRootFolderId() throws IOException {
+        if (rootFolderId == null) {
+            rootFolderId = getOrCreateFolder(rootFolder, null);
+        }
+        return rootFolderId;
+    }
+
+    private String getOrCreateFolder(String title, String parentId) throws IOException {
+        String q = "mimeType='" + FOLDER_MIME_TYPE + "' and trashed=false";
+        if (parentId != null) {
+            q += " and '" + parentId + "' in parents";
+        }
+        FileList folders = drive.files().list().setQ(q).execute();
+        for (File f : folders.getItems()) {
+            if (title.equals(f.getTitle())) {
+                return f.getId();
+            }
+        }
+        File body = new File();
+        body.setTitle(title);
+        body.setMimeType(FOLDER_MIME_TYPE);
+        if (parentId != null) {
+            body.setParents(Collections.singletonList(new ParentReference().setId(parentId)));
+        }
+        return drive.files().insert(body).execute().getId();
+    }
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2014 Emmanuel Florent.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.export.flowzr;
+
+import android.database.Cursor;
+import ru.orangesoftware.financisto.db.DatabaseHelper.PictureUploadColumns;
+
+/**
+ * A row of the persistent picture upload queue
+ */
+public class PictureUploadEntry {
+
+    public long id;
+    public String fileName;
+    public String contentHash;
+    public long fileSize;
+    public String sessionUri;
+    public long uploadedBytes;
+    public String blobKey;
+    public String fileUrl;
+    public String thumbnailUrl;
+    public String status;
+    public int attempts;
+
+    public boolean hasSession() {
+        return sessionUri != null && sessionUri.length() > 0;
+    }
+
+    public static PictureUploadEntry fromCursor(Cursor c) {
+        PictureUploadEntry e = new PictureUploadEntry();
+        e.id = c.getLong(PictureUploadColumns._id.ordinal());
+        e.fileName = c.getString(PictureUploadColumns.file_name.ordinal());
+        e.contentHash = c.getString(PictureUploadColumns.content_hash.ordinal());
+        e.fileSize = c.getLong(PictureUploadColumns.file_size.ordinal());
+        e.sessionUri = c.getString(PictureUploadColumns.session_uri.ordinal());
+        e.uploadedBytes = c.getLong(PictureUploadColumns.uploaded_bytes.ordinal());
+        e.blobKey = c.getString(PictureUploadColumns.blob_key.ordinal());
+        e.fileUrl = c.getString(PictureUploadColumns.file_url.ordinal());
+        e.thumbnailUrl = c.getString(PictureUploadColumns.thumbnail_url.ordinal());
+        e.status = c.getString(PictureUploadColumns.status.ordinal());
+        e.attempts = c.getInt(PictureUploadColumns.attempts.ordinal());
+        return e;
+    }
+
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright (c) 2014 Emmanuel Florent.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.export.flowzr;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import ru.orangesoftware.financisto.db.DatabaseHelper.PictureUploadColumns;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static ru.orangesoftware.financisto.db.DatabaseHelper.PICTURE_UPLOAD_QUEUE_TABLE;
+import static ru.orangesoftware.financisto.db.DatabaseHelper.TRANSACTION_TABLE;
+
+/**
+ * Persistent queue of attached pictures waiting to be uploaded to Google Drive.
+ * One row per picture file, the upload session is stored with the row
+ * so that an interrupted upload can be resumed after the process dies.
+ */
+public class PictureUploadQueue {
+
+    public static final String STATUS_PENDING = "PENDING";
+    public static final String STATUS_DONE = "DONE";
+    public static final String STATUS_MISSING = "MISSING";
+
+    private static final String ENQUEUE_NOT_UPLOADED = "INSERT OR IGNORE INTO " + PICTURE_UPLOAD_QUEUE_TABLE
+            + " (file_name, status, updated_on)"
+            + " SELECT DISTINCT attached_picture, '" + STATUS_PENDING + "', ? FROM " + TRANSACTION_TABLE
+            + " WHERE attached_picture IS NOT NULL AND attached_picture != '' AND blob_key IS NULL";
+
+    private static final String REQUEUE_MISSING = "UPDATE " + PICTURE_UPLOAD_QUEUE_TABLE
+            + " SET status='" + STATUS_PENDING + "', content_hash=NULL WHERE status='" + STATUS_MISSING + "'";
+
+    private static final String APPLY_UPLOADED_BLOB_KEYS = "UPDATE " + TRANSACTION_TABLE
+            + " SET blob_key=(SELECT q.blob_key FROM " + PICTURE_UPLOAD_QUEUE_TABLE + " q"
+            + " WHERE q.file_name=" + TRANSACTION_TABLE + ".attached_picture AND q.status='" + STATUS_DONE + "')"
+            + " WHERE blob_key IS NULL AND attached_picture IN (SELECT file_name FROM " + PICTURE_UPLOAD_QUEUE_TABLE
+            + " WHERE status='" + STATUS_DONE + "')";
+
+    private static final String UPDATE_TRANSACTIONS_BLOB_KEY = "UPDATE " + TRANSACTION_TABLE
+            + " SET blob_key=? WHERE blob_key IS NULL AND attached_picture IN (SELECT file_name FROM "
+            + PICTURE_UPLOAD_QUEUE_TABLE + " WHERE content_hash=?)";
+
+    private final SQLiteDatabase db;
+
+    public PictureUploadQueue(SQLiteDatabase db) {
+        this.db = db;
+    }
+
+    /**
+     * Queues every attached picture which has no blob_key yet. Files which are already
+     * in the queue keep their upload session. Transactions pointing to a file which has
+     * already been uploaded get its blob_key straight away.
+     */
+    public void enqueueNotUploadedPictures() {
+        db.beginTransaction();
+        try {
+            db.execSQL(APPLY_UPLOADED_BLOB_KEYS);
+            db.execSQL(REQUEUE_MISSING);
+            db.execSQL(ENQUEUE_NOT_UPLOADED, new Object[]{System.currentTimeMillis()});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    public List<PictureUploadEntry> getPending() {
+        Cursor c = db.query(PICTURE_UPLOAD_QUEUE_TABLE, PictureUploadColumns.NORMAL_PROJECTION,
+                PictureUploadColumns.status + "=?", new String[]{STATUS_PENDING}, null, null, PictureUploadColumns._id.name());
+        try {
+            List<PictureUploadEntry> list = new ArrayList<PictureUploadEntry>(c.getCount());
+            while (c.moveToNext()) {
+                list.add(PictureUploadEntry.fromCursor(c));
+            }
+            return list;
+        } finally {
+            c.close();
+        }
+    }
+
+    public PictureUploadEntry getEntry(String fileName) {
+        Cursor c = db.query(PICTURE_UPLOAD_QUEUE_TABLE, PictureUploadColumns.NORMAL_PROJECTION,
+                PictureUploadColumns.file_name + "=?", new String[]{fileName}, null, null, null);
+        try {
+            if (c.moveToFirst()) {
+                return PictureUploadEntry.fromCursor(c);
+            }
+            return null;
+        } finally {
+            c.close();
+        }
+    }
+
+    public void updateHash(PictureUploadEntry e) {
+        ContentValues values = new ContentValues();
+        values.put(PictureUploadColumns.content_hash.name(), e.contentHash);
+        values.put(PictureUploadColumns.file_size.name(), e.fileSize);
+        update(e.id, values);
+    }
+
+    public void markMissing(PictureUploadEntry e) {
+        e.status = STATUS_MISSING;
+        ContentValues values = new ContentValues();
+        values.put(PictureUploadColumns.status.name(), STATUS_MISSING);
+        update(e.id, values);
+    }
+
+    public void saveProgress(PictureUploadEntry e) {
+        ContentValues values = new ContentValues();
+        values.put(PictureUploadColumns.session_uri.name(), e.sessionUri);
+        values.put(PictureUploadColumns.uploaded_bytes.name(), e.uploadedBytes);
+        values.put(PictureUploadColumns.attempts.name(), e.attempts);
+        update(e.id, values);
+    }
+
+    /**
+     * @return an already uploaded file with the same content or null
+     */
+    public DriveUploadEndpoint.RemoteFile findUploaded(String contentHash) {
+        Cursor c = db.query(PICTURE_UPLOAD_QUEUE_TABLE, new String[]{PictureUploadColumns.blob_key.name(),
+                PictureUploadColumns.file_url.name(), PictureUploadColumns.thumbnail_url.name()},
+                PictureUploadColumns.content_hash + "=? AND " + PictureUploadColumns.status + "=?",
+                new String[]{contentHash, STATUS_DONE}, null, null, null, "1");
+        try {
+            if (c.moveToFirst()) {
+                return new DriveUploadEndpoint.RemoteFile(c.getString(0), c.getString(1), c.getString(2));
+            }
+            return null;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Marks every queued file with the given content as uploaded
+     * and sets blob_key for all transactions which have any of these files attached.
+     */
+    public void markUploaded(String contentHash, DriveUploadEndpoint.RemoteFile file) {
+        db.beginTransaction();
+        try {
+            ContentValues values = new ContentValues();
+            values.put(PictureUploadColumns.status.name(), STATUS_DONE);
+            values.put(PictureUploadColumns.blob_key.name(), file.id);
+            values.put(PictureUploadColumns.file_url.name(), file.url);
+            values.put(PictureUploadColumns.thumbnail_url.name(), file.thumbnailUrl);
+            values.putNull(PictureUploadColumns.session_uri.name());
+            values.put(PictureUploadColumns.updated_on.name(), System.currentTimeMillis());
+            db.update(PICTURE_UPLOAD_QUEUE_TABLE, values, PictureUploadColumns.content_hash + "=?", new String[]{contentHash});
+            db.execSQL(UPDATE_TRANSACTIONS_BLOB_KEY, new Object[]{file.id, contentHash});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * @return the date of the oldest transaction with this picture, used to pick the target folder
+     */
+    public long getPictureDate(String fileName) {
+        Cursor c = db.rawQuery("SELECT MIN(datetime) FROM " + TRANSACTION_TABLE + " WHERE attached_picture=?", new String[]{fileName});
+        try {
+            if (c.moveToFirst() && !c.isNull(0)) {
+                return c.getLong(0);
+            }
+            return System.currentTimeMillis();
+        } finally {
+            c.close();
+        }
+    }
+
+    private void update(long id, ContentValues values) {
+        values.put(PictureUploadColumns.updated_on.name(), System.currentTimeMillis());
+        db.update(PICTURE_UPLOAD_QUEUE_TABLE, values, PictureUploadColumns._id + "=?", new String[]{String.valueOf(id)});
+    }
+
+}
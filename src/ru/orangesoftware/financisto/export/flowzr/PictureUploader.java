@@ -0,0 +1,284 @@
+/*
+ * Copyright (c) 2014 Emmanuel Florent.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.export.flowzr;
+
+import android.util.Log;
+import ru.orangesoftware.financisto.export.flowzr.DriveUploadEndpoint.RemoteFile;
+import ru.orangesoftware.financisto.export.flowzr.DriveUploadEndpoint.UploadStatus;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Uploads attached pictures from the {@link PictureUploadQueue}:
+ * - a fixed number of upload threads,
+ * - files with the same content are uploaded only once,
+ * - files are sent in chunks and the upload session is stored after every chunk,
+ *   so the next run continues from the last persisted byte.
+ */
+public class PictureUploader {
+
+    private static final String TAG = "PictureUploader";
+
+    public static final int DEFAULT_WORKERS = 2;
+    // Drive requires chunks to be a multiple of 256KB
+    public static final int CHUNK_SIZE = 256 * 1024;
+    public static final String MIME_TYPE = "image/jpeg";
+
+    private static final int MAX_ATTEMPTS = 3;
+
+    public interface UploadListener {
+        /**
+         * Called from the thread which invoked {@link #uploadAll(UploadListener)}
+         * once for every picture file, including duplicates which were not uploaded again.
+         */
+        void onPictureUploaded(String fileName, RemoteFile file);
+    }
+
+    private final PictureUploadQueue queue;
+    private final DriveUploadEndpoint endpoint;
+    private final File picturesDir;
+    private final int workers;
+    private final int chunkSize;
+
+    private volatile boolean canceled;
+
+    public PictureUploader(PictureUploadQueue queue, DriveUploadEndpoint endpoint, File picturesDir) {
+        this(queue, endpoint, picturesDir, DEFAULT_WORKERS, CHUNK_SIZE);
+    }
+
+    public PictureUploader(PictureUploadQueue queue, DriveUploadEndpoint endpoint, File picturesDir, int workers, int chunkSize) {
+        this.queue = queue;
+        this.endpoint = endpoint;
+        this.picturesDir = picturesDir;
+        this.workers = workers;
+        this.chunkSize = chunkSize;
+    }
+
+    public void cancel() {
+        canceled = true;
+    }
+
+    /**
+     * @return number of files which have actually been sent to Drive
+     */
+    public int uploadAll(UploadListener listener) throws InterruptedException {
+        queue.enqueueNotUploadedPictures();
+        Map<String, List<PictureUploadEntry>> byContent = groupByContent(queue.getPending());
+        List<UploadJob> jobs = new ArrayList<UploadJob>();
+        for (Map.Entry<String, List<PictureUploadEntry>> e : byContent.entrySet()) {
+            String contentHash = e.getKey();
+            List<PictureUploadEntry> entries = e.getValue();
+            RemoteFile uploaded = queue.findUploaded(contentHash);
+            if (uploaded != null) {
+                queue.markUploaded(contentHash, uploaded);
+                notifyListener(listener, entries, uploaded);
+            } else {
+                jobs.add(new UploadJob(contentHash, entries));
+            }
+        }
+        if (jobs.isEmpty()) {
+            return 0;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(workers, jobs.size())));
+        try {
+            List<Future<RemoteFile>> futures = executor.invokeAll(jobs);
+            int count = 0;
+            for (int i = 0; i < futures.size(); i++) {
+                UploadJob job = jobs.get(i);
+                try {
+                    RemoteFile file = futures.get(i).get();
+                    if (file != null) {
+                        notifyListener(listener, job.entries, file);
+                        count++;
+                    }
+                } catch (ExecutionException ex) {
+                    Log.e(TAG, "Unable to upload " + job.entries.get(0).fileName, ex.getCause());
+                }
+            }
+            return count;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void notifyListener(UploadListener listener, List<PictureUploadEntry> entries, RemoteFile file) {
+        if (listener != null) {
+            for (PictureUploadEntry entry : entries) {
+                listener.onPictureUploaded(entry.fileName, file);
+            }
+        }
+    }
+
+    private Map<String, List<PictureUploadEntry>> groupByContent(List<PictureUploadEntry> pending) {
+        Map<String, List<PictureUploadEntry>> map = new LinkedHashMap<String, List<PictureUploadEntry>>();
+        for (PictureUploadEntry e : pending) {
+            File file = new File(picturesDir, e.fileName);
+            if (!file.isFile() || file.length() == 0) {
+                queue.markMissing(e);
+                continue;
+            }
+            if (e.contentHash == null || e.fileSize != file.length()) {
+                try {
+                    e.contentHash = hash(file);
+                    e.fileSize = file.length();
+                    queue.updateHash(e);
+                } catch (IOException ex) {
+                    Log.e(TAG, "Unable to read " + file, ex);
+                    continue;
+                }
+            }
+            List<PictureUploadEntry> list = map.get(e.contentHash);
+            if (list == null) {
+                list = new ArrayList<PictureUploadEntry>();
+                map.put(e.contentHash, list);
+            }
+            // an entry with a stored session goes first so that its upload is resumed
+            if (e.hasSession()) {
+                list.add(0, e);
+            } else {
+                list.add(e);
+            }
+        }
+        return map;
+    }
+
+    static String hash(File file) throws IOException {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e.getMessage());
+        }
+        InputStream is = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            is.close();
+        }
+        byte[] bytes = digest.digest();
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+
+    private class UploadJob implements Callable<RemoteFile> {
+
+        private final String contentHash;
+        private final List<PictureUploadEntry> entries;
+
+        private UploadJob(String contentHash, List<PictureUploadEntry> entries) {
+            this.contentHash = contentHash;
+            this.entries = entries;
+        }
+
+        @Override
+        public RemoteFile call() throws Exception {
+            PictureUploadEntry e = entries.get(0);
+            IOException lastError = null;
+            for (int i = 0; i < MAX_ATTEMPTS && !canceled; i++) {
+                try {
+                    RemoteFile file = upload(e);
+                    if (file != null) {
+                        queue.markUploaded(contentHash, file);
+                    }
+                    return file;
+                } catch (IOException ex) {
+                    Log.w(TAG, "Upload attempt " + (i + 1) + " failed for " + e.fileName + ": " + ex.getMessage());
+                    lastError = ex;
+                    e.attempts++;
+                    queue.saveProgress(e);
+                }
+            }
+            if (lastError != null) {
+                throw lastError;
+            }
+            return null;
+        }
+
+        private RemoteFile upload(PictureUploadEntry e) throws IOException {
+            File file = new File(picturesDir, e.fileName);
+            long size = file.length();
+            if (e.hasSession()) {
+                UploadStatus status = endpoint.queryStatus(e.sessionUri, size);
+                if (status.isComplete()) {
+                    return status.file;
+                }
+                if (status.isExpired()) {
+                    e.sessionUri = null;
+                    e.uploadedBytes = 0;
+                } else {
+                    e.uploadedBytes = status.uploadedBytes;
+                }
+            }
+            if (!e.hasSession()) {
+                e.sessionUri = endpoint.startSession(e.fileName, MIME_TYPE, size, queue.getPictureDate(e.fileName));
+                e.uploadedBytes = 0;
+                queue.saveProgress(e);
+            }
+            RandomAccessFile f = new RandomAccessFile(file, "r");
+            try {
+                byte[] buffer = new byte[chunkSize];
+                while (!canceled) {
+                    f.seek(e.uploadedBytes);
+                    int length = readChunk(f, buffer);
+                    UploadStatus status = endpoint.uploadChunk(e.sessionUri, buffer, length, e.uploadedBytes, size);
+                    if (status.isComplete()) {
+                        return status.file;
+                    }
+                    if (status.isExpired()) {
+                        e.sessionUri = null;
+                        e.uploadedBytes = 0;
+                        queue.saveProgress(e);
+                        throw new IOException("Upload session has expired for " + e.fileName);
+                    }
+                    e.uploadedBytes = status.uploadedBytes;
+                    queue.saveProgress(e);
+                }
+                return null;
+            } finally {
+                f.close();
+            }
+        }
+
+        private int readChunk(RandomAccessFile f, byte[] buffer) throws IOException {
+            int total = 0;
+            while (total < buffer.length) {
+                int read = f.read(buffer, total, buffer.length - total);
+                if (read == -1) {
+                    break;
+                }
+                total += read;
+            }
+            return total;
+        }
+
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright (c) 2014 Emmanuel Florent.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.export.flowzr;
+
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Field by field three-way merge of a local row with the row received from Flowzr.
+ * The base is the row as it was after the last successful sync.
+ * A field changed on one side only takes that side's value,
+ * a field changed differently on both sides is a conflict and goes to the winning side.
+ */
+public class RowMerger {
+
+    public static class Result {
+
+        public final Map<String, String> values;
+        public final Set<String> conflicts;
+        public final boolean differsFromRemote;
+
+        private Result(Map<String, String> values, Set<String> conflicts, boolean differsFromRemote) {
+            this.values = values;
+            this.conflicts = conflicts;
+            this.differsFromRemote = differsFromRemote;
+        }
+
+    }
+
+    /**
+     * @param base row after the last sync or null if it is unknown, then every differing field is a conflict
+     * @param localWinsConflicts which side wins when a field has been changed on both sides
+     */
+    public static Result merge(Map<String, String> base, Map<String, String> local, Map<String, String> remote,
+                               boolean localWinsConflicts) {
+        Set<String> columns = new LinkedHashSet<String>(remote.keySet());
+        columns.addAll(local.keySet());
+        Map<String, String> merged = new HashMap<String, String>();
+        Set<String> conflicts = new LinkedHashSet<String>();
+        boolean differsFromRemote = false;
+        for (String column : columns) {
+            String l = local.get(column);
+            String r = remote.get(column);
+            String value;
+            if (!remote.containsKey(column)) {
+                value = l;
+            } else if (!local.containsKey(column) || same(l, r)) {
+                value = r;
+            } else if (base != null && base.containsKey(column) && same(l, base.get(column))) {
+                value = r;
+            } else if (base != null && base.containsKey(column) && same(r, base.get(column))) {
+                value = l;
+            } else {
+                conflicts.add(column);
+                value = localWinsConflicts ? l : r;
+            }
+            merged.put(column, value);
+            if (remote.containsKey(column) && !same(value, r)) {
+                differsFromRemote = true;
+            }
+        }
+        return new Result(merged, conflicts, differsFromRemote);
+    }
+
+    /**
+     * Deterministic rule for concurrent changes, so that every device picks the same winner:
+     * the clock which follows the other one wins, otherwise the later change,
+     * otherwise the greater device id. A row pushed by an older client has no clock
+     * and is always treated as concurrent.
+     */
+    public static boolean localWins(VectorClock localClock, long localUpdatedOn, String localDevice,
+                                    VectorClock remoteClock, long remoteUpdatedOn, String remoteDevice) {
+        VectorClock.Order order = remoteClock.isEmpty() ? VectorClock.Order.CONCURRENT : localClock.compare(remoteClock);
+        switch (order) {
+            case AFTER:
+                return true;
+            case BEFORE:
+            case EQUAL:
+                return false;
+            default:
+                if (localUpdatedOn != remoteUpdatedOn) {
+                    return localUpdatedOn > remoteUpdatedOn;
+                }
+                return localDevice.compareTo(remoteDevice != null ? remoteDevice : "") > 0;
+        }
+    }
+
+    private static boolean same(String a, String b) {
+        return a == null ? b == null : a.equals(b);
+    }
+
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright (c) 2014 Emmanuel Florent.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.export.flowzr;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+import org.json.JSONException;
+import org.json.JSONObject;
+import ru.orangesoftware.financisto.db.DatabaseAdapter;
+import ru.orangesoftware.financisto.db.DatabaseHelper;
+import ru.orangesoftware.financisto.db.DatabaseHelper.SyncStateColumns;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import static ru.orangesoftware.financisto.db.DatabaseHelper.SYNC_STATE_TABLE;
+
+/**
+ * Keeps for every synced row its version clock and a copy of the row
+ * as it was after the last sync, this copy is the base of the three-way merge.
+ * Rows which have been merged with local changes are flagged to be pushed again.
+ */
+public class SyncStateStore {
+
+    private static final String TAG = "SyncStateStore";
+
+    // category is not merged field by field because of the nested set columns
+    private static final Set<String> MERGEABLE_TABLES = new HashSet<String>(Arrays.asList(
+            "attributes", DatabaseHelper.CURRENCY_TABLE, DatabaseHelper.PROJECT_TABLE, DatabaseHelper.PAYEE_TABLE,
+            DatabaseHelper.ACCOUNT_TABLE, DatabaseHelper.LOCATIONS_TABLE, DatabaseHelper.TRANSACTION_TABLE,
+            DatabaseHelper.BUDGET_TABLE));
+
+    // bookkeeping and denormalized columns which are never merged
+    private static final Set<String> IGNORED_COLUMNS = new HashSet<String>(Arrays.asList(
+            "_id", "remote_key", "updated_on", "total_amount", "last_transaction_date", "last_category_id",
+            "last_account_id", "last_location_id", "last_project_id"));
+
+    public static class SyncState {
+
+        public final VectorClock clock;
+        public final Map<String, String> base;
+        public final boolean needsPush;
+
+        public SyncState(VectorClock clock, Map<String, String> base, boolean needsPush) {
+            this.clock = clock;
+            this.base = base;
+            this.needsPush = needsPush;
+        }
+
+    }
+
+    private static final SyncState EMPTY = new SyncState(VectorClock.EMPTY, null, false);
+
+    private final DatabaseAdapter dba;
+    private final SQLiteDatabase db;
+
+    public SyncStateStore(DatabaseAdapter dba) {
+        this.dba = dba;
+        this.db = dba.db();
+    }
+
+    public static boolean isMergeable(String tableName) {
+        return MERGEABLE_TABLES.contains(tableName);
+    }
+
+    public SyncState getState(String tableName, long localId) {
+        Cursor c = db.query(SYNC_STATE_TABLE, SyncStateColumns.NORMAL_PROJECTION,
+                SyncStateColumns.table_name + "=? AND " + SyncStateColumns.local_id + "=?",
+                new String[]{tableName, String.valueOf(localId)}, null, null, null);
+        try {
+            if (c.moveToFirst()) {
+                return new SyncState(VectorClock.parse(c.getString(SyncStateColumns.clock.ordinal())),
+                        fromJson(c.getString(SyncStateColumns.base.ordinal())),
+                        c.getInt(SyncStateColumns.needs_push.ordinal()) == 1);
+            }
+            return EMPTY;
+        } finally {
+            c.close();
+        }
+    }
+
+    public void saveState(String tableName, long localId, VectorClock clock, Map<String, String> base, boolean needsPush) {
+        ContentValues values = new ContentValues();
+        values.put(SyncStateColumns.table_name.name(), tableName);
+        values.put(SyncStateColumns.local_id.name(), localId);
+        values.put(SyncStateColumns.clock.name(), clock.toString());
+        values.put(SyncStateColumns.base.name(), base != null ? toJson(base) : null);
+        values.put(SyncStateColumns.needs_push.name(), needsPush ? 1 : 0);
+        db.insertWithOnConflict(SYNC_STATE_TABLE, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    public void deleteState(String tableName, long localId) {
+        db.delete(SYNC_STATE_TABLE, SyncStateColumns.table_name + "=? AND " + SyncStateColumns.local_id + "=?",
+                new String[]{tableName, String.valueOf(localId)});
+    }
+
+    /**
+     * Drops the state of the rows which have been deleted since the last sync,
+     * whatever way they have been deleted
+     */
+    public void purgeDeleted() {
+        for (String tableName : MERGEABLE_TABLES) {
+            db.delete(SYNC_STATE_TABLE, SyncStateColumns.table_name + "=? AND " + SyncStateColumns.local_id
+                    + " NOT IN (SELECT _id FROM " + tableName + ")", new String[]{tableName});
+        }
+    }
+
+    /**
+     * @return sql condition selecting the rows of the table which have to be pushed after a merge
+     */
+    public static String needsPushCondition(String tableName) {
+        return "_id in (select " + SyncStateColumns.local_id + " from " + SYNC_STATE_TABLE
+                + " where " + SyncStateColumns.table_name + "='" + tableName + "' and " + SyncStateColumns.needs_push + "=1)";
+    }
+
+    /**
+     * @return mergeable columns of the row or null if there is no such row
+     */
+    public Map<String, String> readRow(String tableName, long localId) {
+        Cursor c = db.query(tableName, null, "_id=?", new String[]{String.valueOf(localId)}, null, null, null);
+        try {
+            if (!c.moveToFirst()) {
+                return null;
+            }
+            Map<String, String> row = new HashMap<String, String>();
+            for (int i = 0; i < c.getColumnCount(); i++) {
+                String column = c.getColumnName(i);
+                if (!IGNORED_COLUMNS.contains(column)) {
+                    row.put(column, c.getString(i));
+                }
+            }
+            return row;
+        } finally {
+            c.close();
+        }
+    }
+
+    public long readUpdatedOn(String tableName, long localId) {
+        Cursor c = db.query(tableName, new String[]{"updated_on"}, "_id=?", new String[]{String.valueOf(localId)}, null, null, null);
+        try {
+            return c.moveToFirst() ? c.getLong(0) : 0;
+        } finally {
+            c.close();
+        }
+    }
+
+    /**
+     * Writes the merged values which differ from the current row.
+     * Transactions are written through {@link DatabaseAdapter} so that balances, budgets and the schedule index follow,
+     * the denormalized columns of the other tables are never merged.
+     */
+    public void writeRow(String tableName, long localId, Map<String, String> current, Map<String, String> merged) {
+        ContentValues values = new ContentValues();
+        for (Map.Entry<String, String> e : merged.entrySet()) {
+            String value = e.getValue();
+            String old = current.get(e.getKey());
+            if (value == null ? old != null : !value.equals(old)) {
+                if (value == null) {
+                    values.putNull(e.getKey());
+                } else {
+                    values.put(e.getKey(), value);
+                }
+            }
+        }
+        if (values.size() > 0) {
+            values.put("updated_on", System.currentTimeMillis());
+            if (DatabaseHelper.TRANSACTION_TABLE.equals(tableName)) {
+                dba.updateTransactionColumns(localId, values);
+            } else {
+                db.update(tableName, values, "_id=?", new String[]{String.valueOf(localId)});
+            }
+        }
+    }
+
+    private static String toJson(Map<String, String> row) {
+        JSONObject o = new JSONObject();
+        try {
+            for (Map.Entry<String, String> e : row.entrySet()) {
+                o.put(e.getKey(), e.getValue() != null ? e.getValue() : JSONObject.NULL);
+            }
+        } catch (JSONException e) {
+            Log.e(TAG, "Unable to store sync base", e);
+        }
+        return o.toString();
+    }
+
+    private static Map<String, String> fromJson(String s) {
+        if (s == null) {
+            return null;
+        }
+        try {
+            JSONObject o = new JSONObject(s);
+            Map<String, String> row = new HashMap<String, String>();
+            Iterator<?> keys = o.keys();
+            while (keys.hasNext()) {
+                String key = (String) keys.next();
+                row.put(key, o.isNull(key) ? null : o.getString(key));
+            }
+            return row;
+        } catch (JSONException e) {
+            Log.e(TAG, "Unable to read sync base", e);
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (c) 2014 Emmanuel Florent.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.export.flowzr;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Immutable per-row version stamp: one counter per device which has changed the row.
+ * Serialized as "device1:3,device2:1", an empty clock is an empty string.
+ */
+public class VectorClock {
+
+    public static final VectorClock EMPTY = new VectorClock(new TreeMap<String, Long>());
+
+    public enum Order {
+        EQUAL, BEFORE, AFTER, CONCURRENT
+    }
+
+    private final SortedMap<String, Long> counters;
+
+    private VectorClock(SortedMap<String, Long> counters) {
+        this.counters = Collections.unmodifiableSortedMap(counters);
+    }
+
+    public static VectorClock parse(String s) {
+        if (s == null || s.length() == 0) {
+            return EMPTY;
+        }
+        TreeMap<String, Long> counters = new TreeMap<String, Long>();
+        for (String pair : s.split(",")) {
+            int i = pair.lastIndexOf(':');
+            if (i <= 0) {
+                continue;
+            }
+            try {
+                long counter = Long.parseLong(pair.substring(i + 1).trim());
+                if (counter > 0) {
+                    counters.put(pair.substring(0, i).trim(), counter);
+                }
+            } catch (NumberFormatException e) {
+                // ignore a broken entry, the rest of the clock is still usable
+            }
+        }
+        return new VectorClock(counters);
+    }
+
+    public boolean isEmpty() {
+        return counters.isEmpty();
+    }
+
+    public long get(String device) {
+        Long counter = counters.get(device);
+        return counter != null ? counter : 0;
+    }
+
+    public VectorClock increment(String device) {
+        TreeMap<String, Long> next = new TreeMap<String, Long>(counters);
+        next.put(device, get(device) + 1);
+        return new VectorClock(next);
+    }
+
+    /**
+     * @return the smallest clock which follows both this and the other clock
+     */
+    public VectorClock merge(VectorClock other) {
+        TreeMap<String, Long> next = new TreeMap<String, Long>(counters);
+        for (Map.Entry<String, Long> e : other.counters.entrySet()) {
+            if (e.getValue() > get(e.getKey())) {
+                next.put(e.getKey(), e.getValue());
+            }
+        }
+        return new VectorClock(next);
+    }
+
+    /**
+     * @return BEFORE if this clock happened before the other one,
+     * AFTER if it follows the other one, CONCURRENT if they have diverged
+     */
+    public Order compare(VectorClock other) {
+        boolean less = false;
+        boolean greater = false;
+        for (Map.Entry<String, Long> e : counters.entrySet()) {
+            long o = other.get(e.getKey());
+            if (e.getValue() < o) {
+                less = true;
+            } else if (e.getValue() > o) {
+                greater = true;
+            }
+        }
+        for (Map.Entry<String, Long> e : other.counters.entrySet()) {
+            if (!counters.containsKey(e.getKey())) {
+                less = true;
+            }
+        }
+        if (less && greater) {
+            return Order.CONCURRENT;
+        } else if (less) {
+            return Order.BEFORE;
+        } else if (greater) {
+            return Order.AFTER;
+        } else {
+            return Order.EQUAL;
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        return this == o || (o instanceof VectorClock && counters.equals(((VectorClock) o).counters));
+    }
+
+    @Override
+    public int hashCode() {
+        return counters.hashCode();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Long> e : counters.entrySet()) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(e.getKey()).append(':').append(e.getValue());
+        }
+        return sb.toString();
+    }
+
+}
@@ -108,6 +108,8 @@ public class Criteria {
             return DateTimeCriteria.fromStringExtra(extra);
         } else if (BlotterFilter.CATEGORY_ID.equals(a[0])) {
             return SingleCategoryCriteria.fromStringExtra(extra);
+        } else if (BlotterFilter.NOTE.equals(a[0])) {
+            return NoteCriteria.fromStringExtra(extra);
         } else {
             String[] values = new String[a.length - 2];
             System.arraycopy(a, 2, values, 0, values.length);
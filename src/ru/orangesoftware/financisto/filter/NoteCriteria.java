@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.filter;
+
+import android.net.Uri;
+import ru.orangesoftware.financisto.blotter.BlotterFilter;
+import ru.orangesoftware.financisto.db.SearchIndex;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Transactions with a note containing the text, looked up in the {@link SearchIndex}
+ * which must be built before the selection is run, see {@link SearchIndex#ensureBuilt(SearchIndex.Type)}
+ */
+public class NoteCriteria extends Criteria {
+
+    private final String selection;
+    private final String[] selectionArgs;
+
+    public NoteCriteria(String text) {
+        super(BlotterFilter.NOTE, WhereFilter.Operation.NOPE, text);
+        List<String> args = new ArrayList<String>();
+        this.selection = SearchIndex.matchesSelection(SearchIndex.Type.NOTE, text, args);
+        this.selectionArgs = args.toArray(new String[args.size()]);
+    }
+
+    @Override
+    public String getSelection() {
+        return selection;
+    }
+
+    @Override
+    public String[] getSelectionArgs() {
+        return selectionArgs;
+    }
+
+    @Override
+    public String toStringExtra() {
+        // the text may have commas
+        return BlotterFilter.NOTE + ",NOPE," + Uri.encode(getStringValue());
+    }
+
+    public static Criteria fromStringExtra(String extra) {
+        String[] a = extra.split(",");
+        return new NoteCriteria(a.length > 2 ? Uri.decode(a[2]) : "");
+    }
+
+}
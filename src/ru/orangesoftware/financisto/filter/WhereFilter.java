@@ -11,9 +11,11 @@
 package ru.orangesoftware.financisto.filter;
 
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Set;
 
 import ru.orangesoftware.financisto.activity.DateFilterActivity;
 import ru.orangesoftware.financisto.blotter.BlotterFilter;
@@ -119,6 +121,22 @@ public class WhereFilter {
 		return args;
 	}
 
+	/**
+	 * @return true if every criteria is on one of the columns
+	 */
+	public boolean isOnlyOn(Set<String> columns) {
+		for (Criteria c : criterias) {
+			if (!columns.contains(c.columnName)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	public List<Criteria> getCriterias() {
+		return Collections.unmodifiableList(criterias);
+	}
+
 	public Criteria get(String name) {
 		for (Criteria c : criterias) {
 			String column = c.columnName;
@@ -277,6 +295,13 @@ public class WhereFilter {
 	public String[] getSelectionArgs() {
 		return getSelectionArgs(criterias);
 	}		
+
+	/**
+	 * @return selection together with its arguments, the same for the filters selecting the same rows
+	 */
+	public String getSelectionKey() {
+		return getSelection()+" "+Arrays.toString(getSelectionArgs());
+	}
 	
 	public long getAccountId() {
 		Criteria c = get(BlotterFilter.FROM_ACCOUNT_ID);
@@ -22,13 +22,18 @@ public class Amount implements Comparable<Amount> {
 	public int amountTextWidth;
 	public int amountTextHeight;
 
+	private String amountText;
+
 	public Amount(Currency currency, long amount) {
 		this.currency = currency;
 		this.amount = amount;
 	}
 	
 	public String getAmountText() {
-		return Utils.amountToString(currency, amount, true);
+		if (amountText == null) {
+			amountText = Utils.amountToString(currency, amount, true);
+		}
+		return amountText;
 	}
 
     @Override
@@ -3,13 +3,16 @@ package ru.orangesoftware.financisto.graph;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import ru.orangesoftware.financisto.R;
 import ru.orangesoftware.financisto.db.MyEntityManager;
 import ru.orangesoftware.financisto.model.Currency;
 import ru.orangesoftware.financisto.model.PeriodValue;
 import ru.orangesoftware.financisto.model.ReportDataByPeriod;
+import ru.orangesoftware.financisto.model.ReportSeriesByPeriod;
 import android.content.Context;
 
 public abstract class Report2DChart {
@@ -39,6 +42,8 @@ public abstract class Report2DChart {
 	private int[] periods;
 	
 	protected ReportDataByPeriod data;
+	// series of all filter ids by currency and period, reused when moving between filters
+	private final Map<String, ReportSeriesByPeriod> series = new HashMap<String, ReportSeriesByPeriod>();
 	protected List<Report2DPoint> points;
 	protected int selectedPoint;
 	
@@ -134,6 +139,7 @@ public abstract class Report2DChart {
 		this.startPeriod = startPeriod;
 		this.periodLength = periodLength;
 		this.currency = currency;
+		this.series.clear();
 		
 		periods = new int[22];
     	periodStrings = new String[22];
@@ -305,7 +311,7 @@ public abstract class Report2DChart {
 	 * Request data and fill data objects (list of points, max, min, etc.)
 	 */
 	protected void build() {
-		data = new ReportDataByPeriod(context, startPeriod, periodLength, currency, columnFilter, filterIds.get(currentFilterOrder).intValue(),em);
+		data = new ReportDataByPeriod(context, getSeries(), filterIds.get(currentFilterOrder));
 		points = new ArrayList<Report2DPoint>();
 		List<PeriodValue> pvs = data.getPeriodValues();
 
@@ -314,6 +320,20 @@ public abstract class Report2DChart {
 		}
 	}
 	
+	/**
+	 * Monthly results of all filter ids in the current currency and period, loaded once for each of them.
+	 * @return The series to take the current filter data from
+	 */
+	protected ReportSeriesByPeriod getSeries() {
+		String key = ReportSeriesByPeriod.getKey(startPeriod, periodLength, currency, columnFilter);
+		ReportSeriesByPeriod s = series.get(key);
+		if (s == null) {
+			s = ReportSeriesByPeriod.load(em.db(), startPeriod, periodLength, currency, columnFilter);
+			series.put(key, s);
+		}
+		return s;
+	}
+	
 	/**
 	 * Set the name of Transaction column to filter on chart
 	 */
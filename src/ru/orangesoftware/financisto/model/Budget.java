@@ -10,14 +10,10 @@
  ******************************************************************************/
 package ru.orangesoftware.financisto.model;
 
-import ru.orangesoftware.financisto.blotter.BlotterFilter;
 import ru.orangesoftware.financisto.utils.RecurUtils;
 import ru.orangesoftware.financisto.utils.RecurUtils.Recur;
 
 import javax.persistence.*;
-import java.util.Map;
-
-import static ru.orangesoftware.financisto.utils.Utils.isNotEmpty;
 
 @Entity
 @Table(name = "budget")
@@ -97,92 +93,6 @@ public class Budget {
 		return RecurUtils.createFromExtraString(recur);
 	}
 	
-	public static String createWhere(Budget b, Map<Long, Category> categories, Map<Long, Project> projects) {
-		StringBuilder sb = new StringBuilder();
-		// currency
-        if (b.currency != null) {
-		    sb.append(BlotterFilter.FROM_ACCOUNT_CURRENCY_ID).append("=").append(b.currency.id);
-        } else if (b.account != null) {
-            sb.append(BlotterFilter.FROM_ACCOUNT_ID).append("=").append(b.account.id);
-        } else {
-            sb.append(" 1=1 ");
-        }
-		// categories & projects
-		String categoriesWhere = createCategoriesWhere(b, categories);
-		boolean hasCategories = isNotEmpty(categoriesWhere);
-		String projectWhere = createProjectsWhere(b, projects);
-		boolean hasProjects = isNotEmpty(projectWhere);
-		if (hasCategories && hasProjects) {
-			sb.append(" AND ((").append(categoriesWhere).append(") ");
-			sb.append(b.expanded ? "OR" : "AND");
-			sb.append(" (").append(projectWhere).append("))");
-		} else if (hasCategories) {
-			sb.append(" AND (").append(categoriesWhere).append(")");
-		} else if (hasProjects) {
-			sb.append(" AND (").append(projectWhere).append(")");
-		}
-		// start date
-		if (b.startDate > 0) {
-			sb.append(" AND ").append(BlotterFilter.DATETIME).append(">=").append(b.startDate);
-		}
-		// end date
-		if (b.endDate > 0) {
-			sb.append(" AND ").append(BlotterFilter.DATETIME).append("<=").append(b.endDate);
-		}
-		if (!b.includeCredit) {
-			sb.append(" AND from_amount<0");
-		}
-		return sb.toString();
-	}
-
-	private static String createCategoriesWhere(Budget b, Map<Long, Category> categories) {
-		long[] ids = MyEntity.splitIds(b.categories);
-		if (ids != null) {
-			StringBuilder sb = new StringBuilder();
-			boolean f = false;
-			for (long id : ids) {
-				Category c = categories.get(id);
-				if (c != null) {
-					if (f) {
-						sb.append(" OR ");
-					}
-					if (b.includeSubcategories) {
-						sb.append("(").append(BlotterFilter.CATEGORY_LEFT).append(" BETWEEN ").append(c.left).append(" AND ").append(c.right).append(")");
-					} else {
-						sb.append(BlotterFilter.CATEGORY_ID).append("=").append(c.id);
-					}
-					f = true;
-				}
-			}
-			if (f) {
-				return sb.toString();
-			}
-		}
-		return null;
-	}
-
-	private static String createProjectsWhere(Budget b, Map<Long, Project> projects) {
-		long[] ids = MyEntity.splitIds(b.projects);
-		if (ids != null) {
-			StringBuilder sb = new StringBuilder();
-			boolean f = false;
-			for (long id : ids) {
-				Project p = projects.get(id);
-				if (p != null) {
-					if (f) {
-						sb.append(" OR ");
-					}
-					sb.append(BlotterFilter.PROJECT_ID).append("=").append(p.id);
-					f = true;
-				}
-			}
-			if (f) {
-				return sb.toString();
-			}
-		}
-		return null;
-	}
-
     public Currency getBudgetCurrency() {
         return currency != null ? currency : (account != null ? account.currency : null);
     }
@@ -19,6 +19,7 @@ import javax.persistence.Entity;
 import javax.persistence.Table;
 import javax.persistence.Transient;
 
+import ru.orangesoftware.financisto.utils.AmountFormat;
 import ru.orangesoftware.financisto.utils.CurrencyCache;
 
 @Entity
@@ -62,6 +63,9 @@ public class Currency extends MyEntity {
     @Transient
 	private volatile DecimalFormat format;
 
+    @Transient
+    private volatile AmountFormat amountFormat;
+
     @Override
     public String toString() {
         return name;
@@ -76,6 +80,15 @@ public class Currency extends MyEntity {
 		return f;
 	}
 	
+    public AmountFormat getAmountFormat() {
+        AmountFormat f = amountFormat;
+        if (f == null) {
+            f = CurrencyCache.createAmountFormat(this);
+            amountFormat = f;
+        }
+        return f;
+    }
+
 	public static Currency defaultCurrency() {
 		Currency c = new Currency();
 		c.id = 2;
@@ -1,20 +1,12 @@
 package ru.orangesoftware.financisto.model;
 
-import static ru.orangesoftware.financisto.db.DatabaseHelper.TRANSACTION_TABLE;
-
 import java.util.ArrayList;
 import java.util.Calendar;
-import java.util.GregorianCalendar;
 import java.util.List;
 
-import ru.orangesoftware.financisto.db.DatabaseHelper;
 import ru.orangesoftware.financisto.db.MyEntityManager;
-import ru.orangesoftware.financisto.db.DatabaseHelper.AccountColumns;
-import ru.orangesoftware.financisto.db.DatabaseHelper.TransactionColumns;
 import ru.orangesoftware.financisto.graph.Report2DChart;
 import android.content.Context;
-import android.database.Cursor;
-import android.database.sqlite.SQLiteDatabase;
 
 /**
  * Report data builder that considers filters in a given period.
@@ -113,8 +105,7 @@ public class ReportDataByPeriod {
 	 * @param dbAdapter Database adapter to query data
 	 */
 	public ReportDataByPeriod(Context context, int periodLength, Currency currency, String filterColumn, int[] filterId, MyEntityManager em) {
-		Calendar startPeriod = Report2DChart.getDefaultStartPeriod(periodLength);
-		init(context, startPeriod, periodLength, currency, filterColumn, filterId, em);
+		this(context, Report2DChart.getDefaultStartPeriod(periodLength), periodLength, currency, filterColumn, filterId, em);
 	}
 	
 	/**
@@ -126,8 +117,7 @@ public class ReportDataByPeriod {
 	 * @param dbAdapter Database adapter to query data
 	 */
 	public ReportDataByPeriod(Context context, int periodLength, Currency currency, String filterColumn, int filterId, MyEntityManager em) {
-		Calendar startPeriod = Report2DChart.getDefaultStartPeriod(periodLength);
-		init(context, startPeriod, periodLength, currency, filterColumn, new int[]{filterId}, em);
+		this(context, periodLength, currency, filterColumn, new int[]{filterId}, em);
 	}
 
 	/**
@@ -140,7 +130,7 @@ public class ReportDataByPeriod {
 	 * @param dbAdapter Database adapter to query data
 	 */
 	public ReportDataByPeriod(Context context, Calendar startDate, int periodLength, Currency currency, String filterColumn, int[] filterId, MyEntityManager em) {
-		init(context, startDate, periodLength, currency, filterColumn, filterId, em);
+		this(context, ReportSeriesByPeriod.load(em.db(), startDate, periodLength, currency, filterColumn), toLongs(filterId));
 	}
 	
 	/**
@@ -153,183 +143,46 @@ public class ReportDataByPeriod {
 	 * @param dbAdapter Database adapter to query data
 	 */
 	public ReportDataByPeriod(Context context, Calendar startDate, int periodLength, Currency currency, String filterColumn, int filterId, MyEntityManager em) {
-		init(context, startDate, periodLength, currency, filterColumn, new int[]{filterId}, em);
+		this(context, startDate, periodLength, currency, filterColumn, new int[]{filterId}, em);
 	}
-	
+
 	/**
-	 * Initialize data.
-	 * @param startDate The first month of the report period
-	 * @param periodLength The number of months in the report period
-	 * @param currency The report reference currency
-	 * @param filterColumn The report filtering column in transactions table 
+	 * Constructor for report data taken from series already loaded for all filter ids.
+	 * @param series Monthly results of every filter id in the report period
 	 * @param filterId The report filtering id in transactions table 
-	 * @param dbAdapter Database adapter to query data
 	 */
-	private void init(Context context, Calendar startDate, int periodLength, Currency currency, String filterColumn, int[] filterId, MyEntityManager em) {
-		this.context = context;
-		this.periodLength = periodLength;
-		startDate.set(startDate.get(Calendar.YEAR), startDate.get(Calendar.MONTH), 01, 00, 00, 00);
-		this.startDate = startDate;
-		
-		SQLiteDatabase db = em.db();
-		Cursor cursor = null;
-
-		fillEmptyList(startDate, periodLength);
-
-		try {
-			// search accounts for which the reference currency is the given currency
-			int[] accounts = getAccountsByCurrency(currency, db);
-			if (accounts.length==0) {
-				max=min=0;
-				absMax=absMin=0;
-				return;
-			}
-			
-			// prepare query based on given report parameters
-			String where = getWhereClause(filterColumn, filterId, accounts);
-			String[] pars = getWherePars(startDate, periodLength, filterId, accounts);
-			// query data
-			cursor = db.query(TRANSACTION_TABLE, new String[]{filterColumn, TransactionColumns.from_amount.name(), TransactionColumns.datetime.name(), TransactionColumns.datetime.name()},
-					   where, pars, null, null, TransactionColumns.datetime.name());
-			// extract data and fill statistics
-			extractData(cursor); 
-
-		} finally {
-			if (cursor!=null) cursor.close();
-		}
+	public ReportDataByPeriod(Context context, ReportSeriesByPeriod series, long filterId) {
+		this(context, series, new long[]{filterId});
 	}
 
 	/**
-	 * Build a where clause based on the following format:
-	 * <filteredColumn>=? and (datetime>=? and datetime<=?) and (from_account_id=? or from_account_id=? ...)
-	 * 
-	 * @param filterColumn The report filter (account, category, location or project)
-	 * @param accounts List of account ids for which the reference currency is the report reference currency.
-	 * */
-	private String getWhereClause(String filterColumn, int[] filterId, int[] accounts) {
-		StringBuffer accountsWhere = new StringBuffer();
-		// no templates and scheduled transactions
-		accountsWhere.append(TransactionColumns.is_template +"=0");
-		
-		// report filtering (account, category, location or project)
-		accountsWhere.append(" and (");
-		for (int i=0;i<filterId.length;i++) 
-		{
-			if(i!=0)
-				accountsWhere.append(" or ");
-			accountsWhere.append(filterColumn+"=? ");
-		}
-		accountsWhere.append(")");
-		
-		// period
-		accountsWhere.append(" and ("+TransactionColumns.datetime +">=? and "+TransactionColumns.datetime +"<=?)");
-		
-		// list of accounts for which the reference currency is the report reference currency
-		if(accounts.length>0)
-			accountsWhere.append(" and (");
-		for (int i=0; i<accounts.length; i++)
-		{
-			if(i!=0)
-				accountsWhere.append(" or ");
-			accountsWhere.append(TransactionColumns.from_account_id +"=? ");
+	 * Constructor for report data taken from series already loaded for all filter ids.
+	 * @param series Monthly results of every filter id in the report period
+	 * @param filterIds The report filtering ids in transactions table, their results are added together
+	 */
+	public ReportDataByPeriod(Context context, ReportSeriesByPeriod series, long[] filterIds) {
+		this.context = context;
+		this.periodLength = series.getPeriodLength();
+		this.startDate = series.getStartPeriod();
+		double[] monthly = series.getValues(filterIds);
+		for (int i=0; i<periodLength; i++) {
+			values.add(new PeriodValue(series.getMonth(i), monthly[i]));
 		}
-		if(accounts.length>0)
-			accountsWhere.append(")");
-		return accountsWhere.toString();
+		fillStatistics();
 	}
-	
-	/**
-	 * Build the parameters of the where clause based on the following format:
-	 * <filteredColumn>=? and (datetime>=? and datetime<=?) and (from_account_id=? or from_account_id=? ...)
-	 * 
-	 * @param startDate The first month of the report period
-	 * @param periodLength The number of months of the report period
-	 * @param filterId The id of the filtering column (account, category, location or project)
-	 * @param accounts The ids of accounts to be considered in this query
-	 * */
-	private String[] getWherePars(Calendar startDate, int periodLength, int[] filterId, int[] accounts) {
-		String[] pars = new String[filterId.length + 2 + accounts.length];
 
-		// The id of the filtered column
-		int i=0;
-		for (i=0; i<filterId.length ;i++)
-			pars[i] = Long.toString(filterId[i]);
-		
-		// The first month of the period in time millis
-		pars[i] = String.valueOf(startDate.getTimeInMillis());
-		
-		// The last month of the period in time millis
-		i++;
-		Calendar endDate = new GregorianCalendar(startDate.get(Calendar.YEAR), startDate.get(Calendar.MONTH), 1, 0, 0, 0);
-		endDate.add(Calendar.MONTH, periodLength);
-		pars[i] = String.valueOf(endDate.getTimeInMillis());
-		
-		// Account ids to be considered in this query due the report reference currency
-		for (int j=0; j<accounts.length; j++) {
-			pars[j+i+1] = Long.toString(accounts[j]);
+	private static long[] toLongs(int[] ids) {
+		long[] result = new long[ids.length];
+		for (int i=0; i<ids.length; i++) {
+			result[i] = ids[i];
 		}
-		
-		return pars;
-	}
-
-	/**
-	 * Fill the list of periodValues with the corresponding month and 0 for value.
-	 * 
-	 * @param startDate The first month of the period
-	 * @param periodLength The number of months in the report period
-	 */
-	private void fillEmptyList(Calendar startDate, int periodLength) {
-		Calendar month;
-		for(int index=0; index<periodLength; index++) {
-			month = new GregorianCalendar(startDate.get(Calendar.YEAR), startDate.get(Calendar.MONTH)+index, 1, 0, 0, 0);
-			PeriodValue periodValue = new PeriodValue(month, 0);
-			values.add(periodValue);
-		}		
+		return result;
 	}
 
 	/**
-	 * Build data points to plot chart.
-	 * 
-	 * @param c Cursor with filtered transactions data.
+	 * Generate statistics based on the monthly results.
 	 */
-	private void extractData(Cursor c) {
-	/*
-	 * Algorithm
-	 *   Transactions data are ordered by date: newer first.
-	 *   The first loop threat month by month, the second one threat the monthly transactions in order to get the monthly result.
-	 *   When a transaction of a different month comes, change month and step into first loop.
-	 *   After getting data, generate statistics based on results.
-	 * */
-		// First loop: month by month
-		while (c.moveToNext()) {
-			
-			// get month of reference  
-			Calendar month = getMonthInTransaction(c);
-			
-			double result=0;
-			boolean stepMonth = false;
-			// get result from transactions in the reference month
-			do {
-				Calendar transactionMonth = getMonthInTransaction(c);
- 				if(transactionMonth.compareTo(month)!=0) {
- 					stepMonth = true;
-					break;
-				}
- 				result += c.getDouble(c.getColumnIndex(TransactionColumns.from_amount.name()));
-			} while(c.moveToNext());
-			
-			// If step month, get back to transaction of the new month in cursor.
-			if (stepMonth)
-				c.moveToPrevious();
-			
-			// store the result of the month
-			PeriodValue periodValue = new PeriodValue(month, result);
-			int monthPosition = (month.get(Calendar.YEAR)-startDate.get(Calendar.YEAR))*12+
-								 month.get(Calendar.MONTH)-startDate.get(Calendar.MONTH);
-			values.set(monthPosition, periodValue); 
-		}
-		
-		// Generating statistics
+	private void fillStatistics() {
 		max = values.get(0).getValue();
 		min = values.get(0).getValue();
 		absMax = Math.abs(values.get(0).getValue());
@@ -373,48 +226,6 @@ public class ReportDataByPeriod {
 		}
 	}
 	
-	/**
-	 * Get the month of a given transaction in the given cursor.
-	 * @param c The transactions cursor.
-	 * @return The Calendar month.
-	 */
-	private Calendar getMonthInTransaction(Cursor c) {
-		Calendar month = new GregorianCalendar();
-		month.setTimeInMillis(c.getLong(c.getColumnIndex(TransactionColumns.datetime.name())));
-		month.set(month.get(Calendar.YEAR), month.get(Calendar.MONTH), 1, 0, 0, 0);
-		month.set(Calendar.MILLISECOND, 0);
-		return month;
-	}
-		
-	/**
-	 * Get the accounts in database for which the reference currency is the given currency.
-	 * 
-	 * @param currency The report reference currency.
-	 * @param db Database to query data from.
-	 * 
-	 * @return A list of ids of accounts for which the reference currency is the given report currency.
-	 */
-	public int[] getAccountsByCurrency(Currency currency, SQLiteDatabase db)
-	{
-		int accounts[] = new int[0];
-		
-		String where = AccountColumns.CURRENCY_ID+"=?";
-		Cursor c = null;
-		try {
-			c = db.query(DatabaseHelper.ACCOUNT_TABLE, new String[]{AccountColumns.ID}, 
-					   where, new String[]{Long.toString(currency.id)}, null, null, null);
-			accounts = new int[c.getCount()];
-			int index=0;
-			while (c.moveToNext()) {
-				accounts[index] = c.getInt(0);
-				index++;
-			} 
-		} finally {
-			if(c!=null) c.close();
-		}
-		return accounts;
-	}
-	
 	/**
 	 * @return The list of data points (month period and value)
 	 */
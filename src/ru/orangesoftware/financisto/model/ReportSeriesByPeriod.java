@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.model;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import ru.orangesoftware.financisto.db.DatabaseHelper.TransactionColumns;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static ru.orangesoftware.financisto.db.DatabaseHelper.ACCOUNT_TABLE;
+import static ru.orangesoftware.financisto.db.DatabaseHelper.TRANSACTION_TABLE;
+
+/**
+ * Monthly results of every account, category, payee, location or project in a period,
+ * read with one query grouped by the filtering column and the month.
+ * Months are told apart by comparing the transaction time with the month boundaries
+ * calculated once for the period, so moving between the filter ids of a 2D chart
+ * only picks another series from here.
+ */
+public class ReportSeriesByPeriod {
+
+    private final Calendar startDate;
+    private final int periodLength;
+    // the first millisecond of every month in the period and of the month after it
+    private final long[] monthStarts;
+    private final Map<Long, double[]> series = new HashMap<Long, double[]>();
+
+    private ReportSeriesByPeriod(Calendar startDate, int periodLength) {
+        this.startDate = new GregorianCalendar(startDate.get(Calendar.YEAR), startDate.get(Calendar.MONTH), 1, 0, 0, 0);
+        this.periodLength = periodLength;
+        this.monthStarts = new long[periodLength + 1];
+        Calendar month = (Calendar) this.startDate.clone();
+        for (int i = 0; i <= periodLength; i++) {
+            monthStarts[i] = month.getTimeInMillis();
+            month.add(Calendar.MONTH, 1);
+        }
+    }
+
+    /**
+     * @param startDate any day in the first month of the period
+     * @param periodLength the number of months in the period
+     * @param currency only transactions from accounts in this currency are counted
+     * @param filterColumn transactions column to group the results by
+     */
+    public static ReportSeriesByPeriod load(SQLiteDatabase db, Calendar startDate, int periodLength, Currency currency, String filterColumn) {
+        ReportSeriesByPeriod s = new ReportSeriesByPeriod(startDate, periodLength);
+        Cursor c = db.rawQuery(s.createQuery(filterColumn), new String[]{String.valueOf(currency.id)});
+        try {
+            while (c.moveToNext()) {
+                if (c.isNull(0)) {
+                    continue;
+                }
+                long filterId = c.getLong(0);
+                double[] values = s.series.get(filterId);
+                if (values == null) {
+                    values = new double[periodLength];
+                    s.series.put(filterId, values);
+                }
+                values[c.getInt(1)] = c.getDouble(2);
+            }
+        } finally {
+            c.close();
+        }
+        return s;
+    }
+
+    /**
+     * select category_id, case when datetime<feb then 0 when datetime<mar then 1 else 2 end as month, sum(from_amount)
+     * from transactions where ... group by category_id, month
+     */
+    private String createQuery(String filterColumn) {
+        String datetime = TransactionColumns.datetime.name();
+        StringBuilder sb = new StringBuilder("SELECT ").append(filterColumn).append(", CASE");
+        for (int i = 1; i < periodLength; i++) {
+            sb.append(" WHEN ").append(datetime).append("<").append(monthStarts[i]).append(" THEN ").append(i - 1);
+        }
+        sb.append(" ELSE ").append(periodLength - 1).append(" END AS month, sum(").append(TransactionColumns.from_amount).append(")");
+        sb.append(" FROM ").append(TRANSACTION_TABLE);
+        sb.append(" WHERE ").append(TransactionColumns.is_template).append("=0");
+        sb.append(" AND ").append(datetime).append(">=").append(monthStarts[0]);
+        sb.append(" AND ").append(datetime).append("<").append(monthStarts[periodLength]);
+        sb.append(" AND ").append(TransactionColumns.from_account_id).append(" IN (SELECT _id FROM ").append(ACCOUNT_TABLE).append(" WHERE currency_id=?)");
+        sb.append(" GROUP BY ").append(filterColumn).append(", month");
+        return sb.toString();
+    }
+
+    /**
+     * @return monthly results of the given id, zeros if it has no transactions in the period
+     */
+    public double[] getValues(long filterId) {
+        return getValues(new long[]{filterId});
+    }
+
+    /**
+     * @return monthly results of all the given ids added together, every id is counted once
+     */
+    public double[] getValues(long[] filterIds) {
+        double[] result = new double[periodLength];
+        Set<Long> added = new HashSet<Long>();
+        for (long filterId : filterIds) {
+            double[] values = series.get(filterId);
+            if (values != null && added.add(filterId)) {
+                for (int i = 0; i < periodLength; i++) {
+                    result[i] += values[i];
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the first day of the given month in the period
+     */
+    public Calendar getMonth(int index) {
+        Calendar month = new GregorianCalendar();
+        month.setTimeInMillis(monthStarts[index]);
+        return month;
+    }
+
+    /**
+     * @return The first month of the period
+     */
+    public Calendar getStartPeriod() {
+        return startDate;
+    }
+
+    public int getPeriodLength() {
+        return periodLength;
+    }
+
+    /**
+     * @return key of the series loaded with the same parameters
+     */
+    public static String getKey(Calendar startDate, int periodLength, Currency currency, String filterColumn) {
+        return filterColumn + ":" + currency.id + ":" + startDate.get(Calendar.YEAR) + "-" + startDate.get(Calendar.MONTH) + ":" + periodLength;
+    }
+
+}
@@ -17,38 +17,41 @@ public enum SymbolFormat {
 
     RS {
         @Override
-        public void appendSymbol(StringBuilder sb, String symbol) {
+        public void appendSymbol(StringBuilder sb, int start, String symbol) {
             sb.append(" ").append(symbol);
         }
     },
     R {
         @Override
-        public void appendSymbol(StringBuilder sb, String symbol) {
+        public void appendSymbol(StringBuilder sb, int start, String symbol) {
             sb.append(symbol);
         }
     },
     LS {
         @Override
-        public void appendSymbol(StringBuilder sb, String symbol) {
-            int offset = getInsertIndex(sb);
+        public void appendSymbol(StringBuilder sb, int start, String symbol) {
+            int offset = getInsertIndex(sb, start);
             sb.insert(offset, " ").insert(offset, symbol);
         }
     },
     L {
         @Override
-        public void appendSymbol(StringBuilder sb, String symbol) {
-            sb.insert(getInsertIndex(sb), symbol);
+        public void appendSymbol(StringBuilder sb, int start, String symbol) {
+            sb.insert(getInsertIndex(sb, start), symbol);
         }
     };
 
-    private static int getInsertIndex(StringBuilder sb) {
-        if (sb.length() > 0) {
-            char c = sb.charAt(0);
-            return c == '+' || c == '-' ? 1 : 0;
+    private static int getInsertIndex(StringBuilder sb, int start) {
+        if (sb.length() > start) {
+            char c = sb.charAt(start);
+            return c == '+' || c == '-' ? start + 1 : start;
         }
-        return 0;
+        return start;
     }
 
-    public abstract void appendSymbol(StringBuilder sb, String symbol);
+    /**
+     * @param start index of the amount in the builder, the symbol goes after its sign
+     */
+    public abstract void appendSymbol(StringBuilder sb, int start, String symbol);
 
 }
@@ -3,19 +3,27 @@ package ru.orangesoftware.financisto.recur;
 import com.google.ical.iter.RecurrenceIterator;
 import com.google.ical.iter.RecurrenceIteratorFactory;
 import com.google.ical.util.TimeUtils;
+import com.google.ical.values.Frequency;
 import com.google.ical.values.RRule;
 
 import java.text.ParseException;
+import java.util.Calendar;
 import java.util.Date;
-import java.util.TimeZone;
+import java.util.GregorianCalendar;
 
 import static ru.orangesoftware.financisto.recur.RecurrencePeriod.dateToDateValue;
 import static ru.orangesoftware.financisto.recur.RecurrencePeriod.dateValueToDate;
 
 public class DateRecurrenceIterator {
 
+    private static final long MINUTE = 60 * 1000L;
+    private static final long HOUR = 60 * MINUTE;
+    private static final long DAY = 24 * HOUR;
+    private static final long WEEK = 7 * DAY;
+
 	private final RecurrenceIterator ri;
     private Date firstDate;
+    private int skipped;
 
 	private DateRecurrenceIterator(RecurrenceIterator ri) {
 		this.ri = ri;
@@ -36,15 +44,111 @@ public class DateRecurrenceIterator {
 
 	public static DateRecurrenceIterator create(RRule rrule, Date nowDate, Date startDate) throws ParseException {
         RecurrenceIterator ri = RecurrenceIteratorFactory.createRecurrenceIterator(rrule,
-                dateToDateValue(startDate), TimeUtils.utcTimezone());
-        Date date = null;
-        while (ri.hasNext() && (date = dateValueToDate(ri.next())).before(nowDate));
-        //ri.advanceTo(dateToDateValue(nowDate));
+                dateToDateValue(seekStartDate(rrule, nowDate, startDate)), TimeUtils.utcTimezone());
         DateRecurrenceIterator iterator = new DateRecurrenceIterator(ri);
-        iterator.firstDate = date;
+        while (ri.hasNext()) {
+            Date date = dateValueToDate(ri.next());
+            if (!date.before(nowDate)) {
+                iterator.firstDate = date;
+                break;
+            }
+            iterator.skipped++;
+        }
         return iterator;
 	}
 
+    /**
+     * Moves the start of the series as close to <code>nowDate</code> as possible
+     * without changing any occurrence at or after it. The new start is a whole number of
+     * intervals after the original one and at least one interval before <code>nowDate</code>,
+     * so that the part of its period cut off by the new start lies before <code>nowDate</code> anyway.
+     * A COUNT rule keeps the original start because the count is relative to it.
+     */
+    static Date seekStartDate(RRule rrule, Date nowDate, Date startDate) {
+        if (rrule.getCount() > 0 || !nowDate.after(startDate)) {
+            return startDate;
+        }
+        Frequency freq = rrule.getFreq();
+        int interval = Math.max(1, rrule.getInterval());
+        Calendar c = new GregorianCalendar(TimeUtils.utcTimezone());
+        c.setTime(startDate);
+        long periods;
+        switch (freq) {
+            case YEARLY:
+                if (isLeapDay(c)) {
+                    // Feb 29 does not exist in every year
+                    return startDate;
+                }
+                periods = yearsBetween(startDate, nowDate);
+                break;
+            case MONTHLY:
+                if (c.get(Calendar.DAY_OF_MONTH) > 28 && rrule.getByMonthDay().length == 0 && rrule.getByDay().isEmpty()) {
+                    // the day of the month comes from the start date and may not exist in every month
+                    return startDate;
+                }
+                periods = monthsBetween(startDate, nowDate);
+                break;
+            case WEEKLY:
+                periods = (nowDate.getTime() - startDate.getTime()) / WEEK;
+                break;
+            case DAILY:
+                periods = (nowDate.getTime() - startDate.getTime()) / DAY;
+                break;
+            case HOURLY:
+                periods = (nowDate.getTime() - startDate.getTime()) / HOUR;
+                break;
+            case MINUTELY:
+                periods = (nowDate.getTime() - startDate.getTime()) / MINUTE;
+                break;
+            default:
+                return startDate;
+        }
+        long intervals = periods / interval - 1;
+        if (intervals < 1) {
+            return startDate;
+        }
+        long amount = intervals * interval;
+        switch (freq) {
+            case YEARLY:
+                c.add(Calendar.YEAR, (int) amount);
+                return c.getTime();
+            case MONTHLY:
+                c.add(Calendar.MONTH, (int) amount);
+                return c.getTime();
+            case WEEKLY:
+                return new Date(startDate.getTime() + amount * WEEK);
+            case DAILY:
+                return new Date(startDate.getTime() + amount * DAY);
+            case HOURLY:
+                return new Date(startDate.getTime() + amount * HOUR);
+            default:
+                return new Date(startDate.getTime() + amount * MINUTE);
+        }
+    }
+
+    private static boolean isLeapDay(Calendar c) {
+        return c.get(Calendar.MONTH) == Calendar.FEBRUARY && c.get(Calendar.DAY_OF_MONTH) == 29;
+    }
+
+    private static long monthsBetween(Date start, Date end) {
+        Calendar c = new GregorianCalendar(TimeUtils.utcTimezone());
+        c.setTime(start);
+        long startMonths = c.get(Calendar.YEAR) * 12L + c.get(Calendar.MONTH);
+        c.setTime(end);
+        return c.get(Calendar.YEAR) * 12L + c.get(Calendar.MONTH) - startMonths;
+    }
+
+    private static long yearsBetween(Date start, Date end) {
+        return monthsBetween(start, end) / 12;
+    }
+
+    /**
+     * @return number of occurrences before the requested date which have been iterated over
+     */
+    int getSkippedCount() {
+        return skipped;
+    }
+
     public static DateRecurrenceIterator empty() {
         return new EmptyDateRecurrenceIterator();
     }
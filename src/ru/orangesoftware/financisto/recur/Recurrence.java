@@ -13,22 +13,36 @@ package ru.orangesoftware.financisto.recur;
 import java.text.ParseException;
 import java.util.*;
 
-import android.util.Log;
 import ru.orangesoftware.financisto.R;
 import ru.orangesoftware.financisto.datetime.DateUtils;
+import ru.orangesoftware.financisto.utils.ParseCache;
 import android.content.Context;
 
 import com.google.ical.values.RRule;
 
 public class Recurrence {
 
+	static final ParseCache<Recurrence> PARSED = new ParseCache<Recurrence>(1024) {
+		@Override
+		protected Recurrence parse(String recurrence) {
+			return doParse(recurrence);
+		}
+	};
+
     // TODO ds: replace with time holder
     // only HH:mm:ss should be used in RRULE, not the date part
 	private Calendar startDate;
 	public RecurrencePattern pattern;
 	public RecurrencePeriod period;
 	
+	/**
+	 * @return a copy of the cached recurrence, so it can be changed by the caller
+	 */
 	public static Recurrence parse(String recurrence) {
+		return PARSED.get(recurrence).copy();
+	}
+
+	private static Recurrence doParse(String recurrence) {
 		Recurrence r = new Recurrence();
 		String[] a = recurrence.split("~");
 		try {
@@ -44,6 +58,14 @@ public class Recurrence {
 		return r;
 	}
 	
+	private Recurrence copy() {
+		Recurrence r = new Recurrence();
+		r.startDate = (Calendar)startDate.clone();
+		r.pattern = pattern;
+		r.period = period;
+		return r;
+	}
+
 	public String stateToString() {
 		StringBuilder sb = new StringBuilder();
 		sb.append(DateUtils.FORMAT_TIMESTAMP_ISO_8601.format(startDate.getTime())).append("~");
@@ -79,36 +101,22 @@ public class Recurrence {
 	}
 
     public List<Date> generateDates(Date start, Date end) {
-        DateRecurrenceIterator ri = createIterator(start);
-        List<Date> dates = new ArrayList<Date>();
-        while (ri.hasNext()) {
-            Date nextDate = ri.next();
-            if (nextDate.after(end)) {
-                break;
-            }
-            dates.add(nextDate);
-        }
-        return dates;
+        return toRule().generateDates(start, end);
     }
 
     public DateRecurrenceIterator createIterator(Date now) {
-        RRule rrule = createRRule();
-        try {
-            Log.d("RRULE", "Creating iterator for "+rrule.toIcal());
-            if (now.before(startDate.getTime())) {
-                now = startDate.getTime();
-            }
-            Calendar c = Calendar.getInstance();
-            c.setTime(startDate.getTime());
-            //c.set(Calendar.HOUR_OF_DAY, startDate.get(Calendar.HOUR_OF_DAY));
-            //c.set(Calendar.MINUTE, startDate.get(Calendar.MINUTE));
-            //c.set(Calendar.SECOND, startDate.get(Calendar.SECOND));
-            c.set(Calendar.MILLISECOND, 0);
-            return DateRecurrenceIterator.create(rrule, now, c.getTime());
-        } catch (ParseException e) {
-            Log.w("RRULE", "Unable to create iterator for "+rrule.toIcal());
-            return DateRecurrenceIterator.empty();
-        }
+        return toRule().createIterator(now);
+    }
+
+    /**
+     * Use {@link RecurrenceRule#of(String)} for a stored recurrence,
+     * this one builds a new rule from the current state every time
+     */
+    RecurrenceRule toRule() {
+        Calendar c = Calendar.getInstance();
+        c.setTime(startDate.getTime());
+        c.set(Calendar.MILLISECOND, 0);
+        return new RecurrenceRule(createRRule(), c.getTimeInMillis());
     }
 
 	private RRule createRRule() {
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.recur;
+
+import android.util.Log;
+import com.google.ical.values.RRule;
+import ru.orangesoftware.financisto.utils.ParseCache;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Immutable form of a stored recurrence used to generate dates.
+ * Rules are cached by the recurrence string and shared between the planners and the scheduler,
+ * the underlying {@link RRule} is never handed out so nobody can change it.
+ */
+public final class RecurrenceRule {
+
+    static final ParseCache<RecurrenceRule> RULES = new ParseCache<RecurrenceRule>(1024) {
+        @Override
+        protected RecurrenceRule parse(String recurrence) {
+            return Recurrence.PARSED.get(recurrence).toRule();
+        }
+    };
+
+    private final RRule rrule;
+    private final long startDate;
+
+    RecurrenceRule(RRule rrule, long startDate) {
+        this.rrule = rrule;
+        this.startDate = startDate;
+    }
+
+    public static RecurrenceRule of(String recurrence) {
+        return RULES.get(recurrence);
+    }
+
+    public DateRecurrenceIterator createIterator(Date now) {
+        try {
+            if (now.getTime() < startDate) {
+                now = new Date(startDate);
+            }
+            return DateRecurrenceIterator.create(rrule, now, new Date(startDate));
+        } catch (ParseException e) {
+            Log.w("RRULE", "Unable to create iterator for "+rrule.toIcal());
+            return DateRecurrenceIterator.empty();
+        }
+    }
+
+    public List<Date> generateDates(Date start, Date end) {
+        DateRecurrenceIterator ri = createIterator(start);
+        List<Date> dates = new ArrayList<Date>();
+        while (ri.hasNext()) {
+            Date nextDate = ri.next();
+            if (nextDate.after(end)) {
+                break;
+            }
+            dates.add(nextDate);
+        }
+        return dates;
+    }
+
+}
@@ -102,20 +102,20 @@ public class CategoryByPeriodReport extends Report2DChart {
 				String where = CategoryColumns.left+" BETWEEN ? AND ?";
 				String[] pars = new String[]{String.valueOf(parent.left), String.valueOf(parent.right)};
 				cursor = db.query(DatabaseHelper.CATEGORY_TABLE, new String[]{CategoryColumns._id.name()}, where, pars, null, null, null);
-				int[] categories = new int[cursor.getCount()+1];
+				long[] categories = new long[cursor.getCount()+1];
 				int i=0;
 				while (cursor.moveToNext()) {
-					categories[i] = (int)cursor.getInt(0);
+					categories[i] = cursor.getLong(0);
 					i++;
 				}
-				categories[i] = filterIds.get(currentFilterOrder).intValue();
-				data = new ReportDataByPeriod(context, startPeriod, periodLength, currency, columnFilter, categories, em);
+				categories[i] = categoryId;
+				data = new ReportDataByPeriod(context, getSeries(), categories);
 			} finally {
 				if (cursor!=null) cursor.close();
 			}
 		} else {
 			// only root category
-			data = new ReportDataByPeriod(context, startPeriod, periodLength, currency, columnFilter, filterIds.get(currentFilterOrder).intValue(), em);
+			data = new ReportDataByPeriod(context, getSeries(), filterIds.get(currentFilterOrder));
 		}
 		
 		points = new ArrayList<Report2DPoint>();
@@ -19,6 +19,7 @@ import ru.orangesoftware.financisto.filter.Criteria;
 import ru.orangesoftware.financisto.db.DatabaseAdapter;
 import ru.orangesoftware.financisto.model.Category;
 import ru.orangesoftware.financisto.model.Currency;
+import ru.orangesoftware.financisto.utils.CancellationSignal;
 
 import static ru.orangesoftware.financisto.db.DatabaseHelper.V_REPORT_CATEGORY;
 
@@ -29,9 +30,9 @@ public class CategoryReportAll extends Report {
 	}
 
 	@Override
-	public ReportData getReport(DatabaseAdapter db, WhereFilter filter) {
+	public ReportData getReport(DatabaseAdapter db, WhereFilter filter, CancellationSignal signal) {
         cleanupFilter(filter);
-		return queryReport(db, V_REPORT_CATEGORY, filter);
+		return queryReport(db, V_REPORT_CATEGORY, filter, signal);
 	}
 	
 	@Override
@@ -19,6 +19,7 @@ import ru.orangesoftware.financisto.filter.Criteria;
 import ru.orangesoftware.financisto.db.DatabaseAdapter;
 import android.content.Context;
 import ru.orangesoftware.financisto.model.Currency;
+import ru.orangesoftware.financisto.utils.CancellationSignal;
 
 public class LocationsReport extends Report {
 
@@ -27,9 +28,9 @@ public class LocationsReport extends Report {
 	}
 
 	@Override
-	public ReportData getReport(DatabaseAdapter db, WhereFilter filter) {
+	public ReportData getReport(DatabaseAdapter db, WhereFilter filter, CancellationSignal signal) {
         cleanupFilter(filter);
-		return queryReport(db, V_REPORT_LOCATIONS, filter);
+		return queryReport(db, V_REPORT_LOCATIONS, filter, signal);
 	}
 
 	@Override
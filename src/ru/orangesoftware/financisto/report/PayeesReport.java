@@ -16,6 +16,7 @@ import ru.orangesoftware.financisto.filter.WhereFilter;
 import ru.orangesoftware.financisto.filter.Criteria;
 import ru.orangesoftware.financisto.db.DatabaseAdapter;
 import ru.orangesoftware.financisto.model.Currency;
+import ru.orangesoftware.financisto.utils.CancellationSignal;
 
 import static ru.orangesoftware.financisto.db.DatabaseHelper.V_REPORT_PAYEES;
 
@@ -26,9 +27,9 @@ public class PayeesReport extends Report {
 	}
 
 	@Override
-	public ReportData getReport(DatabaseAdapter db, WhereFilter filter) {
+	public ReportData getReport(DatabaseAdapter db, WhereFilter filter, CancellationSignal signal) {
         cleanupFilter(filter);
-		return queryReport(db, V_REPORT_PAYEES, filter);
+		return queryReport(db, V_REPORT_PAYEES, filter, signal);
 	}
 
 	@Override
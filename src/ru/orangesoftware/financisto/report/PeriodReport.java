@@ -12,6 +12,9 @@ package ru.orangesoftware.financisto.report;
 
 import android.content.Context;
 import android.database.Cursor;
+import ru.orangesoftware.financisto.db.MyEntityManager;
+import ru.orangesoftware.financisto.db.TransactionsTotalCalculator;
+import ru.orangesoftware.financisto.db.UnableToCalculateRateException;
 import ru.orangesoftware.financisto.filter.WhereFilter;
 import ru.orangesoftware.financisto.datetime.Period;
 import ru.orangesoftware.financisto.datetime.PeriodType;
@@ -22,19 +25,25 @@ import ru.orangesoftware.financisto.db.DatabaseHelper.ReportColumns;
 import ru.orangesoftware.financisto.graph.GraphUnit;
 import ru.orangesoftware.financisto.model.Currency;
 import ru.orangesoftware.financisto.model.Total;
+import ru.orangesoftware.financisto.model.TotalError;
+import ru.orangesoftware.financisto.rates.ExchangeRateProvider;
+import ru.orangesoftware.financisto.utils.CancellationSignal;
 
+import java.math.BigDecimal;
 import java.util.ArrayList;
 
 import static ru.orangesoftware.financisto.db.DatabaseHelper.V_REPORT_PERIOD;
 import static ru.orangesoftware.financisto.datetime.PeriodType.*;
 
+/**
+ * Periods overlap, so the rows of all of them are read with one query over the union of the periods
+ * and every row is converted once and added into each period it falls into.
+ */
 public class PeriodReport extends Report {
 
     private final PeriodType[] periodTypes = new PeriodType[]{TODAY, YESTERDAY, THIS_WEEK, LAST_WEEK, THIS_AND_LAST_WEEK, THIS_MONTH, LAST_MONTH, THIS_AND_LAST_MONTH};
 	private final Period[] periods = new Period[periodTypes.length];
 
-    private Period currentPeriod;
-
 	public PeriodReport(Context context, Currency currency) {
 		super(ReportType.BY_PERIOD, context, currency);
         for (int i=0; i<periodTypes.length; i++) {
@@ -43,36 +52,72 @@ public class PeriodReport extends Report {
     }
 
 	@Override
-	public ReportData getReport(DatabaseAdapter db, WhereFilter filter) {
+	public ReportData getReport(DatabaseAdapter db, WhereFilter filter, CancellationSignal signal) {
 		WhereFilter newFilter = WhereFilter.empty();
 		Criteria criteria = filter.get(ReportColumns.FROM_ACCOUNT_CURRENCY_ID);
 		if (criteria != null) {
 			newFilter.put(criteria);
 		}
 		filterTransfers(newFilter);
-		ArrayList<GraphUnit> units = new ArrayList<GraphUnit>();
+        long start = periods[0].start;
+        long end = periods[0].end;
         for (Period p : periods) {
-            currentPeriod = p;
-            newFilter.put(Criteria.btw(ReportColumns.DATETIME, String.valueOf(p.start), String.valueOf(p.end)));
-            Cursor c = db.db().query(V_REPORT_PERIOD, ReportColumns.NORMAL_PROJECTION,
-                    newFilter.getSelection(), newFilter.getSelectionArgs(), null, null, null);
-            ArrayList<GraphUnit> u = getUnitsFromCursor(db, c);
-            if (u.size() > 0 && u.get(0).size() > 0) {
-                units.add(u.get(0));
-            }
+            start = Math.min(start, p.start);
+            end = Math.max(end, p.end);
         }
+        newFilter.put(Criteria.btw(ReportColumns.DATETIME, String.valueOf(start), String.valueOf(end)));
+        Cursor c = db.db().query(V_REPORT_PERIOD, ReportColumns.NORMAL_PROJECTION,
+                newFilter.getSelection(), newFilter.getSelectionArgs(), null, null, null);
+        ArrayList<GraphUnit> units = getUnitsByPeriod(db, c, signal);
         Total total = calculateTotal(units);
 		return new ReportData(units, total);
 	}
 
-    @Override
-    protected long getId(Cursor c) {
-        return currentPeriod.type.ordinal();
-    }
-
-    @Override
-    protected String alterName(long id, String name) {
-        return context.getString(currentPeriod.type.titleId);
+    private ArrayList<GraphUnit> getUnitsByPeriod(DatabaseAdapter db, Cursor c, CancellationSignal signal) {
+        GraphUnit[] buckets = new GraphUnit[periods.length];
+        try {
+            MyEntityManager em = db.em();
+            ExchangeRateProvider rates = db.getHistoryRates();
+            int dateTimeIndex = c.getColumnIndex(ReportColumns.DATETIME);
+            int isTransferIndex = c.getColumnIndex(ReportColumns.IS_TRANSFER);
+            while (c.moveToNext()) {
+                signal.throwIfCanceled();
+                long datetime = c.getLong(dateTimeIndex);
+                boolean forceIncome = skipTransfers && c.getLong(isTransferIndex) != 0;
+                BigDecimal amount;
+                TotalError error = null;
+                try {
+                    amount = TransactionsTotalCalculator.getAmountFromCursor(em, c, currency, rates, dateTimeIndex);
+                } catch (UnableToCalculateRateException e) {
+                    amount = BigDecimal.ZERO;
+                    error = TotalError.atDateRateError(e.fromCurrency, e.datetime);
+                }
+                for (int i = 0; i < periods.length; i++) {
+                    Period p = periods[i];
+                    if (datetime >= p.start && datetime <= p.end) {
+                        if (buckets[i] == null) {
+                            buckets[i] = new GraphUnit(p.type.ordinal(), context.getString(p.type.titleId), currency, style);
+                        }
+                        if (error != null) {
+                            buckets[i].error = error;
+                        }
+                        buckets[i].addAmount(amount, forceIncome);
+                    }
+                }
+            }
+        } finally {
+            c.close();
+        }
+        ArrayList<GraphUnit> units = new ArrayList<GraphUnit>();
+        for (GraphUnit u : buckets) {
+            if (u != null) {
+                u.flatten(incomeExpense);
+                if (u.maxAmount != 0 && u.size() > 0) {
+                    units.add(u);
+                }
+            }
+        }
+        return units;
     }
 
     @Override
@@ -27,6 +27,7 @@ import ru.orangesoftware.financisto.model.Total;
 import ru.orangesoftware.financisto.model.TotalError;
 import ru.orangesoftware.financisto.rates.ExchangeRateProvider;
 import ru.orangesoftware.financisto.utils.MyPreferences;
+import ru.orangesoftware.financisto.utils.CancellationSignal;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
@@ -61,17 +62,24 @@ public abstract class Report {
 		return name;
 	}
 
-    public abstract ReportData getReport(DatabaseAdapter db, WhereFilter filter);
+    public ReportData getReport(DatabaseAdapter db, WhereFilter filter) {
+        return getReport(db, filter, CancellationSignal.NONE);
+    }
+
+    /**
+     * @param signal checked for every row read, a cancelled report throws {@link CancellationSignal.CanceledException}
+     */
+    public abstract ReportData getReport(DatabaseAdapter db, WhereFilter filter, CancellationSignal signal);
 
     public ReportData getReportForChart(DatabaseAdapter db, WhereFilter filter) {
         return getReport(db, filter);
     }
 
-	protected ReportData queryReport(DatabaseAdapter db, String table, WhereFilter filter) {
+	protected ReportData queryReport(DatabaseAdapter db, String table, WhereFilter filter, CancellationSignal signal) {
 		filterTransfers(filter);
 		Cursor c = db.db().query(table, DatabaseHelper.ReportColumns.NORMAL_PROJECTION,
                 filter.getSelection(), filter.getSelectionArgs(), null, null, "_id");
-		ArrayList<GraphUnit> units = getUnitsFromCursor(db, c);
+		ArrayList<GraphUnit> units = getUnitsFromCursor(db, c, signal);
         Total total = calculateTotal(units);
         return new ReportData(units, total);
 	}
@@ -82,7 +90,7 @@ public abstract class Report {
 		}
 	}
 
-	protected ArrayList<GraphUnit> getUnitsFromCursor(DatabaseAdapter db, Cursor c) {
+	protected ArrayList<GraphUnit> getUnitsFromCursor(DatabaseAdapter db, Cursor c, CancellationSignal signal) {
 		try {
             MyEntityManager em = db.em();
             ExchangeRateProvider rates = db.getHistoryRates();
@@ -90,6 +98,7 @@ public abstract class Report {
             GraphUnit u = null;
             long lastId = -1;
             while (c.moveToNext()) {
+                signal.throwIfCanceled();
                 long id = getId(c);
                 long isTransfer = c.getLong(c.getColumnIndex(ReportColumns.IS_TRANSFER));
                 if (id != lastId) {
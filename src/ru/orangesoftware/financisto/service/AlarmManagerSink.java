@@ -0,0 +1,48 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.service;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import java.util.Date;
+
+public class AlarmManagerSink implements AlarmSink {
+
+    private static final String TAG = "AlarmManagerSink";
+
+    private final Context context;
+
+    public AlarmManagerSink(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public void set(long triggerAtTime) {
+        AlarmManager service = (AlarmManager)context.getSystemService(Context.ALARM_SERVICE);
+        service.set(AlarmManager.RTC_WAKEUP, triggerAtTime, createPendingIntent());
+        Log.i(TAG, "Next scheduled alarm at "+new Date(triggerAtTime));
+    }
+
+    @Override
+    public void cancel() {
+        AlarmManager service = (AlarmManager)context.getSystemService(Context.ALARM_SERVICE);
+        service.cancel(createPendingIntent());
+        Log.i(TAG, "Scheduled alarm has been cancelled");
+    }
+
+    private PendingIntent createPendingIntent() {
+        Intent intent = new Intent(RecurrenceScheduler.SCHEDULED_ALARM);
+        return PendingIntent.getBroadcast(context, -200, intent, PendingIntent.FLAG_CANCEL_CURRENT);
+    }
+
+}
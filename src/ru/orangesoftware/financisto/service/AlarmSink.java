@@ -0,0 +1,20 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.service;
+
+/**
+ * The single wake-up alarm of the scheduled transactions
+ */
+public interface AlarmSink {
+
+    void set(long triggerAtTime);
+
+    void cancel();
+
+}
@@ -14,6 +14,7 @@ import static ru.orangesoftware.financisto.service.DailyAutoBackupScheduler.sche
 import static ru.orangesoftware.financisto.service.FlowzrAutoSyncScheduler.scheduleNextAutoSync;
 
 import java.util.Date;
+import java.util.List;
 
 import ru.orangesoftware.financisto.R;
 import ru.orangesoftware.financisto.activity.AbstractTransactionActivity;
@@ -82,7 +83,7 @@ public class FinancistoService extends WakefulIntentService {
         if (ACTION_SCHEDULE_ALL.equals(action)) {
             scheduleAll();
         } else if (ACTION_SCHEDULE_ONE.equals(action)) {
-            scheduleOne(intent);
+            scheduleDue();
         } else if (ACTION_SCHEDULE_AUTO_BACKUP.equals(action)) {
             scheduleNextAutoBackup(this);
         } else if (ACTION_AUTO_BACKUP.equals(action)) {
@@ -101,14 +102,13 @@ public class FinancistoService extends WakefulIntentService {
         }
     }
 
-    private void scheduleOne(Intent intent) {
-        long scheduledTransactionId = intent.getLongExtra(RecurrenceScheduler.SCHEDULED_TRANSACTION_ID, -1);
-        if (scheduledTransactionId > 0) {
-            TransactionInfo transaction = scheduler.scheduleOne(this, scheduledTransactionId);
-            if (transaction != null) {
-                notifyUser(transaction);
-                AccountWidget.updateWidgets(this);
-            }
+    private void scheduleDue() {
+        List<TransactionInfo> transactions = scheduler.scheduleDue(this);
+        for (TransactionInfo transaction : transactions) {
+            notifyUser(transaction);
+        }
+        if (transactions.size() > 0) {
+            AccountWidget.updateWidgets(this);
         }
     }
     
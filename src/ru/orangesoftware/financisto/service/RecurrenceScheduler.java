@@ -10,19 +10,17 @@
  ******************************************************************************/
 package ru.orangesoftware.financisto.service;
 
-import android.app.AlarmManager;
-import android.app.PendingIntent;
 import android.content.Context;
-import android.content.Intent;
 import android.util.Log;
 import ru.orangesoftware.financisto.db.DatabaseAdapter;
 import ru.orangesoftware.financisto.db.MyEntityManager;
+import ru.orangesoftware.financisto.db.ScheduleAlarmQueue;
 import ru.orangesoftware.financisto.model.RestoredTransaction;
 import ru.orangesoftware.financisto.model.SystemAttribute;
 import ru.orangesoftware.financisto.model.TransactionAttributeInfo;
 import ru.orangesoftware.financisto.model.TransactionInfo;
 import ru.orangesoftware.financisto.recur.DateRecurrenceIterator;
-import ru.orangesoftware.financisto.recur.Recurrence;
+import ru.orangesoftware.financisto.recur.RecurrenceRule;
 import ru.orangesoftware.financisto.utils.MyPreferences;
 
 import java.util.*;
@@ -33,18 +31,24 @@ public class RecurrenceScheduler {
 	private static final Date NULL_DATE = new Date(0);
 	private static final int MAX_RESTORED = 1000;
 
-    public static final String SCHEDULED_TRANSACTION_ID = "scheduledTransactionId";
+    public static final String SCHEDULED_ALARM = "ru.orangesoftware.financisto.SCHEDULED_ALARM";
 
     private final DatabaseAdapter db;
     private final MyEntityManager em;
+    private final Clock clock;
 
     public RecurrenceScheduler(DatabaseAdapter db) {
+        this(db, Clock.SYSTEM);
+    }
+
+    public RecurrenceScheduler(DatabaseAdapter db, Clock clock) {
         this.db = db;
         this.em = db.em();
+        this.clock = clock;
     }
 
     public int scheduleAll(Context context) {
-        long now = System.currentTimeMillis();
+        long now = clock.now();
         int restoredTransactionsCount = 0;
         if (MyPreferences.isRestoreMissedScheduledTransactions(context)) {
             restoredTransactionsCount = restoreMissedSchedules(now);
@@ -55,20 +59,36 @@ public class RecurrenceScheduler {
         return restoredTransactionsCount;
     }
 
-    public TransactionInfo scheduleOne(Context context, long scheduledTransactionId) {
-        Log.i(TAG, "Alarm for "+scheduledTransactionId+" received..");
-        TransactionInfo transaction = em.getTransactionInfo(scheduledTransactionId);
-        if (transaction != null) {
-            long transactionId = duplicateTransactionFromTemplate(transaction);
-            boolean hasBeenRescheduled = rescheduleTransaction(context, transaction);
-            if (!hasBeenRescheduled) {
-                deleteTransactionIfNeeded(transaction);
-                Log.i(TAG, "Expired transaction "+transaction.id+" has been deleted");
+    public List<TransactionInfo> scheduleDue(Context context) {
+        return scheduleDue(new AlarmManagerSink(context));
+    }
+
+    /**
+     * Fires all the scheduled transactions which are due by now in one go
+     * and arms the alarm for the next one
+     * @return transactions created from the due schedules
+     */
+    public List<TransactionInfo> scheduleDue(AlarmSink sink) {
+        long now = clock.now();
+        ScheduleAlarmQueue queue = db.scheduleAlarmQueue();
+        List<Long> due = queue.pollDue(now);
+        Log.i(TAG, "Alarm received, "+due.size()+" scheduled transactions are due..");
+        List<TransactionInfo> fired = new ArrayList<TransactionInfo>(due.size());
+        for (long scheduledTransactionId : due) {
+            TransactionInfo transaction = em.getTransactionInfo(scheduledTransactionId);
+            if (transaction != null) {
+                long transactionId = duplicateTransactionFromTemplate(transaction);
+                boolean hasBeenRescheduled = rescheduleTransaction(queue, transaction, now);
+                if (!hasBeenRescheduled) {
+                    deleteTransactionIfNeeded(transaction);
+                    Log.i(TAG, "Expired transaction "+transaction.id+" has been deleted");
+                }
+                transaction.id = transactionId;
+                fired.add(transaction);
             }
-            transaction.id = transactionId;
-            return transaction;
         }
-        return null;
+        armNextAlarm(queue, sink);
+        return fired;
     }
 
     private void deleteTransactionIfNeeded(TransactionInfo transaction) {
@@ -168,33 +188,48 @@ public class RecurrenceScheduler {
 	}
 
     public ArrayList<TransactionInfo> scheduleAll(Context context, long now) {
+        return scheduleAll(new AlarmManagerSink(context), now);
+    }
+
+    /**
+     * Rebuilds the alarm queue from all the scheduled transactions
+     * and arms the only alarm for the earliest one
+     */
+    public ArrayList<TransactionInfo> scheduleAll(AlarmSink sink, long now) {
         ArrayList<TransactionInfo> scheduled = getSortedSchedules(now);
+        Map<Long, Long> fireTimes = new HashMap<Long, Long>();
         for (TransactionInfo transaction : scheduled) {
-            scheduleAlarm(context, transaction, now);
+            if (shouldSchedule(transaction, now)) {
+                fireTimes.put(transaction.id, transaction.nextDateTime.getTime());
+            } else {
+                Log.i(TAG, "Transactions "+transaction.id+" with next date/time "+transaction.nextDateTime+" is not selected for schedule");
+            }
         }
+        ScheduleAlarmQueue queue = db.scheduleAlarmQueue();
+        queue.replaceAll(fireTimes);
+        armNextAlarm(queue, sink);
         return scheduled;
     }
 
-    public boolean scheduleAlarm(Context context, TransactionInfo transaction, long now) {
-        if (shouldSchedule(transaction, now)) {
-            Date scheduleTime = transaction.nextDateTime;
-            AlarmManager service = (AlarmManager)context.getSystemService(Context.ALARM_SERVICE);
-            PendingIntent pendingIntent = createPendingIntentForScheduledAlarm(context, transaction.id);
-            service.set(AlarmManager.RTC_WAKEUP, scheduleTime.getTime(), pendingIntent);
-            Log.i(TAG, "Scheduling alarm for "+transaction.id+" at "+scheduleTime);
-            return true;
+    private boolean rescheduleTransaction(ScheduleAlarmQueue queue, TransactionInfo transaction, long now) {
+        if (transaction.recurrence != null) {
+            now += 1000;
+            calculateAndSetNextDateTimeOnTransaction(transaction, now);
+            if (shouldSchedule(transaction, now)) {
+                queue.put(transaction.id, transaction.nextDateTime.getTime());
+                return true;
+            }
         }
-        Log.i(TAG, "Transactions "+transaction.id+" with next date/time "+transaction.nextDateTime+" is not selected for schedule");
         return false;
     }
 
-    public boolean rescheduleTransaction(Context context, TransactionInfo transaction) {
-        if (transaction.recurrence != null) {
-            long now = System.currentTimeMillis()+1000;
-            calculateAndSetNextDateTimeOnTransaction(transaction, now);
-            return scheduleAlarm(context, transaction, now);
+    private void armNextAlarm(ScheduleAlarmQueue queue, AlarmSink sink) {
+        long next = queue.peek();
+        if (next > 0) {
+            sink.set(next);
+        } else {
+            sink.cancel();
         }
-        return false;
     }
 
     private boolean shouldSchedule(TransactionInfo transaction, long now) {
@@ -203,15 +238,9 @@ public class RecurrenceScheduler {
 
     public void cancelPendingIntentForSchedule(Context context, long transactionId) {
         Log.i(TAG, "Cancelling pending alarm for "+transactionId);
-        AlarmManager service = (AlarmManager)context.getSystemService(Context.ALARM_SERVICE);
-        PendingIntent intent = createPendingIntentForScheduledAlarm(context, transactionId);
-        service.cancel(intent);
-    }
-
-    private PendingIntent createPendingIntentForScheduledAlarm(Context context, long transactionId) {
-        Intent intent = new Intent("ru.orangesoftware.financisto.SCHEDULED_ALARM");
-        intent.putExtra(SCHEDULED_TRANSACTION_ID, transactionId);
-        return PendingIntent.getBroadcast(context, (int)transactionId, intent, PendingIntent.FLAG_CANCEL_CURRENT);
+        ScheduleAlarmQueue queue = db.scheduleAlarmQueue();
+        queue.remove(transactionId);
+        armNextAlarm(queue, new AlarmManagerSink(context));
     }
 
     /**
@@ -256,8 +285,13 @@ public class RecurrenceScheduler {
 	}
 
 	private long calculateNextScheduleDateForAllTransactions(ArrayList<TransactionInfo> list, long now) {
+        Map<Long, Date> nextDates = db.scheduleOccurrenceIndex().getNextOccurrences(now);
 		for (TransactionInfo t : list) {
-            calculateAndSetNextDateTimeOnTransaction(t, now);
+            if (t.recurrence != null && nextDates.containsKey(t.id)) {
+                t.nextDateTime = nextDates.get(t.id);
+            } else {
+                calculateAndSetNextDateTimeOnTransaction(t, now);
+            }
         }
 		return now;
 	}
@@ -284,7 +318,7 @@ public class RecurrenceScheduler {
 	}
 
 	private DateRecurrenceIterator createIterator(String recurrence, long now) {
-		Recurrence r = Recurrence.parse(recurrence);
+		RecurrenceRule r = RecurrenceRule.of(recurrence);
         Date advanceDate = new Date(now);
         return r.createIterator(advanceDate);
 	}
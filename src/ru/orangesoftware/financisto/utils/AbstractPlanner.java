@@ -12,8 +12,9 @@ import android.database.Cursor;
 import ru.orangesoftware.financisto.filter.WhereFilter;
 import ru.orangesoftware.financisto.db.DatabaseAdapter;
 import ru.orangesoftware.financisto.db.MyEntityManager;
+import ru.orangesoftware.financisto.db.ScheduleOccurrenceIndex;
 import ru.orangesoftware.financisto.model.*;
-import ru.orangesoftware.financisto.recur.Recurrence;
+import ru.orangesoftware.financisto.recur.RecurrenceRule;
 
 import java.util.*;
 
@@ -38,56 +39,107 @@ public abstract class AbstractPlanner {
     }
 
     public TransactionList getPlannedTransactionsWithTotals() {
-        List<TransactionInfo> transactions = getPlannedTransactions();
-        Total[] totals = calculateTotals(transactions);
-        return new TransactionList(transactions, totals);
+        List<TransactionInfo> transactions = new ArrayList<TransactionInfo>();
+        TotalCalculator totals = createTotalCalculator();
+        PlannedTransactionIterator i = getPlannedTransactionsIterator();
+        try {
+            while (i.hasNext()) {
+                TransactionInfo t = i.next();
+                transactions.add(t);
+                totals.add(t);
+            }
+        } finally {
+            i.close();
+        }
+        return new TransactionList(transactions, totals.getTotals());
     }
 
     public List<TransactionInfo> getPlannedTransactions() {
-        List<TransactionInfo> regularTransactions = asTransactionList(getRegularTransactions());
-        List<TransactionInfo> scheduledTransactions = getScheduledTransactions();
-        if (scheduledTransactions.isEmpty()) {
-            return regularTransactions;
-        } else {
-            List<TransactionInfo> allTransactions = new ArrayList<TransactionInfo>();
-            allTransactions.addAll(regularTransactions);
-            allTransactions.addAll(planSchedules(scheduledTransactions));
-            sortTransactions(allTransactions);
-            return allTransactions;
+        List<TransactionInfo> transactions = new ArrayList<TransactionInfo>();
+        PlannedTransactionIterator i = getPlannedTransactionsIterator();
+        try {
+            while (i.hasNext()) {
+                transactions.add(i.next());
+            }
+        } finally {
+            i.close();
+        }
+        return transactions;
+    }
+
+    /**
+     * @return regular and planned transactions ordered by date, has to be closed after use
+     */
+    public PlannedTransactionIterator getPlannedTransactionsIterator() {
+        PlannedTransactionIterator i = new PlannedTransactionIterator(getRegularTransactions());
+        try {
+            planSchedules(i);
+        } catch (RuntimeException e) {
+            i.close();
+            throw e;
         }
+        return i;
     }
 
-    protected abstract Total[] calculateTotals(List<TransactionInfo> transactions);
+    /**
+     * @return calculator of the totals this planner shows, to be fed from {@link #getPlannedTransactionsIterator()}
+     */
+    public abstract TotalCalculator createTotalCalculator();
 
+    /**
+     * @return regular transactions ordered by date in ascending order
+     */
     protected abstract Cursor getRegularTransactions();
 
-    private List<TransactionInfo> getScheduledTransactions() {
-        return em.getAllScheduledTransactions();
-    }
-
-    private List<TransactionInfo> planSchedules(List<TransactionInfo> scheduledTransactions) {
-        List<TransactionInfo> plannedTransactions = new ArrayList<TransactionInfo>();
+    private void planSchedules(PlannedTransactionIterator iterator) {
+        List<TransactionInfo> scheduledTransactions = em.getAllScheduledTransactions();
+        if (scheduledTransactions.isEmpty()) {
+            return;
+        }
+        long calcDate = getCalcDate().getTime();
+        long endDate = getEndDateFromFilter().getTime();
+        ScheduleOccurrenceIndex index = db.scheduleOccurrenceIndex();
+        Set<Long> indexed = index.getIndexedTemplates(calcDate, endDate);
+        Map<Long, List<TransactionInfo>> indexedTransactions = new HashMap<Long, List<TransactionInfo>>();
         for (TransactionInfo scheduledTransaction : scheduledTransactions) {
-            TransactionInfo transaction = prepareScheduledTransaction(scheduledTransaction);
-            if (includeScheduledTransaction(transaction)) {
-                List<Date> dates = calculatePlannedDates(transaction);
-                duplicateTransaction(transaction, dates, plannedTransactions);
-            } else if (transaction.isSplitParent()) {
-                planSplitSchedules(transaction, plannedTransactions);
+            List<TransactionInfo> transactions = getTransactionsToPlan(scheduledTransaction);
+            if (transactions.isEmpty()) {
+                continue;
             }
+            long id = scheduledTransaction.id;
+            String recurrence = scheduledTransaction.recurrence;
+            if (recurrence == null) {
+                long scheduledDate = scheduledTransaction.dateTime;
+                if (scheduledDate >= calcDate && scheduledDate <= endDate) {
+                    iterator.addOnce(id, scheduledDate, transactions);
+                }
+            } else if (indexed.contains(id)) {
+                indexedTransactions.put(id, transactions);
+            } else {
+                RecurrenceRule r = RecurrenceRule.of(recurrence);
+                iterator.addRecurring(id, r.createIterator(new Date(calcDate)), endDate, transactions);
+            }
+        }
+        if (!indexedTransactions.isEmpty()) {
+            iterator.addIndexed(index.queryOccurrences(calcDate, endDate), indexedTransactions);
         }
-        return plannedTransactions;
     }
 
-    private void planSplitSchedules(TransactionInfo scheduledTransaction, List<TransactionInfo> plannedTransactions) {
-        List<Date> dates = calculatePlannedDates(scheduledTransaction);
-        List<TransactionInfo> splits = em.getSplitsInfoForTransaction(scheduledTransaction.id);
-        for (TransactionInfo split : splits) {
-            if (includeScheduledSplitTransaction(split)) {
-                TransactionInfo transaction = prepareScheduledTransaction(split);
-                duplicateTransaction(transaction, dates, plannedTransactions);
+    private List<TransactionInfo> getTransactionsToPlan(TransactionInfo scheduledTransaction) {
+        TransactionInfo transaction = prepareScheduledTransaction(scheduledTransaction);
+        if (includeScheduledTransaction(transaction)) {
+            return Collections.singletonList(transaction);
+        } else if (transaction.isSplitParent()) {
+            List<TransactionInfo> transactions = new ArrayList<TransactionInfo>();
+            List<TransactionInfo> splits = em.getSplitsInfoForTransaction(transaction.id);
+            for (TransactionInfo split : splits) {
+                if (includeScheduledSplitTransaction(split)) {
+                    transactions.add(prepareScheduledTransaction(split));
+                }
             }
+            return transactions;
         }
+        return Collections.emptyList();
     }
 
     protected abstract TransactionInfo prepareScheduledTransaction(TransactionInfo scheduledTransaction);
@@ -95,21 +147,9 @@ public abstract class AbstractPlanner {
     protected abstract boolean includeScheduledTransaction(TransactionInfo transaction);
     protected abstract boolean includeScheduledSplitTransaction(TransactionInfo split);
 
-    private List<Date> calculatePlannedDates(TransactionInfo scheduledTransaction) {
-        String recurrence = scheduledTransaction.recurrence;
+    private Date getCalcDate() {
         Date startDate = getStartDateFromFilter();
-        Date endDate = getEndDateFromFilter();
-        Date calcDate = startDate.before(now) ? now : startDate;
-        if (recurrence == null) {
-            Date scheduledDate = new Date(scheduledTransaction.dateTime);
-            if (insideTheRequiredPeriod(calcDate, endDate, scheduledDate)) {
-                return Collections.singletonList(scheduledDate);
-            }
-        } else {
-            Recurrence r = Recurrence.parse(recurrence);
-            return r.generateDates(calcDate, endDate);
-        }
-        return Collections.emptyList();
+        return startDate.before(now) ? now : startDate;
     }
 
     private Date getStartDateFromFilter() {
@@ -120,48 +160,15 @@ public abstract class AbstractPlanner {
         return new Date(filter.getDateTime().getPeriod().end);
     }
 
-    private boolean insideTheRequiredPeriod(Date startDate, Date endDate, Date date) {
-        return !(date.before(startDate) || date.after(endDate));
-    }
-
-    private void duplicateTransaction(TransactionInfo scheduledTransaction, List<Date> dates, List<TransactionInfo> plannedTransactions) {
-        if (dates.size() == 1) {
-            scheduledTransaction.dateTime = dates.get(0).getTime();
-            scheduledTransaction.isTemplate = 0;
-            plannedTransactions.add(scheduledTransaction);
-        } else {
-            for (Date date : dates) {
-                TransactionInfo t = scheduledTransaction.clone();
-                t.dateTime = date.getTime();
-                t.isTemplate = 0;
-                plannedTransactions.add(t);
-            }
-        }
-    }
+    /**
+     * Accumulates totals while the planned transactions are iterated over
+     */
+    public interface TotalCalculator {
 
-    private void sortTransactions(List<TransactionInfo> transactions) {
-        Collections.sort(transactions, createSortComparator());
-    }
+        void add(TransactionInfo transaction);
 
-    protected Comparator<TransactionInfo> createSortComparator() {
-        return new Comparator<TransactionInfo>() {
-            @Override
-            public int compare(TransactionInfo transaction1, TransactionInfo transaction2) {
-                return transaction1.dateTime > transaction2.dateTime ? 1 : (transaction1.dateTime < transaction2.dateTime ? -1 : 0);
-            }
-        };
-    }
+        Total[] getTotals();
 
-    private List<TransactionInfo> asTransactionList(Cursor cursor) {
-        try {
-            List<TransactionInfo> transactions = new ArrayList<TransactionInfo>(cursor.getCount());
-            while (cursor.moveToNext()) {
-                transactions.add(TransactionInfo.fromBlotterCursor(cursor));
-            }
-            return transactions;
-        } finally {
-            cursor.close();
-        }
     }
 
 }
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.utils;
+
+import ru.orangesoftware.financisto.model.SymbolFormat;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+
+/**
+ * Formats amounts in cents the same way as {@link ru.orangesoftware.financisto.model.Currency#getFormat()}
+ * does for amount/100, but with plain long arithmetic straight into a StringBuilder.
+ * Separators, digits and sign prefixes are taken from that DecimalFormat once.
+ * It is immutable and can be shared between threads, see {@link CurrencyCache#createAmountFormat}.
+ */
+public class AmountFormat {
+
+    private static final long[] POW10 = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L,
+            10000000000L, 100000000000L, 1000000000000L, 10000000000000L, 100000000000000L,
+            1000000000000000L, 10000000000000000L, 100000000000000000L, 1000000000000000000L
+    };
+
+    private static final int GROUPING_SIZE = 3;
+
+    private final int decimals;
+    private final char decimalSeparator;
+    private final char groupingSeparator;
+    private final char zeroDigit;
+    private final String positivePrefix;
+    private final String positiveSuffix;
+    private final String negativePrefix;
+    private final String negativeSuffix;
+
+    AmountFormat(DecimalFormat format, int decimals) {
+        DecimalFormatSymbols dfs = format.getDecimalFormatSymbols();
+        this.decimals = decimals;
+        this.decimalSeparator = dfs.getDecimalSeparator();
+        this.groupingSeparator = format.isGroupingUsed() ? dfs.getGroupingSeparator() : 0;
+        this.zeroDigit = dfs.getZeroDigit();
+        this.positivePrefix = format.getPositivePrefix();
+        this.positiveSuffix = format.getPositiveSuffix();
+        this.negativePrefix = format.getNegativePrefix();
+        this.negativeSuffix = format.getNegativeSuffix();
+    }
+
+    /**
+     * Appends the amount followed or preceded by the symbol according to the symbol format
+     * @return false if the amount can not be formatted without BigDecimal, nothing is appended then
+     */
+    public boolean format(StringBuilder sb, long amount, boolean addPlus, String symbol, SymbolFormat symbolFormat) {
+        if (amount == Long.MIN_VALUE || decimals < 0 || decimals >= POW10.length) {
+            return false;
+        }
+        boolean negative = amount < 0;
+        long units = toUnits(negative ? -amount : amount);
+        if (units < 0) {
+            return false;
+        }
+        int start = sb.length();
+        if (addPlus && amount > 0) {
+            sb.append('+');
+        }
+        sb.append(negative ? negativePrefix : positivePrefix);
+        long divisor = POW10[decimals];
+        appendInteger(sb, units / divisor);
+        if (decimals > 0) {
+            sb.append(decimalSeparator);
+            appendDigits(sb, units % divisor, decimals);
+        }
+        sb.append(negative ? negativeSuffix : positiveSuffix);
+        if (Utils.isNotEmpty(symbol)) {
+            if (symbolFormat != null) {
+                symbolFormat.appendSymbol(sb, start, symbol);
+            } else {
+                sb.append(" ").append(symbol);
+            }
+        }
+        return true;
+    }
+
+    // amount/100 with the currency decimals, rounded HALF_EVEN as DecimalFormat does, -1 on overflow
+    private long toUnits(long amount) {
+        if (decimals >= 2) {
+            long m = POW10[decimals - 2];
+            return amount > Long.MAX_VALUE / m ? -1 : amount * m;
+        }
+        long d = POW10[2 - decimals];
+        long q = amount / d;
+        long r = amount % d;
+        long half = d / 2;
+        if (r > half || (r == half && (q & 1) == 1)) {
+            q++;
+        }
+        return q;
+    }
+
+    private void appendInteger(StringBuilder sb, long value) {
+        int digits = 1;
+        while (digits < POW10.length && value >= POW10[digits]) {
+            digits++;
+        }
+        for (int i = digits - 1; i >= 0; i--) {
+            long p = POW10[i];
+            sb.append((char) (zeroDigit + value / p));
+            value %= p;
+            if (groupingSeparator > 0 && i > 0 && i % GROUPING_SIZE == 0) {
+                sb.append(groupingSeparator);
+            }
+        }
+    }
+
+    private void appendDigits(StringBuilder sb, long value, int digits) {
+        for (int i = digits - 1; i >= 0; i--) {
+            long p = POW10[i];
+            sb.append((char) (zeroDigit + value / p));
+            value %= p;
+        }
+    }
+
+}
@@ -0,0 +1,46 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.utils;
+
+/**
+ * Same idea as android.os.CancellationSignal which is not available before API 16.
+ * Long running loops over cursors should call {@link #throwIfCanceled()} for every row,
+ * so cancelled work stops holding the database as soon as possible.
+ */
+public class CancellationSignal {
+
+    public static final CancellationSignal NONE = new CancellationSignal() {
+        @Override
+        public void cancel() {
+        }
+    };
+
+    private volatile boolean canceled;
+
+    public void cancel() {
+        canceled = true;
+    }
+
+    public boolean isCanceled() {
+        return canceled;
+    }
+
+    public void throwIfCanceled() {
+        if (canceled) {
+            throw new CanceledException();
+        }
+    }
+
+    public static class CanceledException extends RuntimeException {
+        public CanceledException() {
+            super("Operation has been canceled");
+        }
+    }
+
+}
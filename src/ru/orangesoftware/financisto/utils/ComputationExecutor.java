@@ -0,0 +1,233 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Shared background executor for totals and reports.
+ * Every screen submits its computations under its own key and only the latest one for a key is kept:
+ * <ul>
+ * <li>a new request with a different cache key cancels the one in flight,</li>
+ * <li>a duplicate request joins the one in flight instead of starting another,</li>
+ * <li>a request which has already been computed for the same data version is answered from the cache.</li>
+ * </ul>
+ * Results are delivered on the main thread and never for a cancelled computation.
+ */
+public class ComputationExecutor {
+
+    private static final String TAG = "ComputationExecutor";
+
+    private static final int THREADS = 2;
+    private static final int CACHE_SIZE = 32;
+
+    public interface Computation<T> {
+        T compute(CancellationSignal signal);
+    }
+
+    public interface Callback<T> {
+        void onResult(T result);
+    }
+
+    private static ComputationExecutor instance;
+
+    public static synchronized ComputationExecutor getInstance() {
+        if (instance == null) {
+            final Handler handler = new Handler(Looper.getMainLooper());
+            instance = new ComputationExecutor(Executors.newFixedThreadPool(THREADS, new BackgroundThreadFactory()), new Executor() {
+                @Override
+                public void execute(Runnable runnable) {
+                    handler.post(runnable);
+                }
+            });
+        }
+        return instance;
+    }
+
+    /**
+     * @return key unique for the owner (usually an activity) and the kind of computation
+     */
+    public static String key(Object owner, String name) {
+        return owner.getClass().getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(owner)) + "/" + name;
+    }
+
+    private final ExecutorService workers;
+    private final Executor callbacks;
+
+    //@ProtectedBy("this")
+    private final Map<String, Job<?>> jobs = new HashMap<String, Job<?>>();
+    //@ProtectedBy("this")
+    private final LinkedHashMap<String, CachedResult> results = new LinkedHashMap<String, CachedResult>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedResult> eldest) {
+            return size() > CACHE_SIZE;
+        }
+    };
+
+    ComputationExecutor(ExecutorService workers, Executor callbacks) {
+        this.workers = workers;
+        this.callbacks = callbacks;
+    }
+
+    /**
+     * @param key see {@link #key(Object, String)}
+     * @param cacheKey identifies the input of the computation, null if the result should never be reused
+     * @param dataVersion version of the data the result depends on, see {@link ru.orangesoftware.financisto.db.DatabaseAdapter#getDataVersion()}
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized <T> void submit(String key, String cacheKey, long dataVersion, Computation<T> computation, Callback<T> callback) {
+        Job<?> current = jobs.get(key);
+        if (current != null && cacheKey != null && current.isSameAs(cacheKey, dataVersion)) {
+            current.coalesce(callback);
+            return;
+        }
+        cancel(key);
+        Job<T> job = new Job<T>(key, cacheKey, dataVersion, computation, callback);
+        jobs.put(key, job);
+        CachedResult cached = cacheKey != null ? results.get(key + "|" + cacheKey) : null;
+        if (cached != null && cached.dataVersion == dataVersion) {
+            job.complete((T) cached.result);
+        } else {
+            job.future = workers.submit(job);
+        }
+    }
+
+    /**
+     * Cancels the computation in flight for the key, its callback will not be called
+     */
+    public synchronized void cancel(String key) {
+        Job<?> job = jobs.remove(key);
+        if (job != null) {
+            job.signal.cancel();
+            if (job.future != null) {
+                job.future.cancel(true);
+            }
+        }
+    }
+
+    public synchronized void clearCache() {
+        results.clear();
+    }
+
+    private synchronized void completed(Job<?> job, Object result) {
+        if (jobs.get(job.key) == job && job.cacheKey != null) {
+            results.put(job.key + "|" + job.cacheKey, new CachedResult(job.dataVersion, result));
+        }
+    }
+
+    private synchronized boolean delivered(Job<?> job) {
+        if (jobs.get(job.key) == job) {
+            jobs.remove(job.key);
+            return true;
+        }
+        return false;
+    }
+
+    private class Job<T> implements Runnable {
+
+        final String key;
+        final String cacheKey;
+        final long dataVersion;
+        final CancellationSignal signal = new CancellationSignal();
+        final Computation<T> computation;
+
+        volatile Callback<T> callback;
+        Future<?> future;
+
+        Job(String key, String cacheKey, long dataVersion, Computation<T> computation, Callback<T> callback) {
+            this.key = key;
+            this.cacheKey = cacheKey;
+            this.dataVersion = dataVersion;
+            this.computation = computation;
+            this.callback = callback;
+        }
+
+        boolean isSameAs(String cacheKey, long dataVersion) {
+            return cacheKey.equals(this.cacheKey) && dataVersion == this.dataVersion;
+        }
+
+        @SuppressWarnings("unchecked")
+        void coalesce(Callback<?> callback) {
+            this.callback = (Callback<T>) callback;
+        }
+
+        @Override
+        public void run() {
+            try {
+                long t0 = System.currentTimeMillis();
+                T result = computation.compute(signal);
+                signal.throwIfCanceled();
+                Log.d(TAG, key + " computed in " + (System.currentTimeMillis() - t0) + "ms");
+                completed(this, result);
+                complete(result);
+            } catch (CancellationSignal.CanceledException e) {
+                Log.d(TAG, key + " has been canceled");
+            } catch (Exception e) {
+                Log.e(TAG, key + " has failed", e);
+                delivered(this);
+            }
+        }
+
+        void complete(final T result) {
+            callbacks.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (!signal.isCanceled() && delivered(Job.this)) {
+                        callback.onResult(result);
+                    }
+                }
+            });
+        }
+
+    }
+
+    private static class CachedResult {
+
+        final long dataVersion;
+        final Object result;
+
+        CachedResult(long dataVersion, Object result) {
+            this.dataVersion = dataVersion;
+            this.result = result;
+        }
+
+    }
+
+    private static class BackgroundThreadFactory implements ThreadFactory {
+
+        private int count;
+
+        @Override
+        public synchronized Thread newThread(final Runnable runnable) {
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                }
+            }, "Computation #" + (++count));
+            thread.setDaemon(true);
+            return thread;
+        }
+
+    }
+
+}
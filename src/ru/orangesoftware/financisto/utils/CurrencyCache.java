@@ -72,6 +72,10 @@ public class CurrencyCache {
 		return df;
 	}
 
+	public static AmountFormat createAmountFormat(Currency c) {
+		return new AmountFormat(createCurrencyFormat(c), c.decimals);
+	}
+
 	private static char charOrEmpty(String s, char c) {
 		return s != null ? (s.length() > 2 ? s.charAt(1) : 0): c;
 	}
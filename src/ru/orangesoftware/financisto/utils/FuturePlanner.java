@@ -9,14 +9,13 @@
 package ru.orangesoftware.financisto.utils;
 
 import android.database.Cursor;
+import ru.orangesoftware.financisto.db.DatabaseHelper.BlotterColumns;
 import ru.orangesoftware.financisto.db.TransactionsTotalCalculator;
 import ru.orangesoftware.financisto.filter.WhereFilter;
 import ru.orangesoftware.financisto.db.DatabaseAdapter;
-import ru.orangesoftware.financisto.model.Total;
 import ru.orangesoftware.financisto.model.TransactionInfo;
 
 import java.util.Date;
-import java.util.List;
 
 /**
  * Created by IntelliJ IDEA.
@@ -32,6 +31,10 @@ public class FuturePlanner extends AbstractPlanner {
     @Override
     protected Cursor getRegularTransactions() {
         WhereFilter blotterFilter = WhereFilter.copyOf(filter);
+        blotterFilter.resetSort();
+        blotterFilter.asc(BlotterColumns.datetime.name());
+        // transactions on the same date stay newest first, as they are in the blotter
+        blotterFilter.desc(BlotterColumns._id.name());
         return db.getBlotter(blotterFilter);
     }
 
@@ -51,10 +54,8 @@ public class FuturePlanner extends AbstractPlanner {
     }
 
     @Override
-    protected Total[] calculateTotals(List<TransactionInfo> transactions) {
-        Total[] totals = new Total[1];
-        totals[0] = TransactionsTotalCalculator.calculateTotalFromListInHomeCurrency(db, transactions);
-        return totals;
+    public TotalCalculator createTotalCalculator() {
+        return new TransactionsTotalCalculator.HomeCurrencyTotalCalculator(db);
     }
 
     /*@Override
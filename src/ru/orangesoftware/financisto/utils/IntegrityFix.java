@@ -37,6 +37,14 @@ public class IntegrityFix {
         db.restoreNoCategory();
         long t3 = System.currentTimeMillis();
         Log.i("Financisto", "IntegrityFix: Restoring system entities done in " + TimeUnit.MILLISECONDS.toSeconds(t3 - t2) + "s");
+        db.searchIndex().rebuild();
+        db.invalidateSuggestions();
+        db.invalidateAccountSummary();
+        long t4 = System.currentTimeMillis();
+        Log.i("Financisto", "IntegrityFix: Rebuilding search index done in " + TimeUnit.MILLISECONDS.toSeconds(t4 - t3) + "s");
+        db.budgetSpent().verify();
+        long t5 = System.currentTimeMillis();
+        Log.i("Financisto", "IntegrityFix: Verifying budgets done in " + TimeUnit.MILLISECONDS.toSeconds(t5 - t4) + "s");
     }
 
 }
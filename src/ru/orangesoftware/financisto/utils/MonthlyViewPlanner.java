@@ -92,57 +92,64 @@ public class MonthlyViewPlanner extends AbstractPlanner {
 
 
     public TransactionList getCreditCardStatement() {
-        TransactionList withTotals = getPlannedTransactionsWithTotals();
-        List<TransactionInfo> transactions = withTotals.transactions;
-        List<TransactionInfo> statement = new ArrayList<TransactionInfo>(transactions.size()+3);
-        // add payments
-        statement.add(PAYMENTS_HEADER);
-        for (TransactionInfo transaction : transactions) {
-            if (transaction.isCreditCardPayment() && transaction.fromAmount > 0) {
-                statement.add(transaction);
+        return getCreditCardStatement(CancellationSignal.NONE);
+    }
+
+    public TransactionList getCreditCardStatement(CancellationSignal signal) {
+        List<TransactionInfo> payments = new ArrayList<TransactionInfo>();
+        List<TransactionInfo> credits = new ArrayList<TransactionInfo>();
+        List<TransactionInfo> expenses = new ArrayList<TransactionInfo>();
+        TotalCalculator totals = createTotalCalculator();
+        PlannedTransactionIterator i = getPlannedTransactionsIterator();
+        try {
+            while (i.hasNext()) {
+                signal.throwIfCanceled();
+                TransactionInfo transaction = i.next();
+                if (transaction.fromAmount < 0) {
+                    expenses.add(transaction);
+                } else if (transaction.fromAmount > 0) {
+                    if (transaction.isCreditCardPayment()) {
+                        payments.add(transaction);
+                    } else {
+                        credits.add(transaction);
+                    }
+                }
+                totals.add(transaction);
             }
+        } finally {
+            i.close();
         }
-        // add credits
+        List<TransactionInfo> statement = new ArrayList<TransactionInfo>(payments.size()+credits.size()+expenses.size()+3);
+        statement.add(PAYMENTS_HEADER);
+        statement.addAll(payments);
         statement.add(CREDITS_HEADER);
-        for (TransactionInfo transaction : transactions) {
-            if (!transaction.isCreditCardPayment() && transaction.fromAmount > 0) {
-                statement.add(transaction);
-            }
-        }
-        // add expenses
+        statement.addAll(credits);
         statement.add(EXPENSES_HEADER);
-        for (TransactionInfo transaction : transactions) {
-            if (transaction.fromAmount < 0) {
-                statement.add(transaction);
-            }
-        }
-        return new TransactionList(statement, withTotals.totals);
+        statement.addAll(expenses);
+        return new TransactionList(statement, totals.getTotals());
     }
 
     @Override
-    protected Total[] calculateTotals(List<TransactionInfo> transactions) {
-        Total[] totals = new Total[1];
-        totals[0] = new Total(account.currency);
-        totals[0].balance = calculateTotal(transactions);
-        return totals;
-    }
-
-    private long calculateTotal(List<TransactionInfo> transactions) {
-        long total = 0;
-        if (isStatementPreview) {
-            // exclude payments
-            for (TransactionInfo t : transactions) {
-                if (!t.isCreditCardPayment()) {
+    public TotalCalculator createTotalCalculator() {
+        return new TotalCalculator() {
+            private long total;
+
+            @Override
+            public void add(TransactionInfo t) {
+                // the statement preview excludes payments
+                if (!isStatementPreview || !t.isCreditCardPayment()) {
                     total += getAmount(t);
                 }
             }
-        } else {
-            // consider all transactions
-            for (TransactionInfo t : transactions) {
-                total += getAmount(t);
+
+            @Override
+            public Total[] getTotals() {
+                Total[] totals = new Total[1];
+                totals[0] = new Total(account.currency);
+                totals[0].balance = total;
+                return totals;
             }
-        }
-        return total;
+        };
     }
 
     private long getAmount(TransactionInfo t) {
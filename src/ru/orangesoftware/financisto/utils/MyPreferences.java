@@ -28,6 +28,7 @@ import ru.orangesoftware.financisto.rates.ExchangeRateProvider;
 import java.lang.reflect.Method;
 import java.util.Collection;
 import java.util.Locale;
+import java.util.UUID;
 
 import static ru.orangesoftware.financisto.utils.AndroidUtils.isGreenDroidSupported;
 
@@ -653,6 +654,19 @@ public class MyPreferences {
         return sharedPreferences.getLong("PROPERTY_LAST_SYNC_TIMESTAMP",0);
     }    
 
+    /**
+     * Random id of this installation, used to stamp the versions of synced rows
+     */
+    public static String getFlowzrDeviceId(Context context) {
+        SharedPreferences sharedPreferences = PreferenceManager.getDefaultSharedPreferences(context);
+        String deviceId = sharedPreferences.getString("flowzr_device_id", null);
+        if (deviceId == null) {
+            deviceId = UUID.randomUUID().toString();
+            sharedPreferences.edit().putString("flowzr_device_id", deviceId).commit();
+        }
+        return deviceId;
+    }
+
     public static boolean isAutoSync(Context context) {
         return getBoolean(context, "auto_sync_enabled", false);
     }
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.utils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Bounded LRU cache of objects parsed from the strings stored in the database.
+ * The cached values are shared between threads, so they must never be changed
+ * after {@link #parse(String)} - callers that need to change one should copy it.
+ */
+public abstract class ParseCache<V> {
+
+    private final int maxSize;
+
+    //@ProtectedBy("this")
+    private final LinkedHashMap<String, V> values;
+    private long hits;
+    private long misses;
+
+    public ParseCache(final int maxSize) {
+        this.maxSize = maxSize;
+        this.values = new LinkedHashMap<String, V>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, V> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+
+    protected abstract V parse(String s);
+
+    public synchronized V get(String s) {
+        V v = values.get(s);
+        if (v != null) {
+            hits++;
+            return v;
+        }
+        misses++;
+        v = parse(s);
+        values.put(s, v);
+        return v;
+    }
+
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int size() {
+        return values.size();
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized void clear() {
+        values.clear();
+        hits = 0;
+        misses = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        long total = hits + misses;
+        return "size=" + values.size() + ", hits=" + hits + ", misses=" + misses
+                + ", hitRate=" + (total > 0 ? 100 * hits / total : 0) + "%";
+    }
+
+}
@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.utils;
+
+import android.database.Cursor;
+import ru.orangesoftware.financisto.db.DatabaseHelper.ScheduleOccurrenceColumns;
+import ru.orangesoftware.financisto.model.TransactionInfo;
+import ru.orangesoftware.financisto.recur.DateRecurrenceIterator;
+
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * Merges the regular transactions, which come ordered by date from the blotter cursor,
+ * with the occurrences of the scheduled transactions without building the whole list.
+ * Every schedule is a stream of dates, the streams are kept in a heap by their next date,
+ * so only one row per schedule is held in memory at a time.
+ * On the same date regular transactions come first, then schedules ordered by id.
+ */
+public class PlannedTransactionIterator implements Iterator<TransactionInfo> {
+
+    private static final Comparator<Schedule> BY_NEXT_DATE = new Comparator<Schedule>() {
+        @Override
+        public int compare(Schedule s1, Schedule s2) {
+            if (s1.dateTime != s2.dateTime) {
+                return s1.dateTime < s2.dateTime ? -1 : 1;
+            }
+            return s1.id < s2.id ? -1 : (s1.id > s2.id ? 1 : 0);
+        }
+    };
+
+    private final Cursor regular;
+    private final PriorityQueue<Schedule> schedules = new PriorityQueue<Schedule>(11, BY_NEXT_DATE);
+
+    private TransactionInfo nextRegular;
+    private List<TransactionInfo> pending;
+    private long pendingDateTime;
+    private int pendingIndex;
+
+    public PlannedTransactionIterator(Cursor regular) {
+        this.regular = regular;
+        readRegular();
+    }
+
+    /**
+     * Adds a schedule planned from the index, all indexed schedules share the same cursor
+     * @param transactions what has to be planned for every indexed schedule on each of its dates
+     */
+    void addIndexed(Cursor occurrences, Map<Long, List<TransactionInfo>> transactions) {
+        offer(new IndexedSchedules(occurrences, transactions));
+    }
+
+    void addRecurring(long id, DateRecurrenceIterator dates, long end, List<TransactionInfo> transactions) {
+        offer(new RecurringSchedule(id, dates, end, transactions));
+    }
+
+    void addOnce(long id, long dateTime, List<TransactionInfo> transactions) {
+        offer(new OnceSchedule(id, dateTime, transactions));
+    }
+
+    @Override
+    public boolean hasNext() {
+        return (pending != null && pendingIndex < pending.size()) || nextRegular != null || !schedules.isEmpty();
+    }
+
+    @Override
+    public TransactionInfo next() {
+        if (pending != null && pendingIndex < pending.size()) {
+            return nextPending();
+        }
+        Schedule s = schedules.peek();
+        if (nextRegular != null && (s == null || nextRegular.dateTime <= s.dateTime)) {
+            TransactionInfo t = nextRegular;
+            readRegular();
+            return t;
+        }
+        if (s == null) {
+            throw new NoSuchElementException();
+        }
+        schedules.poll();
+        pending = s.transactions;
+        pendingDateTime = s.dateTime;
+        pendingIndex = 0;
+        if (s.advance()) {
+            schedules.offer(s);
+        }
+        return nextPending();
+    }
+
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+    public void close() {
+        regular.close();
+        for (Schedule s : schedules) {
+            s.close();
+        }
+        schedules.clear();
+    }
+
+    private TransactionInfo nextPending() {
+        TransactionInfo t = pending.get(pendingIndex++).clone();
+        t.dateTime = pendingDateTime;
+        t.isTemplate = 0;
+        return t;
+    }
+
+    private void readRegular() {
+        if (regular.moveToNext()) {
+            nextRegular = TransactionInfo.fromBlotterCursor(regular);
+        } else {
+            nextRegular = null;
+        }
+    }
+
+    private void offer(Schedule s) {
+        if (s.advance()) {
+            schedules.offer(s);
+        } else {
+            s.close();
+        }
+    }
+
+    private static abstract class Schedule {
+
+        long id;
+        long dateTime;
+        List<TransactionInfo> transactions;
+
+        /**
+         * Moves to the next date of the schedule
+         * @return false if there are no more dates
+         */
+        abstract boolean advance();
+
+        void close() {
+        }
+
+    }
+
+    private static class IndexedSchedules extends Schedule {
+
+        private final Cursor c;
+        private final Map<Long, List<TransactionInfo>> planned;
+
+        private IndexedSchedules(Cursor c, Map<Long, List<TransactionInfo>> planned) {
+            this.c = c;
+            this.planned = planned;
+        }
+
+        @Override
+        boolean advance() {
+            while (c.moveToNext()) {
+                id = c.getLong(ScheduleOccurrenceColumns.transaction_id.ordinal());
+                transactions = planned.get(id);
+                if (transactions != null) {
+                    dateTime = c.getLong(ScheduleOccurrenceColumns.datetime.ordinal());
+                    return true;
+                }
+            }
+            close();
+            return false;
+        }
+
+        @Override
+        void close() {
+            c.close();
+        }
+
+    }
+
+    private static class RecurringSchedule extends Schedule {
+
+        private final DateRecurrenceIterator dates;
+        private final long end;
+
+        private RecurringSchedule(long id, DateRecurrenceIterator dates, long end, List<TransactionInfo> transactions) {
+            this.id = id;
+            this.dates = dates;
+            this.end = end;
+            this.transactions = transactions;
+        }
+
+        @Override
+        boolean advance() {
+            if (dates.hasNext()) {
+                Date date = dates.next();
+                if (date.getTime() <= end) {
+                    dateTime = date.getTime();
+                    return true;
+                }
+            }
+            return false;
+        }
+
+    }
+
+    private static class OnceSchedule extends Schedule {
+
+        private boolean done;
+
+        private OnceSchedule(long id, long dateTime, List<TransactionInfo> transactions) {
+            this.id = id;
+            this.dateTime = dateTime;
+            this.transactions = transactions;
+        }
+
+        @Override
+        boolean advance() {
+            if (done) {
+                return false;
+            }
+            done = true;
+            return true;
+        }
+
+    }
+
+}
@@ -27,6 +27,13 @@ public class RecurUtils {
 
 	private static final long DAY_IN_MS = 24*60*60*1000L;	
 
+	static final ParseCache<Recur> RECURS = new ParseCache<Recur>(64) {
+		@Override
+		protected Recur parse(String extra) {
+			return parseExtraString(extra);
+		}
+	};
+
 	public interface Layoutable {
 		int getLayoutId();
 	}
@@ -288,7 +295,7 @@ public class RecurUtils {
 	
 	public static class Weekly extends Recur {
 		
-		private final EnumSet<DayOfWeek> days;
+		private EnumSet<DayOfWeek> days;
 		
 		protected Weekly(HashMap<String, String> values) {
 			super(RecurInterval.WEEKLY, values);
@@ -333,6 +340,13 @@ public class RecurUtils {
 		public void unset(DayOfWeek d) {
 			days.remove(d);
 		}
+
+		@Override
+		public Weekly clone() {
+			Weekly w = (Weekly)super.clone();
+			w.days = EnumSet.copyOf(days);
+			return w;
+		}
 	}
 
 	public static class SemiMonthly extends Recur {
@@ -383,10 +397,17 @@ public class RecurUtils {
 		}
 	}
 
+	/**
+	 * @return a copy of the cached recur, so it can be changed by the caller
+	 */
 	public static Recur createFromExtraString(String extra) {
 		if (Utils.isEmpty(extra)) {
 			return new NoRecur();
 		}
+		return RECURS.get(extra).clone();
+	}
+
+	private static Recur parseExtraString(String extra) {
 		String[] a = extra.split(",");
 		RecurInterval interval = RecurInterval.valueOf(a[0]);
 		HashMap<String, String> values = toMap(a);
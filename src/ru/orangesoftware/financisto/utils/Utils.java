@@ -79,10 +79,17 @@ public class Utils {
 	}
 
 	public static StringBuilder amountToString(StringBuilder sb, Currency c, long amount, boolean addPlus) {
+		if (c == null) {
+			c = Currency.EMPTY;
+		}
+		if (c.getAmountFormat().format(sb, amount, addPlus, c.symbol, c.symbolFormat)) {
+			return sb;
+		}
 		return amountToString(sb, c, new BigDecimal(amount), addPlus);
 	}
 	
 	public static StringBuilder amountToString(StringBuilder sb, Currency c, BigDecimal amount, boolean addPlus) {
+		int start = sb.length();
 		if (amount.compareTo(BigDecimal.ZERO) > 0) {
 			if (addPlus) {
 				sb.append("+");
@@ -98,7 +105,7 @@ public class Utils {
 		sb.append(s);
         if (isNotEmpty(c.symbol)) {
             if (c.symbolFormat != null) {
-                c.symbolFormat.appendSymbol(sb, c.symbol);
+                c.symbolFormat.appendSymbol(sb, start, c.symbol);
             } else {
 		        sb.append(" ").append(c.symbol);
             }
@@ -65,5 +65,9 @@ public class Expressions {
     public static Expression like(String field, Object value1) {
         return new Like(field, value1);
     }
+
+    public static Expression in(String field, long[] values) {
+        return new In(field, values);
+    }
 }
 
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+package ru.orangesoftware.orb;
+
+import java.util.ArrayList;
+import java.util.List;
+
+class In implements Expression {
+
+	private final String field;
+	private final long[] values;
+
+	In(String field, long[] values) {
+		this.field = field;
+		this.values = values;
+	}
+
+	@Override
+	public Selection toSelection(EntityDefinition ed) {
+		StringBuilder sb = new StringBuilder("(").append(ed.getColumnForField(field)).append(" in (");
+		List<String> args = new ArrayList<String>(values.length);
+		for (int i=0; i<values.length; i++) {
+			if (i > 0) {
+				sb.append(",");
+			}
+			sb.append("?");
+			args.add(String.valueOf(values[i]));
+		}
+		return new Selection(sb.append("))").toString(), args);
+	}
+
+}
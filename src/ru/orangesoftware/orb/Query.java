@@ -53,6 +53,18 @@ public class Query<T> {
 		return this;
 	}
 
+	/**
+	 * Orders the rows the same way as the values are ordered
+	 */
+	public Query<T> asIn(String field, long[] values) {
+		StringBuilder sb = new StringBuilder("case ").append(ed.getColumnForField(field));
+		for (int i=0; i<values.length; i++) {
+			sb.append(" when ").append(values[i]).append(" then ").append(i);
+		}
+		orderBy.add(sb.append(" end").toString());
+		return this;
+	}
+
 	public Cursor execute() {
 		String query = ed.sqlQuery;
 		String where = this.where;
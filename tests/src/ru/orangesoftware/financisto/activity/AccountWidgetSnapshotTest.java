@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.activity;
+
+import ru.orangesoftware.financisto.db.AbstractDbTest;
+import ru.orangesoftware.financisto.db.AccountSummary;
+import ru.orangesoftware.financisto.model.Account;
+import ru.orangesoftware.financisto.model.AccountType;
+import ru.orangesoftware.financisto.model.CardIssuer;
+import ru.orangesoftware.financisto.model.Currency;
+import ru.orangesoftware.financisto.test.AccountBuilder;
+import ru.orangesoftware.financisto.test.CurrencyBuilder;
+import ru.orangesoftware.financisto.test.TransactionBuilder;
+import ru.orangesoftware.financisto.utils.Utils;
+
+import java.util.ArrayList;
+
+public class AccountWidgetSnapshotTest extends AbstractDbTest {
+
+    Currency c;
+    Account a1;
+    Account a2;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        c = CurrencyBuilder.withDb(db).name("USD").title("Dollar").symbol("$").create();
+        a1 = AccountBuilder.withDb(db).title("Cash").currency(c).create();
+        a2 = new Account();
+        a2.title = "Visa";
+        a2.currency = c;
+        a2.type = AccountType.CREDIT_CARD.name();
+        a2.cardIssuer = CardIssuer.VISA.name();
+        em.saveAccount(a2);
+        AccountBuilder.withDb(db).title("Closed").currency(c).inactive().create();
+        TransactionBuilder.withDb(db).account(a1).amount(12345).create();
+        TransactionBuilder.withDb(db).account(a2).amount(-500).create();
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        AccountSummary.getSnapshotFile(context).delete();
+        super.tearDown();
+    }
+
+    public void test_should_write_and_read_preformatted_active_accounts() {
+        AccountWidgetSnapshot snapshot = AccountWidgetSnapshot.fromAccounts(db.getAccountSummary().getActiveAccounts());
+        snapshot.write(context);
+        AccountWidgetSnapshot read = AccountWidgetSnapshot.read(context);
+        assertNotNull(read);
+        assertEquals(2, read.lines.size());
+        AccountWidgetSnapshot.Line line = read.getLine(a1.id);
+        assertEquals("Cash", line.title);
+        assertEquals(AccountType.CASH.name(), line.type);
+        assertNull(line.cardIssuer);
+        assertEquals(12345, line.amount);
+        assertEquals(Utils.amountToString(c, 12345), line.amountText);
+        line = read.getLine(a2.id);
+        assertEquals(CardIssuer.VISA.name(), line.cardIssuer);
+        assertEquals(-500, line.amount);
+    }
+
+    public void test_should_cycle_through_the_lines() {
+        AccountWidgetSnapshot snapshot = AccountWidgetSnapshot.fromAccounts(db.getAccountSummary().getActiveAccounts());
+        long first = snapshot.lines.get(0).id;
+        long second = snapshot.lines.get(1).id;
+        assertEquals(second, snapshot.getNextLine(first).id);
+        assertEquals(first, snapshot.getNextLine(second).id);
+        assertEquals(first, snapshot.getNextLine(-1).id);
+        assertNull(AccountWidgetSnapshot.fromAccounts(new ArrayList<Account>()).getNextLine(-1));
+    }
+
+    public void test_should_drop_the_snapshot_when_an_account_is_deleted() {
+        AccountWidgetSnapshot.fromAccounts(db.getAccountSummary().getActiveAccounts()).write(context);
+        assertNotNull(AccountWidgetSnapshot.read(context));
+        //when
+        db.deleteAccount(a2.id);
+        //then
+        assertNull(AccountWidgetSnapshot.read(context));
+        AccountWidgetSnapshot snapshot = AccountWidgetSnapshot.fromAccounts(db.getAccountSummary().getActiveAccounts());
+        assertEquals(1, snapshot.lines.size());
+        assertNull(snapshot.getLine(a2.id));
+        assertEquals(a1.id, snapshot.getNextLine(a2.id).id);
+    }
+
+    public void test_should_drop_the_snapshot_when_an_account_is_renamed() {
+        AccountWidgetSnapshot.fromAccounts(db.getAccountSummary().getActiveAccounts()).write(context);
+        //when
+        Account a = em.getAccount(a1.id);
+        a.title = "Wallet";
+        em.saveAccount(a);
+        //then
+        assertNull(AccountWidgetSnapshot.read(context));
+        assertEquals("Wallet", AccountWidgetSnapshot.fromAccounts(db.getAccountSummary().getActiveAccounts()).getLine(a1.id).title);
+    }
+
+    public void test_should_not_read_a_missing_snapshot() {
+        AccountSummary.getSnapshotFile(context).delete();
+        assertNull(AccountWidgetSnapshot.read(context));
+    }
+
+}
@@ -19,13 +19,14 @@ import java.util.Set;
  */
 public abstract class AbstractDbTest extends AndroidTestCase {
 
-    private DatabaseHelper dbHelper;
+    protected Context context;
+    protected DatabaseHelper dbHelper;
     protected DatabaseAdapter db;
     protected MyEntityManager em;
 
     @Override
     public void setUp() throws Exception {
-        Context context = new RenamingDelegatingContext(getContext(), "test-");
+        context = new RenamingDelegatingContext(getContext(), "test-");
         dbHelper = new DatabaseHelper(context);
         db = new DatabaseAdapter(context, dbHelper);
         db.open();
@@ -0,0 +1,101 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import ru.orangesoftware.financisto.model.Account;
+import ru.orangesoftware.financisto.model.Currency;
+import ru.orangesoftware.financisto.model.Total;
+import ru.orangesoftware.financisto.rates.ExchangeRateProvider;
+import ru.orangesoftware.financisto.test.AccountBuilder;
+import ru.orangesoftware.financisto.test.CurrencyBuilder;
+import ru.orangesoftware.financisto.test.DateTime;
+import ru.orangesoftware.financisto.test.RateBuilder;
+import ru.orangesoftware.financisto.test.TransactionBuilder;
+import ru.orangesoftware.financisto.test.TransferBuilder;
+
+public class AccountSummaryTest extends AbstractDbTest {
+
+    Currency c1;
+    Currency c2;
+    Account a1;
+    Account a2;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        c1 = CurrencyBuilder.withDb(db).name("USD").title("Dollar").symbol("$").makeDefault().create();
+        c2 = CurrencyBuilder.withDb(db).name("EUR").title("Euro").symbol("€").create();
+        a1 = AccountBuilder.withDb(db).title("Cash").currency(c1).create();
+        a2 = AccountBuilder.withDb(db).title("Bank").currency(c2).create();
+        RateBuilder.withDb(db).from(c2).to(c1).at(DateTime.date(2014, 3, 1)).rate(2).create();
+    }
+
+    public void test_should_keep_the_summary_until_something_is_written() {
+        AccountSummary summary = db.getAccountSummary();
+        assertSame(summary, db.getAccountSummary());
+        TransactionBuilder.withDb(db).account(a1).amount(100).create();
+        assertNotSame(summary, db.getAccountSummary());
+    }
+
+    public void test_should_reload_only_accounts_on_balance_updates() {
+        ExchangeRateProvider rates = db.getAccountSummary().getRates();
+        TransactionBuilder.withDb(db).account(a1).amount(100).create();
+        TransferBuilder.withDb(db).fromAccount(a1).fromAmount(-40).toAccount(a2).toAmount(20).create();
+        AccountSummary summary = db.getAccountSummary();
+        assertSame(rates, summary.getRates());
+        assertEquals(60, summary.getAccount(a1.id).totalAmount);
+        assertEquals(20, summary.getAccount(a2.id).totalAmount);
+        assertEquals(100, summary.getTotalInHomeCurrency().balance);
+    }
+
+    public void test_should_reconvert_totals_on_rate_changes() {
+        TransactionBuilder.withDb(db).account(a1).amount(100).create();
+        TransactionBuilder.withDb(db).account(a2).amount(50).create();
+        assertEquals(200, db.getAccountsTotalInHomeCurrency().balance);
+        //when
+        RateBuilder.withDb(db).from(c2).to(c1).at(DateTime.date(2014, 3, 2)).rate(3).create();
+        //then
+        assertEquals(250, db.getAccountsTotalInHomeCurrency().balance);
+        assertEquals(83, db.getAccountsTotal(c2).balance);
+        //when
+        db.deleteRate(c2.id, c1.id, DateTime.date(2014, 3, 2).asLong());
+        db.deleteRate(c2.id, c1.id, DateTime.date(2014, 3, 1).asLong());
+        //then
+        assertTrue(db.getAccountsTotalInHomeCurrency().isError());
+    }
+
+    public void test_should_follow_home_currency_and_account_changes() {
+        TransactionBuilder.withDb(db).account(a1).amount(100).create();
+        TransactionBuilder.withDb(db).account(a2).amount(50).create();
+        assertEquals(c1.id, db.getAccountsTotalInHomeCurrency().currency.id);
+        //when
+        c2.isDefault = true;
+        em.saveOrUpdate(c2);
+        //then
+        Total total = db.getAccountsTotalInHomeCurrency();
+        assertEquals(c2.id, total.currency.id);
+        assertEquals(100, total.balance);
+        //when
+        Account a = em.getAccount(a1.id);
+        a.isIncludeIntoTotals = false;
+        a.isActive = false;
+        em.saveAccount(a);
+        //then
+        assertEquals(50, db.getAccountsTotalInHomeCurrency().balance);
+        assertEquals(1, db.getAccountsTotal().length);
+        assertEquals(1, db.getAccountSummary().getActiveAccounts().size());
+        assertEquals(a2.id, db.getAccountSummary().getActiveAccounts().get(0).id);
+        //when
+        db.deleteAccount(a2.id);
+        //then
+        assertNull(db.getAccountSummary().getAccount(a2.id));
+        assertEquals(0, db.getAccountsTotalInHomeCurrency().balance);
+    }
+
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+import ru.orangesoftware.financisto.model.Budget;
+import ru.orangesoftware.financisto.model.Category;
+import ru.orangesoftware.financisto.model.Currency;
+import ru.orangesoftware.financisto.model.Project;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static ru.orangesoftware.financisto.test.DateTime.date;
+
+public class BudgetPredicateTest extends AndroidTestCase {
+
+    Map<Long, Category> categories = new HashMap<Long, Category>();
+    Map<Long, Project> projects = new HashMap<Long, Project>();
+    Currency currency = new Currency();
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        categories.put(1L, category(1, 1, 6));
+        categories.put(2L, category(2, 2, 3));
+        categories.put(3L, category(3, 7, 8));
+        Project p = new Project();
+        p.id = 5;
+        projects.put(p.id, p);
+        currency.id = 10;
+        BudgetPredicate.WHERE.clear();
+    }
+
+    public void test_should_bind_ids_and_dates_as_arguments() {
+        Budget b = budget("1,3", "5", date(2011, 4, 1).atMidnight().asLong(), date(2011, 4, 30).atDayEnd().asLong());
+        b.includeSubcategories = true;
+        b.expanded = true;
+
+        BudgetPredicate p = BudgetPredicate.compile(b, categories, projects);
+
+        assertEquals("from_account_currency_id=? AND ((category_id IN (SELECT descendant_id FROM category_closure WHERE ancestor_id=?)"
+                + " OR category_id IN (SELECT descendant_id FROM category_closure WHERE ancestor_id=?)) OR (project_id=?))"
+                + " AND datetime>=? AND datetime<=?", p.where);
+        assertEquals(Arrays.asList("10", "1", "3", "5",
+                String.valueOf(b.startDate), String.valueOf(b.endDate)), Arrays.asList(p.args));
+    }
+
+    public void test_should_skip_unknown_categories_and_projects() {
+        Budget b = budget("2,100", "200", 0, 0);
+        b.currency = null;
+        b.includeCredit = false;
+
+        BudgetPredicate p = BudgetPredicate.compile(b, categories, projects);
+
+        assertEquals(" 1=1  AND (category_id=?) AND from_amount<0", p.where);
+        assertEquals(Arrays.asList("2"), Arrays.asList(p.args));
+    }
+
+    public void test_should_share_statement_between_budgets_of_the_same_shape() {
+        Set<String> statements = new HashSet<String>();
+        long t0 = System.currentTimeMillis();
+        for (int month = 1; month <= 12; month++) {
+            for (String category : new String[]{"1", "2", "3"}) {
+                Budget b = budget(category, null, date(2011, month, 1).atMidnight().asLong(), date(2011, month, 28).atDayEnd().asLong());
+                statements.add(BudgetPredicate.compile(b, categories, projects).where);
+            }
+        }
+        long t1 = System.currentTimeMillis();
+        Log.d("BudgetPredicateTest", "36 budgets compiled in "+(t1-t0)+"ms, "+BudgetPredicate.WHERE);
+
+        assertEquals(1, statements.size());
+        assertEquals(1, BudgetPredicate.WHERE.getMisses());
+        assertEquals(35, BudgetPredicate.WHERE.getHits());
+    }
+
+    private Budget budget(String categories, String projects, long startDate, long endDate) {
+        Budget b = new Budget();
+        b.currency = currency;
+        b.categories = categories;
+        b.projects = projects;
+        b.startDate = startDate;
+        b.endDate = endDate;
+        return b;
+    }
+
+    private static Category category(long id, int left, int right) {
+        Category c = new Category();
+        c.id = id;
+        c.left = left;
+        c.right = right;
+        return c;
+    }
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import android.database.Cursor;
+import android.util.Log;
+import ru.orangesoftware.financisto.model.Attribute;
+import ru.orangesoftware.financisto.model.Category;
+import ru.orangesoftware.financisto.model.CategoryTree;
+import ru.orangesoftware.financisto.test.CategoryBuilder;
+
+import java.util.Collections;
+import java.util.Map;
+
+public class CategoryClosureTest extends AbstractDbTest {
+
+    private static final String NESTED_SET_PAIRS = "SELECT a._id, d._id FROM category a, category d"
+            + " WHERE a._id>0 AND d._id>0 AND d.left BETWEEN a.left AND a.right";
+
+    private static final String CLOSURE_PAIRS = "SELECT ancestor_id, descendant_id FROM category_closure";
+
+    private static final String WRONG_PARENTS = "SELECT COUNT(*) FROM category c WHERE c._id>0 AND c.parent_id <> "
+            + "IFNULL((SELECT p._id FROM category p WHERE p._id>0 AND p.left<c.left AND p.right>c.right ORDER BY p.left DESC LIMIT 1), 0)";
+
+    private static final String WRONG_DEPTHS = "SELECT COUNT(*) FROM category_closure cc WHERE cc.depth <> "
+            + "(SELECT COUNT(*) FROM category a, category d WHERE a._id=cc.ancestor_id AND d._id=cc.descendant_id"
+            + " AND EXISTS (SELECT 1 FROM category p WHERE p._id>0 AND p.left>a.left AND p.left<=d.left AND p.right>=d.right))";
+
+    public void test_should_keep_closure_in_sync_with_nested_set() {
+        //given
+        Map<String, Category> categories = CategoryBuilder.createDefaultHierarchy(db);
+        assertClosureIsConsistent();
+        //when A1 is moved under B
+        Category a1 = db.getCategory(categories.get("A1").id);
+        a1.parent = categories.get("B");
+        db.insertOrUpdate(a1, Collections.<Attribute>emptyList());
+        //then
+        assertClosureIsConsistent();
+        assertEquals(categories.get("B").id, db.getCategory(a1.id).parent.id);
+        assertEquals(3, db.getCategory(categories.get("AA1").id).level);
+        //when
+        Category c = new Category();
+        c.title = "C";
+        db.insertOrUpdate(c, Collections.<Attribute>emptyList());
+        Category c1 = new Category();
+        c1.title = "C1";
+        c1.parent = c;
+        db.insertOrUpdate(c1, Collections.<Attribute>emptyList());
+        //then
+        assertClosureIsConsistent();
+        assertEquals(c.id, db.getCategory(c1.id).parent.id);
+        //when B is deleted with its subtree
+        db.deleteCategory(categories.get("B").id);
+        //then
+        assertClosureIsConsistent();
+        assertEquals(0, count("SELECT COUNT(*) FROM category_closure WHERE descendant_id=" + categories.get("AA1").id));
+    }
+
+    public void test_should_rebuild_closure_from_nested_set() {
+        //given
+        CategoryBuilder.createDefaultHierarchy(db);
+        db.db().execSQL("DELETE FROM category_closure");
+        db.db().execSQL("UPDATE category SET parent_id=0");
+        //when
+        db.categoryClosure().rebuild();
+        //then
+        assertClosureIsConsistent();
+    }
+
+    public void test_should_benchmark_large_category_tree() {
+        CategoryTree<Category> tree = new CategoryTree<Category>();
+        long id = 0;
+        for (int i = 0; i < 20; i++) {
+            Category root = category(++id);
+            for (int j = 0; j < 10; j++) {
+                Category child = category(++id);
+                for (int k = 0; k < 9; k++) {
+                    child.addChild(category(++id));
+                }
+                root.addChild(child);
+            }
+            tree.add(root);
+        }
+        tree.reIndex();
+        long t0 = System.currentTimeMillis();
+        db.insertCategoryTreeInTransaction(tree);
+        long t1 = System.currentTimeMillis();
+        Log.d("CategoryClosureTest", "Time to insert " + id + " categories: " + (t1 - t0) + "ms");
+        assertEquals(id, count("SELECT COUNT(*) FROM v_category_list"));
+        long t2 = System.currentTimeMillis();
+        Log.d("CategoryClosureTest", "Time to read v_category_list: " + (t2 - t1) + "ms");
+        assertEquals(id, db.getCategoriesList(false).size());
+        long t3 = System.currentTimeMillis();
+        Log.d("CategoryClosureTest", "Time to read v_category: " + (t3 - t2) + "ms");
+        for (long i = 1; i <= id; i++) {
+            assertNotNull(db.getCategory(i));
+        }
+        long t4 = System.currentTimeMillis();
+        Log.d("CategoryClosureTest", "Time to get every category: " + (t4 - t3) + "ms");
+        assertClosureIsConsistent();
+    }
+
+    private Category category(long id) {
+        Category c = new Category();
+        c.id = id;
+        c.title = "C" + id;
+        return c;
+    }
+
+    private void assertClosureIsConsistent() {
+        assertEquals(0, count("SELECT COUNT(*) FROM (" + NESTED_SET_PAIRS + " EXCEPT " + CLOSURE_PAIRS + ")"));
+        assertEquals(0, count("SELECT COUNT(*) FROM (" + CLOSURE_PAIRS + " EXCEPT " + NESTED_SET_PAIRS + ")"));
+        assertEquals(0, count(WRONG_PARENTS));
+        assertEquals(0, count(WRONG_DEPTHS));
+    }
+
+    private long count(String sql) {
+        Cursor c = db.db().rawQuery(sql, null);
+        try {
+            assertTrue(c.moveToFirst());
+            return c.getLong(0);
+        } finally {
+            c.close();
+        }
+    }
+
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import ru.orangesoftware.financisto.model.Attribute;
+import ru.orangesoftware.financisto.model.Category;
+import ru.orangesoftware.financisto.model.CategoryTree;
+import ru.orangesoftware.financisto.test.CategoryBuilder;
+
+import java.util.Collections;
+import java.util.Map;
+
+public class CategorySnapshotTest extends AbstractDbTest {
+
+    Map<String, Category> categories;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        categories = CategoryBuilder.createDefaultHierarchy(db);
+    }
+
+    public void test_should_precalculate_paths_and_depths() {
+        CategorySnapshot s = db.getCategorySnapshot();
+        int aa1 = s.indexOf(id("AA1"));
+        assertEquals("A:A1:AA1", s.getPath(aa1));
+        assertEquals(2, s.getDepth(aa1));
+        assertEquals(id("A1"), s.getId(s.getParentIndex(aa1)));
+        assertEquals("A:A1", s.getParentPath(id("AA1")));
+        assertEquals("", s.getParentPath(id("B")));
+        assertEquals(-1, s.getParentIndex(s.indexOf(id("A"))));
+        assertEquals(-1, s.indexOf(1000));
+    }
+
+    public void test_should_check_ancestors() {
+        CategorySnapshot s = db.getCategorySnapshot();
+        assertTrue(s.isUnder(id("AA1"), id("A")));
+        assertTrue(s.isUnder(id("AA1"), id("A1")));
+        assertTrue(s.isUnder(id("A"), id("A")));
+        assertFalse(s.isUnder(id("A2"), id("A1")));
+        assertFalse(s.isUnder(id("A"), id("AA1")));
+        assertFalse(s.isUnder(id("B"), Category.NO_CATEGORY_ID));
+    }
+
+    public void test_should_share_snapshot_until_categories_change() {
+        CategorySnapshot s1 = db.getCategorySnapshot();
+        assertSame(s1, db.getCategorySnapshot());
+        assertSame(s1, new DatabaseAdapter(getContext(), dbHelper).getCategorySnapshot());
+        //when
+        Category a1 = db.getCategory(id("A1"));
+        a1.parent = categories.get("B");
+        db.insertOrUpdate(a1, Collections.<Attribute>emptyList());
+        //then
+        CategorySnapshot s2 = db.getCategorySnapshot();
+        assertNotSame(s1, s2);
+        assertEquals("B:A1:AA1", s2.getPath(id("AA1")));
+        assertTrue(s2.isUnder(id("AA1"), id("B")));
+        //when
+        db.deleteCategory(id("B"));
+        //then
+        CategorySnapshot s3 = db.getCategorySnapshot();
+        assertNotSame(s2, s3);
+        assertEquals(-1, s3.indexOf(id("AA1")));
+    }
+
+    public void test_should_build_the_same_tree_as_the_cursor() {
+        CategoryTree<Category> tree = db.getCategoriesTree(false);
+        assertEquals(2, tree.size());
+        Category a = tree.getAt(0);
+        assertEquals("A", a.title);
+        assertEquals(1, a.level);
+        assertEquals(2, a.children.size());
+        Category a1 = a.children.getAt(0);
+        assertEquals("A1", a1.title);
+        assertSame(a, a1.parent);
+        assertEquals("AA1", a1.children.getAt(0).title);
+        assertEquals(3, a1.children.getAt(0).level);
+        assertEquals("B", tree.getAt(1).title);
+        assertTrue(tree.getAt(1).isIncome());
+        //every call gets its own copy
+        assertNotSame(a, db.getCategoriesTree(false).getAt(0));
+        assertEquals(6, db.getCategoriesList(true).size());
+        assertNotNull(db.getAllCategoriesMap().get(Category.SPLIT_CATEGORY_ID));
+    }
+
+    private long id(String title) {
+        return categories.get(title).id;
+    }
+
+}
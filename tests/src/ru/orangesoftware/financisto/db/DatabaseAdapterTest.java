@@ -43,6 +43,39 @@ public class DatabaseAdapterTest extends AbstractDbTest {
         assertEquals(2, splits.size());
     }
 
+    public void test_should_restore_missed_schedules_in_bulk_with_correct_balances() {
+        //given
+        a2 = AccountBuilder.createDefault(db);
+        Transaction t1 = TransactionBuilder.withDb(db).account(a1).amount(1000).dateTime(DateTime.date(2011, 8, 1).atNoon()).create();
+        Transaction t2 = TransactionBuilder.withDb(db).account(a1).amount(-200).dateTime(DateTime.date(2011, 8, 20).atNoon()).create();
+        Transaction schedule = TransactionBuilder.withDb(db).account(a1).amount(-50)
+                .scheduleRecur("2011-08-10T10:00:00~DAILY:interval@1#~INDEFINETELY:null").create();
+        Transaction transfer = TransferBuilder.withDb(db).fromAccount(a1).fromAmount(-100).toAccount(a2).toAmount(100)
+                .scheduleRecur("2011-08-10T11:00:00~WEEKLY:days@WED#interval@1#~INDEFINETELY:null").create();
+        List<RestoredTransaction> transactionsToRestore = new ArrayList<RestoredTransaction>();
+        for (int i = 10; i < 13; i++) {
+            transactionsToRestore.add(new RestoredTransaction(schedule.id, DateTime.date(2011, 8, i).at(10, 0, 0, 0).asDate()));
+        }
+        transactionsToRestore.add(new RestoredTransaction(transfer.id, DateTime.date(2011, 8, 10).at(11, 0, 0, 0).asDate()));
+        //when
+        long[] restoredIds = db.storeMissedSchedules(transactionsToRestore, DateTime.date(2011, 8, 13).atMidnight().asLong());
+        //then
+        assertEquals(4, restoredIds.length);
+        assertAccountTotal(a1, 1000 - 200 - 3*50 - 100);
+        assertAccountTotal(a2, 100);
+        assertAccountBalanceForTransaction(t1, a1, 1000);
+        assertAccountBalanceForTransaction(db.getTransaction(restoredIds[0]), a1, 950);
+        assertAccountBalanceForTransaction(db.getTransaction(restoredIds[3]), a1, 850);
+        assertAccountBalanceForTransaction(db.getTransaction(restoredIds[2]), a1, 750);
+        assertAccountBalanceForTransaction(t2, a1, 550);
+        assertFinalBalanceForAccount(a1, 550);
+        assertFinalBalanceForAccount(a2, 100);
+        assertLastTransactionDate(a1, DateTime.date(2011, 8, 20).atNoon());
+        Transaction restored = db.getTransaction(restoredIds[1]);
+        assertEquals(TransactionStatus.RS, restored.status);
+        assertEquals(0, restored.isTemplate);
+    }
+
     public void test_should_remember_last_used_transaction_for_the_payee() {
         //when
         TransactionBuilder.withDb(db).account(a1).amount(1000).payee("Payee1").category(categoriesMap.get("A1")).create();
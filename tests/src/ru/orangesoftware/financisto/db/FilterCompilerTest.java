@@ -0,0 +1,176 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import ru.orangesoftware.financisto.blotter.BlotterFilter;
+import ru.orangesoftware.financisto.filter.Criteria;
+import ru.orangesoftware.financisto.filter.DateTimeCriteria;
+import ru.orangesoftware.financisto.filter.WhereFilter;
+import ru.orangesoftware.financisto.model.Account;
+import ru.orangesoftware.financisto.model.Category;
+import ru.orangesoftware.financisto.model.Currency;
+import ru.orangesoftware.financisto.model.TransactionStatus;
+import ru.orangesoftware.financisto.test.AccountBuilder;
+import ru.orangesoftware.financisto.test.CategoryBuilder;
+import ru.orangesoftware.financisto.test.CurrencyBuilder;
+import ru.orangesoftware.financisto.test.DateTime;
+import ru.orangesoftware.financisto.test.TransactionBuilder;
+import ru.orangesoftware.financisto.test.TransferBuilder;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class FilterCompilerTest extends AbstractDbTest {
+
+    private static final String TAG = "FilterCompilerTest";
+
+    Account a1;
+    Account a2;
+    Map<String, Category> categories;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        Currency c = CurrencyBuilder.withDb(db).title("Euro").name("EUR").symbol("€").create();
+        a1 = AccountBuilder.createDefault(db);
+        a2 = AccountBuilder.createDefault(db, c);
+        categories = CategoryBuilder.createDefaultHierarchy(db);
+    }
+
+    public void test_should_compile_account_currency_and_category_range_into_sub_selects() {
+        FilterCompiler.Compiled compiled = FilterCompiler.compile(WhereFilter.empty()
+                .eq(BlotterFilter.FROM_ACCOUNT_CURRENCY_ID, "1")
+                .btw(BlotterFilter.CATEGORY_LEFT, "2", "5"));
+        assertEquals("from_account_id IN (SELECT _id FROM account WHERE currency_id =?) AND "
+                + "category_id IN (SELECT _id FROM category WHERE left BETWEEN ? AND ?)", compiled.selection);
+        assertEquals(3, compiled.selectionArgs.length);
+        assertEquals(FilterCompiler.Index.FROM_ACCOUNT, compiled.index);
+    }
+
+    public void test_should_pick_index_by_the_criteria() {
+        for (Map.Entry<String, WhereFilter> e : savedFilters().entrySet()) {
+            Log.d(TAG, e.getKey() + ": " + FilterCompiler.compile(e.getValue()).index);
+        }
+        assertEquals(FilterCompiler.Index.BLOTTER, FilterCompiler.compile(WhereFilter.empty()).index);
+        assertEquals(FilterCompiler.Index.PAYEE, FilterCompiler.compile(WhereFilter.empty()
+                .eq(BlotterFilter.PAYEE_ID, "1").gte(BlotterFilter.DATETIME, "0")).index);
+        assertEquals(FilterCompiler.Index.FROM_ACCOUNT, FilterCompiler.compile(WhereFilter.empty()
+                .eq(BlotterFilter.PAYEE_ID, "1").eq(BlotterFilter.FROM_ACCOUNT_ID, "1")).index);
+        assertEquals(FilterCompiler.Index.BLOTTER, FilterCompiler.compile(WhereFilter.empty()
+                .neq(BlotterFilter.PAYEE_ID, "1")).index);
+        assertNull(FilterCompiler.compile(WhereFilter.empty()
+                .eq(Criteria.raw(BlotterFilter.PARENT_ID + "=0 OR " + BlotterFilter.STATUS + "='RC'"))).index);
+    }
+
+    public void test_should_count_and_read_the_same_rows_as_the_view_for_every_saved_filter() {
+        DateTime date = DateTime.date(2014, 3, 1).atNoon();
+        for (int i = 0; i < 10; i++) {
+            DateTime dt = DateTime.fromTimestamp(date.asLong() + i * 24 * 60 * 60 * 1000L);
+            TransactionBuilder.withDb(db).account(i % 2 == 0 ? a1 : a2).amount(-10 - i).dateTime(dt)
+                    .category(categories.get(i % 3 == 0 ? "AA1" : "B")).payee("Payee " + (i % 2))
+                    .withStatus(i % 4 == 0 ? TransactionStatus.RC : TransactionStatus.UR).create();
+            TransferBuilder.withDb(db).fromAccount(a1).fromAmount(-i).toAccount(a2).toAmount(i).dateTime(dt).create();
+        }
+        TransactionBuilder.withDb(db).account(a1).amount(-100).dateTime(date).payee("Payee 0")
+                .withSplit(categories.get("A1"), -60).withSplit(categories.get("A2"), -40).create();
+        TransactionBuilder.withDb(db).account(a1).amount(-5).category(categories.get("A1")).makeTemplate().create();
+        for (Map.Entry<String, WhereFilter> e : savedFilters().entrySet()) {
+            WhereFilter filter = e.getValue();
+            assertTrue(e.getKey(), BlotterDimensions.canFilter(filter));
+            Cursor expected = db.getBlotter(filter);
+            Cursor actual = db.getPagedBlotter(filter);
+            try {
+                assertEquals(e.getKey(), expected.getCount(), actual.getCount());
+                while (expected.moveToNext()) {
+                    assertTrue(actual.moveToNext());
+                    assertEquals(e.getKey(), expected.getLong(0), actual.getLong(0));
+                }
+            } finally {
+                expected.close();
+                actual.close();
+            }
+        }
+    }
+
+    public void test_should_benchmark_every_saved_filter() {
+        int count = 100000;
+        SQLiteDatabase sqlDb = db.db();
+        sqlDb.beginTransaction();
+        try {
+            long[] categoryIds = new long[categories.size()];
+            int k = 0;
+            for (Category c : categories.values()) {
+                categoryIds[k++] = c.id;
+            }
+            SQLiteStatement insert = sqlDb.compileStatement("insert into transactions" +
+                    "(from_account_id,from_amount,datetime,category_id,payee_id,project_id,status) values (?,?,?,?,?,?,?)");
+            long datetime = DateTime.date(2014, 3, 1).atNoon().asLong();
+            for (int i = 0; i < count; i++) {
+                insert.bindLong(1, i % 7 == 0 ? a2.id : a1.id);
+                insert.bindLong(2, -100 - i % 1000);
+                insert.bindLong(3, datetime - i * 600000L);
+                insert.bindLong(4, categoryIds[i % categoryIds.length]);
+                insert.bindLong(5, i % 500);
+                insert.bindLong(6, i % 20);
+                insert.bindString(7, i % 5 == 0 ? "RC" : "UR");
+                insert.executeInsert();
+            }
+            insert.close();
+            sqlDb.setTransactionSuccessful();
+        } finally {
+            sqlDb.endTransaction();
+        }
+        for (Map.Entry<String, WhereFilter> e : savedFilters().entrySet()) {
+            WhereFilter filter = e.getValue();
+            long t0 = System.currentTimeMillis();
+            Cursor c = sqlDb.query(DatabaseHelper.V_BLOTTER_LIST, new String[]{"count(*)"},
+                    filter.getSelection(), filter.getSelectionArgs(), null, null, null);
+            c.moveToFirst();
+            int viewCount = c.getInt(0);
+            c.close();
+            long t1 = System.currentTimeMillis();
+            c = db.getPagedBlotter(filter);
+            c.moveToFirst();
+            int pagedCount = c.getCount();
+            c.close();
+            long t2 = System.currentTimeMillis();
+            assertEquals(e.getKey(), viewCount, pagedCount);
+            Log.d(TAG, e.getKey() + ": " + viewCount + " rows, view count " + (t1 - t0) + "ms, "
+                    + "compiled count and first page " + (t2 - t1) + "ms");
+        }
+    }
+
+    private Map<String, WhereFilter> savedFilters() {
+        long start = DateTime.date(2014, 1, 1).atMidnight().asLong();
+        long end = DateTime.date(2014, 3, 31).atDayEnd().asLong();
+        Category a = categories.get("A");
+        Map<String, WhereFilter> filters = new LinkedHashMap<String, WhereFilter>();
+        filters.put("all", WhereFilter.empty());
+        filters.put("date", WhereFilter.empty().eq(new DateTimeCriteria(start, end)));
+        filters.put("account+date+status", WhereFilter.empty()
+                .eq(BlotterFilter.FROM_ACCOUNT_ID, String.valueOf(a1.id))
+                .eq(new DateTimeCriteria(start, end))
+                .eq(BlotterFilter.STATUS, TransactionStatus.RC.name()));
+        filters.put("category+date", WhereFilter.empty()
+                .btw(BlotterFilter.CATEGORY_LEFT, String.valueOf(a.left), String.valueOf(a.right))
+                .eq(new DateTimeCriteria(start, end)));
+        filters.put("payee+date", WhereFilter.empty()
+                .eq(BlotterFilter.PAYEE_ID, String.valueOf(db.insertPayee("Payee 0")))
+                .eq(new DateTimeCriteria(start, end)));
+        filters.put("project", WhereFilter.empty().eq(BlotterFilter.PROJECT_ID, "0"));
+        filters.put("currency", WhereFilter.empty()
+                .eq(BlotterFilter.FROM_ACCOUNT_CURRENCY_ID, String.valueOf(a2.currency.id)));
+        return filters;
+    }
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import ru.orangesoftware.financisto.filter.WhereFilter;
+import ru.orangesoftware.financisto.model.Account;
+import ru.orangesoftware.financisto.test.AccountBuilder;
+
+public class PagedBlotterCursorBenchmark extends AbstractDbTest {
+
+    private static final String TAG = "PagedBlotterCursorBenchmark";
+
+    private static final int COUNT = 500000;
+    private static final int SCROLL = 20000;
+    private static final long FRAME = 16;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        Account a = AccountBuilder.createDefault(db);
+        long t0 = System.currentTimeMillis();
+        SQLiteDatabase sqlDb = db.db();
+        sqlDb.beginTransaction();
+        try {
+            SQLiteStatement insert = sqlDb.compileStatement("insert into transactions(from_account_id,from_amount,datetime,note) values (?,?,?,?)");
+            long datetime = System.currentTimeMillis();
+            for (int i = 0; i < COUNT; i++) {
+                insert.bindLong(1, a.id);
+                insert.bindLong(2, -100 - i % 1000);
+                insert.bindLong(3, datetime - i * 60000L);
+                insert.bindString(4, "Note " + i);
+                insert.executeInsert();
+            }
+            insert.close();
+            sqlDb.setTransactionSuccessful();
+        } finally {
+            sqlDb.endTransaction();
+        }
+        Log.d(TAG, "Time to create " + COUNT + " transactions: " + (System.currentTimeMillis() - t0) + "ms");
+    }
+
+    public void test_should_benchmark_time_to_first_row_and_scrolling() {
+        benchmark("blotter", db.getBlotter(WhereFilter.empty()));
+        benchmark("paged blotter", db.getPagedBlotter(WhereFilter.empty()));
+    }
+
+    public void test_should_benchmark_full_and_slim_blotter_rows() {
+        scan("v_blotter", db.db().query(DatabaseHelper.V_BLOTTER, DatabaseHelper.BlotterColumns.NORMAL_PROJECTION,
+                null, null, null, null, null, String.valueOf(SCROLL)));
+        scan("v_blotter_list", db.db().query(DatabaseHelper.V_BLOTTER_LIST, DatabaseHelper.BlotterListColumns.NORMAL_PROJECTION,
+                null, null, null, null, null, String.valueOf(SCROLL)));
+    }
+
+    private void scan(String name, Cursor c) {
+        try {
+            long t0 = System.currentTimeMillis();
+            long bytes = 0;
+            int columns = c.getColumnCount();
+            while (c.moveToNext()) {
+                for (int i = 0; i < columns; i++) {
+                    String value = c.getString(i);
+                    if (value != null) {
+                        bytes += value.length();
+                    }
+                }
+            }
+            Log.d(TAG, name + ": scanned " + c.getCount() + " rows in " + (System.currentTimeMillis() - t0) + "ms, "
+                    + columns + " columns, " + (bytes / Math.max(1, c.getCount())) + " chars per row");
+        } finally {
+            c.close();
+        }
+    }
+
+    private void benchmark(String name, Cursor c) {
+        try {
+            long t0 = System.currentTimeMillis();
+            assertTrue(c.moveToFirst());
+            long t1 = System.currentTimeMillis();
+            Log.d(TAG, name + ": time to first row " + (t1 - t0) + "ms of " + c.getCount() + " rows");
+            long max = 0;
+            int janks = 0;
+            for (int i = 1; i < SCROLL; i++) {
+                long s = System.currentTimeMillis();
+                assertTrue(c.moveToPosition(i));
+                c.getString(DatabaseHelper.BlotterColumns.note.ordinal());
+                long d = System.currentTimeMillis() - s;
+                if (d > max) {
+                    max = d;
+                }
+                if (d > FRAME) {
+                    janks++;
+                }
+            }
+            long t2 = System.currentTimeMillis();
+            Log.d(TAG, name + ": scrolled " + SCROLL + " rows in " + (t2 - t1) + "ms, longest move " + max + "ms, " + janks + " moves longer than a frame");
+        } finally {
+            c.close();
+        }
+    }
+
+}
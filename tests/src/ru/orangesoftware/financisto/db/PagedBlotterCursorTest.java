@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import android.database.Cursor;
+import ru.orangesoftware.financisto.blotter.BlotterFilter;
+import ru.orangesoftware.financisto.db.DatabaseHelper.BlotterColumns;
+import ru.orangesoftware.financisto.filter.Criteria;
+import ru.orangesoftware.financisto.filter.WhereFilter;
+import ru.orangesoftware.financisto.model.Account;
+import ru.orangesoftware.financisto.model.Category;
+import ru.orangesoftware.financisto.test.AccountBuilder;
+import ru.orangesoftware.financisto.test.CategoryBuilder;
+import ru.orangesoftware.financisto.test.DateTime;
+import ru.orangesoftware.financisto.test.TransactionBuilder;
+import ru.orangesoftware.financisto.test.TransferBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+public class PagedBlotterCursorTest extends AbstractDbTest {
+
+    private static final int COUNT = 2 * PagedBlotterCursor.PAGE_SIZE + 50;
+
+    Account a1;
+    Account a2;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        a1 = AccountBuilder.createDefault(db);
+        a2 = AccountBuilder.createDefault(db);
+        DateTime dt = DateTime.date(2014, 1, 1).atNoon();
+        for (int i = 0; i < COUNT; i++) {
+            // every three transactions share the datetime, so the pages have to be split by _id too
+            DateTime date = DateTime.fromTimestamp(dt.asLong() + (i / 3) * 60000L);
+            TransactionBuilder.withDb(db).account(i % 5 == 0 ? a2 : a1).amount(100 + i).dateTime(date).create();
+        }
+    }
+
+    public void test_should_return_the_same_rows_in_the_same_order_as_blotter() {
+        assertSameRows(db.getBlotter(WhereFilter.empty()), db.getPagedBlotter(WhereFilter.empty()));
+        assertSameRows(db.getBlotter(WhereFilter.empty().asc(BlotterFilter.DATETIME)), db.getPagedBlotter(WhereFilter.empty().asc(BlotterFilter.DATETIME)));
+        assertSameRows(db.getBlotter(WhereFilter.empty().desc(BlotterFilter.DATETIME)), db.getPagedBlotter(WhereFilter.empty().desc(BlotterFilter.DATETIME)));
+    }
+
+    public void test_should_keep_filter_and_running_balance_for_account() {
+        WhereFilter filter = WhereFilter.empty();
+        filter.put(Criteria.eq(BlotterFilter.FROM_ACCOUNT_ID, String.valueOf(a1.id)));
+        Cursor expected = db.getBlotterForAccount(filter);
+        Cursor actual = db.getPagedBlotterForAccount(filter);
+        assertTrue(actual.getCount() > PagedBlotterCursor.PAGE_SIZE);
+        assertSameRows(expected, actual);
+    }
+
+    public void test_should_read_pages_in_any_order() {
+        List<String> expected = readAll(db.getBlotter(WhereFilter.empty()));
+        Cursor c = db.getPagedBlotter(WhereFilter.empty());
+        try {
+            // a jump over an unread page, then backwards
+            int[] positions = {COUNT - 1, PagedBlotterCursor.PAGE_SIZE + 1, 0, COUNT - 2, PagedBlotterCursor.PAGE_SIZE - 1};
+            for (int position : positions) {
+                assertTrue(c.moveToPosition(position));
+                assertEquals("Pos " + position, expected.get(position), rowOf(c));
+            }
+        } finally {
+            c.close();
+        }
+    }
+
+    public void test_should_see_new_rows_after_requery() {
+        Cursor c = db.getPagedBlotter(WhereFilter.empty());
+        try {
+            assertEquals(COUNT, c.getCount());
+            assertTrue(c.moveToFirst());
+            TransactionBuilder.withDb(db).account(a1).amount(1).dateTime(DateTime.date(2014, 2, 1)).create();
+            assertTrue(c.requery());
+            assertEquals(COUNT + 1, c.getCount());
+            assertTrue(c.moveToFirst());
+            assertEquals(1, c.getLong(BlotterColumns.from_amount.ordinal()));
+        } finally {
+            c.close();
+        }
+    }
+
+    public void test_should_know_the_count_from_the_first_page_when_counting_in_background() {
+        WhereFilter filter = WhereFilter.empty();
+        filter.put(Criteria.eq(BlotterFilter.FROM_ACCOUNT_ID, String.valueOf(a2.id)));
+        Cursor expected = db.getBlotterForAccount(filter);
+        PagedBlotterCursor actual = db.getPagedBlotterForAccount(filter);
+        actual.countInBackground();
+        assertTrue(expected.getCount() < PagedBlotterCursor.PAGE_SIZE);
+        assertEquals(expected.getCount(), actual.getCount());
+        assertSameRows(expected, actual);
+    }
+
+    public void test_should_read_titles_from_dimensions_the_same_as_joined_in_the_view() {
+        Map<String, Category> categories = CategoryBuilder.createDefaultHierarchy(db);
+        DateTime date = DateTime.date(2014, 3, 1).atNoon();
+        TransactionBuilder.withDb(db).account(a1).amount(-10).dateTime(date).category(categories.get("AA1"))
+                .payee("Payee").project("Project").location("Location").note("Note").create();
+        TransactionBuilder.withDb(db).account(a2).amount(20).dateTime(date).category(categories.get("B")).create();
+        TransferBuilder.withDb(db).fromAccount(a1).fromAmount(-30).toAccount(a2).toAmount(30).dateTime(date).create();
+        WhereFilter filter = WhereFilter.empty();
+        filter.put(Criteria.gte(BlotterFilter.DATETIME, String.valueOf(date.asLong())));
+        assertTrue(BlotterDimensions.canFilter(filter));
+        Cursor expected = db.getBlotter(filter);
+        Cursor actual = db.getPagedBlotter(filter);
+        try {
+            assertEquals(3, actual.getCount());
+            assertEquals(expected.getColumnCount(), actual.getColumnCount());
+            while (expected.moveToNext()) {
+                assertTrue(actual.moveToNext());
+                for (int i = 0; i < expected.getColumnCount(); i++) {
+                    assertEquals(expected.getColumnName(i), expected.getString(i), actual.getString(i));
+                }
+            }
+        } finally {
+            expected.close();
+            actual.close();
+        }
+    }
+
+    public void test_should_use_full_view_when_filter_needs_titles() {
+        WhereFilter filter = WhereFilter.empty();
+        filter.put(Criteria.eq(BlotterColumns.from_account_title.name(), a1.title));
+        assertFalse(BlotterDimensions.canFilter(filter));
+        assertSameRows(db.getBlotter(filter), db.getPagedBlotter(filter));
+    }
+
+    private void assertSameRows(Cursor expected, Cursor actual) {
+        List<String> expectedRows = readAll(expected);
+        List<String> actualRows = readAll(actual);
+        assertEquals(expectedRows.size(), actualRows.size());
+        for (int i = 0; i < expectedRows.size(); i++) {
+            assertEquals("Pos " + i, expectedRows.get(i), actualRows.get(i));
+        }
+    }
+
+    private List<String> readAll(Cursor c) {
+        try {
+            List<String> rows = new ArrayList<String>();
+            while (c.moveToNext()) {
+                rows.add(rowOf(c));
+            }
+            return rows;
+        } finally {
+            c.close();
+        }
+    }
+
+    private String rowOf(Cursor c) {
+        return c.getLong(BlotterColumns._id.ordinal()) + ":"
+                + c.getLong(BlotterColumns.datetime.ordinal()) + ":"
+                + c.getLong(BlotterColumns.from_amount.ordinal()) + ":"
+                + c.getLong(BlotterColumns.from_account_balance.ordinal()) + ":"
+                + c.getString(BlotterColumns.from_account_title.ordinal());
+    }
+
+}
@@ -252,6 +252,40 @@ public class PlannerTest extends AbstractDbTest {
         );
     }
 
+    public void test_should_stream_planned_transactions_in_date_order() {
+        prepareData();
+        WhereFilter filter = WhereFilter.empty();
+        filter.put(new DateTimeCriteria(date(2011, 8, 5).atMidnight().asLong(), date(2011, 8, 15).atDayEnd().asLong()));
+        FuturePlanner planner = new FuturePlanner(db, filter, date(2011, 8, 5).atMidnight().asDate());
+        PlannedTransactionIterator i = planner.getPlannedTransactionsIterator();
+        try {
+            int count = 0;
+            long last = 0;
+            while (i.hasNext()) {
+                TransactionInfo t = i.next();
+                assertTrue(t.dateTime >= last);
+                assertEquals(0, t.isTemplate);
+                last = t.dateTime;
+                count++;
+            }
+            assertEquals(24, count);
+        } finally {
+            i.close();
+        }
+    }
+
+    public void test_should_keep_transactions_on_the_same_date_newest_first_in_future_preview() {
+        TransactionBuilder.withDb(db).dateTime(date(2011, 8, 9).atNoon()).account(a1).amount(-10).note("first").create();
+        TransactionBuilder.withDb(db).dateTime(date(2011, 8, 9).atNoon()).account(a1).amount(-20).note("second").create();
+        TransactionBuilder.withDb(db).dateTime(date(2011, 8, 10).atNoon()).account(a1).amount(-30).note("third").create();
+        TransactionList transactions = planTransactions(date(2011, 8, 1), date(2011, 8, 16));
+        assertTransactions2(transactions.transactions,
+                0, date(2011, 8, 9), -20, "second",
+                1, date(2011, 8, 9), -10, "first",
+                2, date(2011, 8, 10), -30, "third"
+        );
+    }
+
     private TransactionList planTransactions(DateTime start, DateTime end) {
         now = start.atMidnight().asDate();
         to = end.atDayEnd().asDate();
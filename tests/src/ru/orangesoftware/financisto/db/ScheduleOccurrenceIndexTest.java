@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import android.util.Log;
+import ru.orangesoftware.financisto.model.Account;
+import ru.orangesoftware.financisto.model.Currency;
+import ru.orangesoftware.financisto.model.Transaction;
+import ru.orangesoftware.financisto.model.TransactionInfo;
+import ru.orangesoftware.financisto.recur.Recurrence;
+import ru.orangesoftware.financisto.test.AccountBuilder;
+import ru.orangesoftware.financisto.test.CurrencyBuilder;
+import ru.orangesoftware.financisto.test.TransactionBuilder;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+import static ru.orangesoftware.financisto.test.DateTime.date;
+
+public class ScheduleOccurrenceIndexTest extends AbstractDbTest {
+
+    Account a1;
+    ScheduleOccurrenceIndex index;
+
+    long from = date(2011, 8, 8).at(23, 20, 0, 0).asLong();
+    long to = date(2011, 8, 16).atDayEnd().asLong();
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        Currency c1 = CurrencyBuilder.withDb(db).name("USD").title("Dollar").symbol("$").create();
+        a1 = AccountBuilder.createDefault(db, c1);
+        index = db.scheduleOccurrenceIndex();
+    }
+
+    public void test_should_return_occurrences_in_the_requested_period() {
+        Transaction t1 = TransactionBuilder.withDb(db).scheduleRecur("2011-08-02T21:40:00~DAILY:interval@2#~INDEFINETELY:null")
+                .account(a1).amount(-50).create();
+        Transaction t2 = TransactionBuilder.withDb(db).scheduleRecur("2011-08-02T23:00:00~WEEKLY:days@TUE#interval@1#~INDEFINETELY:null")
+                .account(a1).amount(40).create();
+        TransactionBuilder.withDb(db).scheduleOnce(date(2011, 8, 10)).account(a1).amount(-10).create();
+
+        Map<Long, List<Date>> occurrences = index.getOccurrences(from, to);
+
+        assertEquals(2, occurrences.size());
+        assertDates(occurrences.get(t1.id), date(2011, 8, 10).at(21, 40, 0, 0).asLong(),
+                date(2011, 8, 12).at(21, 40, 0, 0).asLong(), date(2011, 8, 14).at(21, 40, 0, 0).asLong(),
+                date(2011, 8, 16).at(21, 40, 0, 0).asLong());
+        assertDates(occurrences.get(t2.id), date(2011, 8, 9).at(23, 0, 0, 0).asLong(),
+                date(2011, 8, 16).at(23, 0, 0, 0).asLong());
+    }
+
+    public void test_should_rebuild_occurrences_when_template_is_changed() {
+        Transaction t = TransactionBuilder.withDb(db).scheduleRecur("2011-08-02T21:40:00~DAILY:interval@2#~INDEFINETELY:null")
+                .account(a1).amount(-50).create();
+        assertEquals(4, index.getOccurrences(from, to).get(t.id).size());
+
+        t.recurrence = "2011-08-02T21:40:00~DAILY:interval@1#~INDEFINETELY:null";
+        db.insertOrUpdate(t);
+        assertEquals(8, index.getOccurrences(from, to).get(t.id).size());
+
+        // changed directly in the database, i.e. by sync
+        db.db().execSQL("update transactions set recurrence=? where _id=?",
+                new Object[]{"2011-08-02T21:40:00~WEEKLY:days@MON#interval@1#~INDEFINETELY:null", t.id});
+        assertDates(index.getOccurrences(from, to).get(t.id), date(2011, 8, 15).at(21, 40, 0, 0).asLong());
+
+        db.deleteTransaction(t.id);
+        assertTrue(index.getOccurrences(from, to).isEmpty());
+    }
+
+    public void test_should_return_next_occurrences() {
+        Transaction t1 = TransactionBuilder.withDb(db).scheduleRecur("2011-08-02T21:40:00~DAILY:interval@2#~INDEFINETELY:null")
+                .account(a1).amount(-50).create();
+        Transaction t2 = TransactionBuilder.withDb(db).scheduleRecur("2011-08-02T21:40:00~DAILY:interval@1#~EXACTLY_TIMES:count@3#")
+                .account(a1).amount(-50).create();
+
+        Map<Long, Date> next = index.getNextOccurrences(from);
+
+        assertEquals(date(2011, 8, 10).at(21, 40, 0, 0).asLong(), next.get(t1.id).getTime());
+        assertTrue(next.containsKey(t2.id));
+        assertNull(next.get(t2.id));
+    }
+
+    public void test_should_leave_out_templates_with_too_many_occurrences() {
+        Transaction t = TransactionBuilder.withDb(db).scheduleRecur("2011-08-02T21:40:00~DAILY:interval@1#~INDEFINETELY:null")
+                .account(a1).amount(-50).create();
+        long end = from + (ScheduleOccurrenceIndex.MAX_OCCURRENCES + 10) * 24L * 60 * 60 * 1000;
+
+        assertFalse(index.getOccurrences(from, end).containsKey(t.id));
+        assertTrue(index.getOccurrences(from, to).containsKey(t.id));
+    }
+
+    public void test_should_not_rebuild_templates_with_too_many_occurrences_on_every_query() {
+        Transaction t = TransactionBuilder.withDb(db).scheduleRecur("2011-08-02T21:40:00~DAILY:interval@1#~INDEFINETELY:null")
+                .account(a1).amount(-50).create();
+        long end = from + (ScheduleOccurrenceIndex.MAX_OCCURRENCES + 10) * 24L * 60 * 60 * 1000;
+        assertFalse(index.getIndexedTemplates(from, end).contains(t.id));
+        assertEquals(ScheduleOccurrenceIndex.MAX_OCCURRENCES, countOccurrences(t.id));
+
+        // a rebuild would bring the occurrences back
+        db.db().execSQL("delete from schedule_occurrence where transaction_id=?", new Object[]{t.id});
+        assertFalse(index.getIndexedTemplates(from, end).contains(t.id));
+        assertFalse(index.getIndexedTemplates(from + 1000, end).contains(t.id));
+        assertEquals(0, countOccurrences(t.id));
+    }
+
+    public void test_should_plan_many_schedules_from_the_index() {
+        String[] patterns = {
+                "2011-08-02T21:40:00~DAILY:interval@1#~INDEFINETELY:null",
+                "2011-08-02T23:00:00~WEEKLY:days@TUE#interval@1#~INDEFINETELY:null",
+                "2010-01-31T10:00:00~MONTHLY:count@1#interval@1#monthly_pattern_params_0@LAST-WEEKDAY#monthly_pattern_0@SPECIFIC_DAY#~INDEFINETELY:null"
+        };
+        for (int i = 0; i < 200; i++) {
+            TransactionBuilder.withDb(db).scheduleRecur(patterns[i % patterns.length]).account(a1).amount(-i).create();
+        }
+        long end = date(2012, 8, 8).atDayEnd().asLong();
+        index.getOccurrences(from, end);
+
+        long t0 = System.currentTimeMillis();
+        Map<Long, List<Date>> occurrences = index.getOccurrences(from, end);
+        Log.d("ScheduleOccurrenceIndexTest", "200 schedules for a year: " + (System.currentTimeMillis() - t0) + "ms");
+
+        assertEquals(200, occurrences.size());
+        for (TransactionInfo t : em.getAllScheduledTransactions()) {
+            List<Date> expected = Recurrence.parse(t.recurrence).generateDates(new Date(from), new Date(end));
+            assertEquals(expected, occurrences.get(t.id));
+        }
+    }
+
+    private long countOccurrences(long transactionId) {
+        return DatabaseUtils.rawFetchLongValue(db, "select count(*) from schedule_occurrence where transaction_id=?",
+                new String[]{String.valueOf(transactionId)});
+    }
+
+    private void assertDates(List<Date> dates, long... expected) {
+        assertEquals(expected.length, dates.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(new Date(expected[i]), dates.get(i));
+        }
+    }
+
+}
@@ -0,0 +1,333 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import ru.orangesoftware.financisto.db.DatabaseHelper.TransactionColumns;
+import ru.orangesoftware.financisto.filter.Criteria;
+import ru.orangesoftware.financisto.filter.NoteCriteria;
+import ru.orangesoftware.financisto.filter.WhereFilter;
+import ru.orangesoftware.financisto.model.Account;
+import ru.orangesoftware.financisto.model.Attribute;
+import ru.orangesoftware.financisto.model.Category;
+import ru.orangesoftware.financisto.model.MyLocation;
+import ru.orangesoftware.financisto.model.Payee;
+import ru.orangesoftware.financisto.model.Project;
+import ru.orangesoftware.financisto.model.Transaction;
+import ru.orangesoftware.financisto.test.AccountBuilder;
+import ru.orangesoftware.financisto.test.TransactionBuilder;
+import ru.orangesoftware.orb.EntityManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+public class SearchIndexTest extends AbstractDbTest {
+
+    private static final String TAG = "SearchIndexTest";
+    // generous for emulators, a device is expected to stay within a frame
+    private static final long MAX_KEYSTROKE_MS = 250;
+
+    SearchIndex index;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        index = db.searchIndex();
+    }
+
+    public void test_should_rank_prefix_then_word_start_then_infix() {
+        em.insertPayee("Supermarket");
+        em.insertPayee("Market Street");
+        em.insertPayee("Big Market");
+        em.insertPayee("Shop");
+        assertEquals(Arrays.asList("Market Street", "Big Market", "Supermarket"), searchPayees("mar"));
+        assertEquals(Arrays.asList("Market Street", "Big Market", "Supermarket"), searchPayees("MARKET"));
+        assertEquals(Arrays.asList("Market Street", "Big Market", "Supermarket"), searchPayees("ma"));
+        assertEquals(Arrays.asList("Shop", "Supermarket", "Market Street"), searchPayees("s"));
+        assertEquals(Arrays.asList("Supermarket"), searchPayees("rk"));
+        assertTrue(searchPayees("xyz").isEmpty());
+    }
+
+    public void test_should_find_payee_after_rename_and_not_after_delete() {
+        Payee p = em.insertPayee("Coffee House");
+        assertEquals(Arrays.asList("Coffee House"), searchPayees("house"));
+        p.title = "Tea House";
+        em.saveOrUpdate(p);
+        assertEquals(Arrays.asList("Tea House"), searchPayees("house"));
+        assertTrue(searchPayees("coffee").isEmpty());
+        em.delete(Payee.class, p.id);
+        assertTrue(searchPayees("house").isEmpty());
+    }
+
+    public void test_should_rebuild_index_for_rows_written_behind_its_back() {
+        em.insertPayee("Indexed");
+        assertEquals(Arrays.asList("Indexed"), searchPayees("index"));
+        db.db().execSQL("insert into payee(title) values ('Written directly')");
+        assertTrue(searchPayees("direct").isEmpty());
+        index.rebuild();
+        assertEquals(Arrays.asList("Written directly"), searchPayees("direct"));
+    }
+
+    public void test_should_index_categories_projects_and_locations() {
+        insertCategory("Groceries");
+        Project p = new Project();
+        p.title = "Kitchen renovation";
+        em.saveOrUpdate(p);
+        MyLocation l = new MyLocation();
+        l.name = "Main street mall";
+        em.saveOrUpdate(l);
+        assertEquals(1, index.search(SearchIndex.Type.CATEGORY, "cer", 10).length);
+        assertEquals(p.id, index.search(SearchIndex.Type.PROJECT, "reno", 10)[0]);
+        assertEquals(l.id, index.search(SearchIndex.Type.LOCATION, "st", 10)[0]);
+        insertCategory("Groceries abroad");
+        assertEquals(2, index.search(SearchIndex.Type.CATEGORY, "cer", 10).length);
+    }
+
+    public void test_should_keep_notes_in_step_with_edits_and_deletes() {
+        Account a = AccountBuilder.createDefault(db);
+        Transaction t = TransactionBuilder.withDb(db).account(a).amount(-100).note("Lunch with Bob").create();
+        assertEquals(Arrays.asList(t.id), idsOf(index.search(SearchIndex.Type.NOTE, "bob", 10)));
+        t.note = "Dinner with Alice";
+        db.insertOrUpdate(t);
+        assertTrue(idsOf(index.search(SearchIndex.Type.NOTE, "bob", 10)).isEmpty());
+        assertEquals(Arrays.asList(t.id), idsOf(index.search(SearchIndex.Type.NOTE, "alice", 10)));
+        ContentValues values = new ContentValues();
+        values.put(TransactionColumns.note.name(), "Breakfast");
+        db.updateTransactionColumns(t.id, values);
+        assertTrue(idsOf(index.search(SearchIndex.Type.NOTE, "alice", 10)).isEmpty());
+        assertEquals(Arrays.asList(t.id), idsOf(index.search(SearchIndex.Type.NOTE, "fast", 10)));
+        assertEquals(1, countNoteTexts());
+        db.deleteTransaction(t.id);
+        assertTrue(idsOf(index.search(SearchIndex.Type.NOTE, "fast", 10)).isEmpty());
+        assertEquals(0, countNoteTexts());
+    }
+
+    public void test_should_filter_blotter_by_note() {
+        Account a = AccountBuilder.createDefault(db);
+        TransactionBuilder.withDb(db).account(a).amount(-100).note("Groceries, market").create();
+        TransactionBuilder.withDb(db).account(a).amount(-200).note("Taxi to the market").create();
+        TransactionBuilder.withDb(db).account(a).amount(-300).note("Rent").create();
+        assertBlotterCount(2, "market");
+        assertBlotterCount(1, "ta");
+        assertBlotterCount(0, "bus");
+        Criteria c = Criteria.fromStringExtra(new NoteCriteria("Groceries, market").toStringExtra());
+        assertTrue(c instanceof NoteCriteria);
+        assertEquals("Groceries, market", c.getStringValue());
+        WhereFilter filter = WhereFilter.empty();
+        filter.put(c);
+        assertNotNull(FilterCompiler.compile(filter).index);
+    }
+
+    private void insertCategory(String title) {
+        Category c = new Category();
+        c.title = title;
+        db.insertOrUpdate(c, new ArrayList<Attribute>());
+    }
+
+    private void assertBlotterCount(int expected, String note) {
+        WhereFilter filter = WhereFilter.empty();
+        filter.put(new NoteCriteria(note));
+        Cursor c = db.getBlotter(filter);
+        try {
+            assertEquals(note, expected, c.getCount());
+        } finally {
+            c.close();
+        }
+        c = db.getPagedBlotter(filter);
+        try {
+            assertEquals(note, expected, c.getCount());
+        } finally {
+            c.close();
+        }
+    }
+
+    public void test_should_keep_the_best_matches_among_many_candidates() {
+        SQLiteDatabase sqlDb = db.db();
+        for (int i = 0; i < 1000; i++) {
+            sqlDb.execSQL("insert into payee(title) values ('Supermarket " + i + "')");
+        }
+        sqlDb.execSQL("insert into payee(title) values ('zz Market')");
+        sqlDb.execSQL("insert into payee(title) values ('Market 100%')");
+        index.rebuild();
+        long[] ids = index.search(SearchIndex.Type.PAYEE, "market", 3);
+        assertEquals(Arrays.asList("Market 100%", "zz Market", "Supermarket 0"), titlesOf(ids));
+        assertEquals(1, index.search(SearchIndex.Type.PAYEE, "100%", 10).length);
+        assertEquals(0, index.search(SearchIndex.Type.PAYEE, "1_0", 10).length);
+    }
+
+    public void test_should_search_within_a_frame_with_many_payees() {
+        int payees = 20000;
+        List<String> titles = new ArrayList<String>(payees);
+        SQLiteDatabase sqlDb = db.db();
+        sqlDb.beginTransaction();
+        try {
+            SQLiteStatement insertPayee = sqlDb.compileStatement("insert into payee(title) values (?)");
+            for (int i = 0; i < payees; i++) {
+                String title = "Payee " + Integer.toString(i * 7919, 36) + " " + i;
+                insertPayee.bindString(1, title);
+                insertPayee.executeInsert();
+                titles.add(title);
+            }
+            insertPayee.close();
+            sqlDb.setTransactionSuccessful();
+        } finally {
+            sqlDb.endTransaction();
+        }
+        long t0 = System.currentTimeMillis();
+        index.rebuild();
+        Log.d(TAG, "Index built in " + (System.currentTimeMillis() - t0) + "ms");
+        String typed = "payee 1a";
+        long max = 0;
+        for (int i = 1; i <= typed.length(); i++) {
+            String constraint = typed.substring(0, i);
+            long s = System.currentTimeMillis();
+            long[] ids = index.search(SearchIndex.Type.PAYEE, constraint, 50);
+            max = Math.max(max, System.currentTimeMillis() - s);
+            assertEquals(constraint, expectedTitles(titles, SearchIndex.normalize(constraint), 50), titlesOf(ids));
+        }
+        Log.d(TAG, "Longest payee keystroke " + max + "ms");
+        assertTrue("Longest payee keystroke " + max + "ms", max < MAX_KEYSTROKE_MS);
+    }
+
+    public void test_should_search_within_a_frame_with_many_notes() {
+        String[] words = {"lunch", "taxi", "rent", "coffee", "groceries", "cinema", "books", "gift", "fuel", "pharmacy",
+                "dinner", "parking", "phone", "internet", "gym", "shoes", "flowers", "bakery", "train", "hotel"};
+        int notes = 500000;
+        List<String> texts = new ArrayList<String>(notes);
+        SQLiteDatabase sqlDb = db.db();
+        sqlDb.beginTransaction();
+        try {
+            SQLiteStatement insertNote = sqlDb.compileStatement("insert into transactions(from_account_id, datetime, note) values (1,?,?)");
+            for (int i = 0; i < notes; i++) {
+                String note = words[i % words.length] + " " + words[(i / words.length) % words.length]
+                        + " " + Integer.toString(i * 7919, 36);
+                insertNote.bindLong(1, i);
+                insertNote.bindString(2, note);
+                insertNote.executeInsert();
+                texts.add(note);
+            }
+            insertNote.close();
+            sqlDb.setTransactionSuccessful();
+        } finally {
+            sqlDb.endTransaction();
+        }
+        long t0 = System.currentTimeMillis();
+        index.rebuild();
+        Log.d(TAG, "Index built in " + (System.currentTimeMillis() - t0) + "ms");
+        String typed = "taxi gift 1a";
+        long max = 0;
+        for (int i = 1; i <= typed.length(); i++) {
+            String constraint = typed.substring(0, i);
+            long s = System.currentTimeMillis();
+            long[] ids = index.search(SearchIndex.Type.NOTE, constraint, 50);
+            max = Math.max(max, System.currentTimeMillis() - s);
+            assertEquals(constraint, expectedTitles(texts, SearchIndex.normalize(constraint), 50), notesOf(ids));
+        }
+        Log.d(TAG, "Longest note keystroke " + max + "ms");
+        assertTrue("Longest note keystroke " + max + "ms", max < MAX_KEYSTROKE_MS);
+        // no note starts with these, every note of the type is checked
+        for (String constraint : new String[]{"xi", "z"}) {
+            long s = System.currentTimeMillis();
+            long[] ids = index.search(SearchIndex.Type.NOTE, constraint, 50);
+            Log.d(TAG, "Note infix search for [" + constraint + "] in " + (System.currentTimeMillis() - s) + "ms");
+            assertEquals(constraint, expectedTitles(texts, constraint, 50), notesOf(ids));
+        }
+    }
+
+    // the best matches kept while going through the texts, so that the many notes do not have to be sorted
+    private static List<String> expectedTitles(List<String> titles, final String query, int limit) {
+        TreeSet<String> matches = new TreeSet<String>(new Comparator<String>() {
+            @Override
+            public int compare(String t1, String t2) {
+                String n1 = SearchIndex.normalize(t1);
+                String n2 = SearchIndex.normalize(t2);
+                int r1 = rank(n1, query);
+                int r2 = rank(n2, query);
+                return r1 != r2 ? r1 - r2 : n1.compareTo(n2);
+            }
+        });
+        for (String title : titles) {
+            if (SearchIndex.normalize(title).contains(query)) {
+                matches.add(title);
+                if (matches.size() > limit) {
+                    matches.pollLast();
+                }
+            }
+        }
+        return new ArrayList<String>(matches);
+    }
+
+    private static int rank(String normalized, String query) {
+        if (normalized.startsWith(query)) {
+            return 0;
+        }
+        for (char c : SearchIndex.WORD_SEPARATORS.toCharArray()) {
+            if (normalized.contains(c + query)) {
+                return 1;
+            }
+        }
+        return 2;
+    }
+
+    private List<String> titlesOf(long[] ids) {
+        List<String> titles = new ArrayList<String>(ids.length);
+        for (long id : ids) {
+            titles.add(em.get(Payee.class, id).title);
+        }
+        return titles;
+    }
+
+    private List<String> notesOf(long[] ids) {
+        List<String> notes = new ArrayList<String>(ids.length);
+        for (long id : ids) {
+            Cursor c = db.db().rawQuery("select note from transactions where _id=?", new String[]{String.valueOf(id)});
+            try {
+                assertTrue(c.moveToFirst());
+                notes.add(c.getString(0));
+            } finally {
+                c.close();
+            }
+        }
+        return notes;
+    }
+
+    private static List<Long> idsOf(long[] ids) {
+        List<Long> list = new ArrayList<Long>(ids.length);
+        for (long id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    private long countNoteTexts() {
+        return DatabaseUtils.rawFetchLongValue(db, "select count(*) from search_text where type=?",
+                new String[]{String.valueOf(SearchIndex.Type.NOTE.code)});
+    }
+
+    private List<String> searchPayees(String constraint) {
+        Cursor c = em.getAllPayeesLike(constraint);
+        try {
+            List<String> titles = new ArrayList<String>();
+            while (c.moveToNext()) {
+                titles.add(EntityManager.loadFromCursor(c, Payee.class).title);
+            }
+            return titles;
+        } finally {
+            c.close();
+        }
+    }
+
+}
@@ -0,0 +1,243 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.db;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+import ru.orangesoftware.financisto.model.Account;
+import ru.orangesoftware.financisto.model.Category;
+import ru.orangesoftware.financisto.model.Payee;
+import ru.orangesoftware.financisto.model.Project;
+import ru.orangesoftware.financisto.model.RestoredTransaction;
+import ru.orangesoftware.financisto.model.Transaction;
+import ru.orangesoftware.financisto.test.AccountBuilder;
+import ru.orangesoftware.financisto.test.CategoryBuilder;
+import ru.orangesoftware.financisto.test.DateTime;
+import ru.orangesoftware.financisto.test.TransactionBuilder;
+import ru.orangesoftware.orb.EntityManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+
+public class SuggestionsTest extends AbstractDbTest {
+
+    private static final String TAG = "SuggestionsTest";
+    private static final long DAY = 24L * 60 * 60 * 1000;
+
+    Account a;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        a = AccountBuilder.createDefault(db);
+    }
+
+    public void test_should_rank_payees_by_frequency_and_recency() {
+        long market = db.insertPayee("Market");
+        long mall = db.insertPayee("Mall");
+        long metro = db.insertPayee("Metro");
+        use("Market", System.currentTimeMillis() - 200 * DAY, 3);
+        use("Mall", System.currentTimeMillis(), 1);
+        use("Metro", System.currentTimeMillis(), 2);
+        assertIds(db.getSuggestions().suggest(Suggestions.Type.PAYEE, "m", 10), metro, mall, market);
+        //when
+        use("Mall", System.currentTimeMillis(), 2);
+        //then
+        assertIds(db.getSuggestions().suggest(Suggestions.Type.PAYEE, "M", 10), mall, metro, market);
+        assertIds(db.getSuggestions().suggest(Suggestions.Type.PAYEE, "m", 1), mall);
+    }
+
+    public void test_should_match_word_starts_and_only_title_start_for_short_prefixes() {
+        long bigMarket = db.insertPayee("Big Market");
+        long marketStreet = db.insertPayee("Market Street");
+        db.insertPayee("Supermarket");
+        assertIds(db.getSuggestions().suggest(Suggestions.Type.PAYEE, "mar", 10), marketStreet, bigMarket);
+        assertIds(db.getSuggestions().suggest(Suggestions.Type.PAYEE, "big ma", 10), bigMarket);
+        assertIds(db.getSuggestions().suggest(Suggestions.Type.PAYEE, "ma", 10), marketStreet);
+        assertIds(db.getSuggestions().suggest(Suggestions.Type.PAYEE, "arket", 10));
+    }
+
+    public void test_should_follow_renamed_payees() {
+        Payee p = em.insertPayee("Coffee House");
+        assertIds(db.getSuggestions().suggest(Suggestions.Type.PAYEE, "coffee", 10), p.id);
+        p.title = "Tea House";
+        em.saveOrUpdate(p);
+        assertIds(db.getSuggestions().suggest(Suggestions.Type.PAYEE, "coffee", 10));
+        assertIds(db.getSuggestions().suggest(Suggestions.Type.PAYEE, "tea", 10), p.id);
+        assertIds(db.getSuggestions().suggest(Suggestions.Type.PAYEE, "house", 10), p.id);
+    }
+
+    public void test_should_rank_categories_and_sort_projects_keeping_no_project_first() {
+        Map<String, Category> categories = CategoryBuilder.createDefaultHierarchy(db);
+        TransactionBuilder.withDb(db).account(a).amount(1).category(categories.get("A2")).project("Alpha").create();
+        TransactionBuilder.withDb(db).account(a).amount(1).category(categories.get("A2")).create();
+        TransactionBuilder.withDb(db).account(a).amount(1).category(categories.get("A1")).project("Beta").create();
+        Project gamma = new Project();
+        gamma.title = "Gamma";
+        em.saveOrUpdate(gamma);
+        Project delta = new Project();
+        delta.title = "Delta";
+        delta.id = em.saveOrUpdate(delta);
+        TransactionBuilder.withDb(db).account(a).amount(1).category(categories.get("A1")).project(delta).create();
+        assertIds(db.getSuggestions().suggest(Suggestions.Type.CATEGORY, "a", 10),
+                categories.get("A1").id, categories.get("A2").id, categories.get("A").id, categories.get("AA1").id);
+        List<Project> projects = em.getActiveProjectsList(true);
+        db.getSuggestions().sort(Suggestions.Type.PROJECT, projects);
+        assertEquals(Arrays.asList("<NO_PROJECT>", "Alpha", "Beta", "Delta", "Gamma"), titles(projects));
+        TransactionBuilder.withDb(db).account(a).amount(1).project(delta).create();
+        projects = em.getActiveProjectsList(true);
+        db.getSuggestions().sort(Suggestions.Type.PROJECT, projects);
+        assertEquals("<NO_PROJECT>", projects.get(0).title);
+        assertEquals("Delta", projects.get(1).title);
+    }
+
+    public void test_should_suggest_payees_through_the_payee_lookup_first() {
+        db.insertPayee("Parking");
+        db.insertPayee("Pizza place");
+        db.insertPayee("Cheap pizza");
+        use("Pizza place", System.currentTimeMillis(), 1);
+        use("Cheap pizza", System.currentTimeMillis(), 5);
+        assertEquals(Arrays.asList("Cheap pizza", "Pizza place"), searchPayees("piz"));
+        assertEquals(Arrays.asList("Pizza place", "Parking"), searchPayees("p"));
+    }
+
+    public void test_should_count_updated_and_deleted_transactions() {
+        long market = db.insertPayee("Market");
+        long mall = db.insertPayee("Mall");
+        long now = System.currentTimeMillis();
+        Transaction t1 = TransactionBuilder.withDb(db).account(a).amount(1).payee("Market").dateTime(DateTime.fromTimestamp(now)).create();
+        Transaction t2 = TransactionBuilder.withDb(db).account(a).amount(1).payee("Market").dateTime(DateTime.fromTimestamp(now)).create();
+        use("Mall", now, 1);
+        assertIds(db.getSuggestions().suggest(Suggestions.Type.PAYEE, "m", 10), market, mall);
+        //when
+        t1 = db.getTransaction(t1.id);
+        t1.payeeId = mall;
+        db.insertOrUpdate(t1);
+        //then
+        assertIds(db.getSuggestions().suggest(Suggestions.Type.PAYEE, "m", 10), mall, market);
+        assertSameAsLoaded(Suggestions.Type.PAYEE, "m");
+        //when
+        db.deleteTransaction(t2.id);
+        //then
+        assertIds(db.getSuggestions().suggest(Suggestions.Type.PAYEE, "m", 10), mall, market);
+        assertSameAsLoaded(Suggestions.Type.PAYEE, "m");
+    }
+
+    public void test_should_count_the_same_rows_when_loading_and_inserting() {
+        Map<String, Category> categories = CategoryBuilder.createDefaultHierarchy(db);
+        db.getSuggestions();
+        TransactionBuilder.withDb(db).account(a).amount(1).category(categories.get("A2")).create();
+        TransactionBuilder.withDb(db).account(a).amount(3).payee("Market")
+                .withSplit(categories.get("A1"), 1)
+                .withSplit(categories.get("A1"), 2)
+                .create();
+        assertIds(db.getSuggestions().suggest(Suggestions.Type.CATEGORY, "a", 1), categories.get("A2").id);
+        assertSameAsLoaded(Suggestions.Type.CATEGORY, "a");
+        assertSameAsLoaded(Suggestions.Type.PAYEE, "m");
+    }
+
+    public void test_should_count_every_restored_schedule() {
+        long rent = db.insertPayee("Rent");
+        long restaurant = db.insertPayee("Restaurant");
+        long now = System.currentTimeMillis();
+        use("Restaurant", now, 2);
+        Transaction schedule = TransactionBuilder.withDb(db).account(a).amount(-50).payee("Rent")
+                .scheduleRecur("2011-08-10T10:00:00~DAILY:interval@1#~INDEFINETELY:null").create();
+        assertIds(db.getSuggestions().suggest(Suggestions.Type.PAYEE, "re", 10), restaurant, rent);
+        List<RestoredTransaction> restored = new ArrayList<RestoredTransaction>();
+        for (int i = 1; i <= 3; i++) {
+            restored.add(new RestoredTransaction(schedule.id, new Date(now - i * 60000L)));
+        }
+        //when
+        db.storeMissedSchedules(restored, now);
+        //then
+        assertIds(db.getSuggestions().suggest(Suggestions.Type.PAYEE, "re", 10), rent, restaurant);
+        assertSameAsLoaded(Suggestions.Type.PAYEE, "re");
+    }
+
+    public void test_should_suggest_within_a_frame_on_a_large_book() {
+        int payees = 20000;
+        int transactions = 100000;
+        SQLiteDatabase sqlDb = db.db();
+        sqlDb.beginTransaction();
+        try {
+            SQLiteStatement insertPayee = sqlDb.compileStatement("insert into payee(title) values (?)");
+            for (int i = 0; i < payees; i++) {
+                insertPayee.bindString(1, "Payee " + Integer.toString(i * 7919, 36) + " " + i);
+                insertPayee.executeInsert();
+            }
+            insertPayee.close();
+            SQLiteStatement insertTransaction = sqlDb.compileStatement("insert into transactions(from_account_id,from_amount,datetime,payee_id) values (?,?,?,?)");
+            for (int i = 0; i < transactions; i++) {
+                insertTransaction.bindLong(1, a.id);
+                insertTransaction.bindLong(2, -i);
+                insertTransaction.bindLong(3, i * 60000L);
+                insertTransaction.bindLong(4, 1 + (i * i) % payees);
+                insertTransaction.executeInsert();
+            }
+            insertTransaction.close();
+            sqlDb.setTransactionSuccessful();
+        } finally {
+            sqlDb.endTransaction();
+        }
+        db.invalidateSuggestions();
+        long t0 = System.currentTimeMillis();
+        Suggestions suggestions = db.getSuggestions();
+        Log.d(TAG, "Suggestions loaded in " + (System.currentTimeMillis() - t0) + "ms");
+        String typed = "payee 1a";
+        long max = 0;
+        for (int i = 1; i <= typed.length(); i++) {
+            long s = System.currentTimeMillis();
+            suggestions.suggest(Suggestions.Type.PAYEE, typed.substring(0, i), 50);
+            max = Math.max(max, System.currentTimeMillis() - s);
+        }
+        Log.d(TAG, "Longest keystroke " + max + "ms");
+    }
+
+    private void use(String payee, long dateTime, int times) {
+        for (int i = 0; i < times; i++) {
+            TransactionBuilder.withDb(db).account(a).amount(1).payee(payee).dateTime(DateTime.fromTimestamp(dateTime)).create();
+        }
+    }
+
+    private List<String> searchPayees(String constraint) {
+        Cursor c = em.getAllPayeesLike(constraint);
+        try {
+            List<String> titles = new ArrayList<String>();
+            while (c.moveToNext()) {
+                titles.add(EntityManager.loadFromCursor(c, Payee.class).title);
+            }
+            return titles;
+        } finally {
+            c.close();
+        }
+    }
+
+    private static List<String> titles(List<Project> projects) {
+        List<String> titles = new ArrayList<String>();
+        for (Project p : projects) {
+            titles.add(p.title);
+        }
+        return titles;
+    }
+
+    private void assertSameAsLoaded(Suggestions.Type type, String prefix) {
+        assertIds(db.getSuggestions().suggest(type, prefix, 10), Suggestions.load(db.db()).suggest(type, prefix, 10));
+    }
+
+    private static void assertIds(long[] actual, long... expected) {
+        assertEquals(Arrays.toString(expected), Arrays.toString(actual));
+    }
+
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (c) 2014 Emmanuel Florent.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.export.flowzr;
+
+import android.test.AndroidTestCase;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.zip.GZIPInputStream;
+
+public class CompactPayloadTest extends AndroidTestCase {
+
+    public void test_should_send_column_names_once_per_batch() throws Exception {
+        CompactPayload payload = new CompactPayload();
+        payload.add(row("_id", 1, "remote_key", "k1", "note", "a"), null);
+        payload.add(row("_id", 2, "remote_key", "k2", "note", "b"), null);
+
+        JSONObject o = new JSONObject(payload.toJson());
+
+        assertEquals(CompactPayload.FORMAT, o.getString("format"));
+        JSONArray columns = o.getJSONArray("columns");
+        assertEquals(3, columns.length());
+        JSONArray rows = o.getJSONArray("rows");
+        assertEquals(2, rows.length());
+        JSONArray second = rows.getJSONArray(1);
+        assertEquals("7", second.getString(0));
+        assertEquals(4, second.length());
+        assertEquals("k2", second.get(1 + indexOf(columns, "remote_key")));
+        assertEquals("b", second.get(1 + indexOf(columns, "note")));
+    }
+
+    public void test_should_leave_out_unchanged_columns() throws Exception {
+        CompactPayload payload = new CompactPayload();
+        payload.add(row("_id", 1, "remote_key", "k1", "note", "a", "from_amount", -100), null);
+        payload.add(row("_id", 2, "remote_key", "k2", "note", "b", "from_amount", -200),
+                new HashSet<String>(Arrays.asList("note", "from_amount")));
+
+        JSONObject o = new JSONObject(payload.toJson());
+        JSONArray columns = o.getJSONArray("columns");
+        JSONArray second = o.getJSONArray("rows").getJSONArray(1);
+
+        assertEquals(3, second.length());
+        int mask = Integer.parseInt(second.getString(0), 16);
+        assertTrue((mask & (1 << indexOf(columns, "_id"))) != 0);
+        assertTrue((mask & (1 << indexOf(columns, "remote_key"))) != 0);
+        assertEquals(0, mask & (1 << indexOf(columns, "note")));
+        assertEquals(0, mask & (1 << indexOf(columns, "from_amount")));
+    }
+
+    public void test_should_build_masks_for_wide_rows() {
+        assertEquals("1", CompactPayload.mask(Arrays.asList(0)));
+        assertEquals("10", CompactPayload.mask(Arrays.asList(4)));
+        assertEquals("8001", CompactPayload.mask(Arrays.asList(0, 15)));
+        assertEquals("0", CompactPayload.mask(Arrays.<Integer>asList()));
+    }
+
+    public void test_should_gzip_the_payload() throws Exception {
+        CompactPayload payload = new CompactPayload();
+        for (int i = 0; i < 20; i++) {
+            payload.add(row("_id", i, "remote_key", "key" + i, "note", "Lunch with colleagues"), null);
+        }
+        byte[] gzip = payload.toGzip();
+        String json = payload.toJson();
+        assertTrue(gzip.length < json.length());
+        assertEquals(json, gunzip(gzip));
+    }
+
+    private static int indexOf(JSONArray columns, String name) throws Exception {
+        for (int i = 0; i < columns.length(); i++) {
+            if (name.equals(columns.getString(i))) {
+                return i;
+            }
+        }
+        fail("No column " + name);
+        return -1;
+    }
+
+    private static JSONObject row(Object... keyValues) throws Exception {
+        JSONObject o = new JSONObject();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            o.put((String) keyValues[i], keyValues[i + 1]);
+        }
+        return o;
+    }
+
+    private static String gunzip(byte[] bytes) throws Exception {
+        InputStream in = new GZIPInputStream(new ByteArrayInputStream(bytes));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return new String(out.toByteArray(), "UTF-8");
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (c) 2014 Emmanuel Florent.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.export.flowzr;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * In-memory Drive which follows the resumable upload protocol
+ */
+public class FakeDriveUploadEndpoint implements DriveUploadEndpoint {
+
+    public final Map<String, ByteArrayOutputStream> sessions = new HashMap<String, ByteArrayOutputStream>();
+    public final Map<String, String> sessionFileNames = new HashMap<String, String>();
+
+    public int sessionsStarted;
+    public int chunksReceived;
+    public long bytesReceived;
+    // number of chunks to accept before the network goes down, -1 means never
+    public int failAfterChunks = -1;
+
+    @Override
+    public synchronized String startSession(String fileName, String mimeType, long size, long date) throws IOException {
+        checkNetwork();
+        String uri = "fake://upload/" + (++sessionsStarted);
+        sessions.put(uri, new ByteArrayOutputStream());
+        sessionFileNames.put(uri, fileName);
+        return uri;
+    }
+
+    @Override
+    public synchronized UploadStatus queryStatus(String sessionUri, long size) throws IOException {
+        checkNetwork();
+        ByteArrayOutputStream out = sessions.get(sessionUri);
+        if (out == null) {
+            return UploadStatus.EXPIRED;
+        }
+        return status(sessionUri, out, size);
+    }
+
+    @Override
+    public synchronized UploadStatus uploadChunk(String sessionUri, byte[] buffer, int length, long offset, long size) throws IOException {
+        checkNetwork();
+        ByteArrayOutputStream out = sessions.get(sessionUri);
+        if (out == null) {
+            return UploadStatus.EXPIRED;
+        }
+        if (offset != out.size()) {
+            throw new IOException("Unexpected offset " + offset + ", expected " + out.size());
+        }
+        out.write(buffer, 0, length);
+        chunksReceived++;
+        bytesReceived += length;
+        return status(sessionUri, out, size);
+    }
+
+    private UploadStatus status(String sessionUri, ByteArrayOutputStream out, long size) {
+        if (out.size() == size) {
+            String id = "drive-" + sessionUri.substring(sessionUri.lastIndexOf('/') + 1);
+            return new UploadStatus(size, new RemoteFile(id, "https://drive/" + id, "https://drive/" + id + "/thumb"));
+        }
+        return new UploadStatus(out.size(), null);
+    }
+
+    private void checkNetwork() throws IOException {
+        if (failAfterChunks >= 0 && chunksReceived >= failAfterChunks) {
+            throw new IOException("Network is down");
+        }
+    }
+
+    public synchronized byte[] getContent(String fileName) {
+        for (Map.Entry<String, String> e : sessionFileNames.entrySet()) {
+            if (e.getValue().equals(fileName)) {
+                return sessions.get(e.getKey()).toByteArray();
+            }
+        }
+        return null;
+    }
+
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright (c) 2014 Emmanuel Florent.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.export.flowzr;
+
+import android.database.Cursor;
+import ru.orangesoftware.financisto.db.AbstractDbTest;
+import ru.orangesoftware.financisto.export.flowzr.DriveUploadEndpoint.RemoteFile;
+import ru.orangesoftware.financisto.model.Account;
+import ru.orangesoftware.financisto.model.Transaction;
+import ru.orangesoftware.financisto.test.AccountBuilder;
+import ru.orangesoftware.financisto.test.TransactionBuilder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class PictureUploaderTest extends AbstractDbTest {
+
+    private static final int CHUNK = 16;
+
+    private File picturesDir;
+    private Account a;
+    private FakeDriveUploadEndpoint drive;
+    private PictureUploadQueue queue;
+    private final List<String> linked = new ArrayList<String>();
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        picturesDir = new File(getContext().getCacheDir(), "test-pictures");
+        picturesDir.mkdirs();
+        a = AccountBuilder.createDefault(db);
+        drive = new FakeDriveUploadEndpoint();
+        queue = new PictureUploadQueue(db.db());
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        File[] files = picturesDir.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        super.tearDown();
+    }
+
+    public void test_should_upload_the_same_picture_only_once() throws Exception {
+        byte[] content = content(100, 1);
+        givenPicture("a.jpg", content);
+        givenPicture("b.jpg", content);
+        givenPicture("c.jpg", content(50, 2));
+        Transaction t1 = transactionWithPicture("a.jpg");
+        Transaction t2 = transactionWithPicture("a.jpg");
+        Transaction t3 = transactionWithPicture("b.jpg");
+        Transaction t4 = transactionWithPicture("c.jpg");
+
+        int count = uploader().uploadAll(listener());
+
+        assertEquals(2, count);
+        assertEquals(2, drive.sessionsStarted);
+        assertEquals(150, drive.bytesReceived);
+        assertEquals(blobKey(t1), blobKey(t2));
+        assertEquals(blobKey(t1), blobKey(t3));
+        assertNotNull(blobKey(t1));
+        assertNotNull(blobKey(t4));
+        assertFalse(blobKey(t1).equals(blobKey(t4)));
+        assertEquals(3, linked.size());
+        assertTrue(linked.containsAll(Arrays.asList("a.jpg", "b.jpg", "c.jpg")));
+    }
+
+    public void test_should_not_upload_again_a_picture_attached_to_a_new_transaction() throws Exception {
+        givenPicture("a.jpg", content(40, 1));
+        Transaction t1 = transactionWithPicture("a.jpg");
+        uploader().uploadAll(listener());
+        assertEquals(1, drive.sessionsStarted);
+
+        Transaction t2 = transactionWithPicture("a.jpg");
+        int count = uploader().uploadAll(listener());
+
+        assertEquals(0, count);
+        assertEquals(1, drive.sessionsStarted);
+        assertEquals(blobKey(t1), blobKey(t2));
+    }
+
+    public void test_should_resume_interrupted_upload_from_the_persisted_offset() throws Exception {
+        byte[] content = content(100, 3);
+        givenPicture("a.jpg", content);
+        Transaction t = transactionWithPicture("a.jpg");
+        drive.failAfterChunks = 3;
+
+        int count = uploader().uploadAll(listener());
+
+        assertEquals(0, count);
+        assertNull(blobKey(t));
+        PictureUploadEntry e = queue.getEntry("a.jpg");
+        assertTrue(e.hasSession());
+        assertEquals(3 * CHUNK, e.uploadedBytes);
+
+        // process has died, a new uploader picks the queue up
+        drive.failAfterChunks = -1;
+        count = new PictureUploader(new PictureUploadQueue(db.db()), drive, picturesDir, 2, CHUNK).uploadAll(listener());
+
+        assertEquals(1, count);
+        assertEquals(1, drive.sessionsStarted);
+        assertEquals(100, drive.bytesReceived);
+        assertTrue(Arrays.equals(content, drive.getContent("a.jpg")));
+        assertNotNull(blobKey(t));
+        assertFalse(queue.getEntry("a.jpg").hasSession());
+    }
+
+    public void test_should_restart_upload_when_session_has_expired() throws Exception {
+        givenPicture("a.jpg", content(40, 4));
+        Transaction t = transactionWithPicture("a.jpg");
+        drive.failAfterChunks = 1;
+        uploader().uploadAll(listener());
+        drive.sessions.clear();
+        drive.failAfterChunks = -1;
+
+        int count = uploader().uploadAll(listener());
+
+        assertEquals(1, count);
+        assertEquals(2, drive.sessionsStarted);
+        assertNotNull(blobKey(t));
+    }
+
+    public void test_should_skip_missing_pictures() throws Exception {
+        givenPicture("a.jpg", content(10, 1));
+        Transaction t1 = transactionWithPicture("a.jpg");
+        Transaction t2 = transactionWithPicture("missing.jpg");
+
+        int count = uploader().uploadAll(listener());
+
+        assertEquals(1, count);
+        assertNotNull(blobKey(t1));
+        assertNull(blobKey(t2));
+        assertEquals(PictureUploadQueue.STATUS_MISSING, queue.getEntry("missing.jpg").status);
+    }
+
+    private PictureUploader uploader() {
+        return new PictureUploader(queue, drive, picturesDir, 2, CHUNK);
+    }
+
+    private PictureUploader.UploadListener listener() {
+        return new PictureUploader.UploadListener() {
+            @Override
+            public void onPictureUploaded(String fileName, RemoteFile file) {
+                linked.add(fileName);
+            }
+        };
+    }
+
+    private Transaction transactionWithPicture(String fileName) {
+        return TransactionBuilder.withDb(db).account(a).amount(-100).picture(fileName).create();
+    }
+
+    private String blobKey(Transaction t) {
+        Cursor c = db.db().rawQuery("select blob_key from transactions where _id=?", new String[]{String.valueOf(t.id)});
+        try {
+            c.moveToFirst();
+            return c.getString(0);
+        } finally {
+            c.close();
+        }
+    }
+
+    private void givenPicture(String fileName, byte[] content) throws IOException {
+        FileOutputStream out = new FileOutputStream(new File(picturesDir, fileName));
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+
+    private byte[] content(int size, int seed) {
+        byte[] bytes = new byte[size];
+        for (int i = 0; i < size; i++) {
+            bytes[i] = (byte) (i * 31 + seed);
+        }
+        return bytes;
+    }
+
+}
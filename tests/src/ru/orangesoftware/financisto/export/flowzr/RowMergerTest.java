@@ -0,0 +1,110 @@
+/*
+ * Copyright (c) 2014 Emmanuel Florent.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.export.flowzr;
+
+import android.test.AndroidTestCase;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static ru.orangesoftware.financisto.export.flowzr.VectorClock.Order.*;
+
+public class RowMergerTest extends AndroidTestCase {
+
+    public void test_should_parse_and_format_vector_clock() {
+        VectorClock clock = VectorClock.parse("b:2,a:1");
+        assertEquals(1, clock.get("a"));
+        assertEquals(2, clock.get("b"));
+        assertEquals(0, clock.get("c"));
+        assertEquals("a:1,b:2", clock.toString());
+        assertTrue(VectorClock.parse(null).isEmpty());
+        assertEquals("a:1", VectorClock.parse("a:1,broken,c:x").toString());
+    }
+
+    public void test_should_compare_vector_clocks() {
+        VectorClock base = VectorClock.parse("a:1,b:1");
+        assertEquals(EQUAL, base.compare(VectorClock.parse("b:1,a:1")));
+        assertEquals(AFTER, base.increment("a").compare(base));
+        assertEquals(BEFORE, base.compare(base.increment("b")));
+        assertEquals(CONCURRENT, base.increment("a").compare(base.increment("b")));
+        assertEquals(BEFORE, VectorClock.EMPTY.compare(base));
+        assertEquals("a:2,b:2", base.increment("a").merge(base.increment("b")).toString());
+    }
+
+    public void test_should_take_changes_from_both_sides() {
+        Map<String, String> base = row("title", "Lunch", "from_amount", "-100", "note", null);
+        Map<String, String> local = row("title", "Lunch", "from_amount", "-120", "note", null);
+        Map<String, String> remote = row("title", "Dinner", "from_amount", "-100", "note", null);
+
+        RowMerger.Result result = RowMerger.merge(base, local, remote, false);
+
+        assertEquals("Dinner", result.values.get("title"));
+        assertEquals("-120", result.values.get("from_amount"));
+        assertTrue(result.conflicts.isEmpty());
+        assertTrue(result.differsFromRemote);
+    }
+
+    public void test_should_not_push_back_when_only_remote_has_changed() {
+        Map<String, String> base = row("title", "Lunch", "note", "a");
+        Map<String, String> local = row("title", "Lunch", "note", "a");
+        Map<String, String> remote = row("title", "Dinner", "note", null);
+
+        RowMerger.Result result = RowMerger.merge(base, local, remote, true);
+
+        assertEquals("Dinner", result.values.get("title"));
+        assertNull(result.values.get("note"));
+        assertFalse(result.differsFromRemote);
+    }
+
+    public void test_should_resolve_conflicts_with_the_winning_side() {
+        Map<String, String> base = row("title", "Lunch");
+        Map<String, String> local = row("title", "Breakfast");
+        Map<String, String> remote = row("title", "Dinner");
+
+        RowMerger.Result localWins = RowMerger.merge(base, local, remote, true);
+        assertEquals("Breakfast", localWins.values.get("title"));
+        assertTrue(localWins.conflicts.contains("title"));
+        assertTrue(localWins.differsFromRemote);
+
+        RowMerger.Result remoteWins = RowMerger.merge(base, local, remote, false);
+        assertEquals("Dinner", remoteWins.values.get("title"));
+        assertFalse(remoteWins.differsFromRemote);
+    }
+
+    public void test_should_treat_every_difference_as_conflict_without_base() {
+        RowMerger.Result result = RowMerger.merge(null, row("title", "A", "note", "x"), row("title", "B", "note", "x"), false);
+        assertEquals("B", result.values.get("title"));
+        assertEquals(1, result.conflicts.size());
+    }
+
+    public void test_should_pick_the_same_winner_on_both_devices() {
+        VectorClock base = VectorClock.parse("a:1,b:1");
+        VectorClock onA = base.increment("a");
+        VectorClock onB = base.increment("b");
+        // same timestamp, decided by the device id
+        boolean aWinsOnA = RowMerger.localWins(onA, 1000, "a", onB, 1000, "b");
+        boolean bWinsOnB = RowMerger.localWins(onB, 1000, "b", onA, 1000, "a");
+        assertTrue(aWinsOnA != bWinsOnB);
+        // later change wins
+        assertTrue(RowMerger.localWins(onA, 2000, "a", onB, 1000, "b"));
+        assertFalse(RowMerger.localWins(onB, 1000, "b", onA, 2000, "a"));
+        // a clock which follows the other one always wins
+        assertTrue(RowMerger.localWins(onA.merge(onB).increment("a"), 0, "a", onB, 5000, "b"));
+        assertFalse(RowMerger.localWins(onA, 5000, "a", onA.merge(onB).increment("b"), 0, "b"));
+    }
+
+    private static Map<String, String> row(String... keyValues) {
+        Map<String, String> row = new HashMap<String, String>();
+        for (int i = 0; i < keyValues.length; i += 2) {
+            row.put(keyValues[i], keyValues[i + 1]);
+        }
+        return row;
+    }
+
+}
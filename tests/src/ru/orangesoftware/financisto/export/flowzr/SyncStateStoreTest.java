@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2014 Emmanuel Florent.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.export.flowzr;
+
+import ru.orangesoftware.financisto.db.AbstractDbTest;
+import ru.orangesoftware.financisto.db.DatabaseHelper;
+import ru.orangesoftware.financisto.model.Account;
+import ru.orangesoftware.financisto.model.Currency;
+import ru.orangesoftware.financisto.model.Transaction;
+import ru.orangesoftware.financisto.test.AccountBuilder;
+import ru.orangesoftware.financisto.test.CurrencyBuilder;
+import ru.orangesoftware.financisto.test.DateTime;
+import ru.orangesoftware.financisto.test.TransactionBuilder;
+
+import java.util.HashMap;
+import java.util.Map;
+
+public class SyncStateStoreTest extends AbstractDbTest {
+
+    Account a1;
+    Account a2;
+    SyncStateStore store;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        Currency c1 = CurrencyBuilder.withDb(db).name("USD").title("Dollar").symbol("$").create();
+        a1 = AccountBuilder.createDefault(db, c1);
+        a2 = AccountBuilder.createDefault(db, c1);
+        store = new SyncStateStore(db);
+    }
+
+    public void test_should_move_balances_when_a_merged_transaction_is_written() {
+        TransactionBuilder.withDb(db).account(a1).amount(-100).dateTime(DateTime.date(2014, 3, 1).atNoon()).create();
+        Transaction t = TransactionBuilder.withDb(db).account(a1).amount(-50).dateTime(DateTime.date(2014, 3, 2).atNoon()).create();
+
+        Map<String, String> current = store.readRow(DatabaseHelper.TRANSACTION_TABLE, t.id);
+        Map<String, String> merged = new HashMap<String, String>(current);
+        merged.put("from_account_id", String.valueOf(a2.id));
+        merged.put("from_amount", "-70");
+        store.writeRow(DatabaseHelper.TRANSACTION_TABLE, t.id, current, merged);
+
+        assertAccountTotal(a1, -100);
+        assertFinalBalanceForAccount(a1, -100);
+        assertAccountTotal(a2, -70);
+        assertFinalBalanceForAccount(a2, -70);
+    }
+
+    public void test_should_purge_the_state_of_deleted_rows() {
+        Transaction t1 = TransactionBuilder.withDb(db).account(a1).amount(-100).create();
+        Transaction t2 = TransactionBuilder.withDb(db).account(a1).amount(-50).create();
+        store.saveState(DatabaseHelper.TRANSACTION_TABLE, t1.id, VectorClock.parse("a:1"), null, true);
+        store.saveState(DatabaseHelper.TRANSACTION_TABLE, t2.id, VectorClock.parse("a:2"), null, true);
+
+        db.deleteTransaction(t1.id);
+        store.purgeDeleted();
+
+        assertTrue(store.getState(DatabaseHelper.TRANSACTION_TABLE, t1.id).clock.isEmpty());
+        assertEquals("a:2", store.getState(DatabaseHelper.TRANSACTION_TABLE, t2.id).clock.toString());
+    }
+
+}
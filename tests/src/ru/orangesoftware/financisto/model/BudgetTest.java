@@ -6,6 +6,8 @@ import ru.orangesoftware.financisto.test.CategoryBuilder;
 import ru.orangesoftware.financisto.test.DateTime;
 import ru.orangesoftware.financisto.test.TransactionBuilder;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -90,6 +92,116 @@ public class BudgetTest extends AbstractDbTest {
         assertEquals(0, spent);
     }
 
+    public void test_should_calculate_many_budgets_in_one_scan() {
+        Account account2 = AccountBuilder.createDefault(db, account.currency);
+        List<Budget> budgets = new ArrayList<Budget>();
+        budgets.add(budgetOne);
+        budgets.add(budget(account.currency, null, "A2", null, false, false, true, 0, 0));
+        budgets.add(budget(null, account2, null, null, false, false, true, 0, 0));
+        budgets.add(budget(account.currency, null, "A", String.valueOf(project.id), true, false, false,
+                DateTime.date(2011, 4, 1).atMidnight().asLong(), 0));
+        budgets.add(budget(account.currency, null, "B", null, false, false, true,
+                DateTime.date(2011, 5, 1).atMidnight().asLong(), DateTime.date(2011, 5, 31).atDayEnd().asLong()));
+        TransactionBuilder.withDb(db).account(account).dateTime(DateTime.date(2011, 3, 31).atNoon()).amount(-10).category(categoriesMap.get("A2")).create();
+        TransactionBuilder.withDb(db).account(account).dateTime(DateTime.date(2011, 4, 1).atNoon()).amount(-100).category(categoriesMap.get("A1")).create();
+        TransactionBuilder.withDb(db).account(account).dateTime(DateTime.date(2011, 4, 2).atNoon()).amount(50).category(categoriesMap.get("AA1")).create();
+        TransactionBuilder.withDb(db).account(account).dateTime(DateTime.date(2011, 5, 1).atNoon()).amount(-200).category(categoriesMap.get("B")).create();
+        TransactionBuilder.withDb(db).account(account2).dateTime(DateTime.date(2011, 5, 2).atNoon()).amount(-300).category(categoriesMap.get("B")).create();
+        TransactionBuilder.withDb(db).account(account).dateTime(DateTime.date(2011, 6, 1).atNoon())
+                .amount(-100)
+                .category(CategoryBuilder.split(db))
+                .withSplit(categoriesMap.get("A2"), project, -60)
+                .withSplit(categoriesMap.get("B"), -40)
+                .create();
+
+        long[] spent = db.fetchBudgetBalances(categories, projects, budgets);
+
+        assertEquals(budgets.size(), spent.length);
+        for (int i = 0; i < budgets.size(); i++) {
+            assertEquals("Budget #" + i, db.fetchBudgetBalance(categories, projects, budgets.get(i)), spent[i]);
+        }
+        assertEquals(-50, spent[0]);
+        assertEquals(-70, spent[1]);
+        assertEquals(-300, spent[2]);
+        assertEquals(-60, spent[3]);
+        assertEquals(-500, spent[4]);
+    }
+
+    public void test_should_keep_materialized_budget_spent_up_to_date() {
+        List<Budget> budgets = new ArrayList<Budget>();
+        budgets.add(budgetOne);
+        assertSpent(budgets, 0);
+        // insert
+        Transaction t = TransactionBuilder.withDb(db).account(account).dateTime(DateTime.date(2011, 4, 1).atNoon())
+                .amount(-100).category(categoriesMap.get("A1")).create();
+        assertSpent(budgets, -100);
+        // update
+        t.fromAmount = -150;
+        db.insertOrUpdate(t);
+        assertSpent(budgets, -150);
+        // moved out of the period
+        t.dateTime = DateTime.date(2011, 5, 1).atNoon().asLong();
+        db.insertOrUpdate(t);
+        assertSpent(budgets, 0);
+        // splits
+        Transaction split = TransactionBuilder.withDb(db).account(account).dateTime(DateTime.date(2011, 4, 2).atNoon())
+                .amount(-300)
+                .withSplit(categoriesMap.get("A2"), -100)
+                .withSplit(categoriesMap.get("B"), -200)
+                .create();
+        assertSpent(budgets, -100);
+        // delete
+        db.deleteTransaction(split.id);
+        assertSpent(budgets, 0);
+    }
+
+    public void test_should_drop_spent_amounts_of_a_deleted_account() {
+        TransactionBuilder.withDb(db).account(account).dateTime(DateTime.date(2011, 4, 1).atNoon())
+                .amount(-100).category(categoriesMap.get("A")).create();
+        List<Budget> budgets = new ArrayList<Budget>();
+        budgets.add(budgetOne);
+        assertSpent(budgets, -100);
+        // when
+        db.deleteAccount(account.id);
+        // then
+        assertSpent(budgets, 0);
+    }
+
+    public void test_should_repair_drifted_budget_spent() {
+        TransactionBuilder.withDb(db).account(account).dateTime(DateTime.date(2011, 4, 1).atNoon())
+                .amount(-100).category(categoriesMap.get("A")).create();
+        List<Budget> budgets = new ArrayList<Budget>();
+        budgets.add(budgetOne);
+        assertSpent(budgets, -100);
+        assertEquals(0, db.budgetSpent().verify());
+
+        db.db().execSQL("update budget_spent set spent=-1");
+        assertEquals(1, db.budgetSpent().verify());
+        assertSpent(budgets, -100);
+    }
+
+    private void assertSpent(List<Budget> budgets, long expected) {
+        assertEquals(expected, db.fetchBudgetBalance(categories, projects, budgetOne));
+        assertEquals(expected, db.budgetSpent().getSpent(budgets, categories, projects)[0]);
+    }
+
+    private Budget budget(Currency currency, Account account, String category, String projects,
+                          boolean includeSubcategories, boolean expanded, boolean includeCredit, long startDate, long endDate) {
+        Budget b = new Budget();
+        b.currency = currency;
+        b.account = account;
+        b.amount = 1000;
+        b.categories = category != null ? String.valueOf(categoriesMap.get(category).id) : null;
+        b.projects = projects;
+        b.includeSubcategories = includeSubcategories;
+        b.expanded = expanded;
+        b.includeCredit = includeCredit;
+        b.startDate = startDate;
+        b.endDate = endDate;
+        db.em().saveOrUpdate(b);
+        return b;
+    }
+
     public void test_should_calculate_budget_total() {
 
     }
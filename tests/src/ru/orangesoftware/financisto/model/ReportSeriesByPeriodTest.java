@@ -0,0 +1,116 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.model;
+
+import ru.orangesoftware.financisto.db.AbstractDbTest;
+import ru.orangesoftware.financisto.db.DatabaseHelper.TransactionColumns;
+import ru.orangesoftware.financisto.test.AccountBuilder;
+import ru.orangesoftware.financisto.test.CategoryBuilder;
+import ru.orangesoftware.financisto.test.CurrencyBuilder;
+import ru.orangesoftware.financisto.test.DateTime;
+import ru.orangesoftware.financisto.test.TransactionBuilder;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.Map;
+
+public class ReportSeriesByPeriodTest extends AbstractDbTest {
+
+    Currency c1;
+    Account a1;
+    Account a2;
+    Map<String, Category> categories;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        c1 = CurrencyBuilder.withDb(db).name("USD").title("Dollar").symbol("$").create();
+        Currency c2 = CurrencyBuilder.withDb(db).name("EUR").title("Euro").symbol("€").create();
+        a1 = AccountBuilder.withDb(db).title("Cash").currency(c1).create();
+        a2 = AccountBuilder.withDb(db).title("Bank").currency(c2).create();
+        categories = CategoryBuilder.createDefaultHierarchy(db);
+    }
+
+    public void test_should_load_every_category_and_month_with_one_query() {
+        transaction("A1", -100, DateTime.date(2014, 1, 10).atNoon());
+        transaction("A1", -20, DateTime.date(2014, 1, 31).atDayEnd());
+        transaction("A1", -30, DateTime.date(2014, 2, 1).atMidnight());
+        transaction("A2", -40, DateTime.date(2014, 3, 15).atNoon());
+        transaction("B", 500, DateTime.date(2014, 2, 5).atNoon());
+        // outside of the period
+        transaction("A1", -1000, DateTime.date(2013, 12, 31).atDayEnd());
+        transaction("A1", -1000, DateTime.date(2014, 4, 1).atMidnight());
+        // another currency and a template
+        TransactionBuilder.withDb(db).account(a2).amount(-1000).category(categories.get("A1"))
+                .dateTime(DateTime.date(2014, 2, 10).atNoon()).create();
+        TransactionBuilder.withDb(db).account(a1).amount(-1000).category(categories.get("A1"))
+                .dateTime(DateTime.date(2014, 2, 10).atNoon()).makeTemplate().create();
+
+        ReportSeriesByPeriod series = load(3);
+
+        assertValues(series.getValues(categories.get("A1").id), -120, -30, 0);
+        assertValues(series.getValues(categories.get("A2").id), 0, 0, -40);
+        assertValues(series.getValues(categories.get("B").id), 0, 500, 0);
+        assertValues(series.getValues(categories.get("AA1").id), 0, 0, 0);
+        assertValues(series.getValues(new long[]{categories.get("A1").id, categories.get("A2").id, categories.get("A1").id}), -120, -30, -40);
+    }
+
+    public void test_should_calculate_statistics_from_the_series() {
+        transaction("A1", -120, DateTime.date(2014, 1, 10).atNoon());
+        transaction("A1", 30, DateTime.date(2014, 3, 10).atNoon());
+
+        ReportDataByPeriod data = new ReportDataByPeriod(getContext(), load(4), categories.get("A1").id);
+
+        List<PeriodValue> values = data.getPeriodValues();
+        assertEquals(4, values.size());
+        assertEquals(DateTime.date(2014, 1, 1).asLong(), values.get(0).getMonthTimeInMillis());
+        assertEquals(DateTime.date(2014, 4, 1).asLong(), values.get(3).getMonthTimeInMillis());
+        assertEquals(-90.0, data.getSum());
+        assertEquals(30.0, data.getMaxValue());
+        assertEquals(-120.0, data.getMinValue());
+        assertEquals(120.0, data.getAbsoluteMaxValue());
+        assertEquals(0.0, data.getAbsoluteMinValue());
+        assertEquals(30.0, data.getAbsoluteMinExcludingNulls());
+        assertEquals(-22.5, data.getMean());
+        assertEquals(-45.0, data.getMeanExcludingNulls());
+    }
+
+    public void test_should_return_zeros_when_there_are_no_accounts_in_the_currency() {
+        Currency c3 = CurrencyBuilder.withDb(db).name("RUB").title("Ruble").symbol("p.").create();
+        transaction("A1", -120, DateTime.date(2014, 1, 10).atNoon());
+
+        ReportSeriesByPeriod series = ReportSeriesByPeriod.load(db.db(), start(), 3, c3, TransactionColumns.category_id.name());
+        ReportDataByPeriod data = new ReportDataByPeriod(getContext(), series, categories.get("A1").id);
+
+        assertValues(series.getValues(categories.get("A1").id), 0, 0, 0);
+        assertEquals(0.0, data.getMaxValue());
+        assertEquals(0.0, data.getMaxExcludingNulls());
+    }
+
+    private void transaction(String category, long amount, DateTime dateTime) {
+        TransactionBuilder.withDb(db).account(a1).amount(amount).category(categories.get(category)).dateTime(dateTime).create();
+    }
+
+    private ReportSeriesByPeriod load(int periodLength) {
+        return ReportSeriesByPeriod.load(db.db(), start(), periodLength, c1, TransactionColumns.category_id.name());
+    }
+
+    private Calendar start() {
+        return new GregorianCalendar(2014, Calendar.JANUARY, 20);
+    }
+
+    private void assertValues(double[] actual, double... expected) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals("Month " + i, expected[i], actual[i]);
+        }
+    }
+
+}
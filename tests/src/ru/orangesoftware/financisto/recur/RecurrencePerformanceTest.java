@@ -13,6 +13,7 @@ import android.util.Log;
 import ru.orangesoftware.financisto.test.DateTime;
 
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
 
 import static ru.orangesoftware.financisto.test.DateTime.date;
@@ -34,6 +35,95 @@ public class RecurrencePerformanceTest extends AndroidTestCase {
         generateDates(dailyPattern, date(2016, 9, 2));
     }
 
+    public void test_should_skip_to_the_requested_date_whatever_the_start_date() throws Exception {
+        String[] patterns = {
+                "%s~DAILY:interval@1#~INDEFINETELY:null",
+                "%s~DAILY:interval@3#~INDEFINETELY:null",
+                "%s~WEEKLY:days@MON,FRI#interval@2#~INDEFINETELY:null",
+                "%s~MONTHLY:count@1#interval@1#monthly_pattern_params_0@LAST-WEEKDAY#monthly_pattern_0@SPECIFIC_DAY#~INDEFINETELY:null",
+                "%s~MONTHLY:count@1#interval@2#monthly_pattern_params_0@31#monthly_pattern_0@EVERY_NTH_DAY#~INDEFINETELY:null",
+                "%s~GEEKY:interval@FREQ=YEARLY;BYMONTH=3;BYMONTHDAY=15#~INDEFINETELY:null",
+                "%s~DAILY:interval@1#~STOPS_ON_DATE:date@20300101T000000#"
+        };
+        String[] starts = {"2011-07-31T21:40:00", "1991-01-31T08:15:00"};
+        DateTime now = date(2014, 2, 12).at(13, 0, 0, 0);
+        for (String pattern : patterns) {
+            for (String start : starts) {
+                Recurrence r = Recurrence.parse(String.format(pattern, start));
+                DateRecurrenceIterator ri = r.createIterator(now.asDate());
+                assertTrue(pattern, ri.getSkippedCount() <= 10);
+                assertEquals(pattern, linearDates(r, now.asDate(), date(2015, 2, 12).asDate()),
+                        r.generateDates(now.asDate(), date(2015, 2, 12).asDate()));
+            }
+        }
+    }
+
+    public void test_should_keep_the_count_of_occurrences() throws Exception {
+        Recurrence r = Recurrence.parse("2011-08-02T21:40:00~DAILY:interval@1#~EXACTLY_TIMES:count@10#");
+        List<Date> dates = r.generateDates(date(2011, 8, 8).asDate(), date(2011, 9, 1).asDate());
+        assertEquals(4, dates.size());
+    }
+
+    public void test_should_schedule_500_templates_from_cached_rules() throws Exception {
+        String[] patterns = {
+                "2011-%02d-%02dT21:40:00~DAILY:interval@1#~INDEFINETELY:null",
+                "2011-%02d-%02dT08:15:00~WEEKLY:days@MON,FRI#interval@2#~INDEFINETELY:null",
+                "2011-%02d-%02dT10:00:00~MONTHLY:count@1#interval@1#monthly_pattern_params_0@LAST-WEEKDAY#monthly_pattern_0@SPECIFIC_DAY#~INDEFINETELY:null",
+                "2011-%02d-%02dT12:00:00~GEEKY:interval@FREQ=YEARLY;BYMONTH=3;BYMONTHDAY=15#~INDEFINETELY:null",
+                "2011-%02d-%02dT18:30:00~DAILY:interval@3#~STOPS_ON_DATE:date@20300101T000000#"
+        };
+        String[] templates = new String[500];
+        for (int i = 0; i < templates.length; i++) {
+            templates[i] = String.format(patterns[i % patterns.length], 1 + i / 28 % 12, 1 + i % 28);
+        }
+        Date now = date(2014, 2, 12).at(13, 0, 0, 0).asDate();
+        RecurrenceRule.RULES.clear();
+        Recurrence.PARSED.clear();
+
+        long t0 = System.currentTimeMillis();
+        Date[] uncached = new Date[templates.length];
+        for (int i = 0; i < templates.length; i++) {
+            uncached[i] = Recurrence.parse(templates[i]).toRule().createIterator(now).next();
+        }
+        long t1 = System.currentTimeMillis();
+        for (int i = 0; i < templates.length; i++) {
+            assertEquals(templates[i], uncached[i], RecurrenceRule.of(templates[i]).createIterator(now).next());
+        }
+        long t2 = System.currentTimeMillis();
+        for (int i = 0; i < templates.length; i++) {
+            assertEquals(templates[i], uncached[i], RecurrenceRule.of(templates[i]).createIterator(now).next());
+        }
+        long t3 = System.currentTimeMillis();
+        Log.i("RecurrencePerformanceTest", "Scheduled 500 templates: uncached "+(t1-t0)+"ms, first pass "+(t2-t1)
+                +"ms, cached "+(t3-t2)+"ms, rules: "+RecurrenceRule.RULES);
+
+        assertEquals(templates.length, RecurrenceRule.RULES.getMisses());
+        assertEquals(templates.length, RecurrenceRule.RULES.getHits());
+        assertTrue(RecurrenceRule.RULES.size() <= RecurrenceRule.RULES.getMaxSize());
+    }
+
+    public void test_should_not_share_parsed_recurrence_between_callers() throws Exception {
+        String pattern = "2011-08-02T21:40:00~DAILY:interval@1#~INDEFINETELY:null";
+        Recurrence r1 = Recurrence.parse(pattern);
+        r1.updateStartDate(2012, 0, 1);
+        r1.pattern = RecurrencePattern.noRecur();
+        Recurrence r2 = Recurrence.parse(pattern);
+        assertEquals(pattern, r2.stateToString());
+        assertEquals(date(2011, 8, 10).at(21, 40, 0, 0).asDate(),
+                RecurrenceRule.of(pattern).createIterator(date(2011, 8, 10).asDate()).next());
+    }
+
+    private List<Date> linearDates(Recurrence r, Date start, Date end) {
+        List<Date> dates = r.generateDates(r.getStartDate().getTime(), end);
+        Iterator<Date> i = dates.iterator();
+        while (i.hasNext()) {
+            if (i.next().before(start)) {
+                i.remove();
+            }
+        }
+        return dates;
+    }
+
     private List<Date> generateDates(String pattern, DateTime date) {
         long start = date.atMidnight().asLong();
         long end = date.atDayEnd().asLong();
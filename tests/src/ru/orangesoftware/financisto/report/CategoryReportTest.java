@@ -3,6 +3,7 @@ package ru.orangesoftware.financisto.report;
 import ru.orangesoftware.financisto.graph.GraphUnit;
 import ru.orangesoftware.financisto.test.DateTime;
 import ru.orangesoftware.financisto.test.TransactionBuilder;
+import ru.orangesoftware.financisto.utils.CancellationSignal;
 
 import java.util.List;
 
@@ -36,6 +37,18 @@ public class CategoryReportTest extends AbstractReportTest {
         assertIncome(units.get(1), 500);
     }
 
+    public void test_should_stop_reading_rows_once_cancelled() {
+        TransactionBuilder.withDb(db).account(a1).category(categories.get("A")).dateTime(DateTime.today()).amount(-100).create();
+        CancellationSignal signal = new CancellationSignal();
+        signal.cancel();
+        try {
+            report.getReport(db, filter, signal);
+            fail("Cancelled report should not be calculated");
+        } catch (CancellationSignal.CanceledException e) {
+            // expected
+        }
+    }
+
     @Override
     protected Report createReport() {
         return new CategoryReport(getContext(), c1);
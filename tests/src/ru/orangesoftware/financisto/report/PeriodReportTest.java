@@ -1,6 +1,7 @@
 package ru.orangesoftware.financisto.report;
 
 import android.preference.PreferenceManager;
+import ru.orangesoftware.financisto.datetime.PeriodType;
 import ru.orangesoftware.financisto.graph.GraphUnit;
 import ru.orangesoftware.financisto.test.DateTime;
 import ru.orangesoftware.financisto.test.RateBuilder;
@@ -141,6 +142,27 @@ public class PeriodReportTest extends AbstractReportTest {
         assertExpense(units.get(0), 0);
     }
 
+    public void test_should_add_every_transaction_into_each_period_it_falls_into() {
+        //given
+        givenTransfersAreExcludedFromReports();
+        TransactionBuilder.withDb(db).account(a1).dateTime(DateTime.today()).amount(-1000).create();
+        TransactionBuilder.withDb(db).account(a1).dateTime(DateTime.today()).amount(300).create();
+        TransactionBuilder.withDb(db).account(a1).dateTime(DateTime.fromTimestamp(DateTime.today().asLong() - 100L*24*60*60*1000)).amount(-5000).create();
+        //when
+        report = createReport();
+        List<GraphUnit> units = assertReportReturnsData();
+        //then
+        assertEquals(5, units.size());
+        PeriodType[] expected = {PeriodType.TODAY, PeriodType.THIS_WEEK, PeriodType.THIS_AND_LAST_WEEK, PeriodType.THIS_MONTH, PeriodType.THIS_AND_LAST_MONTH};
+        for (int i = 0; i < expected.length; i++) {
+            GraphUnit u = units.get(i);
+            assertEquals(expected[i].ordinal(), u.id);
+            assertName(u, getContext().getString(expected[i].titleId));
+            assertIncome(u, 300);
+            assertExpense(u, -1000);
+        }
+    }
+
     private void givenTransfersAreExcludedFromReports() {
         assertTrue(PreferenceManager.getDefaultSharedPreferences(getContext()).edit().putBoolean("include_transfers_into_reports", false).commit());
     }
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.service;
+
+import ru.orangesoftware.financisto.db.AbstractDbTest;
+import ru.orangesoftware.financisto.model.Account;
+import ru.orangesoftware.financisto.model.Currency;
+import ru.orangesoftware.financisto.model.Transaction;
+import ru.orangesoftware.financisto.model.TransactionInfo;
+import ru.orangesoftware.financisto.test.AccountBuilder;
+import ru.orangesoftware.financisto.test.CurrencyBuilder;
+import ru.orangesoftware.financisto.test.TransactionBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static ru.orangesoftware.financisto.test.DateTime.date;
+
+public class ScheduledAlarmTest extends AbstractDbTest {
+
+    Account a1;
+    FakeClock clock = new FakeClock();
+    FakeAlarmSink sink = new FakeAlarmSink();
+    RecurrenceScheduler scheduler;
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        Currency c1 = CurrencyBuilder.withDb(db).name("USD").title("Dollar").symbol("$").create();
+        a1 = AccountBuilder.createDefault(db, c1);
+        scheduler = new RecurrenceScheduler(db, clock);
+    }
+
+    public void test_should_arm_only_the_earliest_alarm() {
+        createSchedules();
+        clock.now = date(2011, 8, 8).at(23, 20, 0, 0).asLong();
+
+        scheduler.scheduleAll(sink, clock.now);
+
+        assertEquals(1, sink.alarms.size());
+        assertEquals(date(2011, 8, 9).at(10, 0, 0, 0).asLong(), sink.next());
+    }
+
+    public void test_should_fire_all_due_schedules_in_one_wake_up() {
+        Transaction[] t = createSchedules();
+        clock.now = date(2011, 8, 8).at(23, 20, 0, 0).asLong();
+        scheduler.scheduleAll(sink, clock.now);
+
+        clock.now = date(2011, 8, 9).at(13, 0, 0, 0).asLong();
+        List<TransactionInfo> fired = scheduler.scheduleDue(sink);
+
+        assertEquals(2, fired.size());
+        assertEquals(t[0].fromAmount, fired.get(0).fromAmount);
+        assertEquals(t[1].fromAmount, fired.get(1).fromAmount);
+        for (TransactionInfo f : fired) {
+            assertEquals(0, em.getTransactionInfo(f.id).isTemplate);
+        }
+        assertEquals(2, sink.alarms.size());
+        assertEquals(date(2011, 8, 9).at(23, 0, 0, 0).asLong(), sink.next());
+
+        clock.now = date(2011, 8, 9).at(23, 0, 0, 0).asLong();
+        fired = scheduler.scheduleDue(sink);
+
+        assertEquals(1, fired.size());
+        assertEquals(t[2].fromAmount, fired.get(0).fromAmount);
+        assertEquals(date(2011, 8, 10).at(10, 0, 0, 0).asLong(), sink.next());
+    }
+
+    public void test_should_not_fire_anything_on_early_wake_up() {
+        createSchedules();
+        clock.now = date(2011, 8, 8).at(23, 20, 0, 0).asLong();
+        scheduler.scheduleAll(sink, clock.now);
+
+        clock.now = date(2011, 8, 9).at(9, 0, 0, 0).asLong();
+
+        assertTrue(scheduler.scheduleDue(sink).isEmpty());
+        assertEquals(date(2011, 8, 9).at(10, 0, 0, 0).asLong(), sink.next());
+    }
+
+    public void test_should_cancel_alarm_when_nothing_is_scheduled() {
+        Transaction t = TransactionBuilder.withDb(db).scheduleOnce(date(2011, 8, 9).at(12, 0, 0, 0))
+                .account(a1).amount(-20).create();
+        clock.now = date(2011, 8, 8).at(23, 20, 0, 0).asLong();
+        scheduler.scheduleAll(sink, clock.now);
+        assertEquals(date(2011, 8, 9).at(12, 0, 0, 0).asLong(), sink.next());
+
+        db.deleteTransaction(t.id);
+        clock.now = date(2011, 8, 9).at(12, 0, 0, 0).asLong();
+
+        assertTrue(scheduler.scheduleDue(sink).isEmpty());
+        assertTrue(sink.cancelled);
+    }
+
+    private Transaction[] createSchedules() {
+        Transaction t1 = TransactionBuilder.withDb(db).scheduleRecur("2011-08-02T10:00:00~DAILY:interval@1#~INDEFINETELY:null")
+                .account(a1).amount(-10).create();
+        Transaction t2 = TransactionBuilder.withDb(db).scheduleOnce(date(2011, 8, 9).at(12, 0, 0, 0))
+                .account(a1).amount(-20).create();
+        Transaction t3 = TransactionBuilder.withDb(db).scheduleRecur("2011-08-02T23:00:00~WEEKLY:days@TUE#interval@1#~INDEFINETELY:null")
+                .account(a1).amount(-30).create();
+        return new Transaction[]{t1, t2, t3};
+    }
+
+    private static class FakeClock implements Clock {
+
+        long now;
+
+        @Override
+        public long now() {
+            return now;
+        }
+
+    }
+
+    private static class FakeAlarmSink implements AlarmSink {
+
+        final List<Long> alarms = new ArrayList<Long>();
+        boolean cancelled;
+
+        @Override
+        public void set(long triggerAtTime) {
+            alarms.add(triggerAtTime);
+            cancelled = false;
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+        }
+
+        long next() {
+            assertFalse(cancelled);
+            return alarms.get(alarms.size() - 1);
+        }
+
+    }
+
+}
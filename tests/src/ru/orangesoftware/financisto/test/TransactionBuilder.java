@@ -61,11 +61,21 @@ public class TransactionBuilder {
         return this;
     }
 
+    public TransactionBuilder project(Project project) {
+        t.projectId = project.id;
+        return this;
+    }
+
     public TransactionBuilder note(String note) {
         t.note = note;
         return this;
     }
 
+    public TransactionBuilder picture(String fileName) {
+        t.attachedPicture = fileName;
+        return this;
+    }
+
     public TransactionBuilder withStatus(TransactionStatus status) {
         t.status = status;
         return this;
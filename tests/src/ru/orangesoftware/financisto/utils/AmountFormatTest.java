@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.utils;
+
+import android.test.AndroidTestCase;
+import android.util.Log;
+import ru.orangesoftware.financisto.model.Currency;
+import ru.orangesoftware.financisto.model.SymbolFormat;
+
+import java.math.BigDecimal;
+import java.util.Locale;
+
+public class AmountFormatTest extends AndroidTestCase {
+
+    private static final String TAG = "AmountFormatTest";
+
+    private static final long[] AMOUNTS = {0, 1, -1, 5, -5, 15, 25, 49, 50, 51, 99, 100, -100, 149, 150, 250, 999, 1000,
+            12345, -12345, 99999, 100000, 123456789, -123456789, 99999999995L, Long.MAX_VALUE, Long.MIN_VALUE + 1};
+    private static final String[] SEPARATORS = {null, "'.'", "','", "''", "' '"};
+
+    private Locale defaultLocale;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        defaultLocale = Locale.getDefault();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        Locale.setDefault(defaultLocale);
+        super.tearDown();
+    }
+
+    public void test_should_format_the_same_as_decimal_format() {
+        Locale[] locales = {Locale.US, Locale.GERMANY, Locale.FRANCE, new Locale("ru", "RU")};
+        for (Locale locale : locales) {
+            Locale.setDefault(locale);
+            for (int decimals = 0; decimals <= 4; decimals++) {
+                for (String decimalSeparator : SEPARATORS) {
+                    for (String groupSeparator : SEPARATORS) {
+                        Currency c = createCurrency(decimals, decimalSeparator, groupSeparator);
+                        for (SymbolFormat symbolFormat : SymbolFormat.values()) {
+                            c.symbolFormat = symbolFormat;
+                            for (long amount : AMOUNTS) {
+                                assertSameFormat(c, amount, false);
+                                assertSameFormat(c, amount, true);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public void test_should_place_symbol_next_to_its_own_amount() {
+        Currency c = createCurrency(2, "'.'", "','");
+        c.symbolFormat = SymbolFormat.L;
+        StringBuilder sb = new StringBuilder();
+        Utils.amountToString(sb, c, 100, true).append(" (");
+        Utils.amountToString(sb, c, -200, true).append(")");
+        assertEquals("+$1.00 ($-2.00)", sb.toString());
+        c.symbolFormat = SymbolFormat.LS;
+        sb.setLength(0);
+        Utils.amountToString(sb.append("x"), c, -200, false);
+        assertEquals("x-$ 2.00", sb.toString());
+    }
+
+    public void test_should_format_without_currency() {
+        assertEquals("1,000.50", Utils.amountToString(null, 100050));
+    }
+
+    public void test_should_benchmark_formatting() {
+        Currency c = createCurrency(2, "'.'", "','");
+        StringBuilder sb = new StringBuilder();
+        int count = 100000;
+        long t0 = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            sb.setLength(0);
+            Utils.amountToString(sb, c, new BigDecimal(i * 1234L - 5000000), true);
+        }
+        long t1 = System.currentTimeMillis();
+        for (int i = 0; i < count; i++) {
+            sb.setLength(0);
+            Utils.amountToString(sb, c, i * 1234L - 5000000, true);
+        }
+        long t2 = System.currentTimeMillis();
+        Log.d(TAG, "Formatted " + count + " amounts: DecimalFormat " + (t1 - t0) + "ms, AmountFormat " + (t2 - t1) + "ms");
+    }
+
+    private void assertSameFormat(Currency c, long amount, boolean addPlus) {
+        String expected = Utils.amountToString(new StringBuilder(), c, new BigDecimal(amount), addPlus).toString();
+        String actual = Utils.amountToString(c, amount, addPlus);
+        assertEquals(Locale.getDefault() + " " + c.decimals + " [" + c.decimalSeparator + "][" + c.groupSeparator + "] "
+                + c.symbolFormat + " " + amount, expected, actual);
+    }
+
+    private Currency createCurrency(int decimals, String decimalSeparator, String groupSeparator) {
+        Currency c = new Currency();
+        c.decimals = decimals;
+        c.decimalSeparator = decimalSeparator;
+        c.groupSeparator = groupSeparator;
+        c.symbol = "$";
+        return c;
+    }
+
+}
@@ -0,0 +1,202 @@
+/*
+ * Copyright (c) 2014 Denis Solonenko.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v2.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/old-licenses/gpl-2.0.html
+ */
+
+package ru.orangesoftware.financisto.utils;
+
+import android.test.AndroidTestCase;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ComputationExecutorTest extends AndroidTestCase {
+
+    ExecutorService workers;
+    ComputationExecutor executor;
+    List<String> results = new CopyOnWriteArrayList<String>();
+
+    @Override
+    public void setUp() throws Exception {
+        super.setUp();
+        workers = Executors.newFixedThreadPool(2);
+        executor = new ComputationExecutor(workers, new Executor() {
+            @Override
+            public void execute(Runnable runnable) {
+                runnable.run();
+            }
+        });
+    }
+
+    @Override
+    public void tearDown() throws Exception {
+        workers.shutdownNow();
+        super.tearDown();
+    }
+
+    public void test_should_cancel_stale_computation_when_filter_changes() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        BlockingComputation stale = new BlockingComputation("stale", started);
+        executor.submit("blotter", "filter1", 1, stale, new Collector("1:"));
+        started.await(1, TimeUnit.SECONDS);
+
+        executor.submit("blotter", "filter2", 1, new Value("fresh"), new Collector("2:"));
+        awaitWorkers();
+
+        assertTrue(stale.wasCanceled);
+        assertEquals("[2:fresh]", results.toString());
+    }
+
+    public void test_should_join_duplicate_request() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger count = new AtomicInteger();
+        Value v = new Value("total", count, started, release);
+        executor.submit("blotter", "filter1", 1, v, new Collector("1:"));
+        started.await(1, TimeUnit.SECONDS);
+        executor.submit("blotter", "filter1", 1, v, new Collector("2:"));
+        release.countDown();
+        awaitWorkers();
+
+        assertEquals(1, count.get());
+        assertEquals("[2:total]", results.toString());
+    }
+
+    public void test_should_reuse_result_until_data_changes() throws Exception {
+        AtomicInteger count = new AtomicInteger();
+        executor.submit("blotter", "filter1", 1, new Value("total", count), new Collector("1:"));
+        awaitWorkers();
+        executor.submit("blotter", "filter1", 1, new Value("total", count), new Collector("2:"));
+        assertEquals(1, count.get());
+
+        executor.submit("blotter", "filter1", 2, new Value("new total", count), new Collector("3:"));
+        awaitWorkers();
+        assertEquals(2, count.get());
+
+        executor.submit("other", "filter1", 2, new Value("other total", count), new Collector("4:"));
+        awaitWorkers();
+        assertEquals(3, count.get());
+        assertEquals("[1:total, 2:total, 3:new total, 4:other total]", results.toString());
+    }
+
+    public void test_should_not_deliver_cancelled_result() throws Exception {
+        CountDownLatch started = new CountDownLatch(1);
+        BlockingComputation c = new BlockingComputation("total", started);
+        executor.submit("blotter", "filter1", 1, c, new Collector("1:"));
+        started.await(1, TimeUnit.SECONDS);
+        executor.cancel("blotter");
+        awaitWorkers();
+
+        assertTrue(c.wasCanceled);
+        assertTrue(results.isEmpty());
+    }
+
+    private void awaitWorkers() throws Exception {
+        // the pool has two threads, so both barriers run after everything queued before them
+        final CountDownLatch done = new CountDownLatch(2);
+        final CountDownLatch barrier = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            workers.submit(new Runnable() {
+                @Override
+                public void run() {
+                    barrier.countDown();
+                    try {
+                        barrier.await(1, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                }
+            });
+        }
+        assertTrue(done.await(2, TimeUnit.SECONDS));
+    }
+
+    private class Collector implements ComputationExecutor.Callback<String> {
+
+        private final String prefix;
+
+        private Collector(String prefix) {
+            this.prefix = prefix;
+        }
+
+        @Override
+        public void onResult(String result) {
+            results.add(prefix + result);
+        }
+    }
+
+    private static class Value implements ComputationExecutor.Computation<String> {
+
+        private final String value;
+        private final AtomicInteger count;
+        private final CountDownLatch started;
+        private final CountDownLatch release;
+
+        private Value(String value) {
+            this(value, new AtomicInteger());
+        }
+
+        private Value(String value, AtomicInteger count) {
+            this(value, count, new CountDownLatch(1), new CountDownLatch(0));
+        }
+
+        private Value(String value, AtomicInteger count, CountDownLatch started, CountDownLatch release) {
+            this.value = value;
+            this.count = count;
+            this.started = started;
+            this.release = release;
+        }
+
+        @Override
+        public String compute(CancellationSignal signal) {
+            count.incrementAndGet();
+            started.countDown();
+            try {
+                release.await(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return value;
+        }
+    }
+
+    private static class BlockingComputation implements ComputationExecutor.Computation<String> {
+
+        private final String value;
+        private final CountDownLatch started;
+        private volatile boolean wasCanceled;
+
+        private BlockingComputation(String value, CountDownLatch started) {
+            this.value = value;
+            this.started = started;
+        }
+
+        @Override
+        public String compute(CancellationSignal signal) {
+            started.countDown();
+            long deadline = System.currentTimeMillis() + 1000;
+            try {
+                // like a loop over a cursor
+                while (System.currentTimeMillis() < deadline) {
+                    signal.throwIfCanceled();
+                    Thread.yield();
+                }
+            } catch (CancellationSignal.CanceledException e) {
+                wasCanceled = true;
+                throw e;
+            }
+            return value;
+        }
+    }
+
+}